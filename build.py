@@ -213,6 +213,7 @@ CTX.INPUT['executors'] = """
  deleteexecutor.cpp
  distinctexecutor.cpp
  executorutil.cpp
+ hashjoinexecutor.cpp
  indexscanexecutor.cpp
  insertexecutor.cpp
  limitexecutor.cpp
@@ -230,6 +231,7 @@ CTX.INPUT['executors'] = """
 
 CTX.INPUT['expressions'] = """
  abstractexpression.cpp
+ batchpredicate.cpp
  expressionutil.cpp
  tupleaddressexpression.cpp
 """
@@ -242,6 +244,7 @@ CTX.INPUT['plannodes'] = """
  aggregatenode.cpp
  deletenode.cpp
  distinctnode.cpp
+ hashjoinnode.cpp
  indexscannode.cpp
  insertnode.cpp
  limitnode.cpp
@@ -275,6 +278,7 @@ CTX.INPUT['storage'] = """
  MaterializedViewMetadata.cpp
  persistenttable.cpp
  PersistentTableStats.cpp
+ PersistentTableUndoBatchAction.cpp
  PersistentTableUndoDeleteAction.cpp
  PersistentTableUndoInsertAction.cpp
  PersistentTableUndoUpdateAction.cpp
@@ -333,20 +337,32 @@ CTX.TESTS['common'] = """
  nvalue_test
  tupleschema_test
  tabletuple_test
+ hashermapping_test
 """
 
 CTX.TESTS['execution'] = """
  engine_test
+ batchdependency_test
+"""
+
+CTX.TESTS['executors'] = """
+ grouphashtable_test
+ hashjoin_test
+ orderby_test
+ pipeline_test
 """
 
 CTX.TESTS['expressions'] = """
+ batchpredicate_test
  expression_test
 """
 
 CTX.TESTS['indexes'] = """
+ bplustree_index_test
  index_key_test
  index_scripted_test
  index_test
+ openhash_index_test
 """
 
 CTX.TESTS['storage'] = """
@@ -354,6 +370,7 @@ CTX.TESTS['storage'] = """
  constraint_test
  filter_test
  persistent_table_log_test
+ readwritetracker_test
  serialize_test
  StreamedTable_test
  table_and_indexes_test
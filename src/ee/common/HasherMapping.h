@@ -0,0 +1,240 @@
+/* Copyright (C) 2012 by H-Store Project
+ * Brown University
+ * Massachusetts Institute of Technology
+ * Yale University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+#ifndef HSTOREHASHERMAPPING_H
+#define HSTOREHASHERMAPPING_H
+
+#include "common/FatalException.hpp"
+#include "common/NValue.hpp"
+#include "common/TheHashinator.h"
+#include "common/ValuePeeker.hpp"
+#include "common/serializeio.h"
+#include "common/types.h"
+
+#include <algorithm>
+#include <map>
+#include <string>
+#include <vector>
+
+namespace voltdb {
+
+/**
+ * A copy of the frontend hasher's mapping from partitioning column values
+ * to partitions. The INSERT and UPDATE executors use this to check whether
+ * a tuple belongs to the local partition, so it has to compute the same
+ * partition as the corresponding class in edu.brown.hashing for every value.
+ * Until the frontend sends us a mapping, we just use TheHashinator.
+ */
+class HasherMapping {
+  public:
+    HasherMapping() : m_type(HASHER_TYPE_DEFAULT), m_partitionCount(0) {}
+
+    /**
+     * Replace this mapping with the one written by the frontend's
+     * AbstractHasher.serializeForExecutionEngine()
+     */
+    void deserialize(SerializeInput &in) {
+        HasherType type = static_cast<HasherType>(in.readByte());
+        int32_t partitionCount = in.readInt();
+        std::map<int32_t, int32_t> hashes;
+        std::map<std::string, Ranges> ranges;
+        std::vector<int64_t> points;
+        std::vector<int32_t> owners;
+
+        switch (type) {
+            case HASHER_TYPE_DEFAULT:
+                break;
+            case HASHER_TYPE_MAPPED: {
+                int32_t count = in.readInt();
+                for (int32_t ii = 0; ii < count; ii++) {
+                    int32_t hash = in.readInt();
+                    hashes[hash] = in.readInt();
+                }
+                break;
+            }
+            case HASHER_TYPE_RANGE: {
+                int32_t numTables = in.readInt();
+                for (int32_t ii = 0; ii < numTables; ii++) {
+                    std::string tableName = in.readTextString();
+                    Ranges &r = ranges[tableName];
+                    int32_t numSplits = in.readInt();
+                    r.splits.resize(numSplits);
+                    r.partitions.resize(numSplits + 1);
+                    for (int32_t jj = 0; jj < numSplits; jj++) {
+                        r.splits[jj] = in.readLong();
+                    }
+                    for (int32_t jj = 0; jj <= numSplits; jj++) {
+                        r.partitions[jj] = in.readInt();
+                    }
+                }
+                break;
+            }
+            case HASHER_TYPE_CONSISTENT: {
+                int32_t numPoints = in.readInt();
+                if (numPoints <= 0) {
+                    throwFatalException("Invalid number of points %d for consistent hasher", numPoints);
+                }
+                points.resize(numPoints);
+                owners.resize(numPoints);
+                for (int32_t ii = 0; ii < numPoints; ii++) {
+                    points[ii] = in.readLong();
+                }
+                for (int32_t ii = 0; ii < numPoints; ii++) {
+                    owners[ii] = in.readInt();
+                }
+                break;
+            }
+            default:
+                throwFatalException("Invalid hasher type %d", static_cast<int>(type));
+        }
+
+        // Only swap in the new mapping once we have read all of it
+        m_type = type;
+        m_partitionCount = partitionCount;
+        m_hashes.swap(hashes);
+        m_ranges.swap(ranges);
+        m_points.swap(points);
+        m_owners.swap(owners);
+    }
+
+    /**
+     * Return the partition for the given value of the partitioning
+     * column of the given table.
+     * @param defaultPartitionCount The number of partitions to use if the
+     * frontend has not sent us a mapping yet
+     */
+    int32_t hashinate(const NValue &value, const std::string &tableName,
+                      int32_t defaultPartitionCount) const {
+        int32_t partitionCount = (m_partitionCount > 0 ? m_partitionCount : defaultPartitionCount);
+        switch (m_type) {
+            case HASHER_TYPE_MAPPED: {
+                // Unmapped hashes stay where TheHashinator put them
+                int32_t hash = TheHashinator::hashinate(value, partitionCount);
+                std::map<int32_t, int32_t>::const_iterator it = m_hashes.find(hash);
+                return (it != m_hashes.end() ? it->second : hash);
+            }
+            case HASHER_TYPE_RANGE: {
+                // RangeHasher only uses ranges for non-null integral values
+                if (isIntegral(value) && !value.isNull()) {
+                    std::map<std::string, Ranges>::const_iterator it = m_ranges.find(tableName);
+                    if (it != m_ranges.end()) {
+                        const Ranges &r = it->second;
+                        int64_t v = ValuePeeker::peekAsRawInt64(value);
+                        size_t idx = std::upper_bound(r.splits.begin(), r.splits.end(), v) - r.splits.begin();
+                        return r.partitions[idx];
+                    }
+                }
+                return TheHashinator::hashinate(value, partitionCount);
+            }
+            case HASHER_TYPE_CONSISTENT: {
+                int64_t hash = consistentHash(value);
+                // Owner of the first point at or after the hash, wrapping around
+                size_t idx = std::lower_bound(m_points.begin(), m_points.end(), hash) - m_points.begin();
+                if (idx == m_points.size()) idx = 0;
+                return m_owners[idx];
+            }
+            default:
+                return TheHashinator::hashinate(value, partitionCount);
+        }
+    }
+
+    HasherType getType() const {
+        return m_type;
+    }
+
+  private:
+    struct Ranges {
+        /** Sorted split points. Range i covers [splits[i-1], splits[i]) */
+        std::vector<int64_t> splits;
+        /** One more than the number of splits */
+        std::vector<int32_t> partitions;
+    };
+
+    static bool isIntegral(const NValue &value) {
+        switch (ValuePeeker::peekValueType(value)) {
+            case VALUE_TYPE_TINYINT:
+            case VALUE_TYPE_SMALLINT:
+            case VALUE_TYPE_INTEGER:
+            case VALUE_TYPE_BIGINT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Must match ConsistentHasher.hashValue()
+     */
+    static int64_t consistentHash(const NValue &value) {
+        if (value.isNull()) {
+            return mix(0);
+        }
+        switch (ValuePeeker::peekValueType(value)) {
+            case VALUE_TYPE_TINYINT:
+            case VALUE_TYPE_SMALLINT:
+            case VALUE_TYPE_INTEGER:
+            case VALUE_TYPE_BIGINT:
+                return mix(ValuePeeker::peekAsRawInt64(value));
+            case VALUE_TYPE_VARCHAR: {
+                // 64-bit FNV-1a over the UTF-8 bytes
+                const char *bytes = reinterpret_cast<const char*>(ValuePeeker::peekObjectValue(value));
+                int32_t length = ValuePeeker::peekObjectLength(value);
+                uint64_t h = 0xcbf29ce484222325ULL;
+                for (int32_t ii = 0; ii < length; ii++) {
+                    h ^= static_cast<uint8_t>(bytes[ii]);
+                    h *= 0x100000001b3ULL;
+                }
+                return mix(static_cast<int64_t>(h));
+            }
+            default:
+                throwFatalException("Attempted to hashinate an unsupported type: %s",
+                                    getTypeName(ValuePeeker::peekValueType(value)).c_str());
+        }
+    }
+
+    /**
+     * MurmurHash3's 64-bit finalizer
+     */
+    static int64_t mix(int64_t value) {
+        uint64_t h = static_cast<uint64_t>(value);
+        h ^= (h >> 33);
+        h *= 0xff51afd7ed558ccdULL;
+        h ^= (h >> 33);
+        h *= 0xc4ceb9fe1a85ec53ULL;
+        h ^= (h >> 33);
+        return static_cast<int64_t>(h);
+    }
+
+    HasherType m_type;
+    int32_t m_partitionCount;
+    std::map<int32_t, int32_t> m_hashes;
+    std::map<std::string, Ranges> m_ranges;
+    std::vector<int64_t> m_points;
+    std::vector<int32_t> m_owners;
+};
+
+} // namespace voltdb
+
+#endif // HSTOREHASHERMAPPING_H
@@ -78,6 +78,17 @@ public:
         return m_dataPool;
     }
 
+    /*
+     * Return the most recently registered UndoAction so that a caller
+     * can keep appending to it, or NULL if there is none.
+     */
+    inline UndoAction* getLastUndoAction() {
+        if (m_undoActions.empty()) {
+            return NULL;
+        }
+        return m_undoActions.back();
+    }
+
     virtual bool isDummy() {return false;}
 
 private:
@@ -162,6 +162,7 @@ enum PlanNodeType {
     //
     PLAN_NODE_TYPE_NESTLOOP         = 20,
     PLAN_NODE_TYPE_NESTLOOPINDEX    = 21,
+    PLAN_NODE_TYPE_HASHJOIN         = 22,
 
     //
     // Operator Nodes
@@ -282,6 +283,7 @@ enum TableIndexType {
     BALANCED_TREE_INDEX     = 1,
     HASH_TABLE_INDEX        = 2,
     ARRAY_INDEX             = 3,
+    BTREE_INDEX             = 4,
 };
 
 // ------------------------------------------------------------------
@@ -343,6 +345,18 @@ enum RecoveryMsgType {
     RECOVERY_MSG_TYPE_COMPLETE = 4
 };
 
+// ------------------------------------------------------------------
+// Hasher types
+// This must match org.voltdb.types.HasherType
+// ------------------------------------------------------------------
+enum HasherType {
+    HASHER_TYPE_INVALID     = 0,
+    HASHER_TYPE_DEFAULT     = 1,
+    HASHER_TYPE_MAPPED      = 2,
+    HASHER_TYPE_RANGE       = 3,
+    HASHER_TYPE_CONSISTENT  = 4
+};
+
 // ------------------------------------------------------------------
 // Utility functions.
 // -----------------------------------------------------------------
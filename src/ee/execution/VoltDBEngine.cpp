@@ -113,6 +113,7 @@ VoltDBEngine::VoltDBEngine(Topend *topend, LogProxy *logProxy)
       m_currentOutputDepId(-1),
       m_currentInputDepId(-1),
       m_isELEnabled(false),
+      m_isPipeliningEnabled(true),
       m_stringPool(16777216, 2),
       m_numResultDependencies(0),
       m_logManager(logProxy),
@@ -397,6 +398,8 @@ int VoltDBEngine::executeQuery(int64_t planfragmentId,
         uint64_t changedCount = htonll(m_tuplesModified);
         memcpy(m_templateSingleLongTable + m_templateSingleLongTableSize - 8, &changedCount, sizeof(changedCount));
         m_resultOutput.writeBytes(m_templateSingleLongTable, m_templateSingleLongTableSize);
+        // skip over the dependency id at the front of the template
+        addBatchDependency(m_resultOutput.position() - m_templateSingleLongTableSize + sizeof(int32_t));
         m_numResultDependencies++;
     }
 
@@ -498,16 +501,53 @@ int VoltDBEngine::executePlanFragment(string fragmentString,
 bool VoltDBEngine::send(Table* dependency) {
     VOLT_DEBUG("Sending Dependency '%d' from C++", m_currentOutputDepId);
     m_resultOutput.writeInt(m_currentOutputDepId);
+    size_t tableStart = m_resultOutput.position();
     if (!dependency->serializeTo(m_resultOutput))
         return false;
+    addBatchDependency(tableStart);
     m_numResultDependencies++;
     return true;
 }
 
 int VoltDBEngine::loadNextDependency(Table* destination) {
+    // Dependencies produced earlier in this batch are already sitting in the
+    // result buffer, so there is no need to go back through the Topend for them
+    bool inBatch = false;
+    for (size_t i = 0, cnt = m_batchDependencies.size(); i < cnt; i++) {
+        BatchDependency &dep = m_batchDependencies[i];
+        if (dep.depId != m_currentInputDepId) continue;
+        inBatch = true;
+        if (dep.loaded) continue;
+        VOLT_DEBUG("Loading batch dependency %d from the result buffer", dep.depId);
+        dep.loaded = true;
+        ReferenceSerializeInput serialize_in(m_reusedResultBuffer + dep.offset, dep.length);
+        destination->loadTuplesFrom(true, serialize_in, &m_stringPool);
+        return 1;
+    } // FOR
+    // The receiver keeps asking until we say that there is nothing left. The
+    // frontend was never given a dependency that we made ourselves, so we
+    // can't ask it for the rest.
+    if (inBatch) {
+        return 0;
+    }
     return m_topend->loadNextDependency(m_currentInputDepId, &m_stringPool, destination);
 }
 
+/*
+ * Remember where the serialized table that starts at the given position in
+ * the result buffer is. The table is prefixed with its (non-inclusive) length,
+ * which is what we skip over here because Table::loadTuplesFrom() expects
+ * a buffer that starts at the header.
+ */
+void VoltDBEngine::addBatchDependency(size_t tableStart) {
+    BatchDependency dep;
+    dep.depId = m_currentOutputDepId;
+    dep.offset = tableStart + sizeof(int32_t);
+    dep.length = m_resultOutput.position() - dep.offset;
+    dep.loaded = false;
+    m_batchDependencies.push_back(dep);
+}
+
 // -------------------------------------------------
 // Catalog Functions
 // -------------------------------------------------
@@ -873,6 +913,27 @@ bool VoltDBEngine::initPlanFragment(const int64_t fragId,
          ctr < cnt; ctr++) {
         ev->list.push_back(pnf->getExecuteList()[ctr]->getExecutor());
     }
+
+    // OPTIMIZATION: PIPELINING
+    // If a PlanNode's output is only read by its parent and the parent
+    // can process one tuple at a time, then the child's executor will push
+    // its tuples directly into the parent instead of materializing them
+    // in a temp table first.
+    for (int ctr = 0, cnt = (int)pnf->getExecuteList().size();
+         m_isPipeliningEnabled && ctr < cnt; ctr++) {
+        AbstractPlanNode *node = pnf->getExecuteList()[ctr];
+        if (node->getParents().size() != 1) continue;
+        AbstractPlanNode *parent = node->getParents()[0];
+        if (parent->getChildren().size() != 1) continue;
+
+        AbstractExecutor *producer = node->getExecutor();
+        AbstractExecutor *consumer = parent->getExecutor();
+        if (consumer != NULL &&
+            producer->supportsPipelinedOutput() &&
+            consumer->supportsPipelinedInput()) {
+            producer->setPipelineConsumer(consumer);
+        }
+    }
     m_executorMap[fragId] = ev;
 
     return true;
@@ -1021,12 +1082,19 @@ void VoltDBEngine::printReport() {
     std::cout << "==========" << std::endl << std::endl;
 }
 
-bool VoltDBEngine::isLocalSite(const NValue& value)
+bool VoltDBEngine::isLocalSite(const NValue& value, const std::string& tableName)
 {
-    int index = TheHashinator::hashinate(value, m_totalPartitions);
+    int index = m_hasherMapping.hashinate(value, tableName, m_totalPartitions);
     return index == m_partitionId;
 }
 
+void VoltDBEngine::updateHasherMapping(SerializeInput &serialize_in)
+{
+    m_hasherMapping.deserialize(serialize_in);
+    VOLT_DEBUG("Updated hasher mapping at partition %d [type=%d]",
+               m_partitionId, static_cast<int>(m_hasherMapping.getType()));
+}
+
 /** Perform once per second, non-transactional work. */
 void VoltDBEngine::tick(int64_t timeInMillis, int64_t lastCommittedTxnId) {
     m_executorContext->setupForTick(lastCommittedTxnId, timeInMillis);
@@ -1445,6 +1513,35 @@ int VoltDBEngine::trackingTupleSet(int64_t txnId, bool writes) {
     return (ENGINE_ERRORCODE_ERROR);
 }
 
+/**
+ * Returns true if the first txn read or wrote a tuple that the second txn wrote.
+ * A txn without a tracker has not accessed anything at this partition.
+ */
+bool VoltDBEngine::trackingConflict(int64_t txnId0, int64_t txnId1) {
+    if (m_executorContext->isTrackingEnabled() == false) {
+        return (false);
+    }
+    
+    ReadWriteTrackerManager *trackerMgr = m_executorContext->getTrackerManager();
+    ReadWriteTracker *tracker0 = trackerMgr->getTracker(txnId0);
+    ReadWriteTracker *tracker1 = trackerMgr->getTracker(txnId1);
+    if (tracker0 == NULL || tracker1 == NULL) {
+        return (false);
+    }
+    
+    #ifdef VOLT_DEBUG_ENABLED
+    std::vector<std::string> tableNames;
+    bool conflict = tracker0->hasConflict(tracker1, &tableNames);
+    for (int i = 0; i < tableNames.size(); i++) {
+        VOLT_DEBUG("Conflict between txn #%ld and txn #%ld on table %s at Partition %d",
+                   txnId0, txnId1, tableNames[i].c_str(), m_partitionId);
+    }
+    return (conflict);
+    #else
+    return (tracker0->hasConflict(tracker1, NULL));
+    #endif
+}
+
 // std::vector<std::string> VoltDBEngine::trackingTablesRead(int64_t txnId) {
 //     if (m_executorContext->isTrackingEnabled()) {
 //         ReadWriteTracker *tracker = m_executorContext->getTrackerManager(txnId);
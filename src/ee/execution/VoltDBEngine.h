@@ -63,6 +63,7 @@
 #include "common/SerializableEEException.h"
 #include "common/Topend.h"
 #include "common/DefaultTupleSerializer.h"
+#include "common/HasherMapping.h"
 #include "logging/LogManager.h"
 #include "logging/LogProxy.h"
 #include "logging/StdoutLogProxy.h"
@@ -124,6 +125,7 @@ class __attribute__((visibility("default"))) VoltDBEngine {
           m_currentOutputDepId(-1),
           m_currentInputDepId(-1),
           m_isELEnabled(false),
+          m_isPipeliningEnabled(true),
           m_numResultDependencies(0),
           m_logManager(new StdoutLogProxy()), m_templateSingleLongTable(NULL), m_topend(NULL)
         {
@@ -223,8 +225,20 @@ class __attribute__((visibility("default"))) VoltDBEngine {
         /** are we sending tuples to another database? */
         bool isELEnabled() { return m_isELEnabled; }
 
-        /** check if this value hashes to the local partition */
-        bool isLocalSite(const NValue& value);
+        /**
+         * Turn tuple pipelining between executors on or off. This only
+         * affects the plan fragments that are initialized afterwards.
+         */
+        void setPipeliningEnabled(bool value) { m_isPipeliningEnabled = value; }
+        bool isPipeliningEnabled() const { return m_isPipeliningEnabled; }
+
+        /** check if this value of the given table's partitioning column
+            hashes to the local partition */
+        bool isLocalSite(const NValue& value, const std::string& tableName);
+
+        /** replace the mapping from partitioning column values to partitions
+            with the one that the frontend's hasher serialized */
+        void updateHasherMapping(SerializeInput &serialize_in);
 
         // -------------------------------------------------
         // Non-transactional work methods
@@ -267,6 +281,7 @@ class __attribute__((visibility("default"))) VoltDBEngine {
 //         std::vector<std::string> trackingTablesRead(int64_t txnId);
 //         std::vector<std::string> trackingTablesWritten(int64_t txnId);
         int trackingTupleSet(int64_t txnId, bool writes);
+        bool trackingConflict(int64_t txnId0, int64_t txnId1);
         
         // -------------------------------------------------
         // ANTI-CACHE FUNCTIONS
@@ -457,6 +472,9 @@ class __attribute__((visibility("default"))) VoltDBEngine {
         int m_totalPartitions;
         size_t m_startOfResultBuffer;
 
+        /** the frontend hasher's mapping for isLocalSite() */
+        HasherMapping m_hasherMapping;
+
         /*
          * Catalog delegates hashed by path.
          */
@@ -534,6 +552,9 @@ class __attribute__((visibility("default"))) VoltDBEngine {
         /** EL subsystem on/off, pulled from catalog */
         bool m_isELEnabled;
 
+        /** push tuples directly between executors when possible */
+        bool m_isPipeliningEnabled;
+
         /** Stats manager for this execution engine **/
         voltdb::StatsAgent m_statsManager;
 
@@ -548,6 +569,22 @@ class __attribute__((visibility("default"))) VoltDBEngine {
          */
         int32_t m_numResultDependencies;
 
+        /*
+         * The location in m_resultOutput of every dependency that has been sent
+         * by a plan fragment in the current batch. A later fragment in the same
+         * batch that takes one of them as its input dependency loads it straight
+         * out of the result buffer instead of asking the Topend for it.
+         * Cleared whenever the result buffer is reset.
+         */
+        struct BatchDependency {
+            int32_t depId;
+            size_t offset;
+            size_t length;
+            bool loaded;
+        };
+        std::vector<BatchDependency> m_batchDependencies;
+        void addBatchDependency(size_t tableStart);
+
         /*
          * Cache plan node fragments in order to allow for deletion.
          */
@@ -572,6 +609,7 @@ class __attribute__((visibility("default"))) VoltDBEngine {
 
 inline void VoltDBEngine::resetReusedResultOutputBuffer(const size_t headerSize) {
     m_resultOutput.initializeWithPosition(m_reusedResultBuffer, m_reusedResultCapacity, headerSize);
+    m_batchDependencies.clear();
     m_exceptionOutput.initializeWithPosition(m_exceptionBuffer, m_exceptionBufferCapacity, headerSize);
     *reinterpret_cast<int32_t*>(m_exceptionBuffer) = voltdb::VOLT_EE_EXCEPTION_TYPE_NONE;
 }
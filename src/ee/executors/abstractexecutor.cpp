@@ -143,6 +143,34 @@ bool AbstractExecutor::init(VoltDBEngine *engine, const catalog::Database* catal
     return true;
 }
 
+void AbstractExecutor::setPipelineConsumer(AbstractExecutor *consumer) {
+    assert(consumer);
+    assert(this->pipeline_consumer == NULL);
+    assert(this->supportsPipelinedOutput());
+    assert(consumer->supportsPipelinedInput());
+    VOLT_DEBUG("Pipelining output of PlanNode '%s' into PlanNode '%s'",
+               abstract_node->debug().c_str(),
+               consumer->getPlanNode()->debug().c_str());
+    this->pipeline_consumer = consumer;
+    consumer->pipelined_input = true;
+}
+
+void AbstractExecutor::openPipeline(const NValueArray &params) {
+    assert(this->pipelined_input);
+    if (tmp_output_table) {
+        tmp_output_table->deleteAllTuplesNonVirtual(false);
+    }
+    this->p_openPipeline(params);
+    if (pipeline_consumer) {
+        pipeline_consumer->openPipeline(params);
+    }
+}
+
+bool AbstractExecutor::p_pushTuple(TableTuple &tuple) {
+    throwFatalException("PlanNode '%s' does not support pipelined input",
+                        abstract_node->debug().c_str());
+}
+
 AbstractExecutor::~AbstractExecutor() {}
 
 }
@@ -91,12 +91,49 @@ class AbstractExecutor {
      * Returns the plannode that generated this executor.
      */
     inline AbstractPlanNode* getPlanNode() { return abstract_node; }
+
+    // ------------------------------------------------------------------
+    // PIPELINING
+    // An executor whose output is only read by a single parent that can
+    // accept tuples one at a time will push each output tuple directly
+    // into that parent instead of materializing it in its output table.
+    // The parent's execute() then has nothing left to do.
+    // ------------------------------------------------------------------
+
+    /** Returns true if this executor can accept its input one tuple at a time */
+    virtual bool supportsPipelinedInput() { return false; }
+
+    /** Returns true if this executor can push its output to a pipeline consumer */
+    virtual bool supportsPipelinedOutput() { return false; }
+
+    /**
+     * Push all of our output tuples to the given executor. This can only
+     * be called once when the PlanFragment is initialized.
+     */
+    void setPipelineConsumer(AbstractExecutor *consumer);
+
+    /** Returns true if this executor receives its input from a pipeline */
+    inline bool isPipelined() const { return (this->pipelined_input); }
+
+    /**
+     * Prepare to receive tuples from our pipeline producer.
+     * This is invoked by the producer right before it executes.
+     */
+    void openPipeline(const NValueArray &params);
+
+    /**
+     * Process a single tuple from our pipeline producer.
+     * Returns false if we do not need any more tuples.
+     */
+    inline bool pushTuple(TableTuple &tuple) { return this->p_pushTuple(tuple); }
     
   protected:
     AbstractExecutor(VoltDBEngine *engine, AbstractPlanNode *abstract_node) {
         this->abstract_node = abstract_node;
         tmp_output_table = NULL;
         this->force_send_tuple_count = false;
+        this->pipeline_consumer = NULL;
+        this->pipelined_input = false;
     }
 
     /** Concrete executor classes implement initialization in p_init() */
@@ -115,6 +152,12 @@ class AbstractExecutor {
      */
     virtual bool needsOutputTableClear() { return true; };
 
+    /** Reset any per-execution state before our pipeline producer starts */
+    virtual void p_openPipeline(const NValueArray &params) { }
+
+    /** Concrete executor classes that support pipelined input implement this */
+    virtual bool p_pushTuple(TableTuple &tuple);
+
     // execution engine owns the plannode allocation.
     AbstractPlanNode* abstract_node;
     TempTable *tmp_output_table;
@@ -129,6 +172,12 @@ class AbstractExecutor {
     // PAVLO: If this is set to true, then we won't execute the plan
     // node and will force the EE to send back the # of tuples modified
     bool force_send_tuple_count;
+
+    // The executor that we push our output tuples to (if any)
+    AbstractExecutor *pipeline_consumer;
+
+    // Set to true if our input tuples are pushed to us by our child
+    bool pipelined_input;
 };
 
 /**
@@ -154,10 +203,19 @@ inline bool AbstractExecutor::execute(const NValueArray &params, ReadWriteTracke
     assert (abstract_node);
     VOLT_TRACE("Starting execution of plannode(id=%d)...", abstract_node->getPlanNodeId());
 
+    // Our child already pushed all of its tuples through us
+    if (pipelined_input) {
+        VOLT_TRACE("Skipping pipelined plannode(id=%d)", abstract_node->getPlanNodeId());
+        return true;
+    }
+
     if (tmp_output_table) {
         VOLT_TRACE("Clearing output table...");
         tmp_output_table->deleteAllTuplesNonVirtual(false);
     }
+    if (pipeline_consumer) {
+        pipeline_consumer->openPipeline(params);
+    }
 
     // run the executor
     return this->p_execute(params, tracker);
@@ -52,6 +52,7 @@
 #define HSTOREAGGREGATEEXECUTOR_H
 
 #include "common/Pool.hpp"
+#include "executors/grouphashtable.h"
 #include "common/ValueFactory.hpp"
 #include "common/common.h"
 #include "common/common.h"
@@ -68,7 +69,6 @@
 #include "storage/tableiterator.h"
 
 
-#include "boost/unordered_map.hpp"
 
 #include <algorithm>
 #include <exception>
@@ -367,7 +367,9 @@ class AggregateExecutor : public AbstractExecutor
 {
 public:
     AggregateExecutor(VoltDBEngine* engine, AbstractPlanNode* abstract_node) :
-        AbstractExecutor(engine, abstract_node), m_groupByKeySchema(NULL)
+        AbstractExecutor(engine, abstract_node),
+        m_memoryPool(POOL_ALLOCATION_SIZE, POOL_MAX_CHUNKS),
+        m_groupByKeySchema(NULL), m_groups(NULL), m_lastGroupCount(0)
     { };
     ~AggregateExecutor();
 
@@ -382,8 +384,24 @@ protected:
      * not doing any aggregation.
      */
     PassThroughColType m_passThroughColumns;
+
+    /*
+     * The groups' keys and aggregates are allocated from this pool. It
+     * keeps up to POOL_MAX_CHUNKS chunks between executions so that we do
+     * not go back to the heap every time the fragment runs.
+     */
+    static const uint64_t POOL_ALLOCATION_SIZE = 65536;
+    static const uint64_t POOL_MAX_CHUNKS = 16;
     Pool m_memoryPool;
     TupleSchema* m_groupByKeySchema;
+
+    /*
+     * Hash table for the groups (only for PLAN_NODE_TYPE_HASHAGGREGATE).
+     * We size it for the number of groups that we saw the last time that
+     * this fragment was executed.
+     */
+    GroupHashTable* m_groups;
+    std::size_t m_lastGroupCount;
 };
 
 /*
@@ -395,6 +413,7 @@ template<PlanNodeType aggregateType>
 class Aggregator {
 public:
     Aggregator(Pool* memoryPool,
+               GroupHashTable* groups,
                TupleSchema* groupByKeySchema,
                AggregatePlanNode* node,
                PassThroughColType* passThroughColumns,
@@ -490,15 +509,7 @@ struct AggregateList
 };
 
 /*
- * Type of the hash table used to store aggregates for each group.
- */
-typedef boost::unordered_map<TableTuple,
-                             AggregateList*,
-                             TableTupleHasher,
-                             TableTupleEqualityChecker> HashAggregateMapType;
-
-/*
- * Specialization of an Aggregator that uses a hash map to aggregate
+ * Specialization of an Aggregator that uses a hash table to aggregate
  * tuples from the input table.
  */
 template<>
@@ -506,6 +517,7 @@ class Aggregator<PLAN_NODE_TYPE_HASHAGGREGATE>
 {
 public:
     inline Aggregator(Pool *memoryPool,
+                      GroupHashTable *groups,
                       TupleSchema *groupByKeySchema,
                       AggregatePlanNode* node,
                       PassThroughColType* passThroughColumns,
@@ -515,6 +527,7 @@ public:
                       std::vector<int> *groupByCols,
                       std::vector<ValueType> *col_types)
         : m_memoryPool(memoryPool),
+          m_groups(groups),
           m_groupByKeySchema(groupByKeySchema),
           m_node(node),
           m_passThroughColumns(passThroughColumns),
@@ -543,11 +556,12 @@ public:
             groupByKeyTuple.setNValue(i,
                                       nextTuple.getNValue((*m_groupByCols)[i]));
         }
-        HashAggregateMapType::const_iterator keyIter =
-            m_aggregates.find(groupByKeyTuple);
+        bool inserted;
+        GroupHashTable::Entry &entry =
+            m_groups->findOrInsert(groupByKeyTuple, m_memoryPool, inserted);
 
         // Group not found. Make a new entry in the hash for this new group.
-        if (keyIter == m_aggregates.end())
+        if (inserted)
         {
             aggregateList =
                 static_cast<AggregateList*>
@@ -561,17 +575,12 @@ public:
                 aggregateList->m_aggregates[i] =
                     getAggInstance(m_memoryPool, (*m_aggTypes)[i]);
             }
-            m_aggregates.
-                insert(HashAggregateMapType::value_type(groupByKeyTuple,
-                                                        aggregateList));
-            groupByKeyTuple.
-                moveNoHeader(m_memoryPool->
-                             allocate(m_groupByKeySchema->tupleLength()));
+            entry.value = aggregateList;
         }
-        // otherwise, the list is the second item of the pair...
+        // otherwise, the list is the entry's value...
         else
         {
-            aggregateList = keyIter->second;
+            aggregateList = static_cast<AggregateList*>(entry.value);
         }
 
         // update the aggregation calculation.
@@ -598,12 +607,12 @@ public:
 
     inline bool finalize(TableTuple prevTuple)
     {
-        for (HashAggregateMapType::const_iterator iter = m_aggregates.begin();
-             iter != m_aggregates.end();
-             iter++)
+        for (std::size_t i = 0; i < m_groups->size(); i++)
         {
-            if (!helper(m_node, iter->second->m_aggregates, m_outputTable,
-                        m_inputTable, iter->second->m_groupTuple,
+            AggregateList *aggregateList =
+                static_cast<AggregateList*>(m_groups->get(i).value);
+            if (!helper(m_node, aggregateList->m_aggregates, m_outputTable,
+                        m_inputTable, aggregateList->m_groupTuple,
                         m_passThroughColumns))
             {
                 return false;
@@ -639,6 +648,7 @@ public:
 
 private:
     Pool* m_memoryPool;
+    GroupHashTable* m_groups;
     TupleSchema *m_groupByKeySchema;
     AggregatePlanNode* m_node;
     PassThroughColType* m_passThroughColumns;
@@ -647,7 +657,6 @@ private:
     std::vector<ExpressionType>* m_aggTypes;
     std::vector<int>* m_groupByCols;
     std::vector<ValueType>* m_colTypes;
-    HashAggregateMapType m_aggregates;
     int m_numAggColumns;
     int m_lastColumnIndex;
     TableTuple groupByKeyTuple;
@@ -662,6 +671,7 @@ class Aggregator<PLAN_NODE_TYPE_AGGREGATE>
 {
 public:
     inline Aggregator(Pool* memoryPool,
+                      GroupHashTable*,
                       TupleSchema* groupByKeySchema,
                       AggregatePlanNode* node,
                       PassThroughColType *passThroughColumns,
@@ -967,6 +977,11 @@ AggregateExecutor<aggregateType>::p_init(AbstractPlanNode *abstract_node,
                                                    groupByColumnSizes,
                                                    groupByColumnAllowNull,
                                                    true);
+        if (aggregateType == PLAN_NODE_TYPE_HASHAGGREGATE)
+        {
+            delete m_groups;
+            m_groups = new GroupHashTable(m_groupByKeySchema);
+        }
         delete[] columnNames;
     }
     return true;
@@ -1001,7 +1016,20 @@ bool AggregateExecutor<aggregateType>::p_execute(const NValueArray &params, Read
     std::vector<int> groupByColumns = node->getGroupByColumns();
     TableTuple prev(input_table->schema());
 
-    Aggregator<aggregateType> aggregator(&m_memoryPool, m_groupByKeySchema,
+    //
+    // We can't have more groups than input tuples, and we assume that
+    // there will be about as many as the last time
+    //
+    if (m_groups != NULL)
+    {
+        std::size_t expectedGroups =
+            std::min(static_cast<std::size_t>(input_table->activeTupleCount()),
+                     m_lastGroupCount);
+        m_groups->reset(expectedGroups);
+    }
+
+    Aggregator<aggregateType> aggregator(&m_memoryPool, m_groups,
+                                         m_groupByKeySchema,
                                          node, &m_passThroughColumns,
                                          input_table, output_table,
                                          &agg_types,
@@ -1019,6 +1047,10 @@ bool AggregateExecutor<aggregateType>::p_execute(const NValueArray &params, Read
     VOLT_TRACE("finalizing..");
     if (!aggregator.finalize(prev))
         return false;
+    if (m_groups != NULL)
+    {
+        m_lastGroupCount = m_groups->size();
+    }
 
     VOLT_TRACE("finished");
     VOLT_TRACE("output table\n%s", output_table->debug().c_str());
@@ -1029,6 +1061,7 @@ bool AggregateExecutor<aggregateType>::p_execute(const NValueArray &params, Read
 template<PlanNodeType aggregateType>
 AggregateExecutor<aggregateType>::~AggregateExecutor()
 {
+    delete m_groups;
     if (m_groupByKeySchema != NULL) {
         TupleSchema::freeTupleSchema(m_groupByKeySchema);
     }
@@ -54,7 +54,6 @@
 #include "storage/tableiterator.h"
 #include "storage/tablefactory.h"
 
-#include <set>
 #include <cassert>
 
 namespace voltdb {
@@ -90,6 +89,16 @@ bool DistinctExecutor::p_init(AbstractPlanNode*, const catalog::Database* catalo
         assert(node->getDistinctColumn() >= 0);
         this->distinct_column = node->getDistinctColumn();
         this->distinct_column_type = node->getInputTables()[0]->schema()->columnType(this->distinct_column);
+
+        std::vector<ValueType> keyColumnTypes(1, this->distinct_column_type);
+        std::vector<int32_t> keyColumnSizes(1, node->getInputTables()[0]->schema()->columnLength(this->distinct_column));
+        std::vector<bool> keyColumnAllowNull(1, true);
+        if (m_keySchema != NULL) {
+            TupleSchema::freeTupleSchema(m_keySchema);
+        }
+        m_keySchema = TupleSchema::createTupleSchema(keyColumnTypes, keyColumnSizes, keyColumnAllowNull, true);
+        delete m_values;
+        m_values = new GroupHashTable(m_keySchema);
     }
     return (true);
 }
@@ -104,17 +113,23 @@ bool DistinctExecutor::p_execute(const NValueArray &params, ReadWriteTracker *tr
 
     TableIterator iterator = input_table->tableIterator();
     TableTuple tuple(input_table->schema());
-    //
-    // HACK: Use BIGINT for now...
-    //
-    std::set<NValue, NValue::ltNValue> found_values;
+
+    // We can't have more distinct values than input tuples, and we
+    // assume that there will be about as many as the last time
+    m_memoryPool.purge();
+    m_values->reset(std::min(static_cast<std::size_t>(input_table->activeTupleCount()),
+                             m_lastValueCount));
+    TableTuple key(m_keySchema);
+    key.moveNoHeader(m_memoryPool.allocate(m_keySchema->tupleLength()));
+
     while (iterator.next(tuple)) {
         //
         // Check whether this value already exists in our list
         //
-        NValue tuple_value = tuple.getNValue(this->distinct_column);
-        if (found_values.find(tuple_value) == found_values.end()) {
-            found_values.insert(tuple_value);
+        key.setNValue(0, tuple.getNValue(this->distinct_column));
+        bool inserted;
+        m_values->findOrInsert(key, &m_memoryPool, inserted);
+        if (inserted) {
             if (!output_table->insertTuple(tuple)) {
                 VOLT_ERROR("Failed to insert tuple from input table '%s' into"
                            " output table '%s'",
@@ -124,11 +139,16 @@ bool DistinctExecutor::p_execute(const NValueArray &params, ReadWriteTracker *tr
             }
         } // IF unique
     }
+    m_lastValueCount = m_values->size();
 
     return true;
 }
 
 DistinctExecutor::~DistinctExecutor() {
+    delete m_values;
+    if (m_keySchema != NULL) {
+        TupleSchema::freeTupleSchema(m_keySchema);
+    }
 }
 
 }
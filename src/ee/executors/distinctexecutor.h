@@ -48,7 +48,9 @@
 
 #include "common/common.h"
 #include "common/valuevector.h"
+#include "common/Pool.hpp"
 #include "executors/abstractexecutor.h"
+#include "executors/grouphashtable.h"
 #include "plannodes/distinctnode.h"
 
 namespace voltdb {
@@ -61,9 +63,14 @@ class ReadWriteSet;
  */
 class DistinctExecutor : public AbstractExecutor {
     public:
-        DistinctExecutor(VoltDBEngine *engine, AbstractPlanNode* abstract_node) : AbstractExecutor(engine, abstract_node) {
+        DistinctExecutor(VoltDBEngine *engine, AbstractPlanNode* abstract_node) :
+            AbstractExecutor(engine, abstract_node),
+            m_memoryPool(POOL_ALLOCATION_SIZE, POOL_MAX_CHUNKS) {
             this->distinct_column = -1;
             this->distinct_column_type = VALUE_TYPE_INVALID;
+            this->m_keySchema = NULL;
+            this->m_values = NULL;
+            this->m_lastValueCount = 0;
         }
         ~DistinctExecutor();
     protected:
@@ -72,6 +79,17 @@ class DistinctExecutor : public AbstractExecutor {
 
         int distinct_column;
         ValueType distinct_column_type;
+
+        /*
+         * The distinct values that we have seen so far. The keys are copied into
+         * the pool, which keeps its chunks between executions.
+         */
+        static const uint64_t POOL_ALLOCATION_SIZE = 65536;
+        static const uint64_t POOL_MAX_CHUNKS = 16;
+        Pool m_memoryPool;
+        TupleSchema *m_keySchema;
+        GroupHashTable *m_values;
+        std::size_t m_lastValueCount;
 };
 
 }
@@ -0,0 +1,224 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2010 VoltDB L.L.C.
+ *
+ * This file contains original code and/or modifications of original code.
+ * Any modifications made by VoltDB L.L.C. are licensed under the following
+ * terms and conditions:
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/* Copyright (C) 2008 by H-Store Project
+ * Brown University
+ * Massachusetts Institute of Technology
+ * Yale University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+#ifndef HSTOREGROUPHASHTABLE_H
+#define HSTOREGROUPHASHTABLE_H
+
+#include "common/common.h"
+#include "common/Pool.hpp"
+#include "common/tabletuple.h"
+#include "common/TupleSchema.h"
+
+#include <vector>
+#include <cstring>
+
+namespace voltdb {
+
+/**
+ * Hash table from a group-by key to an opaque pointer, used by the hash
+ * aggregate and DISTINCT executors.
+ *
+ * Group keys are copied into a Pool that belongs to the caller, and the table
+ * itself is an open-addressing array of (hash, entry) slots plus an
+ * insertion-ordered array of entries. So adding a group never calls malloc,
+ * and since reset() keeps both arrays, an executor that owns one of these
+ * does not allocate at all once it has seen its largest input.
+ * Entries are returned in the order that they were first added.
+ */
+class GroupHashTable {
+public:
+    struct Entry {
+        /** The key's tuple data (without a header) */
+        char *key;
+        void *value;
+    };
+
+    GroupHashTable(const TupleSchema *keySchema) :
+        m_keySchema(keySchema),
+        m_keyLength(keySchema->tupleLength()),
+        m_mask(0),
+        m_probe(keySchema)
+    {
+        reset(0);
+    }
+
+    /**
+     * Remove all of the groups and make room for the given number of groups
+     * up front. The keys that were in the table belong to the caller's Pool,
+     * so it is safe to purge that after calling this.
+     */
+    void reset(std::size_t expectedGroups) {
+        m_entries.clear();
+        std::size_t capacity = MIN_CAPACITY;
+        while (maxCount(capacity) < expectedGroups) capacity <<= 1;
+
+        // Hang on to a bigger array from a previous execution unless it is way too big
+        if (capacity > m_slots.size() || m_slots.size() > capacity * SHRINK_FACTOR) {
+            std::vector<Slot>(capacity).swap(m_slots);
+        }
+        std::memset(&m_slots[0], 0, sizeof(Slot) * m_slots.size());
+        m_mask = m_slots.size() - 1;
+        if (m_entries.capacity() < expectedGroups) m_entries.reserve(expectedGroups);
+    }
+
+    /**
+     * Return the entry for the given key, which has to be a tuple of the
+     * key schema without a header. If the key is not in the table yet,
+     * then a copy of it is allocated from the given pool, the new entry's
+     * value is set to NULL and inserted is set to true.
+     */
+    inline Entry& findOrInsert(const TableTuple &key, Pool *pool, bool &inserted) {
+        const std::size_t hash = mix(key.hashCode()) | HASH_OCCUPIED;
+        std::size_t idx = hash & m_mask;
+        while (m_slots[idx].hash != 0) {
+            if (m_slots[idx].hash == hash) {
+                Entry &entry = m_entries[m_slots[idx].entry];
+                m_probe.moveNoHeader(entry.key);
+                if (m_probe.equalsNoSchemaCheck(key)) {
+                    inserted = false;
+                    return (entry);
+                }
+            }
+            idx = (idx + 1) & m_mask;
+        } // WHILE
+
+        Entry entry;
+        entry.key = static_cast<char*>(pool->allocate(m_keyLength));
+        std::memcpy(entry.key, key.address() + TUPLE_HEADER_SIZE, m_keyLength);
+        entry.value = NULL;
+        m_slots[idx].hash = hash;
+        m_slots[idx].entry = static_cast<uint32_t>(m_entries.size());
+        m_entries.push_back(entry);
+        if (m_entries.size() > maxCount(m_slots.size())) grow();
+
+        inserted = true;
+        return (m_entries.back());
+    }
+
+    inline std::size_t size() const {
+        return (m_entries.size());
+    }
+
+    inline const Entry& get(std::size_t i) const {
+        return (m_entries[i]);
+    }
+
+    inline std::size_t capacity() const {
+        return (m_slots.size());
+    }
+
+    const TupleSchema* getKeySchema() const {
+        return (m_keySchema);
+    }
+
+private:
+    struct Slot {
+        /** The key's hash with the top bit set, or zero if the slot is empty */
+        std::size_t hash;
+        uint32_t entry;
+    };
+
+    static const std::size_t HASH_OCCUPIED = ((std::size_t)1) << (sizeof(std::size_t) * 8 - 1);
+    static const std::size_t MIN_CAPACITY = 64;
+    static const std::size_t SHRINK_FACTOR = 16;
+
+    /**
+     * Spread out the bits of the tuple's hash (MurmurHash3's 64-bit finalizer),
+     * because the low bits of small integer keys are not very random
+     */
+    static inline std::size_t mix(std::size_t hash) {
+        uint64_t h = static_cast<uint64_t>(hash);
+        h ^= (h >> 33);
+        h *= 0xff51afd7ed558ccdULL;
+        h ^= (h >> 33);
+        h *= 0xc4ceb9fe1a85ec53ULL;
+        h ^= (h >> 33);
+        return (static_cast<std::size_t>(h));
+    }
+
+    /**
+     * Allow the table to be 3/4 full
+     */
+    static inline std::size_t maxCount(std::size_t capacity) {
+        return (capacity - (capacity >> 2));
+    }
+
+    /**
+     * Double the size of the slot array. We already have the hashes so we
+     * only have to move the slots.
+     */
+    void grow() {
+        std::vector<Slot> slots(m_slots.size() * 2);
+        std::memset(&slots[0], 0, sizeof(Slot) * slots.size());
+        const std::size_t mask = slots.size() - 1;
+        for (std::size_t i = 0; i < m_slots.size(); i++) {
+            if (m_slots[i].hash == 0) continue;
+            std::size_t idx = m_slots[i].hash & mask;
+            while (slots[idx].hash != 0) {
+                idx = (idx + 1) & mask;
+            } // WHILE
+            slots[idx] = m_slots[i];
+        } // FOR
+        m_slots.swap(slots);
+        m_mask = mask;
+    }
+
+    const TupleSchema *m_keySchema;
+    const int m_keyLength;
+    std::vector<Slot> m_slots;
+    std::vector<Entry> m_entries;
+    std::size_t m_mask;
+
+    /** Used to compare a key in the table with the key that we are looking for */
+    TableTuple m_probe;
+
+    // No implicit copies
+    GroupHashTable(const GroupHashTable&);
+    GroupHashTable& operator=(const GroupHashTable&);
+};
+
+}
+
+#endif
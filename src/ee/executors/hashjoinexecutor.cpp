@@ -0,0 +1,352 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2010 VoltDB L.L.C.
+ *
+ * This file contains original code and/or modifications of original code.
+ * Any modifications made by VoltDB L.L.C. are licensed under the following
+ * terms and conditions:
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/* Copyright (C) 2008 by H-Store Project
+ * Brown University
+ * Massachusetts Institute of Technology
+ * Yale University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+#include <vector>
+#include <string>
+#include <stack>
+#include "hashjoinexecutor.h"
+#include "nestloopexecutor.h"
+#include "common/debuglog.h"
+#include "common/common.h"
+#include "common/tabletuple.h"
+#include "common/TupleSchema.h"
+#include "common/FatalException.hpp"
+#include "expressions/abstractexpression.h"
+#include "expressions/tuplevalueexpression.h"
+#include "storage/table.h"
+#include "storage/temptable.h"
+#include "storage/tableiterator.h"
+#include "storage/tablefactory.h"
+#include "plannodes/hashjoinnode.h"
+
+namespace voltdb {
+
+static inline bool isIntegralType(ValueType type) {
+    switch (type) {
+        case VALUE_TYPE_TINYINT:
+        case VALUE_TYPE_SMALLINT:
+        case VALUE_TYPE_INTEGER:
+        case VALUE_TYPE_BIGINT:
+            return true;
+        default:
+            return false;
+    }
+}
+
+HashJoinExecutor::~HashJoinExecutor() {
+    if (m_keySchema != NULL) {
+        TupleSchema::freeTupleSchema(m_keySchema);
+    }
+}
+
+bool HashJoinExecutor::p_init(AbstractPlanNode* abstract_node, const catalog::Database* catalog_db, int* tempTableMemoryInBytes) {
+    VOLT_TRACE("init HashJoin Executor");
+    assert(tempTableMemoryInBytes);
+
+    HashJoinPlanNode* node = dynamic_cast<HashJoinPlanNode*>(abstract_node);
+    assert(node);
+
+    // produce the fully joined schema relying on a later projection
+    // to narrow the output later as required.
+    assert(node->getInputTables().size() == 2);
+    const TupleSchema *first = node->getInputTables()[0]->schema();
+    const TupleSchema *second = node->getInputTables()[1]->schema();
+    TupleSchema *schema = TupleSchema::createTupleSchema(first, second);
+
+    int combinedColumnCount = first->columnCount() + second->columnCount();
+    std::string *columnNames = new std::string[combinedColumnCount];
+    std::vector<int> outputColumnGuids;
+    int index = 0;
+
+    for (int ctr = 0; ctr < 2; ctr++) {
+        assert(node->getInputTables()[ctr]);
+        for (int col_ctr = 0, col_cnt = node->getInputTables()[ctr]->columnCount();
+             col_ctr < col_cnt;
+             col_ctr++, index++)
+        {
+            outputColumnGuids.
+                push_back(node->getChildren()[ctr]->getOutputColumnGuids()[col_ctr]);
+            columnNames[index] = node->getInputTables()[ctr]->columnName(col_ctr);
+        }
+    }
+
+    // Set the mapping of column names to column indexes in output tables
+    node->setOutputColumnGuids(outputColumnGuids);
+
+    // create the output table
+    node->setOutputTable(
+        TableFactory::getTempTable(
+            node->getInputTables()[0]->databaseId(), "temp", schema, columnNames, tempTableMemoryInBytes));
+    delete[] columnNames;
+
+    // Same as the NestLoopExecutor: point every tuple value expression
+    // in the predicate at either the outer (0) or the inner (1) tuple
+    const AbstractExpression *predicate = node->getPredicate();
+    std::stack<const AbstractExpression*> stack;
+    while (predicate != NULL) {
+        const AbstractExpression *left = predicate->getLeft();
+        const AbstractExpression *right = predicate->getRight();
+
+        if (right != NULL) {
+            if (right->getExpressionType() == EXPRESSION_TYPE_VALUE_TUPLE) {
+                if (!assignTupleValueIndex(const_cast<AbstractExpression*>(right),
+                                           node->getInputTables()[0]->name(),
+                                           node->getInputTables()[1]->name())) {
+                    return false;
+                }
+            }
+            stack.push(right);
+        }
+        if (left != NULL) {
+            if (left->getExpressionType() == EXPRESSION_TYPE_VALUE_TUPLE) {
+                if (!assignTupleValueIndex(const_cast<AbstractExpression*>(left),
+                                           node->getInputTables()[0]->name(),
+                                           node->getInputTables()[1]->name())) {
+                    return false;
+                }
+            }
+        }
+
+        predicate = left;
+        if (!predicate && !stack.empty()) {
+            predicate = stack.top();
+            stack.pop();
+        }
+    }
+
+    // Pull the join keys out of the equality clauses in the predicate
+    m_outerKeyColumns.clear();
+    m_innerKeyColumns.clear();
+    m_outerNotNullColumns.clear();
+    m_innerNotNullColumns.clear();
+    m_keyTypes.clear();
+    m_keySizes.clear();
+    if (m_keySchema != NULL) {
+        TupleSchema::freeTupleSchema(m_keySchema);
+        m_keySchema = NULL;
+    }
+    findKeyColumns(node->getPredicate(), first, second);
+
+    if (m_keyTypes.empty()) {
+        // The planner only picks a HashJoinPlanNode when there is a column
+        // equality clause, but we can't use it if the column types don't match.
+        // We'll fall back to a nested loop in p_execute()
+        VOLT_DEBUG("No usable join keys in HashJoin predicate. Using nested loop");
+    } else {
+        std::vector<bool> keyAllowNull(m_keyTypes.size(), true);
+        m_keySchema = TupleSchema::createTupleSchema(m_keyTypes, m_keySizes, keyAllowNull, true);
+    }
+    return true;
+}
+
+void HashJoinExecutor::findKeyColumns(const AbstractExpression *expr,
+                                      const TupleSchema *outer_schema,
+                                      const TupleSchema *inner_schema) {
+    if (expr == NULL) return;
+
+    // Only clauses that are ANDed together have to be true for every match
+    if (expr->getExpressionType() == EXPRESSION_TYPE_CONJUNCTION_AND) {
+        findKeyColumns(expr->getLeft(), outer_schema, inner_schema);
+        findKeyColumns(expr->getRight(), outer_schema, inner_schema);
+        return;
+    }
+    if (expr->getExpressionType() != EXPRESSION_TYPE_COMPARE_EQUAL) return;
+
+    const TupleValueExpression *left = dynamic_cast<const TupleValueExpression*>(expr->getLeft());
+    const TupleValueExpression *right = dynamic_cast<const TupleValueExpression*>(expr->getRight());
+    if (left == NULL || right == NULL || left->getTupleIndex() == right->getTupleIndex()) return;
+
+    const TupleValueExpression *outer = (left->getTupleIndex() == 0 ? left : right);
+    const TupleValueExpression *inner = (left->getTupleIndex() == 0 ? right : left);
+    const int outer_col = outer->getColumnId();
+    const int inner_col = inner->getColumnId();
+    const ValueType outer_type = outer_schema->columnType(outer_col);
+    const ValueType inner_type = inner_schema->columnType(inner_col);
+
+    // Both sides of the key must hash the same way for equal values, so we
+    // either need the same type or we widen two integer types to a BIGINT
+    if (outer_type == inner_type) {
+        m_keyTypes.push_back(outer_type);
+        m_keySizes.push_back(std::max(outer_schema->columnLength(outer_col),
+                                      inner_schema->columnLength(inner_col)));
+    } else if (isIntegralType(outer_type) && isIntegralType(inner_type)) {
+        m_keyTypes.push_back(VALUE_TYPE_BIGINT);
+        m_keySizes.push_back(NValue::getTupleStorageSize(VALUE_TYPE_BIGINT));
+    } else {
+        VOLT_DEBUG("Ignoring HashJoin key with mismatched types %s and %s",
+                   getTypeName(outer_type).c_str(), getTypeName(inner_type).c_str());
+        m_outerNotNullColumns.push_back(outer_col);
+        m_innerNotNullColumns.push_back(inner_col);
+        return;
+    }
+    m_outerKeyColumns.push_back(outer_col);
+    m_innerKeyColumns.push_back(inner_col);
+}
+
+bool HashJoinExecutor::setKey(TableTuple &key, const TableTuple &tuple, const std::vector<int> &columns) {
+    for (int i = 0, cnt = (int)columns.size(); i < cnt; i++) {
+        const NValue value = tuple.getNValue(columns[i]);
+        // NULL is never equal to anything, so this tuple can't match
+        if (value.isNull()) return false;
+        key.setNValueAllocateForObjectCopies(i, value, &m_memoryPool);
+    }
+    return true;
+}
+
+bool HashJoinExecutor::hasNull(const TableTuple &tuple, const std::vector<int> &columns) {
+    for (int i = 0, cnt = (int)columns.size(); i < cnt; i++) {
+        if (tuple.getNValue(columns[i]).isNull()) return true;
+    }
+    return false;
+}
+
+bool HashJoinExecutor::p_execute(const NValueArray &params, ReadWriteTracker *tracker) {
+    VOLT_DEBUG("executing HashJoin...");
+
+    HashJoinPlanNode* node = dynamic_cast<HashJoinPlanNode*>(abstract_node);
+    assert(node);
+    assert(node->getInputTables().size() == 2);
+
+    // output table must be a temp table
+    TempTable* output_table = dynamic_cast<TempTable*>(node->getOutputTable());
+    assert(output_table);
+
+    Table* outer_table = node->getInputTables()[0];
+    assert(outer_table);
+
+    Table* inner_table = node->getInputTables()[1];
+    assert(inner_table);
+
+    VOLT_TRACE ("input table left:\n %s", outer_table->debug().c_str());
+    VOLT_TRACE ("input table right:\n %s", inner_table->debug().c_str());
+
+    //
+    // Join Expression
+    //
+    AbstractExpression *predicate = node->getPredicate();
+    if (predicate) {
+        predicate->substitute(params);
+        VOLT_TRACE ("predicate: %s", predicate == NULL ?
+                    "NULL" : predicate->debug(true).c_str());
+    }
+
+    const int outer_cols = outer_table->columnCount();
+    const int inner_cols = inner_table->columnCount();
+    TableTuple outer_tuple(outer_table->schema());
+    TableTuple inner_tuple(inner_table->schema());
+    TableTuple &joined = output_table->tempTuple();
+
+    if (m_keySchema == NULL) {
+        // The comparison expressions treat two NULLs as equal, so we have
+        // to skip them here to get the same results as the hash table
+        TableIterator iterator0(outer_table);
+        while (iterator0.next(outer_tuple)) {
+            if (hasNull(outer_tuple, m_outerNotNullColumns)) continue;
+            TableIterator iterator1(inner_table);
+            while (iterator1.next(inner_tuple)) {
+                if (hasNull(inner_tuple, m_innerNotNullColumns)) continue;
+                if (predicate == NULL || predicate->eval(&outer_tuple, &inner_tuple).isTrue()) {
+                    for (int col_ctr = 0; col_ctr < outer_cols; col_ctr++) {
+                        joined.setNValue(col_ctr, outer_tuple.getNValue(col_ctr));
+                    }
+                    for (int col_ctr = 0; col_ctr < inner_cols; col_ctr++) {
+                        joined.setNValue(col_ctr + outer_cols, inner_tuple.getNValue(col_ctr));
+                    }
+                    output_table->insertTupleNonVirtual(joined);
+                }
+            }
+        }
+        return (true);
+    }
+
+    // Build the hash table on whichever input is smaller and probe it with the other.
+    // The joined tuple is always outer columns followed by inner columns.
+    const bool build_outer = (outer_table->activeTupleCount() < inner_table->activeTupleCount());
+    Table *build_table = (build_outer ? outer_table : inner_table);
+    Table *probe_table = (build_outer ? inner_table : outer_table);
+    const std::vector<int> &build_keys = (build_outer ? m_outerKeyColumns : m_innerKeyColumns);
+    const std::vector<int> &probe_keys = (build_outer ? m_innerKeyColumns : m_outerKeyColumns);
+    const int key_length = m_keySchema->tupleLength();
+    VOLT_DEBUG("Building HashJoin table on %s table [%ld tuples]",
+               (build_outer ? "outer" : "inner"), (long)build_table->activeTupleCount());
+
+    TableTuple key(m_keySchema);
+    key.moveNoHeader(static_cast<char*>(m_memoryPool.allocate(key_length)));
+
+    TableTuple build_tuple(build_table->schema());
+    TableIterator build_iterator(build_table);
+    while (build_iterator.next(build_tuple)) {
+        if (!setKey(key, build_tuple, build_keys)) continue;
+        m_hashTable.insert(HashJoinMapType::value_type(key, build_tuple));
+        key.moveNoHeader(static_cast<char*>(m_memoryPool.allocate(key_length)));
+    }
+
+    TableTuple probe_tuple(probe_table->schema());
+    TableIterator probe_iterator(probe_table);
+    while (probe_iterator.next(probe_tuple)) {
+        if (!setKey(key, probe_tuple, probe_keys)) continue;
+
+        std::pair<HashJoinMapType::const_iterator, HashJoinMapType::const_iterator> matches =
+            m_hashTable.equal_range(key);
+        for (HashJoinMapType::const_iterator iter = matches.first; iter != matches.second; ++iter) {
+            const TableTuple &match_outer = (build_outer ? iter->second : probe_tuple);
+            const TableTuple &match_inner = (build_outer ? probe_tuple : iter->second);
+            if (predicate == NULL || predicate->eval(&match_outer, &match_inner).isTrue()) {
+                for (int col_ctr = 0; col_ctr < outer_cols; col_ctr++) {
+                    joined.setNValue(col_ctr, match_outer.getNValue(col_ctr));
+                }
+                for (int col_ctr = 0; col_ctr < inner_cols; col_ctr++) {
+                    joined.setNValue(col_ctr + outer_cols, match_inner.getNValue(col_ctr));
+                }
+                output_table->insertTupleNonVirtual(joined);
+            }
+        }
+    }
+
+    m_hashTable.clear();
+    m_memoryPool.purge();
+    return (true);
+}
+
+}
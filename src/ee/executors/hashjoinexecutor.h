@@ -0,0 +1,113 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2010 VoltDB L.L.C.
+ *
+ * This file contains original code and/or modifications of original code.
+ * Any modifications made by VoltDB L.L.C. are licensed under the following
+ * terms and conditions:
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/* Copyright (C) 2008 by H-Store Project
+ * Brown University
+ * Massachusetts Institute of Technology
+ * Yale University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+#ifndef HSTOREHASHJOINEXECUTOR_H
+#define HSTOREHASHJOINEXECUTOR_H
+
+#include <vector>
+#include "boost/unordered_map.hpp"
+#include "common/common.h"
+#include "common/valuevector.h"
+#include "common/tabletuple.h"
+#include "common/Pool.hpp"
+#include "executors/abstractexecutor.h"
+
+namespace voltdb {
+
+class UndoLog;
+class ReadWriteSet;
+class TupleSchema;
+class AbstractExpression;
+
+/**
+ * Equi-join of two input tables. We build a hash table on the join keys of
+ * the smaller input table and then probe it once for every tuple in the
+ * other one, so the join runs in O(n+m) instead of the O(n*m) of the
+ * NestLoopExecutor. The join keys come from the column equality clauses in
+ * the predicate. The full predicate is still evaluated for each match.
+ */
+class HashJoinExecutor : public AbstractExecutor {
+    public:
+        HashJoinExecutor(VoltDBEngine *engine, AbstractPlanNode* abstract_node)
+            : AbstractExecutor(engine, abstract_node), m_keySchema(NULL) { }
+        ~HashJoinExecutor();
+    protected:
+        bool p_init(AbstractPlanNode*, const catalog::Database* catalog_db, int* tempTableMemoryInBytes);
+        bool p_execute(const NValueArray &params, ReadWriteTracker *tracker);
+
+    private:
+        typedef boost::unordered_multimap<TableTuple,
+                                          TableTuple,
+                                          TableTupleHasher,
+                                          TableTupleEqualityChecker> HashJoinMapType;
+
+        void findKeyColumns(const AbstractExpression *expr,
+                            const TupleSchema *outer_schema,
+                            const TupleSchema *inner_schema);
+        bool setKey(TableTuple &key, const TableTuple &tuple, const std::vector<int> &columns);
+        static bool hasNull(const TableTuple &tuple, const std::vector<int> &columns);
+
+        // Join key offsets in the outer and inner tables
+        std::vector<int> m_outerKeyColumns;
+        std::vector<int> m_innerKeyColumns;
+
+        // Columns from equality clauses that we can't hash because their types
+        // don't match. A NULL in one of them still means that the tuple can't match.
+        std::vector<int> m_outerNotNullColumns;
+        std::vector<int> m_innerNotNullColumns;
+
+        // The types that both sides of each join key are cast to before we hash them
+        std::vector<ValueType> m_keyTypes;
+        std::vector<int32_t> m_keySizes;
+        TupleSchema *m_keySchema;
+
+        // Storage for the key tuples in the hash table. Purged after every execution.
+        Pool m_memoryPool;
+        HashJoinMapType m_hashTable;
+};
+
+}
+
+#endif
@@ -539,7 +539,7 @@ bool IndexScanExecutor::p_execute(const NValueArray &params, ReadWriteTracker *t
         
         // Read/Write Set Tracking
         if (tracker != NULL) {
-            tracker->markTupleRead(m_targetTable->name(), &m_tuple);
+            tracker->markTupleRead(m_targetTable, &m_tuple);
         }
         
         #ifdef ANTICACHE
@@ -634,7 +634,7 @@ bool IndexScanExecutor::p_execute(const NValueArray &params, ReadWriteTracker *t
                                              m_projectionExpressions[ctr]->eval(&m_tuple, NULL));
                     }
                 }
-                m_outputTable->insertTupleNonVirtual(temp_tuple);
+                if (!outputTuple(temp_tuple)) break;
                 tuples_written++;
             }
             else
@@ -645,7 +645,7 @@ bool IndexScanExecutor::p_execute(const NValueArray &params, ReadWriteTracker *t
                 //
                 // Try to put the tuple into our output table
                 //
-                m_outputTable->insertTupleNonVirtual(m_tuple);
+                if (!outputTuple(m_tuple)) break;
                 tuples_written++;
             }
             
@@ -701,14 +701,14 @@ bool IndexScanExecutor::p_execute(const NValueArray &params, ReadWriteTracker *t
                                          m_projectionExpressions[ctr]->eval(&m_tuple, NULL));
                 }
             }
-            m_outputTable->insertTupleNonVirtual(temp_tuple);
+            outputTuple(temp_tuple);
         }
         else
         //
         // Straight Insert
         //
         {
-            m_outputTable->insertTupleNonVirtual(m_tuple);
+            outputTuple(m_tuple);
         }
     }
     
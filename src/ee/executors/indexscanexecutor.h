@@ -83,10 +83,24 @@ public:
     }
     ~IndexScanExecutor();
 
+    bool supportsPipelinedOutput() { return true; }
+
 protected:
     bool p_init(AbstractPlanNode*, const catalog::Database* catalog_db, int* tempTableMemoryInBytes);
     bool p_execute(const NValueArray &params, ReadWriteTracker *tracker);
 
+    /**
+     * Give the tuple to our pipeline consumer or insert it into our output table.
+     * Returns false if we should stop scanning.
+     */
+    inline bool outputTuple(TableTuple &tuple) {
+        if (pipeline_consumer != NULL) {
+            return (pipeline_consumer->pushTuple(tuple));
+        }
+        m_outputTable->insertTupleNonVirtual(tuple);
+        return (true);
+    }
+
     // Data in this class is arranged roughly in the order it is read for
     // p_execute(). Please don't reshuffle it only in the name of beauty.
 
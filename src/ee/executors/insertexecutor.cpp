@@ -144,7 +144,7 @@ bool InsertExecutor::p_execute(const NValueArray &params, ReadWriteTracker *trac
 
             // get the value for the partition column
             NValue value = m_tuple.getNValue(m_partitionColumn);
-            bool isLocal = m_engine->isLocalSite(value);
+            bool isLocal = m_engine->isLocalSite(value, m_targetTable->name());
 
             // if it doesn't map to this site
             if (!isLocal) {
@@ -47,6 +47,7 @@
 #include "common/debuglog.h"
 #include "common/common.h"
 #include "common/tabletuple.h"
+#include "common/SerializableEEException.h"
 #include "plannodes/limitnode.h"
 #include "storage/table.h"
 #include "storage/temptable.h"
@@ -79,10 +80,62 @@ LimitExecutor::p_init(AbstractPlanNode* abstract_node,
                                               node->getInputTables()[0]->name(),
                                               node->getInputTables()[0],
                                               tempTableMemoryInBytes));
+        output_table = node->getOutputTable();
     }
     return true;
 }
 
+bool
+LimitExecutor::supportsPipelinedInput()
+{
+    return (!abstract_node->isInline());
+}
+
+bool
+LimitExecutor::supportsPipelinedOutput()
+{
+    return (!abstract_node->isInline());
+}
+
+void
+LimitExecutor::p_openPipeline(const NValueArray &params)
+{
+    LimitPlanNode* node = dynamic_cast<LimitPlanNode*>(abstract_node);
+    assert(node);
+    pipeline_limit = 0;
+    pipeline_offset = 0;
+    pipeline_ctr = 0;
+    node->getLimitAndOffsetByReference(params, pipeline_limit, pipeline_offset);
+}
+
+bool
+LimitExecutor::p_pushTuple(TableTuple &tuple)
+{
+    if (pipeline_offset > 0)
+    {
+        pipeline_offset--;
+        return true;
+    }
+    if (pipeline_ctr >= pipeline_limit)
+    {
+        return false;
+    }
+    if (pipeline_consumer != NULL)
+    {
+        if (!pipeline_consumer->pushTuple(tuple))
+        {
+            return false;
+        }
+    }
+    else if (!output_table->insertTuple(tuple))
+    {
+        throw SerializableEEException(VOLT_EE_EXCEPTION_TYPE_EEEXCEPTION,
+                                      "Failed to insert tuple into output table '" +
+                                      output_table->name() + "'");
+    }
+    return (++pipeline_ctr < pipeline_limit);
+}
+
 bool
 LimitExecutor::p_execute(const NValueArray &params, ReadWriteTracker *tracker)
 {
@@ -102,26 +155,28 @@ LimitExecutor::p_execute(const NValueArray &params, ReadWriteTracker *tracker)
     int tuple_ctr = 0;
 
     int limit = 0, offset = 0;
-    bool start = (node->getOffset() == 0);
     node->getLimitAndOffsetByReference(params, limit, offset);
 
-    while (iterator.next(tuple) && (tuple_ctr < limit))
+    // Count the tuples that we skip ourselves instead of looking at the
+    // iterator's location. If our input is a persistent table, then the
+    // location includes the deleted tuples that the iterator passed over.
+    // This has to skip the same tuples as p_pushTuple()
+    while ((tuple_ctr < limit) && iterator.next(tuple))
     {
         // TODO: need a way to skip / iterate N items.
-        if (start) {
-            if (!output_table->insertTuple(tuple))
-            {
-                VOLT_ERROR("Failed to insert tuple from input table '%s' into"
-                           " output table '%s'",
-                           input_table->name().c_str(),
-                           output_table->name().c_str());
-                return false;
-            }
-            tuple_ctr++;
-        } else
+        if (offset > 0) {
+            offset--;
+            continue;
+        }
+        if (!output_table->insertTuple(tuple))
         {
-            start = (iterator.getLocation() >= offset);
+            VOLT_ERROR("Failed to insert tuple from input table '%s' into"
+                       " output table '%s'",
+                       input_table->name().c_str(),
+                       output_table->name().c_str());
+            return false;
         }
+        tuple_ctr++;
     }
 
     return true;
@@ -62,16 +62,30 @@ namespace voltdb
     {
     public:
         LimitExecutor(VoltDBEngine* engine, AbstractPlanNode* abstract_node)
-            : AbstractExecutor(engine, abstract_node)
+            : AbstractExecutor(engine, abstract_node),
+              output_table(NULL), pipeline_limit(-1), pipeline_offset(0), pipeline_ctr(0)
         {
         }
 
         ~LimitExecutor() {
         }
 
+        bool supportsPipelinedInput();
+        bool supportsPipelinedOutput();
+
     protected:
         bool p_init(AbstractPlanNode*, const catalog::Database* catalog_db, int* tempTableMemoryInBytes);
         bool p_execute(const NValueArray &params, ReadWriteTracker *tracker);
+        void p_openPipeline(const NValueArray &params);
+        bool p_pushTuple(TableTuple &tuple);
+
+    private:
+        Table* output_table;
+
+        // Pipelined execution state
+        int pipeline_limit;
+        int pipeline_offset;
+        int pipeline_ctr;
     };
 
 }
@@ -54,6 +54,15 @@ namespace voltdb {
 
 class UndoLog;
 class ReadWriteSet;
+class AbstractExpression;
+
+/**
+ * Set whether the given TupleValueExpression in a join predicate reads
+ * from the outer (0) or the inner (1) tuple. Shared with HashJoinExecutor.
+ */
+bool assignTupleValueIndex(AbstractExpression *ae,
+                           const std::string &oname,
+                           const std::string &iname);
 
 /**
  *
@@ -44,6 +44,7 @@
  */
 
 #include <algorithm>
+#include <climits>
 #include <vector>
 #include "orderbyexecutor.h"
 #include "common/debuglog.h"
@@ -117,6 +118,31 @@ OrderByExecutor::p_init(AbstractPlanNode* abstract_node,
         dynamic_cast<LimitPlanNode*>(node->
                                      getInlinePlanNode(PLAN_NODE_TYPE_LIMIT));
 
+    //
+    // OPTIMIZATION: TOP-N
+    // If the planner put a LIMIT right above us (possibly with a projection
+    // in between, which does not change the number of tuples), then we only
+    // need to keep the first (limit + offset) tuples in sorted order.
+    //
+    parent_limit_node = NULL;
+    if (limit_node == NULL && node->getParents().size() == 1)
+    {
+        AbstractPlanNode *parent = node->getParents()[0];
+        if (parent->getPlanNodeType() == PLAN_NODE_TYPE_PROJECTION &&
+            parent->getChildren().size() == 1 &&
+            parent->getParents().size() == 1)
+        {
+            parent = parent->getParents()[0];
+        }
+        if (parent->getPlanNodeType() == PLAN_NODE_TYPE_LIMIT &&
+            parent->getChildren().size() == 1)
+        {
+            parent_limit_node = dynamic_cast<LimitPlanNode*>(parent);
+            VOLT_TRACE("Using top-N sort for OrderBy below '%s'",
+                       parent->debug().c_str());
+        }
+    }
+
     return true;
 }
 
@@ -178,35 +204,86 @@ OrderByExecutor::p_execute(const NValueArray &params, ReadWriteTracker *tracker)
     // How nice! We can also cut off our scanning with a nested limit!
     //
     int limit = -1;
-    int offset = -1;
+    int offset = 0;
     if (limit_node != NULL)
     {
         limit_node->getLimitAndOffsetByReference(params, limit, offset);
-        if (offset > 0)
+    }
+
+    //
+    // OPTIMIZATION: TOP-N
+    // The number of tuples that we actually need to sort. If there is a limit
+    // above us, then it will still need to see the tuples that it skips
+    // for its offset, so we don't skip them here.
+    //
+    int top_n = -1;
+    if (limit_node != NULL && limit >= 0)
+    {
+        top_n = (limit > INT_MAX - offset ? -1 : limit + offset);
+    }
+    else if (parent_limit_node != NULL)
+    {
+        int parent_limit = -1;
+        int parent_offset = 0;
+        parent_limit_node->getLimitAndOffsetByReference(params, parent_limit,
+                                                        parent_offset);
+        if (parent_limit >= 0 && parent_limit <= INT_MAX - parent_offset)
         {
-            VOLT_ERROR("Nested Limit Offset is not yet supported for PlanNode"
-                       " '%s'", node->debug().c_str());
-            return false;
+            top_n = parent_limit + parent_offset;
         }
     }
 
     VOLT_TRACE("Running OrderBy '%s'", abstract_node->debug().c_str());
     VOLT_TRACE("Input Table:\n '%s'", input_table->debug().c_str());
+    TupleComparer comparer(node->getSortColumns(), node->getSortDirections());
     TableIterator iterator(input_table);
     TableTuple tuple(input_table->schema());
     vector<TableTuple> xs;
-    while (iterator.next(tuple))
+    if (top_n >= 0 && top_n < input_table->activeTupleCount())
+    {
+        //
+        // Keep a max-heap of the best top_n tuples that we've seen so far.
+        // The root of the heap is the tuple that would be evicted next.
+        //
+        VOLT_TRACE("Using top-%d heap sort for %d tuples", top_n,
+                   (int)input_table->activeTupleCount());
+        xs.reserve(top_n);
+        while (top_n > 0 && iterator.next(tuple))
+        {
+            assert(tuple.isActive());
+            if (xs.size() < (size_t)top_n)
+            {
+                xs.push_back(tuple);
+                push_heap(xs.begin(), xs.end(), comparer);
+            }
+            else if (comparer(tuple, xs.front()))
+            {
+                pop_heap(xs.begin(), xs.end(), comparer);
+                xs.back() = tuple;
+                push_heap(xs.begin(), xs.end(), comparer);
+            }
+        }
+        sort_heap(xs.begin(), xs.end(), comparer);
+    }
+    else
     {
-        assert(tuple.isActive());
-        xs.push_back(tuple);
+        while (iterator.next(tuple))
+        {
+            assert(tuple.isActive());
+            xs.push_back(tuple);
+        }
+        VOLT_TRACE("\n***** Input Table PreSort:\n '%s'",
+                   input_table->debug().c_str());
+        sort(xs.begin(), xs.end(), comparer);
     }
-    VOLT_TRACE("\n***** Input Table PreSort:\n '%s'",
-               input_table->debug().c_str());
-    sort(xs.begin(), xs.end(), TupleComparer(node->getSortColumns(),
-                                             node->getSortDirections()));
 
     int tuple_ctr = 0;
-    for (vector<TableTuple>::iterator it = xs.begin(); it != xs.end(); it++)
+    vector<TableTuple>::iterator it = xs.begin();
+    if (limit_node != NULL && offset > 0)
+    {
+        it += min((size_t)offset, xs.size());
+    }
+    for (; it != xs.end(); it++)
     {
         VOLT_TRACE("\n***** Input Table PostSort:\n '%s'",
                    input_table->debug().c_str());
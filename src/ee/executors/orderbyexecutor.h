@@ -62,7 +62,7 @@ namespace voltdb {
     class OrderByExecutor : public AbstractExecutor {
     public:
         OrderByExecutor(VoltDBEngine *engine, AbstractPlanNode* abstract_node)
-            : AbstractExecutor(engine, abstract_node), limit_node(NULL)
+            : AbstractExecutor(engine, abstract_node), limit_node(NULL), parent_limit_node(NULL)
             { }
         ~OrderByExecutor();
 
@@ -73,6 +73,13 @@ namespace voltdb {
 
     private:
         LimitPlanNode *limit_node;
+
+        /**
+         * The LimitPlanNode that will be executed on our output (if any).
+         * If it is set, then we only need to keep the top (limit + offset)
+         * tuples and the LimitExecutor will take care of the rest.
+         */
+        LimitPlanNode *parent_limit_node;
     };
 
 }
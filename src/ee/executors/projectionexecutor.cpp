@@ -115,26 +115,20 @@ bool ProjectionExecutor::p_init(AbstractPlanNode *abstract_node,
     return true;
 }
 
-bool ProjectionExecutor::p_execute(const NValueArray &params, ReadWriteTracker *tracker) {
-#ifndef NDEBUG
-    ProjectionPlanNode* node = dynamic_cast<ProjectionPlanNode*>(abstract_node);
-#endif
-    assert (node);
-    assert (!node->isInline()); // inline projection's execute() should not be
-                                // called
-    assert (output_table == dynamic_cast<TempTable*>(node->getOutputTable()));
-    assert (output_table);
-    assert (input_table == node->getInputTables()[0]);
-    assert (input_table);
+bool ProjectionExecutor::supportsPipelinedInput() {
+    return (!abstract_node->isInline());
+}
 
-    VOLT_TRACE("INPUT TABLE: %s\n", input_table->debug().c_str());
+bool ProjectionExecutor::supportsPipelinedOutput() {
+    return (!abstract_node->isInline());
+}
 
+void ProjectionExecutor::substituteParams(const NValueArray &params) {
     //
     // Since we have the input params, we need to call substitute to change any
     // nodes in our expression tree to be ready for the projection operations in
     // execute
     //
-    assert (num_of_columns == (int)node->getOutputColumnNames().size());
     if (all_tuple_array == NULL && all_param_array == NULL) {
         for (int ctr = num_of_columns - 1; ctr >= 0; --ctr) {
             assert(expression_array[ctr]);
@@ -143,6 +137,62 @@ bool ProjectionExecutor::p_execute(const NValueArray &params, ReadWriteTracker *
                        expression_array[ctr]->debug(true).c_str());
         }
     }
+}
+
+TableTuple& ProjectionExecutor::projectTuple(const NValueArray &params, TableTuple &input_tuple) {
+    //
+    // Project (or replace) values from input tuple
+    //
+    TableTuple &temp_tuple = output_table->tempTuple();
+    if (all_tuple_array != NULL) {
+        VOLT_TRACE("sweet, all tuples");
+        for (int ctr = num_of_columns - 1; ctr >= 0; --ctr) {
+            try {
+                temp_tuple.setNValue(ctr, input_tuple.getNValue(all_tuple_array[ctr]));
+            } catch (SerializableEEException &e) {
+                VOLT_ERROR("[Type0] Failed to project column #%02d: %s", ctr, e.message().c_str());
+                throw e;
+            }
+        } // FOR
+    } else if (all_param_array != NULL) {
+        VOLT_TRACE("sweet, all params");
+        for (int ctr = num_of_columns - 1; ctr >= 0; --ctr) {
+            try {
+                temp_tuple.setNValue(ctr, params[all_param_array[ctr]]);
+            } catch (SerializableEEException &e) {
+                VOLT_ERROR("[Type1] Failed to project column #%02d: %s", ctr, e.message().c_str());
+                throw e;
+            }   
+        } // FOR
+    } else {
+        for (int ctr = num_of_columns - 1; ctr >= 0; --ctr) {
+            try {
+                temp_tuple.setNValue(ctr, expression_array[ctr]->eval(&input_tuple, NULL));
+            } catch (SerializableEEException &e) {
+                VOLT_ERROR("[Type2] Failed to project column #%02d: %s", ctr, e.message().c_str());
+                throw e;
+            }
+        } // FOR
+    }
+    return (temp_tuple);
+}
+
+bool ProjectionExecutor::p_execute(const NValueArray &params, ReadWriteTracker *tracker) {
+#ifndef NDEBUG
+    ProjectionPlanNode* node = dynamic_cast<ProjectionPlanNode*>(abstract_node);
+#endif
+    assert (node);
+    assert (!node->isInline()); // inline projection's execute() should not be
+                                // called
+    assert (output_table == dynamic_cast<TempTable*>(node->getOutputTable()));
+    assert (output_table);
+    assert (input_table == node->getInputTables()[0]);
+    assert (input_table);
+
+    VOLT_TRACE("INPUT TABLE: %s\n", input_table->debug().c_str());
+
+    assert (num_of_columns == (int)node->getOutputColumnNames().size());
+    substituteParams(params);
 
     //
     // Now loop through all the tuples and push them through our output
@@ -152,41 +202,12 @@ bool ProjectionExecutor::p_execute(const NValueArray &params, ReadWriteTracker *
     TableIterator iterator(input_table);
     assert (tuple.sizeInValues() == input_table->columnCount());
     while (iterator.next(tuple)) {
-        //
-        // Project (or replace) values from input tuple
-        //
-        TableTuple &temp_tuple = output_table->tempTuple();
-        if (all_tuple_array != NULL) {
-            VOLT_TRACE("sweet, all tuples");
-            for (int ctr = num_of_columns - 1; ctr >= 0; --ctr) {
-                try {
-                    temp_tuple.setNValue(ctr, tuple.getNValue(all_tuple_array[ctr]));
-                } catch (SerializableEEException &e) {
-                    VOLT_ERROR("[Type0] Failed to project column #%02d: %s", ctr, e.message().c_str());
-                    throw e;
-                }
-            } // FOR
-        } else if (all_param_array != NULL) {
-            VOLT_TRACE("sweet, all params");
-            for (int ctr = num_of_columns - 1; ctr >= 0; --ctr) {
-                try {
-                    temp_tuple.setNValue(ctr, params[all_param_array[ctr]]);
-                } catch (SerializableEEException &e) {
-                    VOLT_ERROR("[Type1] Failed to project column #%02d: %s", ctr, e.message().c_str());
-                    throw e;
-                }   
-            } // FOR
+        TableTuple &temp_tuple = projectTuple(params, tuple);
+        if (pipeline_consumer != NULL) {
+            if (!pipeline_consumer->pushTuple(temp_tuple)) break;
         } else {
-            for (int ctr = num_of_columns - 1; ctr >= 0; --ctr) {
-                try {
-                    temp_tuple.setNValue(ctr, expression_array[ctr]->eval(&tuple, NULL));
-                } catch (SerializableEEException &e) {
-                    VOLT_ERROR("[Type2] Failed to project column #%02d: %s", ctr, e.message().c_str());
-                    throw e;
-                }
-            } // FOR
+            output_table->insertTupleNonVirtual(temp_tuple);
         }
-        output_table->insertTupleNonVirtual(temp_tuple);
         /*if (!output_table->insertTupleNonVirtual(temp_tuple)) {
             // TODO: DEBUG
             VOLT_ERROR("Failed to insert projection tuple from input table '%s' into output table '%s'", input_table->name().c_str(), output_table->name().c_str());
@@ -199,6 +220,23 @@ bool ProjectionExecutor::p_execute(const NValueArray &params, ReadWriteTracker *
     return (true);
 }
 
+void ProjectionExecutor::p_openPipeline(const NValueArray &params) {
+    // The params array belongs to the engine and does not change
+    // while the fragment is executing
+    pipeline_params = &params;
+    substituteParams(params);
+}
+
+bool ProjectionExecutor::p_pushTuple(TableTuple &input_tuple) {
+    assert (pipeline_params != NULL);
+    TableTuple &temp_tuple = projectTuple(*pipeline_params, input_tuple);
+    if (pipeline_consumer != NULL) {
+        return (pipeline_consumer->pushTuple(temp_tuple));
+    }
+    output_table->insertTupleNonVirtual(temp_tuple);
+    return (true);
+}
+
 ProjectionExecutor::~ProjectionExecutor() {
 }
 
@@ -66,13 +66,26 @@ class ProjectionExecutor : public AbstractExecutor {
     public:
         ProjectionExecutor(VoltDBEngine *engine, AbstractPlanNode* abstract_node) : AbstractExecutor(engine, abstract_node) {
             output_table = NULL;
+            pipeline_params = NULL;
         }
         ~ProjectionExecutor();
+
+        bool supportsPipelinedInput();
+        bool supportsPipelinedOutput();
+
     protected:
         bool p_init(AbstractPlanNode*, const catalog::Database* catalog_db, int* tempTableMemoryInBytes);
         bool p_execute(const NValueArray &params, ReadWriteTracker *tracker);
+        void p_openPipeline(const NValueArray &params);
+        bool p_pushTuple(TableTuple &tuple);
 
     private:
+        void substituteParams(const NValueArray &params);
+        TableTuple& projectTuple(const NValueArray &params, TableTuple &input_tuple);
+
+        // The parameters for the current pipelined execution
+        const NValueArray *pipeline_params;
+
         TempTable* output_table;
         Table* input_table;
         int num_of_columns;
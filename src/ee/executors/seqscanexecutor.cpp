@@ -50,6 +50,7 @@
 #include "common/tabletuple.h"
 #include "common/FatalException.hpp"
 #include "expressions/abstractexpression.h"
+#include "expressions/batchpredicate.h"
 #include "plannodes/seqscannode.h"
 #include "plannodes/projectionnode.h"
 #include "plannodes/limitnode.h"
@@ -60,6 +61,10 @@
 
 using namespace voltdb;
 
+SeqScanExecutor::~SeqScanExecutor() {
+    delete m_batchPredicate;
+}
+
 bool SeqScanExecutor::p_init(AbstractPlanNode *abstract_node,
                              const catalog::Database* catalog_db,
                              int* tempTableMemoryInBytes) {
@@ -113,6 +118,17 @@ bool SeqScanExecutor::p_init(AbstractPlanNode *abstract_node,
                     tempTableMemoryInBytes));
         }
     }
+
+    //
+    // OPTIMIZATION: BATCH PREDICATE
+    //
+    // If the predicate is just a bunch of comparisons between columns
+    // and constants/parameters, then we can evaluate it on a block of
+    // tuples at a time without going through the expression tree
+    //
+    delete m_batchPredicate;
+    m_batchPredicate = BatchPredicate::compile(node->getPredicate(),
+                                               node->getTargetTable()->schema());
     return true;
 }
 
@@ -125,6 +141,12 @@ bool SeqScanExecutor::needsOutputTableClear() {
     return node->needsOutputTableClear();
 }
 
+bool SeqScanExecutor::supportsPipelinedOutput() {
+    // If we don't have a predicate, then our output table is the
+    // target table and there is nothing to copy in the first place
+    return this->needsOutputTableClear();
+}
+
 bool SeqScanExecutor::p_execute(const NValueArray &params, ReadWriteTracker *tracker) {
     SeqScanPlanNode* node = dynamic_cast<SeqScanPlanNode*>(abstract_node);
     assert(node);
@@ -203,62 +225,77 @@ bool SeqScanExecutor::p_execute(const NValueArray &params, ReadWriteTracker *tra
         }
 
         int tuple_ctr = 0;
-        while (iterator.next(tuple))
+        bool stop = false;
+        if (m_batchPredicate != NULL && m_batchPredicate->bind())
         {
-            // Read/Write Set Tracking
-            if (tracker != NULL) {
-                tracker->markTupleRead(target_table->name(), &tuple);
-            }
-            
-            target_table->updateTupleAccessCount();
-            VOLT_TRACE("INPUT TUPLE: %s, %d/%d\n",
-                       tuple.debug(target_table->name()).c_str(), tuple_ctr,
-                       (int)target_table->activeTupleCount());
             //
-            // For each tuple we need to evaluate it against our predicate
+            // Grab a block of tuples from the table and figure out which ones
+            // match the predicate all at once. We still go through every tuple
+            // in the block in order for the tracking and the limit
             //
-            if (predicate == NULL || predicate->eval(&tuple, NULL).isTrue())
+            char* block[BatchPredicate::BLOCK_SIZE];
+            uint16_t selection[BatchPredicate::BLOCK_SIZE];
+            int count = BatchPredicate::BLOCK_SIZE;
+            while (!stop && count == BatchPredicate::BLOCK_SIZE)
             {
-                //
-                // Nested Projection
-                // Project (or replace) values from input tuple
-                //
-                if (projection_node != NULL)
+                count = 0;
+                while (count < BatchPredicate::BLOCK_SIZE && iterator.next(tuple)) {
+                    block[count++] = tuple.address();
+                } // WHILE
+                int matches = m_batchPredicate->filter(block, count, selection);
+
+                for (int ctr = 0, next = 0; ctr < count && !stop; ctr++)
                 {
-                    TableTuple &temp_tuple = output_table->tempTuple();
-                    for (int ctr = 0; ctr < num_of_columns; ctr++)
-                    {
-                        NValue value =
-                            projection_node->
-                          getOutputColumnExpressions()[ctr]->eval(&tuple, NULL);
-                        temp_tuple.setNValue(ctr, value);
+                    tuple.move(block[ctr]);
+
+                    // Read/Write Set Tracking
+                    if (tracker != NULL) {
+                        tracker->markTupleRead(target_table, &tuple);
                     }
-                    if (!output_table->insertTuple(temp_tuple))
-                    {
-                        VOLT_ERROR("Failed to insert tuple from table '%s' into"
-                                   " output table '%s'",
-                                   target_table->name().c_str(),
-                                   output_table->name().c_str());
+                    target_table->updateTupleAccessCount();
+
+                    if (next == matches || selection[next] != ctr) continue;
+                    next++;
+
+                    if (!outputTuple(tuple, target_table, output_table,
+                                     projection_node, num_of_columns, stop)) {
                         return false;
                     }
+                    ++tuple_ctr;
+                    // Check whether we have gone past our limit
+                    if (limit >= 0 && tuple_ctr >= limit) {
+                        stop = true;
+                    }
+                } // FOR
+            } // WHILE
+        }
+        else
+        {
+            while (!stop && iterator.next(tuple))
+            {
+                // Read/Write Set Tracking
+                if (tracker != NULL) {
+                    tracker->markTupleRead(target_table, &tuple);
                 }
-                else
+
+                target_table->updateTupleAccessCount();
+                VOLT_TRACE("INPUT TUPLE: %s, %d/%d\n",
+                           tuple.debug(target_table->name()).c_str(), tuple_ctr,
+                           (int)target_table->activeTupleCount());
+                //
+                // For each tuple we need to evaluate it against our predicate
+                //
+                if (predicate == NULL || predicate->eval(&tuple, NULL).isTrue())
                 {
-                    //
-                    // Insert the tuple into our output table
-                    //
-                    if (!output_table->insertTuple(tuple)) {
-                        VOLT_ERROR("Failed to insert tuple from table '%s' into"
-                                   " output table '%s'",
-                                   target_table->name().c_str(),
-                                   output_table->name().c_str());
+                    if (!outputTuple(tuple, target_table, output_table,
+                                     projection_node, num_of_columns, stop)) {
                         return false;
                     }
-                }
-                ++tuple_ctr;
-                // Check whether we have gone past our limit
-                if (limit >= 0 && tuple_ctr >= limit) {
-                    break;
+                    ++tuple_ctr;
+                    // Check whether we have gone past our limit
+                    if (limit >= 0 && tuple_ctr >= limit) {
+                        break;
+                    }
                 }
             }
         }
@@ -268,3 +305,53 @@ bool SeqScanExecutor::p_execute(const NValueArray &params, ReadWriteTracker *tra
 
     return true;
 }
+
+bool SeqScanExecutor::outputTuple(TableTuple &tuple, Table *target_table, Table *output_table,
+                                  ProjectionPlanNode *projection_node, int num_of_columns,
+                                  bool &stop) {
+    //
+    // Nested Projection
+    // Project (or replace) values from input tuple
+    //
+    if (projection_node != NULL)
+    {
+        TableTuple &temp_tuple = output_table->tempTuple();
+        for (int ctr = 0; ctr < num_of_columns; ctr++)
+        {
+            NValue value =
+                projection_node->
+              getOutputColumnExpressions()[ctr]->eval(&tuple, NULL);
+            temp_tuple.setNValue(ctr, value);
+        }
+        if (pipeline_consumer != NULL)
+        {
+            stop = !pipeline_consumer->pushTuple(temp_tuple);
+        }
+        else if (!output_table->insertTuple(temp_tuple))
+        {
+            VOLT_ERROR("Failed to insert tuple from table '%s' into"
+                       " output table '%s'",
+                       target_table->name().c_str(),
+                       output_table->name().c_str());
+            return false;
+        }
+    }
+    else
+    {
+        //
+        // Insert the tuple into our output table
+        // (or give it straight to our parent)
+        //
+        if (pipeline_consumer != NULL) {
+            stop = !pipeline_consumer->pushTuple(tuple);
+        }
+        else if (!output_table->insertTuple(tuple)) {
+            VOLT_ERROR("Failed to insert tuple from table '%s' into"
+                       " output table '%s'",
+                       target_table->name().c_str(),
+                       output_table->name().c_str());
+            return false;
+        }
+    }
+    return true;
+}
@@ -54,17 +54,27 @@ namespace voltdb
 {
     class UndoLog;
     class ReadWriteSet;
+    class BatchPredicate;
+    class ProjectionPlanNode;
 
     class SeqScanExecutor : public AbstractExecutor {
     public:
         SeqScanExecutor(VoltDBEngine *engine, AbstractPlanNode* abstract_node)
-            : AbstractExecutor(engine, abstract_node)
+            : AbstractExecutor(engine, abstract_node), m_batchPredicate(NULL)
         {}
+        ~SeqScanExecutor();
+        bool supportsPipelinedOutput();
     protected:
         bool p_init(AbstractPlanNode* abstract_node,
                     const catalog::Database* catalog_db, int* tempTableMemoryInBytes);
         bool p_execute(const NValueArray& params, ReadWriteTracker *tracker);
         bool needsOutputTableClear();
+    private:
+        bool outputTuple(TableTuple &tuple, Table *target_table, Table *output_table,
+                         ProjectionPlanNode *projection_node, int num_of_columns, bool &stop);
+
+        /** The scan predicate compiled for block-at-a-time evaluation (may be NULL) */
+        BatchPredicate *m_batchPredicate;
     };
 }
 
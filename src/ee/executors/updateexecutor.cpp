@@ -167,7 +167,7 @@ bool UpdateExecutor::p_execute(const NValueArray &params, ReadWriteTracker *trac
         
         // Read/Write Set Tracking
         if (tracker != NULL) {
-            tracker->markTupleWritten(m_targetTable->name(), &m_targetTuple);
+            tracker->markTupleWritten(m_targetTable, &m_targetTuple);
         }
 
         // Loop through INPUT_COL_IDX->TARGET_COL_IDX mapping and only update
@@ -188,7 +188,7 @@ bool UpdateExecutor::p_execute(const NValueArray &params, ReadWriteTracker *trac
             // check for partition problems
             // get the value for the partition column
             NValue value = tempTuple.getNValue(m_partitionColumn);
-            bool isLocal = m_engine->isLocalSite(value);
+            bool isLocal = m_engine->isLocalSite(value, m_targetTable->name());
 
             // if it doesn't map to this site
             if (!isLocal) {
@@ -0,0 +1,262 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2010 VoltDB L.L.C.
+ *
+ * This file contains original code and/or modifications of original code.
+ * Any modifications made by VoltDB L.L.C. are licensed under the following
+ * terms and conditions:
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/* Copyright (C) 2008 by H-Store Project
+ * Brown University
+ * Massachusetts Institute of Technology
+ * Yale University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+#include "batchpredicate.h"
+
+#include "common/debuglog.h"
+#include "common/NValue.hpp"
+#include "common/ValuePeeker.hpp"
+#include "common/TupleSchema.h"
+#include "expressions/abstractexpression.h"
+#include "expressions/tuplevalueexpression.h"
+
+namespace voltdb {
+
+// ------------------------------------------------------------------
+// Comparison operators
+// ------------------------------------------------------------------
+
+struct BatchCmpEq  { template <typename T> static inline bool cmp(T l, T r) { return l == r; } };
+struct BatchCmpNe  { template <typename T> static inline bool cmp(T l, T r) { return l != r; } };
+struct BatchCmpLt  { template <typename T> static inline bool cmp(T l, T r) { return l < r; } };
+struct BatchCmpGt  { template <typename T> static inline bool cmp(T l, T r) { return l > r; } };
+struct BatchCmpLte { template <typename T> static inline bool cmp(T l, T r) { return l <= r; } };
+struct BatchCmpGte { template <typename T> static inline bool cmp(T l, T r) { return l >= r; } };
+
+/**
+ * Compare an integer column against a BIGINT value.
+ * NValue widens a NULL column to INT64_NULL before it compares, so we do too.
+ */
+template <typename T, int64_t NULL_VALUE, typename C>
+static int filterInteger(const BatchPredicate::Clause &clause, char * const *tuples, uint16_t *selection, int count) {
+    const int64_t rhs = clause.intValue;
+    const uint32_t offset = clause.offset;
+    int matches = 0;
+    for (int i = 0; i < count; i++) {
+        const T raw = *reinterpret_cast<const T*>(tuples[selection[i]] + offset);
+        const int64_t lhs = (raw == static_cast<T>(NULL_VALUE) ? INT64_NULL : static_cast<int64_t>(raw));
+        // Always write the position and only advance on a match to avoid a branch
+        selection[matches] = selection[i];
+        matches += C::cmp(lhs, rhs);
+    } // FOR
+    return (matches);
+}
+
+template <typename C>
+static int filterDouble(const BatchPredicate::Clause &clause, char * const *tuples, uint16_t *selection, int count) {
+    const double rhs = clause.doubleValue;
+    const uint32_t offset = clause.offset;
+    int matches = 0;
+    for (int i = 0; i < count; i++) {
+        const double lhs = *reinterpret_cast<const double*>(tuples[selection[i]] + offset);
+        selection[matches] = selection[i];
+        matches += C::cmp(lhs, rhs);
+    } // FOR
+    return (matches);
+}
+
+template <typename C>
+static BatchPredicate::FilterFunction getFilterFunction(ValueType type) {
+    switch (type) {
+        case VALUE_TYPE_TINYINT:
+            return (&filterInteger<int8_t, INT8_NULL, C>);
+        case VALUE_TYPE_SMALLINT:
+            return (&filterInteger<int16_t, INT16_NULL, C>);
+        case VALUE_TYPE_INTEGER:
+            return (&filterInteger<int32_t, INT32_NULL, C>);
+        case VALUE_TYPE_BIGINT:
+        case VALUE_TYPE_TIMESTAMP:
+            return (&filterInteger<int64_t, INT64_NULL, C>);
+        case VALUE_TYPE_DOUBLE:
+            return (&filterDouble<C>);
+        default:
+            return (NULL);
+    }
+}
+
+static BatchPredicate::FilterFunction getFilterFunction(ExpressionType comparison, ValueType type) {
+    switch (comparison) {
+        case EXPRESSION_TYPE_COMPARE_EQUAL:
+            return (getFilterFunction<BatchCmpEq>(type));
+        case EXPRESSION_TYPE_COMPARE_NOTEQUAL:
+            return (getFilterFunction<BatchCmpNe>(type));
+        case EXPRESSION_TYPE_COMPARE_LESSTHAN:
+            return (getFilterFunction<BatchCmpLt>(type));
+        case EXPRESSION_TYPE_COMPARE_GREATERTHAN:
+            return (getFilterFunction<BatchCmpGt>(type));
+        case EXPRESSION_TYPE_COMPARE_LESSTHANOREQUALTO:
+            return (getFilterFunction<BatchCmpLte>(type));
+        case EXPRESSION_TYPE_COMPARE_GREATERTHANOREQUALTO:
+            return (getFilterFunction<BatchCmpGte>(type));
+        default:
+            return (NULL);
+    }
+}
+
+/**
+ * Returns the comparison that we get if we swap the left and right sides
+ */
+static ExpressionType reverseComparison(ExpressionType comparison) {
+    switch (comparison) {
+        case EXPRESSION_TYPE_COMPARE_LESSTHAN:
+            return (EXPRESSION_TYPE_COMPARE_GREATERTHAN);
+        case EXPRESSION_TYPE_COMPARE_GREATERTHAN:
+            return (EXPRESSION_TYPE_COMPARE_LESSTHAN);
+        case EXPRESSION_TYPE_COMPARE_LESSTHANOREQUALTO:
+            return (EXPRESSION_TYPE_COMPARE_GREATERTHANOREQUALTO);
+        case EXPRESSION_TYPE_COMPARE_GREATERTHANOREQUALTO:
+            return (EXPRESSION_TYPE_COMPARE_LESSTHANOREQUALTO);
+        default:
+            return (comparison);
+    }
+}
+
+static bool isValueExpression(const AbstractExpression *expr) {
+    return (expr->getExpressionType() == EXPRESSION_TYPE_VALUE_CONSTANT ||
+            expr->getExpressionType() == EXPRESSION_TYPE_VALUE_PARAMETER);
+}
+
+// ------------------------------------------------------------------
+// BatchPredicate
+// ------------------------------------------------------------------
+
+const int BatchPredicate::BLOCK_SIZE;
+
+BatchPredicate* BatchPredicate::compile(const AbstractExpression *predicate, const TupleSchema *schema) {
+    if (predicate == NULL) return (NULL);
+
+    std::vector<Clause> clauses;
+    if (!addClauses(predicate, schema, clauses)) {
+        VOLT_TRACE("Predicate cannot be evaluated in batch mode:\n%s", predicate->debug(true).c_str());
+        return (NULL);
+    }
+    BatchPredicate *retval = new BatchPredicate();
+    retval->m_clauses.swap(clauses);
+    VOLT_DEBUG("Compiled predicate into %d batch clauses", retval->getClauseCount());
+    return (retval);
+}
+
+bool BatchPredicate::addClauses(const AbstractExpression *expr, const TupleSchema *schema, std::vector<Clause> &clauses) {
+    if (expr == NULL) return (false);
+
+    if (expr->getExpressionType() == EXPRESSION_TYPE_CONJUNCTION_AND) {
+        return (addClauses(expr->getLeft(), schema, clauses) &&
+                addClauses(expr->getRight(), schema, clauses));
+    }
+
+    const AbstractExpression *left = expr->getLeft();
+    const AbstractExpression *right = expr->getRight();
+    if (left == NULL || right == NULL) return (false);
+
+    ExpressionType comparison = expr->getExpressionType();
+    const TupleValueExpression *column = NULL;
+    const AbstractExpression *value = NULL;
+    if (left->getExpressionType() == EXPRESSION_TYPE_VALUE_TUPLE && isValueExpression(right)) {
+        column = dynamic_cast<const TupleValueExpression*>(left);
+        value = right;
+    } else if (right->getExpressionType() == EXPRESSION_TYPE_VALUE_TUPLE && isValueExpression(left)) {
+        column = dynamic_cast<const TupleValueExpression*>(right);
+        value = left;
+        comparison = reverseComparison(comparison);
+    }
+    if (column == NULL || column->getTupleIndex() != 0) return (false);
+
+    const int columnId = column->getColumnId();
+    if (columnId < 0 || columnId >= schema->columnCount()) return (false);
+
+    Clause clause;
+    clause.offset = schema->columnOffset(columnId) + TUPLE_HEADER_SIZE;
+    clause.columnType = schema->columnType(columnId);
+    clause.comparison = comparison;
+    clause.value = value;
+    clause.intValue = 0;
+    clause.doubleValue = 0;
+    clause.function = getFilterFunction(comparison, clause.columnType);
+    if (clause.function == NULL) return (false);
+
+    clauses.push_back(clause);
+    return (true);
+}
+
+bool BatchPredicate::bind() {
+    for (std::vector<Clause>::iterator it = m_clauses.begin(); it != m_clauses.end(); ++it) {
+        const NValue value = it->value->eval(NULL, NULL);
+        const ValueType valueType = ValuePeeker::peekValueType(value);
+        switch (valueType) {
+            case VALUE_TYPE_TINYINT:
+            case VALUE_TYPE_SMALLINT:
+            case VALUE_TYPE_INTEGER:
+            case VALUE_TYPE_BIGINT:
+            case VALUE_TYPE_TIMESTAMP:
+                it->intValue = ValuePeeker::peekAsBigInt(value);
+                if (it->columnType == VALUE_TYPE_DOUBLE) {
+                    // Same as NValue::castAsDouble()
+                    it->doubleValue = (value.isNull() ? DOUBLE_MIN : static_cast<double>(it->intValue));
+                }
+                break;
+            case VALUE_TYPE_DOUBLE:
+                // An integer column would be cast to a double for every tuple
+                if (it->columnType != VALUE_TYPE_DOUBLE) return (false);
+                it->doubleValue = ValuePeeker::peekDouble(value);
+                break;
+            default:
+                return (false);
+        }
+    } // FOR
+    return (true);
+}
+
+int BatchPredicate::filter(char * const *tuples, int count, uint16_t *selection) const {
+    assert(count <= BLOCK_SIZE);
+    for (int i = 0; i < count; i++) {
+        selection[i] = static_cast<uint16_t>(i);
+    } // FOR
+    for (std::vector<Clause>::const_iterator it = m_clauses.begin(); it != m_clauses.end() && count > 0; ++it) {
+        count = it->function(*it, tuples, selection, count);
+    } // FOR
+    return (count);
+}
+
+}
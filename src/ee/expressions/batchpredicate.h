@@ -0,0 +1,127 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2010 VoltDB L.L.C.
+ *
+ * This file contains original code and/or modifications of original code.
+ * Any modifications made by VoltDB L.L.C. are licensed under the following
+ * terms and conditions:
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/* Copyright (C) 2008 by H-Store Project
+ * Brown University
+ * Massachusetts Institute of Technology
+ * Yale University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+#ifndef HSTOREBATCHPREDICATE_H
+#define HSTOREBATCHPREDICATE_H
+
+#include "common/common.h"
+#include "common/types.h"
+
+#include <vector>
+
+namespace voltdb {
+
+class AbstractExpression;
+class TupleSchema;
+
+/**
+ * A scan predicate that has been compiled into a list of simple
+ * column-vs-value comparisons so that it can be evaluated over a whole
+ * block of tuples at a time instead of calling eval() on every tuple.
+ *
+ * Only conjunctions (AND) of comparisons between a fixed-width column
+ * (TINYINT, SMALLINT, INTEGER, BIGINT, TIMESTAMP, DOUBLE) and a constant or a
+ * parameter are supported. Everything else has to go through the regular
+ * expression tree, so compile() returns NULL for those predicates.
+ * The comparisons follow NValue::compare() exactly, including how it
+ * treats NULLs, so the results are the same as eval().
+ */
+class BatchPredicate {
+public:
+    /** The largest number of tuples that can be passed to filter() */
+    static const int BLOCK_SIZE = 256;
+
+    /**
+     * Returns a new BatchPredicate for the given expression or NULL if
+     * the expression cannot be evaluated in batch mode.
+     */
+    static BatchPredicate* compile(const AbstractExpression *predicate, const TupleSchema *schema);
+
+    /**
+     * Load the current values of the constants and parameters. This has to be
+     * called after the predicate has been substitute()'d for every execution.
+     * Returns false if the values have a type that we cannot compare inline,
+     * in which case the caller has to fall back to eval() for this execution.
+     */
+    bool bind();
+
+    /**
+     * Evaluate the predicate on the given tuple addresses (including the
+     * tuple header). The positions of the tuples that match are written
+     * into the selection vector in order and the number of matches is returned.
+     */
+    int filter(char * const *tuples, int count, uint16_t *selection) const;
+
+    int getClauseCount() const {
+        return (int)m_clauses.size();
+    }
+
+    struct Clause;
+    typedef int (*FilterFunction)(const Clause &clause, char * const *tuples, uint16_t *selection, int count);
+
+    struct Clause {
+        /** Offset of the column's data from the start of the tuple */
+        uint32_t offset;
+        ValueType columnType;
+        /** The comparison with the column on the left-hand side */
+        ExpressionType comparison;
+        /** The constant or parameter expression that we compare against */
+        const AbstractExpression *value;
+        int64_t intValue;
+        double doubleValue;
+        FilterFunction function;
+    };
+
+private:
+    BatchPredicate() {}
+
+    static bool addClauses(const AbstractExpression *expr, const TupleSchema *schema, std::vector<Clause> &clauses);
+
+    std::vector<Clause> m_clauses;
+};
+
+}
+
+#endif
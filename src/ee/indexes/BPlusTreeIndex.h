@@ -0,0 +1,747 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2010 VoltDB L.L.C.
+ *
+ * This file contains original code and/or modifications of original code.
+ * Any modifications made by VoltDB L.L.C. are licensed under the following
+ * terms and conditions:
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/* Copyright (C) 2008 by H-Store Project
+ * Brown University
+ * Massachusetts Institute of Technology
+ * Yale University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+#ifndef BPLUSTREEINDEX_H_
+#define BPLUSTREEINDEX_H_
+
+#include <iostream>
+#include <sstream>
+#include "common/debuglog.h"
+#include "common/tabletuple.h"
+#include "indexes/tableindex.h"
+
+namespace voltdb {
+
+/**
+ * Ordered index implemented as an in-memory B+tree.
+ *
+ * The keys and tuple pointers of a node are stored in separate contiguous
+ * arrays and every node is sized to a handful of cache lines, so a node
+ * search only touches the key bytes. Unlike stx::btree and std::multimap,
+ * a leaf that receives an append at the right end of the tree is split so
+ * that the left leaf stays full. Monotonically increasing keys (which is
+ * how most of our primary keys are generated) therefore fill every leaf
+ * instead of leaving them half empty.
+ *
+ * Both unique and non-unique indexes use this class. A non-unique index
+ * orders duplicate keys by their tuple address, which lets deleteEntry()
+ * find the exact entry with a single descent.
+ *
+ * Leaves are freed as soon as they become empty, but partially filled
+ * nodes are not merged.
+ *
+ * @see TableIndex
+ */
+template<typename KeyType, class KeyComparator, class KeyEqualityChecker>
+class BPlusTreeIndex : public TableIndex
+{
+    friend class TableIndexFactory;
+
+    // Target size of a node in bytes (eight 64-byte cache lines)
+    static const int NODE_BYTES = 512;
+    static const int MIN_SLOTS = 8;
+    static const int LEAF_SLOTS =
+        (NODE_BYTES / (sizeof(KeyType) + sizeof(void*)) > MIN_SLOTS ?
+         NODE_BYTES / (sizeof(KeyType) + sizeof(void*)) : MIN_SLOTS);
+    static const int INNER_SLOTS =
+        (NODE_BYTES / (sizeof(KeyType) + 2 * sizeof(void*)) > MIN_SLOTS ?
+         NODE_BYTES / (sizeof(KeyType) + 2 * sizeof(void*)) : MIN_SLOTS);
+
+    // Below this many slots we finish a node search with a linear scan
+    static const int LINEAR_SEARCH_THRESHOLD = 8;
+
+    struct Node {
+        bool leaf;
+        // Number of entries in a leaf or separators in an inner node
+        int count;
+    };
+
+    struct LeafNode : public Node {
+        KeyType keys[LEAF_SLOTS];
+        const void* values[LEAF_SLOTS];
+        LeafNode *prev;
+        LeafNode *next;
+    };
+
+    // children[i] holds the entries that are >= separator i-1 and < separator i
+    struct InnerNode : public Node {
+        KeyType keys[INNER_SLOTS];
+        const void* values[INNER_SLOTS];
+        Node* children[INNER_SLOTS + 1];
+    };
+
+    enum SearchMode {
+        FIRST_GTE_KEY,      // first entry with a key >= the search key
+        FIRST_GT_KEY,       // first entry with a key > the search key
+        FIRST_GTE_ENTRY,    // first entry >= the search (key, tuple)
+        FIRST_GT_ENTRY      // first entry > the search (key, tuple)
+    };
+
+public:
+
+    ~BPlusTreeIndex()
+    {
+        freeNode(m_root);
+    }
+
+    bool addEntry(const TableTuple *tuple)
+    {
+        m_tmp1.setFromTuple(tuple, column_indices_, m_keySchema);
+        return addEntryPrivate(m_tmp1, tuple->address());
+    }
+
+    bool deleteEntry(const TableTuple *tuple)
+    {
+        m_tmp1.setFromTuple(tuple, column_indices_, m_keySchema);
+        return deleteEntryPrivate(m_tmp1, tuple->address());
+    }
+
+    bool replaceEntry(const TableTuple *oldTupleValue,
+                      const TableTuple *newTupleValue)
+    {
+        m_tmp1.setFromTuple(oldTupleValue, column_indices_, m_keySchema);
+        m_tmp2.setFromTuple(newTupleValue, column_indices_, m_keySchema);
+        if (m_eq(m_tmp1, m_tmp2))
+        {
+            // no update is needed for this index
+            return true;
+        }
+
+        // The old key is still stored under the address of the tuple being
+        // updated, which is the address of newTupleValue (see BinaryTreeMultiMapIndex)
+        bool deleted = deleteEntryPrivate(m_tmp1, newTupleValue->address());
+        bool inserted = addEntryPrivate(m_tmp2, newTupleValue->address());
+        --m_deletes;
+        --m_inserts;
+        ++m_updates;
+        return (deleted && inserted);
+    }
+
+    bool setEntryToNewAddress(const TableTuple *tuple, const void* address)
+    {
+        m_tmp1.setFromTuple(tuple, column_indices_, m_keySchema);
+        ++m_updates;
+
+        LeafNode *leaf;
+        int pos;
+        seek(m_tmp1, FIRST_GTE_KEY, leaf, pos);
+        if (leaf == NULL || !m_eq(leaf->keys[pos], m_tmp1)) {
+            VOLT_INFO("Tuple not found.");
+            return false;
+        }
+        if (is_unique_index_) {
+            leaf->values[pos] = address;
+            return true;
+        }
+        // Duplicates are ordered by address, so we have to move the entry
+        const void *old_address = leaf->values[pos];
+        deleteEntryPrivate(m_tmp1, old_address);
+        addEntryPrivate(m_tmp1, address);
+        --m_deletes;
+        --m_inserts;
+        return true;
+    }
+
+    bool checkForIndexChange(const TableTuple *lhs, const TableTuple *rhs)
+    {
+        m_tmp1.setFromTuple(lhs, column_indices_, m_keySchema);
+        m_tmp2.setFromTuple(rhs, column_indices_, m_keySchema);
+        return !(m_eq(m_tmp1, m_tmp2));
+    }
+
+    bool exists(const TableTuple* values)
+    {
+        ++m_lookups;
+        m_tmp1.setFromTuple(values, column_indices_, m_keySchema);
+        LeafNode *leaf;
+        int pos;
+        seek(m_tmp1, FIRST_GTE_KEY, leaf, pos);
+        return (leaf != NULL && m_eq(leaf->keys[pos], m_tmp1));
+    }
+
+    bool moveToKey(const TableTuple *searchKey)
+    {
+        m_tmp1.setFromKey(searchKey);
+        return moveToKey(m_tmp1);
+    }
+
+    bool moveToTuple(const TableTuple *searchTuple)
+    {
+        m_tmp1.setFromTuple(searchTuple, column_indices_, m_keySchema);
+        return moveToKey(m_tmp1);
+    }
+
+    void moveToKeyOrGreater(const TableTuple *searchKey)
+    {
+        ++m_lookups;
+        m_begin = true;
+        m_tmp1.setFromKey(searchKey);
+        seek(m_tmp1, FIRST_GTE_KEY, m_seqLeaf, m_seqPos);
+    }
+
+    void moveToGreaterThanKey(const TableTuple *searchKey)
+    {
+        ++m_lookups;
+        m_begin = true;
+        m_tmp1.setFromKey(searchKey);
+        seek(m_tmp1, FIRST_GT_KEY, m_seqLeaf, m_seqPos);
+    }
+
+    void moveToEnd(bool begin)
+    {
+        ++m_lookups;
+        m_begin = begin;
+        if (begin) {
+            m_seqLeaf = m_first;
+            m_seqPos = 0;
+            skipForward(m_seqLeaf, m_seqPos);
+        } else {
+            m_seqLeaf = m_last;
+            m_seqPos = m_last->count - 1;
+            skipBackward(m_seqLeaf, m_seqPos);
+        }
+    }
+
+    TableTuple nextValue()
+    {
+        TableTuple retval(m_tupleSchema);
+        if (m_seqLeaf == NULL)
+            return TableTuple();
+
+        retval.move(const_cast<void*>(m_seqLeaf->values[m_seqPos]));
+        if (m_begin) {
+            ++m_seqPos;
+            skipForward(m_seqLeaf, m_seqPos);
+        } else {
+            --m_seqPos;
+            skipBackward(m_seqLeaf, m_seqPos);
+        }
+        return retval;
+    }
+
+    TableTuple nextValueAtKey()
+    {
+        if (m_match.isNullTuple()) return m_match;
+        TableTuple retval = m_match;
+
+        // Unique indexes only have one entry per key
+        if (!is_unique_index_) {
+            ++m_matchPos;
+            skipForward(m_matchLeaf, m_matchPos);
+        }
+        if (is_unique_index_ || m_matchLeaf == NULL || !m_eq(m_matchLeaf->keys[m_matchPos], m_matchKey))
+            m_match.move(NULL);
+        else
+            m_match.move(const_cast<void*>(m_matchLeaf->values[m_matchPos]));
+        return retval;
+    }
+
+    bool advanceToNextKey()
+    {
+        // Jump past any remaining duplicates of the current key
+        if (m_matchLeaf != NULL)
+            seek(m_matchKey, FIRST_GT_KEY, m_matchLeaf, m_matchPos);
+        if (m_matchLeaf == NULL) {
+            m_match.move(NULL);
+            return false;
+        }
+        m_matchKey = m_matchLeaf->keys[m_matchPos];
+        m_match.move(const_cast<void*>(m_matchLeaf->values[m_matchPos]));
+        return !m_match.isNullTuple();
+    }
+
+    size_t getSize() const { return m_size; }
+
+    int64_t getMemoryEstimate() const {
+        return (static_cast<int64_t>(m_leafCount) * sizeof(LeafNode) +
+                static_cast<int64_t>(m_innerCount) * sizeof(InnerNode));
+    }
+
+    std::string getTypeName() const { return "BPlusTreeIndex"; };
+    std::string debug() const
+    {
+        std::ostringstream buffer;
+        buffer << TableIndex::debug() << std::endl;
+
+        for (const LeafNode *leaf = m_first; leaf != NULL; leaf = leaf->next) {
+            for (int i = 0; i < leaf->count; i++) {
+                TableTuple retval(m_tupleSchema);
+                retval.move(const_cast<void*>(leaf->values[i]));
+                buffer << retval.debugNoHeader() << std::endl;
+            }
+        }
+        std::string ret(buffer.str());
+        return (ret);
+    }
+
+protected:
+    BPlusTreeIndex(const TableIndexScheme &scheme) :
+        TableIndex(scheme),
+        m_cmp(m_keySchema),
+        m_eq(m_keySchema),
+        m_size(0),
+        m_leafCount(0),
+        m_innerCount(0),
+        m_begin(true),
+        m_seqLeaf(NULL),
+        m_seqPos(0),
+        m_matchLeaf(NULL),
+        m_matchPos(0)
+    {
+        m_match = TableTuple(m_tupleSchema);
+        m_first = m_last = newLeaf();
+        m_root = m_first;
+    }
+
+    // ----------------------------------------------------------------------
+    // NODE SEARCH
+    // ----------------------------------------------------------------------
+
+    /**
+     * Returns true if the entry (key, value) is ordered before (key2, value2).
+     * Non-unique indexes order duplicate keys by their tuple address.
+     */
+    inline bool entryLess(const KeyType &key, const void *value,
+                          const KeyType &key2, const void *value2) const
+    {
+        if (m_cmp(key, key2)) return true;
+        if (!is_unique_index_ && !m_cmp(key2, key)) return (value < value2);
+        return false;
+    }
+
+    /**
+     * Returns true if the slot (key, value) comes before the position
+     * that we are looking for
+     */
+    inline bool before(const KeyType &key, const void *value,
+                       const KeyType &target, const void *target_value,
+                       SearchMode mode) const
+    {
+        switch (mode) {
+            case FIRST_GTE_KEY:
+                return m_cmp(key, target);
+            case FIRST_GT_KEY:
+                return !m_cmp(target, key);
+            case FIRST_GTE_ENTRY:
+                return entryLess(key, value, target, target_value);
+            default:
+                return !entryLess(target, target_value, key, value);
+        }
+    }
+
+    /**
+     * Return the first slot in the node that is not before the target.
+     * We binary search the key array until the range is small and then
+     * finish with a linear scan over adjacent keys.
+     */
+    template<class NodeType>
+    inline int search(const NodeType *node, const KeyType &target,
+                      const void *target_value, SearchMode mode) const
+    {
+        int lo = 0;
+        int hi = node->count;
+        while (hi - lo > LINEAR_SEARCH_THRESHOLD) {
+            int mid = (lo + hi) >> 1;
+            if (before(node->keys[mid], node->values[mid], target, target_value, mode))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        while (lo < hi && before(node->keys[lo], node->values[lo], target, target_value, mode))
+            ++lo;
+        return lo;
+    }
+
+    /**
+     * Position the cursor (leaf, pos) at the first entry that is not before
+     * the target. The leaf is NULL if there is no such entry.
+     */
+    inline void seek(const KeyType &target, SearchMode mode, LeafNode *&leaf, int &pos) const
+    {
+        Node *node = m_root;
+        while (!node->leaf) {
+            InnerNode *inner = static_cast<InnerNode*>(node);
+            node = inner->children[search(inner, target, NULL, mode)];
+        }
+        leaf = static_cast<LeafNode*>(node);
+        pos = search(leaf, target, NULL, mode);
+        skipForward(leaf, pos);
+    }
+
+    inline static void skipForward(LeafNode *&leaf, int &pos)
+    {
+        while (leaf != NULL && pos >= leaf->count) {
+            leaf = leaf->next;
+            pos = 0;
+        }
+    }
+
+    inline static void skipBackward(LeafNode *&leaf, int &pos)
+    {
+        while (leaf != NULL && pos < 0) {
+            leaf = leaf->prev;
+            pos = (leaf != NULL ? leaf->count - 1 : 0);
+        }
+    }
+
+    bool moveToKey(const KeyType &key)
+    {
+        ++m_lookups;
+        m_begin = true;
+        seek(key, FIRST_GTE_KEY, m_matchLeaf, m_matchPos);
+        if (m_matchLeaf == NULL || !m_eq(m_matchLeaf->keys[m_matchPos], key)) {
+            m_matchLeaf = NULL;
+            m_match.move(NULL);
+            return false;
+        }
+        m_matchKey = key;
+        m_match.move(const_cast<void*>(m_matchLeaf->values[m_matchPos]));
+        return !m_match.isNullTuple();
+    }
+
+    // ----------------------------------------------------------------------
+    // INSERT
+    // ----------------------------------------------------------------------
+
+    bool addEntryPrivate(const KeyType &key, const void *value)
+    {
+        ++m_inserts;
+        KeyType sep_key;
+        const void *sep_value = NULL;
+        bool inserted = true;
+        Node *right = insert(m_root, key, value, true, sep_key, sep_value, inserted);
+        if (right != NULL) {
+            InnerNode *root = newInner();
+            root->count = 1;
+            root->keys[0] = sep_key;
+            root->values[0] = sep_value;
+            root->children[0] = m_root;
+            root->children[1] = right;
+            m_root = root;
+        }
+        if (inserted) ++m_size;
+        return inserted;
+    }
+
+    /**
+     * Insert the entry into the subtree. If the node had to be split then
+     * we return the new right sibling and its first entry in sep_key/sep_value.
+     * rightmost is true if this node is the last one on its level.
+     */
+    Node* insert(Node *node, const KeyType &key, const void *value, bool rightmost,
+                 KeyType &sep_key, const void *&sep_value, bool &inserted)
+    {
+        if (node->leaf) {
+            return insertIntoLeaf(static_cast<LeafNode*>(node), key, value, sep_key, sep_value, inserted);
+        }
+
+        InnerNode *inner = static_cast<InnerNode*>(node);
+        int idx = search(inner, key, value, FIRST_GT_ENTRY);
+        KeyType child_key;
+        const void *child_value = NULL;
+        Node *new_child = insert(inner->children[idx], key, value,
+                                 (rightmost && idx == inner->count),
+                                 child_key, child_value, inserted);
+        if (new_child == NULL) return NULL;
+
+        // The new child goes right after the one that we descended into
+        if (inner->count < INNER_SLOTS) {
+            for (int i = inner->count; i > idx; i--) {
+                inner->keys[i] = inner->keys[i - 1];
+                inner->values[i] = inner->values[i - 1];
+                inner->children[i + 1] = inner->children[i];
+            }
+            inner->keys[idx] = child_key;
+            inner->values[idx] = child_value;
+            inner->children[idx + 1] = new_child;
+            inner->count++;
+            return NULL;
+        }
+
+        // Split the inner node
+        KeyType keys[INNER_SLOTS + 1];
+        const void* values[INNER_SLOTS + 1];
+        Node* children[INNER_SLOTS + 2];
+        for (int i = 0, j = 0; i <= INNER_SLOTS; i++) {
+            if (i == idx) {
+                keys[i] = child_key;
+                values[i] = child_value;
+            } else {
+                keys[i] = inner->keys[j];
+                values[i] = inner->values[j];
+                j++;
+            }
+        }
+        for (int i = 0, j = 0; i <= INNER_SLOTS + 1; i++) {
+            children[i] = (i == idx + 1 ? new_child : inner->children[j++]);
+        }
+
+        // If we are appending to the right edge of the tree, keep this node full
+        const int total = INNER_SLOTS + 1;
+        const int mid = ((rightmost && idx == INNER_SLOTS) ? total - 1 : total / 2);
+        InnerNode *right = newInner();
+
+        inner->count = mid;
+        for (int i = 0; i < mid; i++) {
+            inner->keys[i] = keys[i];
+            inner->values[i] = values[i];
+            inner->children[i] = children[i];
+        }
+        inner->children[mid] = children[mid];
+
+        right->count = total - mid - 1;
+        for (int i = 0; i < right->count; i++) {
+            right->keys[i] = keys[mid + 1 + i];
+            right->values[i] = values[mid + 1 + i];
+            right->children[i] = children[mid + 1 + i];
+        }
+        right->children[right->count] = children[total];
+
+        sep_key = keys[mid];
+        sep_value = values[mid];
+        return right;
+    }
+
+    Node* insertIntoLeaf(LeafNode *leaf, const KeyType &key, const void *value,
+                         KeyType &sep_key, const void *&sep_value, bool &inserted)
+    {
+        int pos = search(leaf, key, value, FIRST_GTE_ENTRY);
+        if (is_unique_index_ && pos < leaf->count && m_eq(leaf->keys[pos], key)) {
+            inserted = false;
+            return NULL;
+        }
+
+        if (leaf->count < LEAF_SLOTS) {
+            insertAt(leaf, pos, key, value);
+            return NULL;
+        }
+
+        // Split the leaf. If we are appending to the right edge of the tree
+        // then we leave this leaf full and start a new one.
+        const bool append = (pos == leaf->count && leaf->next == NULL);
+        const int left_count = (append ? leaf->count : (leaf->count + 1) / 2);
+        LeafNode *right = newLeaf();
+        if (pos < left_count) {
+            moveEntries(leaf, left_count - 1, right);
+            insertAt(leaf, pos, key, value);
+        } else {
+            moveEntries(leaf, left_count, right);
+            insertAt(right, pos - left_count, key, value);
+        }
+
+        right->next = leaf->next;
+        if (right->next != NULL)
+            right->next->prev = right;
+        else
+            m_last = right;
+        right->prev = leaf;
+        leaf->next = right;
+
+        sep_key = right->keys[0];
+        sep_value = right->values[0];
+        return right;
+    }
+
+    inline static void insertAt(LeafNode *leaf, int pos, const KeyType &key, const void *value)
+    {
+        for (int i = leaf->count; i > pos; i--) {
+            leaf->keys[i] = leaf->keys[i - 1];
+            leaf->values[i] = leaf->values[i - 1];
+        }
+        leaf->keys[pos] = key;
+        leaf->values[pos] = value;
+        leaf->count++;
+    }
+
+    // Move the entries starting at offset from the leaf into the empty leaf dest
+    inline static void moveEntries(LeafNode *leaf, int offset, LeafNode *dest)
+    {
+        dest->count = leaf->count - offset;
+        for (int i = 0; i < dest->count; i++) {
+            dest->keys[i] = leaf->keys[offset + i];
+            dest->values[i] = leaf->values[offset + i];
+        }
+        leaf->count = offset;
+    }
+
+    // ----------------------------------------------------------------------
+    // DELETE
+    // ----------------------------------------------------------------------
+
+    bool deleteEntryPrivate(const KeyType &key, const void *value)
+    {
+        ++m_deletes;
+        bool empty = false;
+        bool deleted = erase(m_root, key, value, empty);
+
+        // Collapse the root while it only has a single child
+        while (!m_root->leaf && m_root->count == 0) {
+            InnerNode *root = static_cast<InnerNode*>(m_root);
+            m_root = root->children[0];
+            delete root;
+            --m_innerCount;
+        }
+        if (deleted) --m_size;
+        return deleted;
+    }
+
+    /**
+     * Remove the entry from the subtree. Sets empty to true if the node
+     * no longer has any entries, in which case it has already been freed.
+     */
+    bool erase(Node *node, const KeyType &key, const void *value, bool &empty)
+    {
+        if (node->leaf) {
+            LeafNode *leaf = static_cast<LeafNode*>(node);
+            int pos = search(leaf, key, value, FIRST_GTE_ENTRY);
+            if (pos == leaf->count || !m_eq(leaf->keys[pos], key) ||
+                (!is_unique_index_ && leaf->values[pos] != value)) {
+                return false;
+            }
+            for (int i = pos + 1; i < leaf->count; i++) {
+                leaf->keys[i - 1] = leaf->keys[i];
+                leaf->values[i - 1] = leaf->values[i];
+            }
+            leaf->count--;
+
+            // The root leaf is never removed
+            if (leaf->count == 0 && leaf != m_root) {
+                if (leaf->prev != NULL) leaf->prev->next = leaf->next;
+                else m_first = leaf->next;
+                if (leaf->next != NULL) leaf->next->prev = leaf->prev;
+                else m_last = leaf->prev;
+                delete leaf;
+                --m_leafCount;
+                empty = true;
+            }
+            return true;
+        }
+
+        InnerNode *inner = static_cast<InnerNode*>(node);
+        int idx = search(inner, key, value, FIRST_GT_ENTRY);
+        bool child_empty = false;
+        bool deleted = erase(inner->children[idx], key, value, child_empty);
+        if (!child_empty) return deleted;
+
+        // Drop the child along with one of the separators next to it
+        if (inner->count == 0) {
+            delete inner;
+            --m_innerCount;
+            empty = true;
+            return deleted;
+        }
+        const int sep = (idx > 0 ? idx - 1 : 0);
+        for (int i = sep + 1; i < inner->count; i++) {
+            inner->keys[i - 1] = inner->keys[i];
+            inner->values[i - 1] = inner->values[i];
+        }
+        for (int i = idx + 1; i <= inner->count; i++) {
+            inner->children[i - 1] = inner->children[i];
+        }
+        inner->count--;
+        return deleted;
+    }
+
+    // ----------------------------------------------------------------------
+    // MEMORY
+    // ----------------------------------------------------------------------
+
+    LeafNode* newLeaf()
+    {
+        LeafNode *leaf = new LeafNode();
+        leaf->leaf = true;
+        leaf->count = 0;
+        leaf->prev = leaf->next = NULL;
+        ++m_leafCount;
+        return leaf;
+    }
+
+    InnerNode* newInner()
+    {
+        InnerNode *inner = new InnerNode();
+        inner->leaf = false;
+        inner->count = 0;
+        ++m_innerCount;
+        return inner;
+    }
+
+    void freeNode(Node *node)
+    {
+        if (node->leaf) {
+            delete static_cast<LeafNode*>(node);
+        } else {
+            InnerNode *inner = static_cast<InnerNode*>(node);
+            for (int i = 0; i <= inner->count; i++) {
+                freeNode(inner->children[i]);
+            }
+            delete inner;
+        }
+    }
+
+    KeyComparator m_cmp;
+    KeyEqualityChecker m_eq;
+    KeyType m_tmp1;
+    KeyType m_tmp2;
+
+    Node *m_root;
+    LeafNode *m_first;
+    LeafNode *m_last;
+    size_t m_size;
+    int m_leafCount;
+    int m_innerCount;
+
+    // iteration stuff
+    bool m_begin;
+    LeafNode *m_seqLeaf;
+    int m_seqPos;
+    LeafNode *m_matchLeaf;
+    int m_matchPos;
+    KeyType m_matchKey;
+    TableTuple m_match;
+};
+
+}
+
+#endif // BPLUSTREEINDEX_H_
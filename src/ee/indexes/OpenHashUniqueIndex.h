@@ -0,0 +1,436 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2010 VoltDB L.L.C.
+ *
+ * This file contains original code and/or modifications of original code.
+ * Any modifications made by VoltDB L.L.C. are licensed under the following
+ * terms and conditions:
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/* Copyright (C) 2008 by H-Store Project
+ * Brown University
+ * Massachusetts Institute of Technology
+ * Yale University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+#ifndef OPENHASHUNIQUEINDEX_H_
+#define OPENHASHUNIQUEINDEX_H_
+
+#include <iostream>
+#include <algorithm>
+#include <cassert>
+#include <cstring>
+#include "indexes/tableindex.h"
+#include "common/FatalException.hpp"
+
+namespace voltdb {
+
+/**
+ * Unique hash index that stores its keys inline in a single open-addressing
+ * table (Robin Hood linear probing with backward-shift deletes).
+ * Each slot holds the key and the tuple address next to each other, so a
+ * point lookup is usually a single cache miss and adding an entry never
+ * allocates.
+ *
+ * When the table fills up we allocate one that is twice as large, but the
+ * entries are moved over a few slots at a time by the operations that modify
+ * the index. Until the migration is finished, lookups check the new table
+ * first and then the old one. This keeps a single insert from having to
+ * rehash the entire index in the middle of a transaction.
+ * @see TableIndex
+ */
+template<typename KeyType, class KeyHasher, class KeyEqualityChecker>
+class OpenHashUniqueIndex : public TableIndex {
+    friend class TableIndexFactory;
+
+    struct Slot {
+        KeyType key;
+        const void* value;
+    };
+
+    /**
+     * A single power-of-two sized table.
+     * m_meta[i] is 0 if the slot is empty, TOMBSTONE if its entry was
+     * migrated or deleted while this was the old table, or otherwise the
+     * entry's probe distance plus one.
+     */
+    struct Table {
+        Slot *slots;
+        uint16_t *meta;
+        size_t capacity;
+        size_t mask;
+        size_t count;
+
+        Table() : slots(NULL), meta(NULL), capacity(0), mask(0), count(0) {}
+
+        void allocate(size_t cap) {
+            slots = new Slot[cap];
+            meta = new uint16_t[cap];
+            ::memset(meta, 0, sizeof(uint16_t) * cap);
+            capacity = cap;
+            mask = cap - 1;
+            count = 0;
+        }
+        void release() {
+            delete[] slots;
+            delete[] meta;
+            slots = NULL;
+            meta = NULL;
+            capacity = mask = count = 0;
+        }
+    };
+
+    static const uint16_t EMPTY = 0;
+    static const uint16_t TOMBSTONE = 0xFFFF;
+
+    static const size_t INITIAL_CAPACITY = 128;
+    /** The number of old slots that each modification moves to the new table */
+    static const size_t MIGRATION_STEP = 64;
+
+public:
+
+    ~OpenHashUniqueIndex() {
+        m_table.release();
+        m_old.release();
+    };
+
+    bool addEntry(const TableTuple *tuple) {
+        m_tmp1.setFromTuple(tuple, column_indices_, m_keySchema);
+        return addEntryPrivate(tuple->address(), m_tmp1);
+    }
+
+    bool deleteEntry(const TableTuple *tuple) {
+        m_tmp1.setFromTuple(tuple, column_indices_, m_keySchema);
+        return deleteEntryPrivate(m_tmp1);
+    }
+
+    bool replaceEntry(const TableTuple *oldTupleValue, const TableTuple* newTupleValue) {
+        m_tmp1.setFromTuple(oldTupleValue, column_indices_, m_keySchema);
+        m_tmp2.setFromTuple(newTupleValue, column_indices_, m_keySchema);
+
+        if (m_eq(m_tmp1, m_tmp2)) return true; // no update is needed for this index
+
+        bool deleted = deleteEntryPrivate(m_tmp1);
+        bool inserted = addEntryPrivate(newTupleValue->address(), m_tmp2);
+        --m_deletes;
+        --m_inserts;
+        ++m_updates;
+        return (deleted && inserted);
+    }
+
+    bool setEntryToNewAddress(const TableTuple *tuple, const void* address) {
+        m_tmp1.setFromTuple(tuple, column_indices_, m_keySchema);
+        ++m_updates;
+
+        Slot *slot = find(m_tmp1);
+        if (slot == NULL) return false;
+        slot->value = address;
+        return true;
+    }
+
+    bool checkForIndexChange(const TableTuple *lhs, const TableTuple *rhs) {
+        m_tmp1.setFromTuple(lhs, column_indices_, m_keySchema);
+        m_tmp2.setFromTuple(rhs, column_indices_, m_keySchema);
+        return !(m_eq(m_tmp1, m_tmp2));
+    }
+    bool exists(const TableTuple* values) {
+        ++m_lookups;
+        m_tmp1.setFromTuple(values, column_indices_, m_keySchema);
+        return (find(m_tmp1) != NULL);
+    }
+    bool moveToKey(const TableTuple *searchKey) {
+        ++m_lookups;
+        m_tmp1.setFromKey(searchKey);
+        return moveToKeyPrivate(m_tmp1);
+    }
+    bool moveToTuple(const TableTuple *searchTuple) {
+        ++m_lookups;
+        m_tmp1.setFromTuple(searchTuple, column_indices_, m_keySchema);
+        return moveToKeyPrivate(m_tmp1);
+    }
+    TableTuple nextValueAtKey() {
+        TableTuple retval = m_match;
+        m_match.move(NULL);
+        return retval;
+    }
+
+    /**
+     * Make room for the given number of entries up front. This is used
+     * when bulk loading so it is fine to rehash everything right away.
+     */
+    virtual void ensureCapacity(uint32_t capacity) {
+        finishMigration();
+        size_t cap = m_table.capacity;
+        while (capacity > maxCount(cap)) cap <<= 1;
+        if (cap != m_table.capacity) {
+            grow(cap);
+            finishMigration();
+        }
+    }
+
+    size_t getSize() const { return m_table.count + m_old.count; }
+    int64_t getMemoryEstimate() const {
+        return (int64_t)((m_table.capacity + m_old.capacity) * (sizeof(Slot) + sizeof(uint16_t)));
+    }
+    std::string getTypeName() const { return "OpenHashUniqueIndex"; };
+
+    // print out info about lookup usage
+    virtual void printReport() {
+        TableIndex::printReport();
+        std::cout << "  Loadfactor: " << ((double)m_table.count / (double)m_table.capacity) << std::endl;
+        std::cout << "  Migrating: " << (m_old.slots != NULL ? "true" : "false") << std::endl;
+    }
+
+protected:
+    OpenHashUniqueIndex(const TableIndexScheme &scheme) :
+        TableIndex(scheme),
+        m_hasher(m_keySchema),
+        m_eq(m_keySchema),
+        m_migrateCursor(0)
+    {
+        m_match = TableTuple(m_tupleSchema);
+        m_table.allocate(INITIAL_CAPACITY);
+    }
+
+    inline bool addEntryPrivate(const void *address, const KeyType &key) {
+        ++m_inserts;
+        if (m_old.slots != NULL) {
+            migrate(MIGRATION_STEP);
+            if (m_old.slots != NULL && findOld(key) != NULL) return false;
+        }
+        if (findIn(m_table, key) != NULL) return false;
+        if (getSize() + 1 > maxCount(m_table.capacity)) {
+            // The previous migration normally finishes long before the new
+            // table fills up, so this is almost always a no-op
+            finishMigration();
+            grow(m_table.capacity << 1);
+        }
+        insert(m_table, key, address);
+        return true;
+    }
+
+    inline bool deleteEntryPrivate(const KeyType &key) {
+        ++m_deletes;
+        if (m_old.slots != NULL) migrate(MIGRATION_STEP);
+
+        size_t idx;
+        if (findIndex(m_table, key, idx)) {
+            eraseAt(m_table, idx);
+            return true;
+        }
+        if (m_old.slots != NULL) {
+            Slot *slot = findOld(key);
+            if (slot != NULL) {
+                // Never shift entries in the old table, because that could move an
+                // entry behind the migration cursor
+                m_old.meta[slot - m_old.slots] = TOMBSTONE;
+                --m_old.count;
+                if (m_old.count == 0) finishMigration();
+                return true;
+            }
+        }
+        return false; //key not exists
+    }
+
+    inline bool moveToKeyPrivate(const KeyType &key) {
+        Slot *slot = find(key);
+        if (slot == NULL) {
+            m_match.move(NULL);
+            return false;
+        }
+        m_match.move(const_cast<void*>(slot->value));
+        return m_match.address() != NULL;
+    }
+
+    /**
+     * Allow the table to be 7/8 full
+     */
+    static inline size_t maxCount(size_t capacity) {
+        return (capacity - (capacity >> 3));
+    }
+
+    /**
+     * Spread the bits of the key's hash (MurmurHash3's 64-bit finalizer).
+     * The stock hashers are close to the identity function for small integer
+     * keys, which would cluster consecutive keys together in a linear probing table.
+     */
+    inline size_t hash(const KeyType &key) const {
+        uint64_t h = static_cast<uint64_t>(m_hasher(key));
+        h ^= (h >> 33);
+        h *= 0xff51afd7ed558ccdULL;
+        h ^= (h >> 33);
+        h *= 0xc4ceb9fe1a85ec53ULL;
+        h ^= (h >> 33);
+        return static_cast<size_t>(h);
+    }
+
+    inline Slot* find(const KeyType &key) {
+        Slot *slot = findIn(m_table, key);
+        if (slot == NULL && m_old.slots != NULL) slot = findOld(key);
+        return slot;
+    }
+
+    inline Slot* findIn(Table &table, const KeyType &key) {
+        size_t idx;
+        return (findIndex(table, key, idx) ? &table.slots[idx] : NULL);
+    }
+
+    /**
+     * Robin Hood lookup: we can stop as soon as we reach an entry that is
+     * closer to its home slot than we are to ours.
+     */
+    inline bool findIndex(Table &table, const KeyType &key, size_t &idx) {
+        idx = hash(key) & table.mask;
+        for (uint16_t dist = 1; ; dist++) {
+            uint16_t m = table.meta[idx];
+            if (m < dist) return false; // includes EMPTY
+            if (m == dist && m_eq(table.slots[idx].key, key)) return true;
+            idx = (idx + 1) & table.mask;
+        } // FOR
+    }
+
+    /**
+     * The old table contains tombstones, so the Robin Hood early exit
+     * does not hold anymore. The entry is always between its home slot and
+     * the next empty slot.
+     */
+    inline Slot* findOld(const KeyType &key) {
+        size_t idx = hash(key) & m_old.mask;
+        while (m_old.meta[idx] != EMPTY) {
+            if (m_old.meta[idx] != TOMBSTONE && m_eq(m_old.slots[idx].key, key)) {
+                return &m_old.slots[idx];
+            }
+            idx = (idx + 1) & m_old.mask;
+        } // WHILE
+        return NULL;
+    }
+
+    /**
+     * Insert an entry that we know is not in the table yet
+     */
+    inline void insert(Table &table, const KeyType &key, const void *address) {
+        Slot entry;
+        entry.key = key;
+        entry.value = address;
+        size_t idx = hash(key) & table.mask;
+        uint16_t dist = 1;
+        while (true) {
+            uint16_t m = table.meta[idx];
+            if (m == EMPTY) {
+                table.slots[idx] = entry;
+                table.meta[idx] = dist;
+                break;
+            }
+            // Take the slot from the entry that is closer to its home
+            if (m < dist) {
+                std::swap(table.slots[idx], entry);
+                std::swap(table.meta[idx], dist);
+            }
+            if (++dist == TOMBSTONE) {
+                throwFatalException("OpenHashUniqueIndex probe sequence is too long for index '%s'", name_.c_str());
+            }
+            idx = (idx + 1) & table.mask;
+        } // WHILE
+        ++table.count;
+    }
+
+    /**
+     * Backward-shift delete: pull the following entries one slot closer to
+     * their home until we reach an empty slot or an entry that is already home.
+     */
+    inline void eraseAt(Table &table, size_t idx) {
+        size_t next = (idx + 1) & table.mask;
+        while (table.meta[next] > 1) {
+            table.slots[idx] = table.slots[next];
+            table.meta[idx] = static_cast<uint16_t>(table.meta[next] - 1);
+            idx = next;
+            next = (next + 1) & table.mask;
+        } // WHILE
+        table.meta[idx] = EMPTY;
+        --table.count;
+    }
+
+    /**
+     * Start moving the entries into a new table with the given capacity
+     */
+    void grow(size_t capacity) {
+        assert(m_old.slots == NULL);
+        m_old = m_table;
+        m_table = Table();
+        m_table.allocate(capacity);
+        m_migrateCursor = 0;
+        if (m_old.count == 0) finishMigration();
+    }
+
+    /**
+     * Move up to the given number of slots from the old table
+     */
+    void migrate(size_t step) {
+        size_t end = std::min(m_migrateCursor + step, m_old.capacity);
+        for (; m_migrateCursor < end; m_migrateCursor++) {
+            uint16_t m = m_old.meta[m_migrateCursor];
+            if (m != EMPTY && m != TOMBSTONE) {
+                Slot &slot = m_old.slots[m_migrateCursor];
+                insert(m_table, slot.key, slot.value);
+                m_old.meta[m_migrateCursor] = TOMBSTONE;
+                --m_old.count;
+            }
+        } // FOR
+        if (m_migrateCursor == m_old.capacity || m_old.count == 0) {
+            assert(m_old.count == 0);
+            m_old.release();
+            m_migrateCursor = 0;
+        }
+    }
+
+    void finishMigration() {
+        if (m_old.slots != NULL) migrate(m_old.capacity);
+    }
+
+    Table m_table;
+    Table m_old;
+
+    KeyType m_tmp1;
+    KeyType m_tmp2;
+
+    TableTuple m_match;
+
+    KeyHasher m_hasher;
+    KeyEqualityChecker m_eq;
+
+    size_t m_migrateCursor;
+};
+
+}
+
+#endif // OPENHASHUNIQUEINDEX_H_
@@ -0,0 +1,75 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2010 VoltDB Inc.
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#include "storage/PersistentTableUndoBatchAction.h"
+
+namespace voltdb {
+
+void PersistentTableUndoBatchAction::addChunk() {
+    Chunk *chunk = reinterpret_cast<Chunk*>(m_pool->allocate(sizeof(Chunk)));
+    chunk->m_prev = m_last;
+    chunk->m_count = 0;
+    chunk->m_wrapperOffsets =
+        reinterpret_cast<size_t*>(m_pool->allocate(sizeof(size_t) * m_chunkCapacity));
+    chunk->m_types = reinterpret_cast<char*>(m_pool->allocate(m_chunkCapacity));
+    chunk->m_images = reinterpret_cast<char*>(m_pool->allocate(m_tupleLength * m_chunkCapacity));
+    m_last = chunk;
+}
+
+/*
+ * Walk the chunks and their entries backwards. An insert is undone by
+ * deleting the tuple again and a delete by reinserting the before-image.
+ */
+void PersistentTableUndoBatchAction::undo() {
+    VOLT_TRACE("Undoing %ld changes to table '%s'", (long int)m_size, m_table->name().c_str());
+    TableTuple tuple(m_table->schema());
+    for (Chunk *chunk = m_last; chunk != NULL; chunk = chunk->m_prev) {
+        for (int32_t ii = static_cast<int32_t>(chunk->m_count) - 1; ii >= 0; ii--) {
+            tuple.move(chunk->m_images + (ii * m_tupleLength));
+            if (chunk->m_types[ii] == INSERT) {
+                m_table->deleteTupleForUndo(tuple, chunk->m_wrapperOffsets[ii]);
+            } else {
+                m_table->insertTupleForUndo(tuple, chunk->m_wrapperOffsets[ii]);
+            }
+        }
+    }
+}
+
+/*
+ * Before dropping the images of the deleted tuples free any allocated
+ * strings. Persistent tables are responsible for managing the life of
+ * strings stored in the table.
+ */
+void PersistentTableUndoBatchAction::release() {
+    if (m_deleteCount == 0 || m_table->schema()->getUninlinedObjectColumnCount() == 0) {
+        return;
+    }
+    TableTuple tuple(m_table->schema());
+    for (Chunk *chunk = m_last; chunk != NULL; chunk = chunk->m_prev) {
+        for (uint32_t ii = 0; ii < chunk->m_count; ii++) {
+            if (chunk->m_types[ii] == DELETE) {
+                tuple.move(chunk->m_images + (ii * m_tupleLength));
+                tuple.freeObjectColumns();
+            }
+        }
+    }
+}
+
+PersistentTableUndoBatchAction::~PersistentTableUndoBatchAction() {
+}
+
+}
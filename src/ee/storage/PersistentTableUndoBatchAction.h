@@ -0,0 +1,127 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2010 VoltDB Inc.
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#ifndef PERSISTENTTABLEUNDOBATCHACTION_H_
+#define PERSISTENTTABLEUNDOBATCHACTION_H_
+
+#include <stdint.h>
+
+#include "common/UndoAction.h"
+#include "common/TupleSchema.h"
+#include "common/Pool.hpp"
+#include "common/tabletuple.h"
+#include "storage/persistenttable.h"
+
+namespace voltdb {
+
+/*
+ * A single UndoAction for a run of consecutive inserts and deletes on
+ * the same table within one UndoQuantum. Instead of one action object
+ * per tuple, the before-images are appended to chunks allocated out of
+ * the quantum's data pool: each chunk stores the tuple images back to
+ * back along with a parallel array of entry types and Export marks.
+ *
+ * Nothing needs to be done to release the inserts, so releasing a batch
+ * that has no deletes (or whose table has no uninlined columns) is O(1)
+ * and the memory is reclaimed when the pool is purged.
+ */
+class PersistentTableUndoBatchAction: public voltdb::UndoAction {
+public:
+    enum Type {
+        INSERT = 0,
+        DELETE = 1
+    };
+
+    inline PersistentTableUndoBatchAction(voltdb::PersistentTable *table,
+                                          voltdb::Pool *pool)
+        : m_table(table), m_pool(pool), m_last(NULL),
+          m_tupleLength(table->schema()->tupleLength() + TUPLE_HEADER_SIZE),
+          m_size(0), m_deleteCount(0)
+    {
+        m_chunkCapacity = CHUNK_IMAGE_BYTES / m_tupleLength;
+        if (m_chunkCapacity < MIN_CHUNK_CAPACITY) {
+            m_chunkCapacity = MIN_CHUNK_CAPACITY;
+        }
+    }
+
+    virtual ~PersistentTableUndoBatchAction();
+
+    /*
+     * Copy the image of the given tuple into the log.
+     */
+    inline void append(Type type, const voltdb::TableTuple &tuple, size_t wrapperOffset) {
+        if (m_last == NULL || m_last->m_count == m_chunkCapacity) {
+            addChunk();
+        }
+        const uint32_t idx = m_last->m_count++;
+        ::memcpy(m_last->m_images + (idx * m_tupleLength), tuple.address(), m_tupleLength);
+        m_last->m_types[idx] = static_cast<char>(type);
+        m_last->m_wrapperOffsets[idx] = wrapperOffset;
+        m_size++;
+        if (type == DELETE) m_deleteCount++;
+    }
+
+    inline voltdb::PersistentTable* getTable() const {
+        return m_table;
+    }
+
+    inline size_t size() const {
+        return m_size;
+    }
+
+    /*
+     * Undo all of the logged changes in the reverse order that they
+     * were made.
+     */
+    void undo();
+
+    /*
+     * Free the strings of the deleted tuples. The inserted tuples stay
+     * in the table so they have nothing to release.
+     */
+    void release();
+
+private:
+    /*
+     * Upper bound on the bytes of tuple images in a single chunk so that
+     * chunks normally fit in the pool's regular allocation size.
+     */
+    static const uint32_t CHUNK_IMAGE_BYTES = 32768;
+    static const uint32_t MIN_CHUNK_CAPACITY = 8;
+
+    struct Chunk {
+        Chunk *m_prev;
+        uint32_t m_count;
+        size_t *m_wrapperOffsets;
+        char *m_types;
+        char *m_images;
+    };
+
+    void addChunk();
+
+    voltdb::PersistentTable *m_table;
+    voltdb::Pool *m_pool;
+    Chunk *m_last;
+    const uint32_t m_tupleLength;
+    uint32_t m_chunkCapacity;
+    size_t m_size;
+    size_t m_deleteCount;
+};
+
+}
+
+#endif /* PERSISTENTTABLEUNDOBATCHACTION_H_ */
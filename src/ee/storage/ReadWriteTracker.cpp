@@ -33,6 +33,89 @@ using namespace std;
 
 namespace voltdb {
 
+RowOffsets::RowOffsets() :
+        count(0),
+        lastBlockId(0),
+        lastBlock(NULL) {
+}
+
+RowOffsets::~RowOffsets() {
+    boost::unordered_map<uint32_t, uint64_t*>::const_iterator iter = this->blocks.begin();
+    while (iter != this->blocks.end()) {
+        delete [] iter->second;
+        iter++;
+    } // WHILE
+}
+
+uint64_t* RowOffsets::getBlock(uint32_t blockId, bool create) {
+    if (this->lastBlock != NULL && this->lastBlockId == blockId) {
+        return (this->lastBlock);
+    }
+    uint64_t *block = NULL;
+    boost::unordered_map<uint32_t, uint64_t*>::const_iterator iter = this->blocks.find(blockId);
+    if (iter != this->blocks.end()) {
+        block = iter->second;
+    } else if (create) {
+        block = new uint64_t[BLOCK_WORDS];
+        ::memset(block, 0, sizeof(uint64_t) * BLOCK_WORDS);
+        this->blocks.insert(std::make_pair(blockId, block));
+    } else {
+        return (NULL);
+    }
+    this->lastBlockId = blockId;
+    this->lastBlock = block;
+    return (block);
+}
+
+bool RowOffsets::contains(uint32_t offset) const {
+    boost::unordered_map<uint32_t, uint64_t*>::const_iterator iter = this->blocks.find(offset / BLOCK_BITS);
+    if (iter == this->blocks.end()) {
+        return (false);
+    }
+    uint64_t mask = (uint64_t)1 << (offset % 64);
+    return ((iter->second[(offset % BLOCK_BITS) / 64] & mask) != 0);
+}
+
+bool RowOffsets::intersects(const RowOffsets *other) const {
+    // Probe the blocks of the smaller set in the larger one
+    const RowOffsets *small = this;
+    const RowOffsets *large = other;
+    if (small->blocks.size() > large->blocks.size()) {
+        small = other;
+        large = this;
+    }
+    boost::unordered_map<uint32_t, uint64_t*>::const_iterator iter = small->blocks.begin();
+    while (iter != small->blocks.end()) {
+        boost::unordered_map<uint32_t, uint64_t*>::const_iterator match = large->blocks.find(iter->first);
+        if (match != large->blocks.end()) {
+            for (uint32_t i = 0; i < BLOCK_WORDS; i++) {
+                if ((iter->second[i] & match->second[i]) != 0) {
+                    return (true);
+                }
+            } // FOR
+        }
+        iter++;
+    } // WHILE
+    return (false);
+}
+
+void RowOffsets::getOffsets(std::vector<uint32_t> &offsets) const {
+    offsets.reserve(offsets.size() + this->count);
+    boost::unordered_map<uint32_t, uint64_t*>::const_iterator iter = this->blocks.begin();
+    while (iter != this->blocks.end()) {
+        uint32_t base = iter->first * BLOCK_BITS;
+        for (uint32_t i = 0; i < BLOCK_WORDS; i++) {
+            uint64_t word = iter->second[i];
+            for (uint32_t bit = 0; word != 0; bit++, word >>= 1) {
+                if (word & 1) offsets.push_back(base + (i * 64) + bit);
+            } // FOR
+        } // FOR
+        iter++;
+    } // WHILE
+}
+
+// -------------------------------------------------------------------------
+
 ReadWriteTracker::ReadWriteTracker(int64_t txnId) :
         txnId(txnId) {
     
@@ -40,50 +123,39 @@ ReadWriteTracker::ReadWriteTracker(int64_t txnId) :
 }
 
 ReadWriteTracker::~ReadWriteTracker() {
-    boost::unordered_map<std::string, RowOffsets*>::const_iterator iter;
-    
-    iter = this->reads.begin();
-    while (iter != this->reads.end()) {
-        delete iter->second;
-        iter++;
-    } // WHILE
-    
-    iter = this->writes.begin();
-    while (iter != this->writes.end()) {
-        delete iter->second;
-        iter++;
-    } // WHILE
+    this->clear();
 }
 
-void ReadWriteTracker::insertTuple(boost::unordered_map<std::string, RowOffsets*> *map, const std::string tableName, TableTuple *tuple) {
+void ReadWriteTracker::insertTuple(boost::unordered_map<Table*, RowOffsets*> *map, Table *table, TableTuple *tuple) {
     RowOffsets *offsets = NULL;
-    boost::unordered_map<std::string, RowOffsets*>::const_iterator iter = map->find(tableName);
+    boost::unordered_map<Table*, RowOffsets*>::const_iterator iter = map->find(table);
     if (iter != map->end()) {
         offsets = iter->second;
     } else {
         offsets = new RowOffsets();
-        map->insert(std::make_pair(tableName, offsets));
+        map->insert(std::make_pair(table, offsets));
     }
     
-    uint32_t tupleId = tuple->getTupleID();
-    offsets->insert(tupleId);
-    VOLT_INFO("*** TXN #%ld -> %s / %d", this->txnId, tableName.c_str(), tupleId);
+    int tupleId = table->getTupleID(tuple->address());
+    assert(tupleId >= 0);
+    offsets->insert(static_cast<uint32_t>(tupleId));
+    VOLT_TRACE("*** TXN #%ld -> %s / %d", this->txnId, table->name().c_str(), tupleId);
 }
 
-void ReadWriteTracker::markTupleRead(const std::string tableName, TableTuple *tuple) {
-    this->insertTuple(&this->reads, tableName, tuple);
+void ReadWriteTracker::markTupleRead(Table *table, TableTuple *tuple) {
+    this->insertTuple(&this->reads, table, tuple);
 }
 
-void ReadWriteTracker::markTupleWritten(const std::string tableName, TableTuple *tuple) {
-    this->insertTuple(&this->writes, tableName, tuple);
+void ReadWriteTracker::markTupleWritten(Table *table, TableTuple *tuple) {
+    this->insertTuple(&this->writes, table, tuple);
 }
 
-std::vector<std::string> ReadWriteTracker::getTableNames(boost::unordered_map<std::string, RowOffsets*> *map) const {
+std::vector<std::string> ReadWriteTracker::getTableNames(boost::unordered_map<Table*, RowOffsets*> *map) const {
     std::vector<std::string> tableNames;
     tableNames.reserve(map->size());
-    boost::unordered_map<std::string, RowOffsets*>::const_iterator iter = map->begin();
+    boost::unordered_map<Table*, RowOffsets*>::const_iterator iter = map->begin();
     while (iter != map->end()) {
-        tableNames.push_back(iter->first);
+        tableNames.push_back(iter->first->name());
         iter++;
     } // FOR
     return (tableNames);
@@ -96,7 +168,48 @@ std::vector<std::string> ReadWriteTracker::getTablesWritten() {
     return this->getTableNames(&this->writes);
 }
 
+bool ReadWriteTracker::hasConflict(const boost::unordered_map<Table*, RowOffsets*> *map0,
+                                   const boost::unordered_map<Table*, RowOffsets*> *map1,
+                                   std::vector<std::string> *tableNames) const {
+    bool conflict = false;
+    boost::unordered_map<Table*, RowOffsets*>::const_iterator iter = map0->begin();
+    while (iter != map0->end()) {
+        boost::unordered_map<Table*, RowOffsets*>::const_iterator match = map1->find(iter->first);
+        if (match != map1->end() && iter->second->intersects(match->second)) {
+            conflict = true;
+            if (tableNames == NULL) break;
+            tableNames->push_back(iter->first->name());
+        }
+        iter++;
+    } // WHILE
+    return (conflict);
+}
+
+bool ReadWriteTracker::hasConflict(const ReadWriteTracker *other, std::vector<std::string> *tableNames) const {
+    // READ-WRITE CONFLICTS
+    bool conflict = this->hasConflict(&this->reads, &other->writes, tableNames);
+    if (conflict && tableNames == NULL) return (true);
+    
+    // WRITE-WRITE CONFLICTS
+    conflict = this->hasConflict(&this->writes, &other->writes, tableNames) || conflict;
+    return (conflict);
+}
+
 void ReadWriteTracker::clear() {
+    boost::unordered_map<Table*, RowOffsets*>::const_iterator iter;
+    
+    iter = this->reads.begin();
+    while (iter != this->reads.end()) {
+        delete iter->second;
+        iter++;
+    } // WHILE
+    
+    iter = this->writes.begin();
+    while (iter != this->writes.end()) {
+        delete iter->second;
+        iter++;
+    } // WHILE
+    
     this->reads.clear();
     this->writes.clear();
 }
@@ -153,15 +266,19 @@ void ReadWriteTrackerManager::removeTracker(int64_t txnId) {
     }
 }
 
-void ReadWriteTrackerManager::getTuples(boost::unordered_map<std::string, RowOffsets*> *map) const {
+void ReadWriteTrackerManager::getTuples(boost::unordered_map<Table*, RowOffsets*> *map) const {
     this->resultTable->deleteAllTuples(false);
     TableTuple tuple = this->resultTable->tempTuple();
-    boost::unordered_map<std::string, RowOffsets*>::const_iterator iter = map->begin();
+    std::vector<uint32_t> offsets;
+    boost::unordered_map<Table*, RowOffsets*>::const_iterator iter = map->begin();
     while (iter != map->end()) {
-        RowOffsets::const_iterator tupleIter = iter->second->begin();
-        while (tupleIter != iter->second->end()) {
+        offsets.clear();
+        iter->second->getOffsets(offsets);
+        NValue tableName = ValueFactory::getStringValue(iter->first->name());
+        std::vector<uint32_t>::const_iterator tupleIter = offsets.begin();
+        while (tupleIter != offsets.end()) {
             int idx = 0;
-            tuple.setNValue(idx++, ValueFactory::getStringValue(iter->first)); // TABLE_NAME
+            tuple.setNValue(idx++, tableName); // TABLE_NAME
             tuple.setNValue(idx++, ValueFactory::getIntegerValue(*tupleIter)); // TUPLE_ID
             this->resultTable->insertTuple(tuple);
             tupleIter++;
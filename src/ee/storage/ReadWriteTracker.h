@@ -27,20 +27,67 @@
 #define HSTORE_READWRITETRACKER_H
 
 #include <string>
-#include "boost/unordered_set.hpp"
+#include <vector>
+#include <stdint.h>
 #include "boost/unordered_map.hpp"
 #include "common/tabletuple.h"
 #include "common/TupleSchema.h"
 #include "storage/table.h"
 
-typedef boost::unordered_set<uint32_t> RowOffsets;
-
 namespace voltdb {
     
 class ExecutorContext;
 class TableTuple;
 class TupleSchema;
 class Table;
+
+/**
+ * Compact set of the tuple offsets that a transaction accessed in a single table.
+ * The offsets are split into fixed-size blocks of bits and we only allocate
+ * the blocks that actually contain a tuple, so touching a handful of tuples
+ * in a large table stays cheap.
+ */
+class RowOffsets {
+    public:
+        RowOffsets();
+        ~RowOffsets();
+        
+        inline void insert(uint32_t offset) {
+            uint64_t *block = this->getBlock(offset / BLOCK_BITS, true);
+            uint64_t mask = (uint64_t)1 << (offset % 64);
+            uint64_t *word = &block[(offset % BLOCK_BITS) / 64];
+            if ((*word & mask) == 0) {
+                *word |= mask;
+                this->count++;
+            }
+        }
+        bool contains(uint32_t offset) const;
+        
+        /**
+         * Returns true if there is at least one offset in both sets
+         */
+        bool intersects(const RowOffsets *other) const;
+        
+        void getOffsets(std::vector<uint32_t> &offsets) const;
+        
+        inline size_t size() const {
+            return (this->count);
+        }
+        
+    private:
+        static const uint32_t BLOCK_BITS = 4096;
+        static const uint32_t BLOCK_WORDS = BLOCK_BITS / 64;
+        
+        uint64_t* getBlock(uint32_t blockId, bool create);
+        
+        // BlockId -> Bits
+        boost::unordered_map<uint32_t, uint64_t*> blocks;
+        size_t count;
+        
+        // Scans touch the same block over and over
+        uint32_t lastBlockId;
+        uint64_t *lastBlock;
+}; // CLASS
     
 /**
  * Read/Write Tuple Tracker for a single transaction
@@ -53,23 +100,33 @@ class ReadWriteTracker {
         ReadWriteTracker(int64_t txnId);
         ~ReadWriteTracker();
         
-        void markTupleRead(const std::string tableName, TableTuple *tuple);
-        void markTupleWritten(const std::string tableName, TableTuple *tuple);
+        void markTupleRead(Table *table, TableTuple *tuple);
+        void markTupleWritten(Table *table, TableTuple *tuple);
         
         void clear();
         
         std::vector<std::string> getTablesRead();
         std::vector<std::string> getTablesWritten();
         
+        /**
+         * Returns true if this txn read or wrote a tuple that the other txn wrote.
+         * The names of the tables where there is a conflict are added to
+         * the given vector (if it is not null).
+         */
+        bool hasConflict(const ReadWriteTracker *other, std::vector<std::string> *tableNames) const;
+        
     private:
-        void insertTuple(boost::unordered_map<std::string, RowOffsets*> *map, const std::string tableName, TableTuple *tuple);
-        std::vector<std::string> getTableNames(boost::unordered_map<std::string, RowOffsets*> *map) const;
+        void insertTuple(boost::unordered_map<Table*, RowOffsets*> *map, Table *table, TableTuple *tuple);
+        std::vector<std::string> getTableNames(boost::unordered_map<Table*, RowOffsets*> *map) const;
+        bool hasConflict(const boost::unordered_map<Table*, RowOffsets*> *map0,
+                         const boost::unordered_map<Table*, RowOffsets*> *map1,
+                         std::vector<std::string> *tableNames) const;
         
         int64_t txnId;
         
-        // TableName -> RowOffsets
-        boost::unordered_map<std::string, RowOffsets*> reads;
-        boost::unordered_map<std::string, RowOffsets*> writes;
+        // Table -> RowOffsets
+        boost::unordered_map<Table*, RowOffsets*> reads;
+        boost::unordered_map<Table*, RowOffsets*> writes;
         
 }; // CLASS
 
@@ -89,7 +146,7 @@ class ReadWriteTrackerManager {
         Table* getTuplesWritten(ReadWriteTracker *tracker);
         
     private:
-        void getTuples(boost::unordered_map<std::string, RowOffsets*> *map) const;
+        void getTuples(boost::unordered_map<Table*, RowOffsets*> *map) const;
         
         ExecutorContext *executorContext;
         TupleSchema *resultSchema;
@@ -70,6 +70,7 @@
 #include "storage/PersistentTableUndoInsertAction.h"
 #include "storage/PersistentTableUndoDeleteAction.h"
 #include "storage/PersistentTableUndoUpdateAction.h"
+#include "storage/PersistentTableUndoBatchAction.h"
 #include "storage/ConstraintFailureException.h"
 #include "storage/MaterializedViewMetadata.h"
 #include "storage/CopyOnWriteContext.h"
@@ -591,12 +592,17 @@ bool PersistentTable::insertTuple(TableTuple &source) {
      */
     voltdb::UndoQuantum *undoQuantum = m_executorContext->getCurrentUndoQuantum();
     assert(undoQuantum);
-    voltdb::Pool *pool = undoQuantum->getDataPool();
-    assert(pool);
-    voltdb::PersistentTableUndoInsertAction *ptuia =
-      new (pool->allocate(sizeof(voltdb::PersistentTableUndoInsertAction)))
-      voltdb::PersistentTableUndoInsertAction(m_tmpTarget1, this, pool, elMark);
-    undoQuantum->registerUndoAction(ptuia);
+    if (undoQuantum->isDummy()) {
+        voltdb::Pool *pool = undoQuantum->getDataPool();
+        assert(pool);
+        voltdb::PersistentTableUndoInsertAction *ptuia =
+          new (pool->allocate(sizeof(voltdb::PersistentTableUndoInsertAction)))
+          voltdb::PersistentTableUndoInsertAction(m_tmpTarget1, this, pool, elMark);
+        undoQuantum->registerUndoAction(ptuia);
+    } else {
+        getUndoBatchAction(undoQuantum)->append(
+            voltdb::PersistentTableUndoBatchAction::INSERT, m_tmpTarget1, elMark);
+    }
     VOLT_DEBUG("Registered UndoAction for new tuple in table '%s'", name().c_str());
 
     // handle any materialized views
@@ -858,22 +864,27 @@ bool PersistentTable::deleteTuple(TableTuple &target, bool deleteAllocatedString
      */
     voltdb::UndoQuantum *undoQuantum = m_executorContext->getCurrentUndoQuantum();
     assert(undoQuantum);
-    voltdb::Pool *pool = undoQuantum->getDataPool();
-    assert(pool);
-    voltdb::PersistentTableUndoDeleteAction *ptuda = new (pool->allocate(sizeof(voltdb::PersistentTableUndoDeleteAction))) voltdb::PersistentTableUndoDeleteAction( target, this, pool);
-
     // handle any materialized views
     for (int i = 0; i < m_views.size(); i++) {
         m_views[i]->processTupleDelete(target);
     }
 
     // if EL is enabled, append the tuple to the buffer
+    size_t elMark = 0;
     if (m_exportEnabled) {
-        size_t elMark = appendToELBuffer(target, m_tsSeqNo++, TupleStreamWrapper::DELETE);
-        ptuda->setELMark(elMark);
+        elMark = appendToELBuffer(target, m_tsSeqNo++, TupleStreamWrapper::DELETE);
     }
 
-    undoQuantum->registerUndoAction(ptuda);
+    if (undoQuantum->isDummy()) {
+        voltdb::Pool *pool = undoQuantum->getDataPool();
+        assert(pool);
+        voltdb::PersistentTableUndoDeleteAction *ptuda = new (pool->allocate(sizeof(voltdb::PersistentTableUndoDeleteAction))) voltdb::PersistentTableUndoDeleteAction( target, this, pool);
+        ptuda->setELMark(elMark);
+        undoQuantum->registerUndoAction(ptuda);
+    } else {
+        getUndoBatchAction(undoQuantum)->append(
+            voltdb::PersistentTableUndoBatchAction::DELETE, target, elMark);
+    }
     deleteTupleStorage(target);
     return true;
 }
@@ -920,6 +931,27 @@ void PersistentTable::deleteTupleForUndo(voltdb::TableTuple &tupleCopy, size_t w
     }
 }
 
+/*
+ * Return the batch undo action that inserts and deletes on this table
+ * should be appended to. Consecutive changes to the same table share a
+ * single action; anything else registered in between (an update or a
+ * change to another table) starts a new one so that the undo order is
+ * preserved.
+ */
+PersistentTableUndoBatchAction* PersistentTable::getUndoBatchAction(UndoQuantum *undoQuantum) {
+    PersistentTableUndoBatchAction *batch =
+        dynamic_cast<PersistentTableUndoBatchAction*>(undoQuantum->getLastUndoAction());
+    if (batch == NULL || batch->getTable() != this) {
+        voltdb::Pool *pool = undoQuantum->getDataPool();
+        assert(pool);
+        batch = new (pool->allocate(sizeof(voltdb::PersistentTableUndoBatchAction)))
+          voltdb::PersistentTableUndoBatchAction(this, pool);
+        undoQuantum->registerUndoAction(batch);
+        VOLT_DEBUG("Registered UndoAction batch for table '%s'", name().c_str());
+    }
+    return batch;
+}
+
 voltdb::TableTuple PersistentTable::lookupTuple(TableTuple tuple) {
     voltdb::TableTuple nullTuple(m_schema);//Null tuple
 
@@ -75,6 +75,8 @@ class ReferenceSerializeOutput;
 class ExecutorContext;
 class MaterializedViewMetadata;
 class RecoveryProtoMsg;
+class UndoQuantum;
+class PersistentTableUndoBatchAction;
     
 #ifdef ANTICACHE
 class EvictedTable;
@@ -298,6 +300,8 @@ protected:
     bool tryUpdateOnAllIndexes(TableTuple &targetTuple, const TableTuple &sourceTuple);
 
     bool checkNulls(TableTuple &tuple) const;
+
+    PersistentTableUndoBatchAction* getUndoBatchAction(UndoQuantum *undoQuantum);
     
     size_t appendToELBuffer(TableTuple &tuple, int64_t seqNo, TupleStreamWrapper::Type type);
 
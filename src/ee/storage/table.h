@@ -494,37 +494,18 @@ inline void Table::allocateNextBlock() {
 }
     
 inline int Table::getTupleID(const char* tuple_address)
-{    
-    char* addr; 
-    int tuple_id = 0; 
-    
-    int tuple_size = m_schema->tupleLength() + TUPLE_HEADER_SIZE; 
-    
-    for(int i = 0; i < m_data.size(); i++)  // iterate through blocks
+{
+    for (int i = 0; i < m_data.size(); i++)  // iterate through blocks
     {
-        addr = m_data[i]; 
-        
-        // tuple cannot be in this block, so increment id and skip to the next block
-        if((tuple_address < addr) || (tuple_address > (addr + (tuple_size*m_tuplesPerBlock)))
-           )
-        {
-            tuple_id += m_tuplesPerBlock; 
-            continue; 
-        }
-        
-        for(int j = 0; j < m_tuplesPerBlock; j++)  // iterate through tuples in a block
+        const char *block = m_data[i];
+
+        // the id is the tuple's position in its block plus the tuples in all of the blocks before it
+        if ((tuple_address >= block) && (tuple_address < (block + (m_tupleLength * m_tuplesPerBlock))))
         {
-            if(addr == tuple_address)
-            {
-                return tuple_id; 
-            }
-            
-            addr += tuple_size; // advance pointer to next tuple
-            tuple_id++; 
+            return (i * m_tuplesPerBlock) + static_cast<int>((tuple_address - block) / m_tupleLength);
         }
-        
     }
-    
+
     return -1; // no matching tuple was found
 }
 
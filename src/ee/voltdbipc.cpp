@@ -328,6 +328,9 @@ bool VoltDBIPC::execute(struct ipc_command *cmd) {
           hashinate(cmd);
           result = kErrorCode_None;
           break;
+      case 24:
+          result = updateHasher(cmd);
+          break;
       default:
         result = stub(cmd);
     }
@@ -1041,6 +1044,18 @@ void VoltDBIPC::hashinate(struct ipc_command* cmd)
     writeOrDie(m_fd, (unsigned char*)response, 5);
 }
 
+int8_t VoltDBIPC::updateHasher(struct ipc_command* cmd)
+{
+    int sz = static_cast<int> (ntohl(cmd->msgsize) - sizeof(struct ipc_command));
+    ReferenceSerializeInput serialize_in(cmd->data, sz);
+    try {
+        m_engine->updateHasherMapping(serialize_in);
+    } catch (FatalException e) {
+        crashVoltDB(e);
+    }
+    return kErrorCode_Success;
+}
+
 void VoltDBIPC::signalHandler(int signum, siginfo_t *info, void *context) {
     char err_msg[128];
     snprintf(err_msg, 128, "SIGSEGV caught: signal number %d, error value %d,"
@@ -1168,6 +1168,30 @@ SHAREDLIB_JNIEXPORT jint JNICALL Java_org_voltdb_jni_ExecutionEngine_nativeHashi
     return org_voltdb_jni_ExecutionEngine_ERRORCODE_ERROR;
 }
 
+/*
+ * Class:     org_voltdb_jni_ExecutionEngine
+ * Method:    nativeUpdateHasher
+ * Signature: (J)I
+ */
+SHAREDLIB_JNIEXPORT jint JNICALL Java_org_voltdb_jni_ExecutionEngine_nativeUpdateHasher(JNIEnv *env, jobject obj, jlong engine_ptr)
+{
+    VOLT_DEBUG("nativeUpdateHasher() start");
+    VoltDBEngine *engine = castToEngine(engine_ptr);
+    if (engine == NULL) {
+        return org_voltdb_jni_ExecutionEngine_ERRORCODE_ERROR;
+    }
+    Topend *topend = static_cast<JNITopend*>(engine->getTopend())->updateJNIEnv(env);
+    try {
+        updateJNILogProxy(engine); //JNIEnv pointer can change between calls, must be updated
+        ReferenceSerializeInput serialize_in(engine->getParameterBuffer(),
+                                             engine->getParameterBufferCapacity());
+        engine->updateHasherMapping(serialize_in);
+    } catch (FatalException e) {
+        topend->crashVoltDB(e);
+    }
+    return org_voltdb_jni_ExecutionEngine_ERRORCODE_SUCCESS;
+}
+
 #ifdef LINUX
 /*
  * Class:     org_voltdb_utils_ThreadUtils
@@ -1387,6 +1411,37 @@ SHAREDLIB_JNIEXPORT jint JNICALL Java_org_voltdb_jni_ExecutionEngine_nativeTrack
     return retval;
 }
 
+/**
+ * Check whether the first txn read or wrote a tuple that the second txn wrote.
+ * @param pointer the VoltDBEngine pointer
+ * @param txnId0 the txn that executed first
+ * @param txnId1 the txn that executed second
+ * @return 1 if there is a conflict, 0 otherwise
+ */
+SHAREDLIB_JNIEXPORT jint JNICALL Java_org_voltdb_jni_ExecutionEngine_nativeTrackingConflict(
+        JNIEnv *env,
+        jobject obj,
+        jlong engine_ptr,
+        jlong txnId0,
+        jlong txnId1) {
+    
+    VOLT_DEBUG("nativeTrackingConflict() start");
+    VoltDBEngine *engine = castToEngine(engine_ptr);
+    Topend *topend = static_cast<JNITopend*>(engine->getTopend())->updateJNIEnv(env);
+    if (engine == NULL) {
+        return org_voltdb_jni_ExecutionEngine_ERRORCODE_ERROR;
+    }
+    
+    int retval = 0;
+    try {
+        retval = (engine->trackingConflict(static_cast<int64_t>(txnId0),
+                                           static_cast<int64_t>(txnId1)) ? 1 : 0);
+    } catch (FatalException e) {
+        topend->crashVoltDB(e);
+    }
+    return retval;
+}
+
 // ----------------------------------------------------------------------------
 // ANTI-CACHING
 // ----------------------------------------------------------------------------
@@ -18,11 +18,13 @@ public class CatalogPair extends Pair<CatalogType, CatalogType> {
     }
 
     public static CatalogPair factory(CatalogType element0, CatalogType element1, ExpressionType comparison_exp, QueryType... query_types) {
-        // Sort them!
+        // Sort them! The comparison has to be reversed too so that
+        // the pair still means (element0 comparison_exp element1)
         if (element0.compareTo(element1) > 0) {
             CatalogType temp = element0;
             element0 = element1;
             element1 = temp;
+            comparison_exp = ExpressionUtil.reverseComparison(comparison_exp);
         }
         return (new CatalogPair(element0, element1, comparison_exp, query_types));
     }
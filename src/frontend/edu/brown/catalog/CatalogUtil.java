@@ -69,6 +69,7 @@ import org.voltdb.plannodes.SeqScanPlanNode;
 import org.voltdb.plannodes.UpdatePlanNode;
 import org.voltdb.types.ConstraintType;
 import org.voltdb.types.ExpressionType;
+import org.voltdb.types.IndexLookupType;
 import org.voltdb.types.PlanNodeType;
 import org.voltdb.types.QueryType;
 import org.voltdb.utils.Encoder;
@@ -2209,13 +2210,25 @@ public abstract class CatalogUtil extends org.voltdb.utils.CatalogUtil {
                     assert (catalog_idx != null);
 
                     // Search Key Expressions
+                    // The last search key is compared using the scan's lookup type.
+                    // All of the keys before it have to be equal.
                     List<ColumnRef> index_cols = CatalogUtil.getSortedCatalogItems(catalog_idx.getColumns(), "index");
                     for (int i = 0, cnt = cast_node.getSearchKeyExpressions().size(); i < cnt; i++) {
                         AbstractExpression index_exp = cast_node.getSearchKeyExpressions().get(i);
                         Column catalog_col = index_cols.get(i).getColumn();
+                        ExpressionType exp_type = ExpressionType.COMPARE_EQUAL;
+                        if (i + 1 == cnt) {
+                            exp_type = CatalogUtil.getLookupComparison(cast_node.getLookupType());
+                            if (exp_type == null) {
+                                if (debug.val)
+                                    LOG.warn(String.format("Skipping search key for %s with lookup type %s",
+                                             catalog_col.fullName(), cast_node.getLookupType()));
+                                continue;
+                            }
+                        }
                         if (debug.val)
-                            LOG.debug("[" + i + "] " + catalog_col);
-                        exps.add(CatalogUtil.createTempExpression(catalog_col, index_exp));
+                            LOG.debug("[" + i + "] " + catalog_col + " " + exp_type);
+                        exps.add(CatalogUtil.createTempExpression(catalog_col, exp_type, index_exp));
                         if (debug.val)
                             LOG.debug("Added temp index search key expression:\n" + ExpressionUtil.debug(exps.get(exps.size() - 1)));
                     } // FOR
@@ -2560,6 +2573,18 @@ public abstract class CatalogUtil extends org.voltdb.utils.CatalogUtil {
      * @return
      */
     private static AbstractExpression createTempExpression(Column catalog_col, AbstractExpression exp) {
+        return (CatalogUtil.createTempExpression(catalog_col, ExpressionType.COMPARE_EQUAL, exp));
+    }
+    
+    /**
+     * Create a temporary column expression where "COL exp_type exp"
+     * 
+     * @param catalog_col
+     * @param exp_type
+     * @param exp
+     * @return
+     */
+    private static AbstractExpression createTempExpression(Column catalog_col, ExpressionType exp_type, AbstractExpression exp) {
         Table catalog_tbl = (Table) catalog_col.getParent();
 
         TupleValueExpression tuple_exp = new TupleValueExpression();
@@ -2568,7 +2593,31 @@ public abstract class CatalogUtil extends org.voltdb.utils.CatalogUtil {
         tuple_exp.setColumnAlias(catalog_col.getName());
         tuple_exp.setColumnName(catalog_col.getName());
 
-        return (new ComparisonExpression(ExpressionType.COMPARE_EQUAL, tuple_exp, exp));
+        return (new ComparisonExpression(exp_type, tuple_exp, exp));
+    }
+    
+    /**
+     * Return the comparison that an index scan with the given lookup type
+     * performs on its last search key, or null if it is not a single comparison
+     * 
+     * @param lookup_type
+     * @return
+     */
+    private static ExpressionType getLookupComparison(IndexLookupType lookup_type) {
+        switch (lookup_type) {
+            case EQ:
+                return (ExpressionType.COMPARE_EQUAL);
+            case GT:
+                return (ExpressionType.COMPARE_GREATERTHAN);
+            case GTE:
+                return (ExpressionType.COMPARE_GREATERTHANOREQUALTO);
+            case LT:
+                return (ExpressionType.COMPARE_LESSTHAN);
+            case LTE:
+                return (ExpressionType.COMPARE_LESSTHANOREQUALTO);
+            default:
+                return (null);
+        } // SWITCH
     }
 
     /**
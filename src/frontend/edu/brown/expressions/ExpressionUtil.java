@@ -52,6 +52,27 @@ public abstract class ExpressionUtil extends org.voltdb.expressions.ExpressionUt
         EXPRESSION_STRING.put(ExpressionType.COMPARE_IN, "IN");
     }
 
+    /**
+     * Return the comparison that gives the same result when its two sides
+     * are swapped (e.g., "a < b" is the same as "b > a")
+     * @param exp_type
+     * @return
+     */
+    public static ExpressionType reverseComparison(ExpressionType exp_type) {
+        switch (exp_type) {
+            case COMPARE_LESSTHAN:
+                return (ExpressionType.COMPARE_GREATERTHAN);
+            case COMPARE_GREATERTHAN:
+                return (ExpressionType.COMPARE_LESSTHAN);
+            case COMPARE_LESSTHANOREQUALTO:
+                return (ExpressionType.COMPARE_GREATERTHANOREQUALTO);
+            case COMPARE_GREATERTHANOREQUALTO:
+                return (ExpressionType.COMPARE_LESSTHANOREQUALTO);
+            default:
+                return (exp_type);
+        } // SWITCH
+    }
+
     /**
      * Recursively check whether the trees rooted at the given
      * AbstractExpressions are equal
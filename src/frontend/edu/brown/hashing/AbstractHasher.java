@@ -2,13 +2,24 @@ package edu.brown.hashing;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.voltdb.CatalogContext;
 import org.voltdb.catalog.CatalogType;
 import org.voltdb.catalog.Database;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+import org.voltdb.catalog.Table;
+import org.voltdb.messaging.FastSerializer;
+import org.voltdb.types.HasherType;
+import org.voltdb.types.QueryType;
 
+import edu.brown.catalog.CatalogUtil;
 import edu.brown.utils.JSONSerializable;
 import edu.brown.utils.JSONUtil;
 
@@ -18,6 +29,12 @@ public abstract class AbstractHasher implements JSONSerializable {
     protected final int num_partitions;
     protected final CatalogContext catalogContext;
     
+    /**
+     * Incremented every time that the mapping from values to partitions changes
+     * @see AbstractHasher#getVersion()
+     */
+    private final AtomicInteger version = new AtomicInteger(0);
+    
     public AbstractHasher(CatalogContext catalogContext, int num_partitions) {
         this.catalogContext = catalogContext;
         this.num_partitions = num_partitions;
@@ -53,12 +70,94 @@ public abstract class AbstractHasher implements JSONSerializable {
         return (this.num_partitions);
     }
     
+    /**
+     * Returns the current version of this hasher's mapping from values to partitions.
+     * The version changes every time that the mapping is changed, so anybody that
+     * has a copy of the mapping (e.g., the EE) knows when it needs to get a new one.
+     * @return
+     */
+    public final int getVersion() {
+        return (this.version.get());
+    }
+    
+    /**
+     * Must be called by the implementing classes after they change their mapping 
+     * from values to partitions.
+     */
+    protected final void updateVersion() {
+        this.version.incrementAndGet();
+    }
+    
+    /**
+     * Serialize the mapping that the EE needs to compute the same partition
+     * as this hasher for the partitioning column values of the tuples that 
+     * INSERT and UPDATE statements write. The caller should get the version
+     * before it calls this so that it never misses a change.
+     * @param fs
+     * @throws IOException
+     */
+    public final void serializeForExecutionEngine(FastSerializer fs) throws IOException {
+        fs.writeByte(this.getHasherType().getValue());
+        fs.writeInt(this.num_partitions);
+        this.serializeMapping(fs);
+    }
+    
+    /**
+     * Return the INSERT and UPDATE Statements in the catalog that write to a 
+     * partitioned table that this hasher is not compatible with the EE for. 
+     * These Statements would fail in the EE with a mispartitioned tuple error.
+     * @param catalogContext
+     * @return
+     */
+    public Collection<Statement> getIncompatibleStatements(CatalogContext catalogContext) {
+        List<Statement> stmts = new ArrayList<Statement>();
+        for (Procedure catalog_proc : catalogContext.procedures) {
+            for (Statement catalog_stmt : catalog_proc.getStatements()) {
+                int type = catalog_stmt.getQuerytype();
+                if (type != QueryType.INSERT.getValue() && type != QueryType.UPDATE.getValue()) continue;
+                for (Table catalog_tbl : CatalogUtil.getReferencedTables(catalog_stmt)) {
+                    if (catalog_tbl.getIsreplicated() || catalog_tbl.getPartitioncolumn() == null) continue;
+                    if (this.isExecutionEngineCompatible(catalog_tbl) == false) {
+                        stmts.add(catalog_stmt);
+                        break;
+                    }
+                } // FOR
+            } // FOR
+        } // FOR
+        return (stmts);
+    }
+    
     // -----------------------------------------------------------------
     // ABSTRACT INTERFACE
     // -----------------------------------------------------------------
     
     public abstract void init(CatalogContext catalogContext);
     
+    /**
+     * Returns true if the EE can compute the same partition as this hasher
+     * for every value of the given table's partitioning column once it has
+     * the mapping from serializeForExecutionEngine(). The EE uses this to 
+     * check that the tuples written by INSERT and UPDATE statements belong 
+     * to its partition, so it will reject any tuple that it does not agree on.
+     * @param catalog_tbl
+     * @return
+     */
+    public abstract boolean isExecutionEngineCompatible(Table catalog_tbl);
+    
+    /**
+     * Returns the type of mapping that this hasher sends to the EE
+     * @return
+     */
+    public abstract HasherType getHasherType();
+    
+    /**
+     * Serialize the type-specific part of the mapping for the EE
+     * @see AbstractHasher#serializeForExecutionEngine(FastSerializer)
+     * @param fs
+     * @throws IOException
+     */
+    protected abstract void serializeMapping(FastSerializer fs) throws IOException;
+    
     /**
      * Hash the given value based on the partition count 
      * @param value
@@ -1,34 +1,87 @@
 package edu.brown.hashing;
 
-import org.apache.commons.collections15.map.LRUMap;
 import org.voltdb.CatalogContext;
+import org.voltdb.catalog.Table;
 
+import edu.brown.hstore.conf.HStoreConf;
+
+/**
+ * DefaultHasher that remembers the partitions that it computed for integral
+ * and String values in a {@link HashCache}. The cache is thread-safe, so a single
+ * CachedHasher (or a single HashCache) can be shared by all of the
+ * PartitionEstimators at a site.
+ */
 public class CachedHasher extends DefaultHasher {
 
-    private final LRUMap<Object, Integer> cache = new LRUMap<Object, Integer>(2048);
+    private final HashCache cache;
 
     /**
      * Constructor
-     * @param catalog_db
+     * The size of the cache is set by the global.hasher_cache_size parameter.
+     * @param catalogContext
      * @param num_partitions
      */
     public CachedHasher(CatalogContext catalogContext, int num_partitions) {
+        this(catalogContext, num_partitions, new HashCache(HStoreConf.singleton(true).global.hasher_cache_size));
+    }
+
+    /**
+     * Constructor
+     * @param catalogContext
+     * @param num_partitions
+     * @param cache the HashCache to use (may be shared with other hashers)
+     */
+    public CachedHasher(CatalogContext catalogContext, int num_partitions, HashCache cache) {
         super(catalogContext, num_partitions);
+        assert(cache != null);
+        this.cache = cache;
     }
 
+    /**
+     * Return the underlying HashCache for this hasher
+     * @return
+     */
+    public HashCache getCache() {
+        return (this.cache);
+    }
+    
     @Override
     public void init(CatalogContext catalogDb) {
         super.init(catalogDb);
         this.cache.clear();
     }
     
+    /**
+     * We only cache the partitions that the DefaultHasher computed,
+     * so the EE still agrees with us
+     */
+    @Override
+    public boolean isExecutionEngineCompatible(Table catalog_tbl) {
+        return (true);
+    }
+    
     @Override
     public int hash(Object value, int num_partitions) {
-        Integer hash = this.cache.get(value);
-        if (hash == null) {
-            hash = super.hash(value, num_partitions);
-            this.cache.put(value, hash);
+        // TheHashinator hashes all integral types as longs, so they can share entries
+        if (value instanceof Long || value instanceof Integer ||
+            value instanceof Short || value instanceof Byte) {
+            long key = ((Number)value).longValue();
+            int hash = this.cache.get(key, num_partitions);
+            if (hash == HashCache.NULL_HASH) {
+                hash = super.hash(value, num_partitions);
+                this.cache.put(key, num_partitions, hash);
+            }
+            return (hash);
+        }
+        else if (value instanceof String) {
+            String key = (String)value;
+            int hash = this.cache.get(key, num_partitions);
+            if (hash == HashCache.NULL_HASH) {
+                hash = super.hash(value, num_partitions);
+                this.cache.put(key, num_partitions, hash);
+            }
+            return (hash);
         }
-        return (hash.intValue());
+        return (super.hash(value, num_partitions));
     }
 }
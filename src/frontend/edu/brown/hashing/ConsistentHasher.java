@@ -0,0 +1,355 @@
+package edu.brown.hashing;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONStringer;
+import org.voltdb.CatalogContext;
+import org.voltdb.VoltType;
+import org.voltdb.catalog.CatalogType;
+import org.voltdb.catalog.Column;
+import org.voltdb.catalog.Database;
+import org.voltdb.catalog.Table;
+import org.voltdb.messaging.FastSerializer;
+import org.voltdb.types.HasherType;
+
+import edu.brown.utils.ClassUtil;
+import edu.brown.utils.PartitionSet;
+
+/**
+ * Consistent hashing ring with virtual nodes.
+ * Every partition owns VIRTUAL_NODES points on a 64-bit ring and a value is
+ * stored at the partition that owns the first point at or after the value's hash.
+ * The position of a partition's points does not depend on the other partitions,
+ * so adding a partition to the ring only moves the values that now belong
+ * to the new partition (roughly 1/n of them) and removing a partition only
+ * moves the values that it used to own.
+ * <B>Note:</B> The EE gets a copy of the ring so that it can check the tuples
+ * that INSERT and UPDATE statements write against it. It can only hash integral
+ * and string values the same way as we do.
+ */
+public class ConsistentHasher extends AbstractHasher {
+
+    public enum Members {
+        VIRTUAL_NODES,
+        PARTITIONS;
+    }
+
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * An immutable snapshot of the ring.
+     */
+    private static final class Ring {
+        private final PartitionSet partitions;
+        private final long points[];
+        private final int owners[];
+
+        private Ring(PartitionSet partitions, int virtual_nodes) {
+            assert(partitions.isEmpty() == false) : "Empty ring";
+            int size = partitions.size() * virtual_nodes;
+            long entries[][] = new long[size][];
+            int idx = 0;
+            for (int p : partitions.values()) {
+                for (int v = 0; v < virtual_nodes; v++) {
+                    entries[idx++] = new long[]{ mix(((long)p << 32) | v), p };
+                } // FOR
+            } // FOR
+            Arrays.sort(entries, new Comparator<long[]>() {
+                @Override
+                public int compare(long[] o1, long[] o2) {
+                    int c = Long.compare(o1[0], o2[0]);
+                    return (c != 0 ? c : Long.compare(o1[1], o2[1]));
+                }
+            });
+
+            this.partitions = new PartitionSet(partitions);
+            this.points = new long[size];
+            this.owners = new int[size];
+            for (int i = 0; i < size; i++) {
+                this.points[i] = entries[i][0];
+                this.owners[i] = (int)entries[i][1];
+            } // FOR
+        }
+
+        /**
+         * Return the owner of the first point at or after the given hash.
+         * We don't use Arrays.binarySearch() because it may return any one of
+         * a set of equal points, and the EE has to pick the same one as we do.
+         */
+        private int getPartition(long hash) {
+            int low = 0;
+            int high = this.points.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (this.points[mid] < hash) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            } // WHILE
+            if (low == this.points.length) low = 0;
+            return (this.owners[low]);
+        }
+    } // CLASS
+
+    private int virtual_nodes = DEFAULT_VIRTUAL_NODES;
+
+    /**
+     * The ring for the active partitions
+     */
+    private volatile Ring ring;
+
+    /**
+     * NumPartitions -> Ring
+     * Used for hash(Object, int) with a different number of partitions
+     */
+    private final Map<Integer, Ring> otherRings = new ConcurrentHashMap<Integer, Ring>();
+
+    /**
+     * Constructor
+     * @param catalogContext
+     * @param num_partitions
+     */
+    public ConsistentHasher(CatalogContext catalogContext, int num_partitions) {
+        super(catalogContext, num_partitions);
+        this.ring = new Ring(allPartitions(num_partitions), this.virtual_nodes);
+    }
+
+    @Override
+    public void init(CatalogContext catalogContext) {
+        // Nothing to do
+    }
+
+    // -----------------------------------------------------------------
+    // RING METHODS
+    // -----------------------------------------------------------------
+
+    /**
+     * Return the partitions that are currently in the ring
+     * @return
+     */
+    public PartitionSet getPartitions() {
+        return (this.ring.partitions);
+    }
+
+    public int getVirtualNodes() {
+        return (this.virtual_nodes);
+    }
+
+    /**
+     * Change the number of points that each partition owns on the ring.
+     * This will move most of the values.
+     * @param virtual_nodes
+     */
+    public synchronized void setVirtualNodes(int virtual_nodes) {
+        if (virtual_nodes <= 0)
+            throw new IllegalArgumentException("Invalid number of virtual nodes " + virtual_nodes);
+        this.virtual_nodes = virtual_nodes;
+        this.otherRings.clear();
+        this.ring = new Ring(this.ring.partitions, virtual_nodes);
+        this.updateVersion();
+    }
+
+    /**
+     * Add the given partition to the ring.
+     * Returns false if the partition was already in the ring.
+     * @param partition
+     * @return
+     */
+    public synchronized boolean addPartition(int partition) {
+        if (partition < 0 || partition >= this.num_partitions)
+            throw new IllegalArgumentException("Invalid partition " + partition);
+        if (this.ring.partitions.contains(partition)) return (false);
+        PartitionSet partitions = new PartitionSet(this.ring.partitions);
+        partitions.add(partition);
+        this.ring = new Ring(partitions, this.virtual_nodes);
+        this.updateVersion();
+        return (true);
+    }
+
+    /**
+     * Remove the given partition from the ring. Its values will be
+     * spread out over the remaining partitions.
+     * Returns false if the partition was not in the ring.
+     * @param partition
+     * @return
+     */
+    public synchronized boolean removePartition(int partition) {
+        if (this.ring.partitions.contains(partition) == false) return (false);
+        if (this.ring.partitions.size() == 1)
+            throw new IllegalStateException("Unable to remove the last partition from the ring");
+        PartitionSet partitions = new PartitionSet(this.ring.partitions);
+        partitions.remove(partition);
+        this.ring = new Ring(partitions, this.virtual_nodes);
+        this.updateVersion();
+        return (true);
+    }
+
+    // -----------------------------------------------------------------
+    // EXECUTION ENGINE
+    // -----------------------------------------------------------------
+
+    /**
+     * The EE gets our ring, but it can only hash the same types as TheHashinator
+     */
+    @Override
+    public boolean isExecutionEngineCompatible(Table catalog_tbl) {
+        Column catalog_col = catalog_tbl.getPartitioncolumn();
+        if (catalog_col == null) return (true);
+        switch (VoltType.get(catalog_col.getType())) {
+            case TINYINT:
+            case SMALLINT:
+            case INTEGER:
+            case BIGINT:
+            case STRING:
+                return (true);
+            default:
+                return (false);
+        } // SWITCH
+    }
+
+    @Override
+    public HasherType getHasherType() {
+        return (HasherType.CONSISTENT);
+    }
+
+    @Override
+    protected void serializeMapping(FastSerializer fs) throws IOException {
+        Ring r = this.ring;
+        fs.writeInt(r.points.length);
+        for (long point : r.points) {
+            fs.writeLong(point);
+        } // FOR
+        for (int owner : r.owners) {
+            fs.writeInt(owner);
+        } // FOR
+    }
+
+    // -----------------------------------------------------------------
+    // HASHING METHODS
+    // -----------------------------------------------------------------
+
+    @Override
+    public int hash(Object value) {
+        return (this.ring.getPartition(hashValue(value)));
+    }
+
+    @Override
+    public int hash(Object value, CatalogType catalogItem) {
+        assert(!ClassUtil.isArray(value)) : "Value for hashing is an array: " + Arrays.toString((Object[])value);
+        return (this.hash(value));
+    }
+
+    @Override
+    public int hash(Object value, int num_partitions) {
+        if (num_partitions == this.num_partitions) {
+            return (this.hash(value));
+        }
+        Ring r = this.otherRings.get(num_partitions);
+        if (r == null) {
+            synchronized (this) {
+                r = this.otherRings.get(num_partitions);
+                if (r == null) {
+                    r = new Ring(allPartitions(num_partitions), this.virtual_nodes);
+                    this.otherRings.put(num_partitions, r);
+                }
+            } // SYNCH
+        }
+        return (r.getPartition(hashValue(value)));
+    }
+
+    // -----------------------------------------------------------------
+    // INTERNAL METHODS
+    // -----------------------------------------------------------------
+
+    private static PartitionSet allPartitions(int num_partitions) {
+        PartitionSet partitions = new PartitionSet();
+        for (int p = 0; p < num_partitions; p++) {
+            partitions.add(p);
+        } // FOR
+        return (partitions);
+    }
+
+    /**
+     * Compute the position of the given value on the ring.
+     * Integral types are hashed by their long value so that an Integer and
+     * a Long with the same value end up at the same partition.
+     */
+    private static long hashValue(Object value) {
+        if (value instanceof Long || value instanceof Integer ||
+            value instanceof Short || value instanceof Byte) {
+            return (mix(((Number)value).longValue()));
+        } else if (value instanceof String) {
+            // 64-bit FNV-1a so that we are not limited to String.hashCode()'s 32 bits
+            // We hash the UTF-8 bytes because that is what the EE has
+            byte bytes[] = ((String)value).getBytes(UTF8);
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < bytes.length; i++) {
+                h ^= (bytes[i] & 0xFF);
+                h *= 0x100000001b3L;
+            } // FOR
+            return (mix(h));
+        } else if (value == null) {
+            return (mix(0));
+        }
+        return (mix(value.hashCode()));
+    }
+
+    /**
+     * MurmurHash3's 64-bit finalizer
+     */
+    private static long mix(long h) {
+        h ^= (h >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 33);
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= (h >>> 33);
+        return (h);
+    }
+
+    // -----------------------------------------------------------------
+    // SERIALIZATION
+    // -----------------------------------------------------------------
+
+    @Override
+    public void toJSON(JSONStringer stringer) throws JSONException {
+        stringer.key(Members.VIRTUAL_NODES.name()).value(this.virtual_nodes);
+        stringer.key(Members.PARTITIONS.name()).array();
+        for (int p : this.ring.partitions.values()) {
+            stringer.value(p);
+        } // FOR
+        stringer.endArray();
+    }
+
+    @Override
+    public synchronized void fromJSON(JSONObject json_object, Database catalog_db) throws JSONException {
+        if (json_object.has(Members.VIRTUAL_NODES.name())) {
+            this.virtual_nodes = json_object.getInt(Members.VIRTUAL_NODES.name());
+        }
+        PartitionSet partitions = new PartitionSet();
+        if (json_object.has(Members.PARTITIONS.name())) {
+            JSONArray json_partitions = json_object.getJSONArray(Members.PARTITIONS.name());
+            for (int i = 0, cnt = json_partitions.length(); i < cnt; i++) {
+                int p = json_partitions.getInt(i);
+                if (p < 0 || p >= this.num_partitions)
+                    throw new JSONException("Invalid partition " + p + " in " + this.getClass().getSimpleName());
+                partitions.add(p);
+            } // FOR
+        } else {
+            partitions.addAll(allPartitions(this.num_partitions));
+        }
+        this.otherRings.clear();
+        this.ring = new Ring(partitions, this.virtual_nodes);
+        this.updateVersion();
+    }
+}
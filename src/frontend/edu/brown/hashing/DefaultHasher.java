@@ -3,6 +3,7 @@
  */
 package edu.brown.hashing;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -13,6 +14,9 @@ import org.voltdb.CatalogContext;
 import org.voltdb.TheHashinator;
 import org.voltdb.catalog.CatalogType;
 import org.voltdb.catalog.Database;
+import org.voltdb.catalog.Table;
+import org.voltdb.messaging.FastSerializer;
+import org.voltdb.types.HasherType;
 
 import edu.brown.utils.ClassUtil;
 
@@ -40,6 +44,23 @@ public class DefaultHasher extends AbstractHasher {
         
     }
     
+    /**
+     * The EE uses the same TheHashinator as we do
+     */
+    @Override
+    public boolean isExecutionEngineCompatible(Table catalog_tbl) {
+        return (true);
+    }
+    
+    @Override
+    public HasherType getHasherType() {
+        return (HasherType.DEFAULT);
+    }
+    
+    @Override
+    protected void serializeMapping(FastSerializer fs) throws IOException {
+        // Nothing to do
+    }
 
     @Override
     public int hash(Object value) {
@@ -0,0 +1,314 @@
+package edu.brown.hashing;
+
+import java.util.Arrays;
+
+/**
+ * Thread-safe cache of the partition ids computed for hashed values.
+ * The cache is split into lock-striped segments and each segment is a
+ * set-associative table of primitive arrays, so lookups never allocate.
+ * Values are keyed on both the hashed value and the number of partitions.
+ * When a set is full we evict an entry using the CLOCK (second-chance) policy.
+ * There are separate tables for integral values (stored as longs) and Strings.
+ */
+public class HashCache {
+
+    /**
+     * Return value for a lookup that is not in the cache
+     */
+    public static final int NULL_HASH = -1;
+    
+    /**
+     * The number of entries in each set of a segment
+     */
+    private static final int WAYS = 4;
+    
+    private static final int DEFAULT_NUM_SEGMENTS = 16;
+    
+    private final Segment segments[];
+    private final int segmentMask;
+    private final int capacity;
+    
+    /**
+     * Constructor
+     * @param capacity the approximate total number of entries per key type
+     */
+    public HashCache(int capacity) {
+        this(capacity, DEFAULT_NUM_SEGMENTS);
+    }
+    
+    /**
+     * Constructor
+     * @param capacity the approximate total number of entries per key type
+     * @param num_segments the number of lock stripes (rounded up to a power of two)
+     */
+    public HashCache(int capacity, int num_segments) {
+        assert(capacity > 0) : "Invalid HashCache capacity " + capacity;
+        assert(num_segments > 0) : "Invalid number of HashCache segments " + num_segments;
+        num_segments = nextPowerOfTwo(num_segments);
+        int num_sets = nextPowerOfTwo(Math.max(1, capacity / (num_segments * WAYS)));
+        
+        this.segments = new Segment[num_segments];
+        for (int i = 0; i < num_segments; i++) {
+            this.segments[i] = new Segment(num_sets);
+        } // FOR
+        this.segmentMask = num_segments - 1;
+        this.capacity = num_segments * num_sets * WAYS;
+    }
+    
+    // ----------------------------------------------------------------------------
+    // LOOKUP METHODS
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * Return the cached partition for the given integral value, or NULL_HASH if
+     * it is not in the cache.
+     * @param value
+     * @param num_partitions
+     * @return
+     */
+    public int get(long value, int num_partitions) {
+        int h = hash(value, num_partitions);
+        return (this.segments[h & this.segmentMask].get(value, num_partitions, h));
+    }
+    
+    public void put(long value, int num_partitions, int partition) {
+        assert(partition >= 0) : "Invalid partition " + partition;
+        int h = hash(value, num_partitions);
+        this.segments[h & this.segmentMask].put(value, num_partitions, partition, h);
+    }
+    
+    /**
+     * Return the cached partition for the given String, or NULL_HASH if
+     * it is not in the cache.
+     * @param value
+     * @param num_partitions
+     * @return
+     */
+    public int get(String value, int num_partitions) {
+        int h = hash(value.hashCode(), num_partitions);
+        return (this.segments[h & this.segmentMask].get(value, num_partitions, h));
+    }
+    
+    public void put(String value, int num_partitions, int partition) {
+        assert(partition >= 0) : "Invalid partition " + partition;
+        int h = hash(value.hashCode(), num_partitions);
+        this.segments[h & this.segmentMask].put(value, num_partitions, partition, h);
+    }
+    
+    /**
+     * Remove all of the entries in the cache and reset the counters
+     */
+    public void clear() {
+        for (Segment s : this.segments) {
+            s.clear();
+        } // FOR
+    }
+    
+    // ----------------------------------------------------------------------------
+    // STATISTICS
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * Return the maximum number of entries per key type
+     */
+    public int getCapacity() {
+        return (this.capacity);
+    }
+    
+    public long getHits() {
+        long total = 0;
+        for (Segment s : this.segments) {
+            synchronized (s) {
+                total += s.hits;
+            } // SYNCH
+        } // FOR
+        return (total);
+    }
+    
+    public long getMisses() {
+        long total = 0;
+        for (Segment s : this.segments) {
+            synchronized (s) {
+                total += s.misses;
+            } // SYNCH
+        } // FOR
+        return (total);
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s[capacity=%d, hits=%d, misses=%d]",
+                             this.getClass().getSimpleName(),
+                             this.capacity, this.getHits(), this.getMisses());
+    }
+    
+    // ----------------------------------------------------------------------------
+    // INTERNAL METHODS
+    // ----------------------------------------------------------------------------
+    
+    private static int nextPowerOfTwo(int x) {
+        int p = Integer.highestOneBit(x);
+        return (p == x ? x : p << 1);
+    }
+    
+    /**
+     * Mix the key with the number of partitions (MurmurHash3's 64-bit finalizer)
+     * The low bits pick the segment and the high bits pick the set.
+     */
+    private static int hash(long value, int num_partitions) {
+        long h = value * 31 + num_partitions;
+        h ^= (h >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 33);
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= (h >>> 33);
+        return ((int)h);
+    }
+    
+    /**
+     * A single lock stripe in the cache.
+     * Each set has WAYS slots and its own CLOCK hand.
+     */
+    private static final class Segment {
+        private final int setMask;
+        
+        private final long longKeys[];
+        private final int longPartitions[];
+        private final int longValues[];
+        private final boolean longRefs[];
+        private final byte longHands[];
+        
+        private final String stringKeys[];
+        private final int stringPartitions[];
+        private final int stringValues[];
+        private final boolean stringRefs[];
+        private final byte stringHands[];
+        
+        private long hits = 0;
+        private long misses = 0;
+        
+        Segment(int num_sets) {
+            int size = num_sets * WAYS;
+            this.setMask = num_sets - 1;
+            
+            this.longKeys = new long[size];
+            this.longPartitions = new int[size];
+            this.longValues = new int[size];
+            this.longRefs = new boolean[size];
+            this.longHands = new byte[num_sets];
+            
+            this.stringKeys = new String[size];
+            this.stringPartitions = new int[size];
+            this.stringValues = new int[size];
+            this.stringRefs = new boolean[size];
+            this.stringHands = new byte[num_sets];
+            
+            this.clear();
+        }
+        
+        private int setOffset(int h) {
+            return (((h >>> 16) & this.setMask) * WAYS);
+        }
+        
+        synchronized int get(long value, int num_partitions, int h) {
+            int offset = this.setOffset(h);
+            for (int i = offset, end = offset + WAYS; i < end; i++) {
+                if (this.longValues[i] != NULL_HASH &&
+                    this.longKeys[i] == value &&
+                    this.longPartitions[i] == num_partitions) {
+                    this.longRefs[i] = true;
+                    this.hits++;
+                    return (this.longValues[i]);
+                }
+            } // FOR
+            this.misses++;
+            return (NULL_HASH);
+        }
+        
+        synchronized void put(long value, int num_partitions, int partition, int h) {
+            int offset = this.setOffset(h);
+            int slot = -1;
+            for (int i = offset, end = offset + WAYS; i < end; i++) {
+                if (this.longValues[i] == NULL_HASH) {
+                    if (slot == -1) slot = i;
+                }
+                // Another thread may have already inserted the same key
+                else if (this.longKeys[i] == value && this.longPartitions[i] == num_partitions) {
+                    slot = i;
+                    break;
+                }
+            } // FOR
+            if (slot == -1) {
+                slot = offset + clock(this.longRefs, this.longHands, offset);
+            }
+            this.longKeys[slot] = value;
+            this.longPartitions[slot] = num_partitions;
+            this.longValues[slot] = partition;
+            this.longRefs[slot] = false;
+        }
+        
+        synchronized int get(String value, int num_partitions, int h) {
+            int offset = this.setOffset(h);
+            for (int i = offset, end = offset + WAYS; i < end; i++) {
+                if (this.stringValues[i] != NULL_HASH &&
+                    this.stringPartitions[i] == num_partitions &&
+                    value.equals(this.stringKeys[i])) {
+                    this.stringRefs[i] = true;
+                    this.hits++;
+                    return (this.stringValues[i]);
+                }
+            } // FOR
+            this.misses++;
+            return (NULL_HASH);
+        }
+        
+        synchronized void put(String value, int num_partitions, int partition, int h) {
+            int offset = this.setOffset(h);
+            int slot = -1;
+            for (int i = offset, end = offset + WAYS; i < end; i++) {
+                if (this.stringValues[i] == NULL_HASH) {
+                    if (slot == -1) slot = i;
+                }
+                else if (this.stringPartitions[i] == num_partitions && value.equals(this.stringKeys[i])) {
+                    slot = i;
+                    break;
+                }
+            } // FOR
+            if (slot == -1) {
+                slot = offset + clock(this.stringRefs, this.stringHands, offset);
+            }
+            this.stringKeys[slot] = value;
+            this.stringPartitions[slot] = num_partitions;
+            this.stringValues[slot] = partition;
+            this.stringRefs[slot] = false;
+        }
+        
+        /**
+         * Advance the CLOCK hand for the set starting at the given offset until
+         * we find a slot that has not been referenced since the last sweep.
+         * Returns the index of the victim within the set.
+         */
+        private static int clock(boolean refs[], byte hands[], int offset) {
+            int set = offset / WAYS;
+            int hand = hands[set];
+            while (refs[offset + hand]) {
+                refs[offset + hand] = false;
+                hand = (hand + 1) % WAYS;
+            } // WHILE
+            hands[set] = (byte)((hand + 1) % WAYS);
+            return (hand);
+        }
+        
+        synchronized void clear() {
+            Arrays.fill(this.longValues, NULL_HASH);
+            Arrays.fill(this.longRefs, false);
+            Arrays.fill(this.longHands, (byte)0);
+            Arrays.fill(this.stringKeys, null);
+            Arrays.fill(this.stringValues, NULL_HASH);
+            Arrays.fill(this.stringRefs, false);
+            Arrays.fill(this.stringHands, (byte)0);
+            this.hits = 0;
+            this.misses = 0;
+        }
+    } // CLASS
+}
@@ -3,6 +3,7 @@
  */
 package edu.brown.hashing;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -13,6 +14,9 @@ import org.voltdb.CatalogContext;
 import org.voltdb.TheHashinator;
 import org.voltdb.catalog.CatalogType;
 import org.voltdb.catalog.Database;
+import org.voltdb.catalog.Table;
+import org.voltdb.messaging.FastSerializer;
+import org.voltdb.types.HasherType;
 
 import edu.brown.utils.JSONUtil;
 
@@ -49,8 +53,31 @@ public class MappedHasher extends AbstractHasher {
      * @param hash
      * @param partition
      */
-    public void map(int hash, int partition) {
+    public synchronized void map(int hash, int partition) {
         this.hash_to_partition.put(hash, partition);
+        this.updateVersion();
+    }
+
+    /**
+     * The EE gets our hash->partition map
+     */
+    @Override
+    public boolean isExecutionEngineCompatible(Table catalog_tbl) {
+        return (true);
+    }
+    
+    @Override
+    public HasherType getHasherType() {
+        return (HasherType.MAPPED);
+    }
+    
+    @Override
+    protected synchronized void serializeMapping(FastSerializer fs) throws IOException {
+        fs.writeInt(this.hash_to_partition.size());
+        for (Map.Entry<Integer, Integer> e : this.hash_to_partition.entrySet()) {
+            fs.writeInt(e.getKey().intValue());
+            fs.writeInt(e.getValue().intValue());
+        } // FOR
     }
 
     @Override
@@ -76,7 +103,8 @@ public class MappedHasher extends AbstractHasher {
     }
     
     @Override
-    public void fromJSON(JSONObject json_object, Database catalog_db) throws JSONException {
+    public synchronized void fromJSON(JSONObject json_object, Database catalog_db) throws JSONException {
         JSONUtil.fieldsFromJSON(json_object, catalog_db, this, MappedHasher.class, MappedHasher.Members.values());
+        this.updateVersion();
     }    
 }
@@ -0,0 +1,391 @@
+package edu.brown.hashing;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONStringer;
+import org.voltdb.CatalogContext;
+import org.voltdb.catalog.CatalogType;
+import org.voltdb.catalog.Column;
+import org.voltdb.catalog.Database;
+import org.voltdb.catalog.ProcParameter;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Table;
+import org.voltdb.messaging.FastSerializer;
+import org.voltdb.types.HasherType;
+
+import edu.brown.utils.CollectionUtil;
+import edu.brown.utils.PartitionSet;
+
+/**
+ * Hasher that assigns contiguous ranges of a table's partitioning column values
+ * to partitions. Each table has a sorted list of split points, where range <i>i</i>
+ * covers the values in [split[i-1], split[i]) and the first and last ranges are unbounded.
+ * Only integral values are range-partitioned. Any table without ranges, any
+ * non-integral value, or any value hashed without a catalog item falls back
+ * to the DefaultHasher.
+ * <B>Note:</B> The ranges for a table can be changed while the system is running
+ * and only the values in the changed ranges will move to a new partition.
+ * <B>Note:</B> The EE gets a copy of the ranges so that it can check the tuples
+ * that INSERT and UPDATE statements write against them.
+ */
+public class RangeHasher extends DefaultHasher {
+
+    public enum Members {
+        TABLES,
+        PROCEDURES,
+        SPLITS,
+        PARTITIONS;
+    }
+    
+    /**
+     * The immutable ranges for a single table.
+     * We swap out the entire object whenever the ranges change.
+     */
+    protected static final class Ranges {
+        private final long splits[];
+        private final int partitions[];
+        
+        private Ranges(long splits[], int partitions[]) {
+            if (partitions.length != splits.length + 1)
+                throw new IllegalArgumentException(String.format("Expected %d partitions for %d splits but got %d",
+                                                                 splits.length + 1, splits.length, partitions.length));
+            for (int i = 1; i < splits.length; i++) {
+                if (splits[i-1] >= splits[i])
+                    throw new IllegalArgumentException("Split points are not sorted: " + Arrays.toString(splits));
+            } // FOR
+            this.splits = splits;
+            this.partitions = partitions;
+        }
+        
+        /**
+         * Return the offset of the range that contains the given value
+         */
+        private int find(long value) {
+            int idx = Arrays.binarySearch(this.splits, value);
+            return (idx >= 0 ? idx + 1 : -(idx + 1));
+        }
+        
+        private int getPartition(long value) {
+            return (this.partitions[this.find(value)]);
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("SPLITS=%s / PARTITIONS=%s",
+                                 Arrays.toString(this.splits), Arrays.toString(this.partitions));
+        }
+    } // CLASS
+    
+    /**
+     * TableName -> Ranges
+     */
+    private final Map<String, Ranges> tables = new ConcurrentHashMap<String, Ranges>();
+    
+    /**
+     * ProcedureName -> TableName
+     * The catalog does not always know what table a procedure is partitioned on,
+     * so this tells us which ranges to use to route a transaction.
+     */
+    private final Map<String, String> procedures = new ConcurrentHashMap<String, String>();
+    
+    /**
+     * Constructor
+     * @param catalogContext
+     * @param num_partitions
+     */
+    public RangeHasher(CatalogContext catalogContext, int num_partitions) {
+        super(catalogContext, num_partitions);
+    }
+    
+    // -----------------------------------------------------------------
+    // RANGE METHODS
+    // -----------------------------------------------------------------
+    
+    /**
+     * Set the ranges for the given table. The partitions array must have
+     * one more element than the splits array.
+     * @param catalog_tbl
+     * @param splits
+     * @param partitions
+     */
+    public void setRanges(Table catalog_tbl, long splits[], int partitions[]) {
+        this.setRanges(catalog_tbl.getName(), splits, partitions);
+    }
+    
+    /**
+     * Set the ranges for the given table such that the values are split
+     * evenly between the partitions in round-robin order.
+     * @param catalog_tbl
+     * @param splits
+     */
+    public void setRanges(Table catalog_tbl, long splits[]) {
+        int partitions[] = new int[splits.length + 1];
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = i % this.num_partitions;
+        } // FOR
+        this.setRanges(catalog_tbl.getName(), splits, partitions);
+    }
+    
+    protected synchronized void setRanges(String tableName, long splits[], int partitions[]) {
+        for (int p : partitions) {
+            if (p < 0 || p >= this.num_partitions)
+                throw new IllegalArgumentException(String.format("Invalid partition %d for %s", p, tableName));
+        } // FOR
+        this.tables.put(tableName, new Ranges(splits.clone(), partitions.clone()));
+        this.updateVersion();
+    }
+    
+    /**
+     * Split the range that contains the given value so that all of the values
+     * from that point until the next split point are stored at the given partition.
+     * No other values are moved.
+     * @param catalog_tbl
+     * @param value
+     * @param partition
+     */
+    public synchronized void split(Table catalog_tbl, long value, int partition) {
+        Ranges ranges = this.tables.get(catalog_tbl.getName());
+        if (ranges == null) {
+            throw new IllegalArgumentException("No ranges are defined for " + catalog_tbl);
+        }
+        int idx = Arrays.binarySearch(ranges.splits, value);
+        long splits[];
+        int partitions[];
+        if (idx >= 0) {
+            splits = ranges.splits;
+            partitions = ranges.partitions.clone();
+            partitions[idx + 1] = partition;
+        } else {
+            int pos = -(idx + 1);
+            splits = new long[ranges.splits.length + 1];
+            partitions = new int[ranges.partitions.length + 1];
+            System.arraycopy(ranges.splits, 0, splits, 0, pos);
+            System.arraycopy(ranges.splits, pos, splits, pos + 1, ranges.splits.length - pos);
+            splits[pos] = value;
+            System.arraycopy(ranges.partitions, 0, partitions, 0, pos + 1);
+            System.arraycopy(ranges.partitions, pos + 1, partitions, pos + 2, ranges.partitions.length - pos - 1);
+            partitions[pos + 1] = partition;
+        }
+        this.setRanges(catalog_tbl.getName(), splits, partitions);
+    }
+    
+    /**
+     * Route the given procedure's transactions using the ranges of the given table.
+     * Otherwise we will use the procedure's partitioning table from the catalog (if any).
+     * @param catalog_proc
+     * @param catalog_tbl
+     */
+    public void setProcedureTable(Procedure catalog_proc, Table catalog_tbl) {
+        this.procedures.put(catalog_proc.getName(), catalog_tbl.getName());
+    }
+    
+    /**
+     * Returns true if the given table has been assigned ranges
+     * @param catalog_tbl
+     * @return
+     */
+    public boolean hasRanges(Table catalog_tbl) {
+        return (this.tables.containsKey(catalog_tbl.getName()));
+    }
+    
+    /**
+     * Populate the given PartitionSet with the partitions that store the values
+     * in the inclusive range [min, max] for the given table. If the table does not
+     * have ranges, then all of the partitions will be added.
+     * @param catalog_tbl
+     * @param min
+     * @param max
+     * @param partitions
+     */
+    public void getPartitions(Table catalog_tbl, long min, long max, PartitionSet partitions) {
+        assert(min <= max) : String.format("Invalid range [%d, %d]", min, max);
+        Ranges ranges = this.tables.get(catalog_tbl.getName());
+        if (ranges == null) {
+            for (int p = 0; p < this.num_partitions; p++) {
+                partitions.add(p);
+            } // FOR
+            return;
+        }
+        int last = ranges.find(max);
+        for (int i = ranges.find(min); i <= last; i++) {
+            partitions.add(ranges.partitions[i]);
+        } // FOR
+    }
+    
+    // -----------------------------------------------------------------
+    // EXECUTION ENGINE
+    // -----------------------------------------------------------------
+    
+    /**
+     * The EE gets our ranges for every table
+     */
+    @Override
+    public boolean isExecutionEngineCompatible(Table catalog_tbl) {
+        return (true);
+    }
+    
+    @Override
+    public HasherType getHasherType() {
+        return (HasherType.RANGE);
+    }
+    
+    @Override
+    protected void serializeMapping(FastSerializer fs) throws IOException {
+        // The Ranges are immutable, so we just need a stable list of them
+        List<Map.Entry<String, Ranges>> entries = new ArrayList<Map.Entry<String, Ranges>>(this.tables.entrySet());
+        fs.writeInt(entries.size());
+        for (Map.Entry<String, Ranges> e : entries) {
+            Ranges ranges = e.getValue();
+            fs.writeString(e.getKey());
+            fs.writeInt(ranges.splits.length);
+            for (long split : ranges.splits) {
+                fs.writeLong(split);
+            } // FOR
+            for (int partition : ranges.partitions) {
+                fs.writeInt(partition);
+            } // FOR
+        } // FOR
+    }
+    
+    // -----------------------------------------------------------------
+    // HASHING METHODS
+    // -----------------------------------------------------------------
+    
+    @Override
+    public int hash(Object value, CatalogType catalogItem) {
+        if (value instanceof Long || value instanceof Integer ||
+            value instanceof Short || value instanceof Byte) {
+            String tableName = this.getTableName(catalogItem);
+            Ranges ranges = (tableName != null ? this.tables.get(tableName) : null);
+            if (ranges != null) {
+                return (ranges.getPartition(((Number)value).longValue()));
+            }
+        }
+        return (super.hash(value, catalogItem));
+    }
+    
+    /**
+     * Return the table whose ranges should be used for the given catalog item
+     */
+    private String getTableName(CatalogType catalogItem) {
+        if (catalogItem instanceof Column) {
+            return (catalogItem.getParent().getName());
+        } else if (catalogItem instanceof Table) {
+            return (catalogItem.getName());
+        }
+        
+        Procedure catalog_proc = null;
+        if (catalogItem instanceof Procedure) {
+            catalog_proc = (Procedure)catalogItem;
+        } else if (catalogItem instanceof ProcParameter) {
+            catalog_proc = (Procedure)catalogItem.getParent();
+        }
+        if (catalog_proc != null) {
+            String tableName = this.procedures.get(catalog_proc.getName());
+            if (tableName == null && catalog_proc.getPartitiontable() != null) {
+                tableName = catalog_proc.getPartitiontable().getName();
+            }
+            return (tableName);
+        }
+        return (null);
+    }
+    
+    // -----------------------------------------------------------------
+    // SERIALIZATION
+    // -----------------------------------------------------------------
+    
+    @Override
+    public void toJSON(JSONStringer stringer) throws JSONException {
+        // Sort the tables so that the output is always the same
+        Map<String, Ranges> sorted = new TreeMap<String, Ranges>(this.tables);
+        stringer.key(Members.TABLES.name()).object();
+        for (Map.Entry<String, Ranges> e : sorted.entrySet()) {
+            stringer.key(e.getKey()).object();
+            stringer.key(Members.SPLITS.name()).array();
+            for (long split : e.getValue().splits) {
+                stringer.value(split);
+            } // FOR
+            stringer.endArray();
+            stringer.key(Members.PARTITIONS.name()).array();
+            for (int partition : e.getValue().partitions) {
+                stringer.value(partition);
+            } // FOR
+            stringer.endArray();
+            stringer.endObject();
+        } // FOR
+        stringer.endObject();
+        
+        stringer.key(Members.PROCEDURES.name()).object();
+        for (Map.Entry<String, String> e : new TreeMap<String, String>(this.procedures).entrySet()) {
+            stringer.key(e.getKey()).value(e.getValue());
+        } // FOR
+        stringer.endObject();
+    }
+    
+    @Override
+    public synchronized void fromJSON(JSONObject json_object, Database catalog_db) throws JSONException {
+        this.tables.clear();
+        JSONObject json_tables = json_object.getJSONObject(Members.TABLES.name());
+        for (String tableName : CollectionUtil.iterable(json_tables.keys())) {
+            JSONObject json_ranges = json_tables.getJSONObject(tableName);
+            if (catalog_db != null) {
+                Table catalog_tbl = catalog_db.getTables().getIgnoreCase(tableName);
+                if (catalog_tbl == null) {
+                    throw new JSONException("Invalid table name '" + tableName + "' in " + this.getClass().getSimpleName());
+                }
+                tableName = catalog_tbl.getName();
+            }
+            JSONArray json_splits = json_ranges.getJSONArray(Members.SPLITS.name());
+            long splits[] = new long[json_splits.length()];
+            for (int i = 0; i < splits.length; i++) {
+                splits[i] = json_splits.getLong(i);
+            } // FOR
+            
+            int partitions[] = new int[splits.length + 1];
+            if (json_ranges.has(Members.PARTITIONS.name())) {
+                JSONArray json_partitions = json_ranges.getJSONArray(Members.PARTITIONS.name());
+                if (json_partitions.length() != partitions.length) {
+                    throw new JSONException(String.format("Expected %d partitions for %s but got %d",
+                                                          partitions.length, tableName, json_partitions.length()));
+                }
+                for (int i = 0; i < partitions.length; i++) {
+                    partitions[i] = json_partitions.getInt(i);
+                } // FOR
+            } else {
+                for (int i = 0; i < partitions.length; i++) {
+                    partitions[i] = i % this.num_partitions;
+                } // FOR
+            }
+            this.setRanges(tableName, splits, partitions);
+        } // FOR
+        
+        this.procedures.clear();
+        if (json_object.has(Members.PROCEDURES.name())) {
+            JSONObject json_procs = json_object.getJSONObject(Members.PROCEDURES.name());
+            for (String procName : CollectionUtil.iterable(json_procs.keys())) {
+                String tableName = json_procs.getString(procName);
+                if (catalog_db != null) {
+                    Procedure catalog_proc = catalog_db.getProcedures().getIgnoreCase(procName);
+                    Table catalog_tbl = catalog_db.getTables().getIgnoreCase(tableName);
+                    if (catalog_proc == null || catalog_tbl == null) {
+                        throw new JSONException(String.format("Invalid procedure mapping '%s' -> '%s' in %s",
+                                                              procName, tableName, this.getClass().getSimpleName()));
+                    }
+                    procName = catalog_proc.getName();
+                    tableName = catalog_tbl.getName();
+                }
+                this.procedures.put(procName, tableName);
+            } // FOR
+        }
+        this.updateVersion();
+    }
+}
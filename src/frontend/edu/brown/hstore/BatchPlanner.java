@@ -191,6 +191,18 @@ public class BatchPlanner {
         private long fragmentIds[];
         private int input_ids[];
         private int output_ids[];
+        
+        /**
+         * StmtIndex -> Offset in fragmentIds of the fragment that
+         * produces the final result for that Statement
+         */
+        private int result_offsets[];
+        
+        /**
+         * Offset in fragmentIds -> StmtIndex of the Statement that
+         * the fragment belongs to
+         */
+        private int stmt_indexes[];
 
         public PlanGraph() {
             // super(catalog_db);
@@ -368,6 +380,26 @@ public class BatchPlanner {
             return (this.graph.input_ids);
         }
         
+        /**
+         * Return an array where each element is the offset in getFragmentIds()
+         * of the PlanFragment whose output is the result for the SQLStmt at that
+         * position in the batch.
+         * @return
+         */
+        public int[] getResultOffsets() {
+            return (this.graph.result_offsets);
+        }
+        
+        /**
+         * Return an array where each element is the offset in the batch of the
+         * SQLStmt that the PlanFragment at that position in getFragmentIds() belongs to.
+         * This is what we use to get the ParameterSet for each PlanFragment.
+         * @return
+         */
+        public int[] getFragmentStmtIndexes() {
+            return (this.graph.stmt_indexes);
+        }
+        
         /**
          * Return an array of PartitionSets where each element in the array
          * corresponds to the partitions that the SQLStmt in the batch will need
@@ -1205,11 +1237,17 @@ public class BatchPlanner {
         graph.fragmentIds = new long[num_vertices];
         graph.input_ids = new int[num_vertices];
         graph.output_ids = new int[num_vertices];
+        graph.result_offsets = new int[this.batchSize];
+        graph.stmt_indexes = new int[num_vertices];
         int i = 0;
         for (PlanVertex v : this.sorted_vertices) {
             graph.fragmentIds[i] = v.frag_id;
             graph.output_ids[i] = v.output_dependency_id;
             graph.input_ids[i] = v.input_dependency_id;
+            graph.stmt_indexes[i] = v.stmt_index;
+            // The vertices are sorted by Statement and then by round, so the last
+            // one that we see for each Statement is the one that produces its result
+            graph.result_offsets[v.stmt_index] = i;
             i += 1;
         } // FOR
         graph.sorted_vertices = this.sorted_vertices.toArray(new PlanVertex[0]);
@@ -57,6 +57,7 @@ import org.voltdb.TransactionIdManager;
 import org.voltdb.catalog.Host;
 import org.voltdb.catalog.Procedure;
 import org.voltdb.catalog.Site;
+import org.voltdb.catalog.Statement;
 import org.voltdb.catalog.Table;
 import org.voltdb.compiler.AdHocPlannedStmt;
 import org.voltdb.compiler.AsyncCompilerResult;
@@ -90,6 +91,8 @@ import edu.brown.hstore.callbacks.LocalFinishCallback;
 import edu.brown.hstore.callbacks.LocalInitQueueCallback;
 import edu.brown.hstore.callbacks.PartitionCountingCallback;
 import edu.brown.hstore.callbacks.RedirectCallback;
+import edu.brown.hstore.cmdlog.CommandLogReader;
+import edu.brown.hstore.cmdlog.CommandLogReplayer;
 import edu.brown.hstore.cmdlog.CommandLogWriter;
 import edu.brown.hstore.conf.HStoreConf;
 import edu.brown.hstore.estimators.EstimatorState;
@@ -326,6 +329,12 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
      * Transaction Command Logger (WAL)
      */
     private final CommandLogWriter commandLogger;
+    
+    /**
+     * The command log from the previous run that we need to replay
+     * before we start accepting new requests. 
+     */
+    private final File commandLogReplay;
 
     /**
      * AdHoc: This thread waits for AdHoc queries. 
@@ -452,6 +461,24 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         this.hasher = ClassUtil.newInstance(hstore_conf.global.hasher_class,
                                              new Object[]{ this.catalogContext, num_partitions },
                                              new Class<?>[]{ CatalogContext.class, int.class });
+        if (hstore_conf.global.hasher_plan != null) {
+            if (debug.val) LOG.debug("Loading hasher plan from " + hstore_conf.global.hasher_plan);
+            try {
+                this.hasher.load(new File(hstore_conf.global.hasher_plan), this.catalogContext.database);
+            } catch (IOException ex) {
+                throw new RuntimeException("Failed to load hasher plan " + hstore_conf.global.hasher_plan, ex);
+            }
+        }
+        // The EE checks the tuples that we write with a copy of the hasher's mapping,
+        // so we can't use a hasher that the EE can't compute the same partitions as
+        Collection<Statement> badStmts = this.hasher.getIncompatibleStatements(this.catalogContext);
+        if (badStmts.isEmpty() == false) {
+            String msg = String.format("Unable to use %s because the EE would reject the tuples " +
+                                       "written by %d statements: %s",
+                                       this.hasher.getClass().getSimpleName(), badStmts.size(),
+                                       CatalogUtil.getDisplayNames(badStmts));
+            throw new RuntimeException(msg);
+        }
         this.p_estimator = new PartitionEstimator(this.catalogContext, this.hasher);
         this.remoteTxnEstimator = new RemoteEstimator(this.p_estimator);
 
@@ -549,9 +576,17 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
                                     File.separator +
                                     this.getSiteName().toLowerCase() +
                                     CommandLogWriter.LOG_OUTPUT_EXT);
+            // If we're going to replay the log from the previous run, then we
+            // have to move it out of the way before the CommandLogWriter overwrites it
+            if (hstore_conf.site.commandlog_replay) {
+                this.commandLogReplay = CommandLogReplayer.archiveLog(logFile);
+            } else {
+                this.commandLogReplay = null;
+            }
             this.commandLogger = new CommandLogWriter(this, logFile);
         } else {
             this.commandLogger = null;
+            this.commandLogReplay = null;
         }
 
         // AdHoc Support
@@ -1284,6 +1319,11 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         
         this.init();
         
+        // Replay the command log from the previous run before we let any clients in 
+        if (this.commandLogReplay != null) {
+            this.replayCommandLog();
+        }
+        
         try {
             this.clientInterface.startAcceptingConnections();
         } catch (Exception ex) {
@@ -1328,6 +1368,31 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         }
     }
     
+    /**
+     * Re-execute all of the txns in the command log from the previous run.
+     * The replayed txns are written out to our new command log, so once they've 
+     * all finished we no longer need the old one.
+     */
+    private void replayCommandLog() {
+        CommandLogReader reader = new CommandLogReader(this.commandLogReplay.getAbsolutePath());
+        CommandLogReplayer replayer = new CommandLogReplayer(this, reader);
+        LOG.info(String.format("Replaying command log %s at %s", reader.getFiles(), this.getSiteName()));
+        int replayed = 0;
+        try {
+            replayed = replayer.replay();
+        } catch (InterruptedException ex) {
+            throw new ServerFaultException("Unexpected interruption while replaying command log", ex);
+        }
+        LOG.info(String.format("Replayed %d txns from command log at %s", replayed, this.getSiteName()));
+        if (replayer.getSkippedCount() > 0 || replayer.getFailedCount() > 0) {
+            LOG.warn(String.format("Not all of the txns in the command log were replayed successfully " +
+                     "[skipped=%d, failed=%d]", replayer.getSkippedCount(), replayer.getFailedCount()));
+        }
+        for (File f : reader.getFiles()) {
+            f.delete();
+        } // FOR
+    }
+    
     /**
      * Returns true if this HStoreSite is fully initialized and running
      * This will be set to false if the system is shutting down
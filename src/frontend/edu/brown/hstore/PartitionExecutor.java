@@ -115,6 +115,7 @@ import com.google.protobuf.RpcCallback;
 import edu.brown.catalog.CatalogUtil;
 import edu.brown.catalog.PlanFragmentIdGenerator;
 import edu.brown.catalog.special.CountedStatement;
+import edu.brown.hashing.AbstractHasher;
 import edu.brown.hstore.Hstoreservice.QueryEstimate;
 import edu.brown.hstore.Hstoreservice.Status;
 import edu.brown.hstore.Hstoreservice.TransactionPrefetchResult;
@@ -169,6 +170,7 @@ import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.markov.EstimationThresholds;
 import edu.brown.profilers.PartitionExecutorProfiler;
+import edu.brown.profilers.ProfileMeasurement;
 import edu.brown.protorpc.NullCallback;
 import edu.brown.statistics.FastIntHistogram;
 import edu.brown.utils.ClassUtil;
@@ -270,6 +272,12 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
      */
     private final PartitionEstimator p_estimator;
     
+    /**
+     * The version of the hasher's mapping that we last sent to the EE
+     * @see PartitionExecutor#updateHasher()
+     */
+    private int hasherVersion = -1;
+    
     /**
      * The TransactionEstimator is the runtime piece that we use to keep track of
      * where a locally running transaction is in its execution workflow. This allows 
@@ -1184,9 +1192,11 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
                 // Ok now that that's out of the way, let's run this baby...
                 specTxn.setSpeculative(specType);
                 if (hstore_conf.site.exec_profiling) profiler.specexec_time.start();
+                long specStart = ProfileMeasurement.getTime();
                 try {
                     this.executeTransaction(specTxn);
                 } finally {
+                    specTxn.setSpeculativeExecTime(ProfileMeasurement.getTime() - specStart);
                     if (hstore_conf.site.exec_profiling) profiler.specexec_time.stopIfStarted();
                 }
             }
@@ -2714,6 +2724,25 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
         }
     }
     
+    /**
+     * Send the hasher's mapping to the EE if it has changed since the last
+     * time that we sent it.
+     */
+    private void updateHasher() {
+        if (this.p_estimator == null) return;
+        AbstractHasher hasher = this.p_estimator.getHasher();
+        // Get the version before we serialize the mapping so that
+        // we will send it again if it changes in the meantime
+        int version = hasher.getVersion();
+        if (version != this.hasherVersion) {
+            if (debug.val)
+                LOG.debug(String.format("Sending %s mapping to the EE at partition %d [version=%d]",
+                          hasher.getClass().getSimpleName(), this.partitionId, version));
+            this.ee.updateHasher(hasher);
+            this.hasherVersion = version;
+        }
+    }
+    
     /**
      * Executes a WorkFragment on behalf of some remote site and returns the
      * resulting DependencySet
@@ -2775,7 +2804,8 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
                                                parameters,
                                                output_depIds,
                                                input_depIds,
-                                               input_deps);
+                                               input_deps,
+                                               false);
             if (result == null) {
                 LOG.warn(String.format("Output DependencySet for %s in %s is null?",
                          Arrays.toString(fragmentIds), ts));
@@ -2787,13 +2817,23 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
     /**
      * Execute a BatchPlan directly on this PartitionExecutor without having to covert it
      * to WorkFragments first. This is big speed improvement over having to queue things up
+     * The entire batch is sent to the EE in a single invocation. If the plan has
+     * fragments that depend on each other (i.e., multi-partition plans whose fragments
+     * are all at this partition), then the EE will pass the intermediate results
+     * between them internally. 
+     * If resultViews is true, then the output VoltTables will be views directly on
+     * top of the EE's result buffer. They are only valid until the next time that we
+     * invoke the EE.
      * @param ts
      * @param plan
+     * @param parameterSets
+     * @param resultViews
      * @return
      */
     private VoltTable[] executeLocalPlan(LocalTransaction ts,
                                          BatchPlanner.BatchPlan plan,
-                                         ParameterSet parameterSets[]) {
+                                         ParameterSet parameterSets[],
+                                         boolean resultViews) {
 
         // Start the new execution round
         long undoToken = this.calculateNextUndoToken(ts, plan.isReadOnly());
@@ -2831,18 +2871,32 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
                                     Arrays.toString(plan.getOutputDependencyIds()),
                                     Arrays.toString(plan.getInputDependencyIds())));
         
+        // The EE wants a ParameterSet for each PlanFragment, but we were given one
+        // for each Statement. If a Statement has more than one PlanFragment, then
+        // all of its PlanFragments get that Statement's ParameterSet.
+        ParameterSet fragmentParams[] = parameterSets;
+        if (fragmentCount != plan.getBatchSize()) {
+            int stmtIndexes[] = plan.getFragmentStmtIndexes();
+            fragmentParams = new ParameterSet[fragmentCount];
+            for (int i = 0; i < fragmentCount; i++) {
+                fragmentParams[i] = parameterSets[stmtIndexes[i]];
+            } // FOR
+        }
+        
         // NOTE: There are no dependencies that we need to pass in because the entire
-        // batch is local to this partition.
+        // batch is local to this partition. Any intermediate results that one fragment
+        // needs from another in the batch never leave the EE.
         DependencySet result = null;
         try {
             result = this.executePlanFragments(ts,
                                                undoToken,
                                                fragmentCount,
                                                fragmentIds,
-                                               parameterSets,
+                                               fragmentParams,
                                                output_depIds,
                                                input_depIds,
-                                               null);
+                                               null,
+                                               resultViews);
         
         } finally {
             ts.fastFinishRound(this.partitionId);    
@@ -2850,7 +2904,20 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
         // assert(result != null) : "Unexpected null DependencySet result for " + ts; 
         if (trace.val)
             LOG.trace("Output:\n" + result);
-        return (result != null ? result.dependencies : null);
+        if (result == null) {
+            return (null);
+        }
+        // If there are intermediate results in the batch, then we only want to give
+        // back the output of the last fragment for each Statement
+        else if (fragmentCount != plan.getBatchSize()) {
+            int resultOffsets[] = plan.getResultOffsets();
+            VoltTable results[] = new VoltTable[resultOffsets.length];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = result.dependencies[resultOffsets[i]];
+            } // FOR
+            return (results);
+        }
+        return (result.dependencies);
     }
     
     /**
@@ -2912,6 +2979,8 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
      * @param parameterSets
      * @param output_depIds
      * @param input_depIds
+     * @param input_deps
+     * @param resultViews If true, the output VoltTables may be views over the EE's result buffer
      * @return
      */
     private DependencySet executePlanFragments(AbstractTransaction ts,
@@ -2921,7 +2990,8 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
                                                ParameterSet parameterSets[],
                                                int output_depIds[],
                                                int input_depIds[],
-                                               Map<Integer, List<VoltTable>> input_deps) {
+                                               Map<Integer, List<VoltTable>> input_deps,
+                                               boolean resultViews) {
         assert(this.ee != null) : "The EE object is null. This is bad!";
         Long txn_id = ts.getTransactionId();
 
@@ -3004,6 +3074,10 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
             ts.markExecutedWork(this.partitionId);
         }
         
+        // Make sure that the EE checks the tuples that we write against
+        // the same partitions that the PartitionEstimator uses 
+        this.updateHasher();
+        
         DependencySet result = null;
         boolean needs_profiling = false;
         if (ts.isExecLocal(this.partitionId)) {
@@ -3022,16 +3096,29 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
             if (trace.val)
                 LOG.trace(String.format("%s - Executing fragments %s at partition %d [undoToken=%d]",
                           ts, Arrays.toString(fragmentIds), this.partitionId, undoToken));
-            result = this.ee.executeQueryPlanFragmentsAndGetDependencySet(
-                            fragmentIds,
-                            batchSize,
-                            input_depIds,
-                            output_depIds,
-                            parameterSets,
-                            batchSize,
-                            txn_id.longValue(),
-                            this.lastCommittedTxnId.longValue(),
-                            undoToken);
+            if (resultViews) {
+                result = this.ee.executeQueryPlanFragmentsAndGetDependencyViews(
+                                fragmentIds,
+                                batchSize,
+                                input_depIds,
+                                output_depIds,
+                                parameterSets,
+                                batchSize,
+                                txn_id.longValue(),
+                                this.lastCommittedTxnId.longValue(),
+                                undoToken);
+            } else {
+                result = this.ee.executeQueryPlanFragmentsAndGetDependencySet(
+                                fragmentIds,
+                                batchSize,
+                                input_depIds,
+                                output_depIds,
+                                parameterSets,
+                                batchSize,
+                                txn_id.longValue(),
+                                this.lastCommittedTxnId.longValue(),
+                                undoToken);
+            }
         } catch (AssertionError ex) {
             LOG.error("Fatal error when processing " + ts + "\n" + ts.debug());
             error = ex;
@@ -3253,10 +3340,12 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
         
         VoltTable results[] = null;
         
-        // FAST-PATH: Single-partition + Local
+        // FAST-PATH: Local
         // If the BatchPlan only has WorkFragments that are for this partition, then
-        // we can use the fast-path executeLocalPlan() method
-        if (plan.isSingledPartitionedAndLocal()) {
+        // we can use the fast-path executeLocalPlan() method. This includes multi-partition
+        // plans that only touch this partition, since the EE will pass the intermediate
+        // dependencies between the fragments in the batch without coming back up to us.
+        if (plan.isLocal()) {
             if (trace.val)
                 LOG.trace(String.format("%s - Sending %s directly to the ExecutionEngine at partition %d",
                           ts, plan.getClass().getSimpleName(), this.partitionId));
@@ -3277,7 +3366,13 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
             }
 
             // Execute the queries right away.
-            results = this.executeLocalPlan(ts, plan, batchParams);
+            // If this is the last batch for the txn, then the procedure will not invoke the EE
+            // again before it is finished with the results, so we don't need to copy them.
+            // Note that this only depends on this batch being local. It doesn't matter whether 
+            // the txn is distributed, because nobody else can use our EE until the procedure
+            // has returned and VoltProcedure has copied the results that it is keeping.
+            results = this.executeLocalPlan(ts, plan, batchParams,
+                                            finalTask && hstore_conf.site.exec_ee_result_views);
         }
         // DISTRIBUTED EXECUTION
         // Otherwise, we need to generate WorkFragments and then send the messages out 
@@ -4674,6 +4769,17 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
                         
                     } // FOR
                     
+                    // Let the scheduler know how its speculative txns turned out
+                    for (LocalTransaction spec_ts : toAbortBefore) {
+                        this.specExecScheduler.markAborted(spec_ts);
+                    } // FOR
+                    for (LocalTransaction spec_ts : toAbortAfter) {
+                        this.specExecScheduler.markAborted(spec_ts);
+                    } // FOR
+                    for (LocalTransaction spec_ts : toCommit) {
+                        this.specExecScheduler.markCommitted(spec_ts);
+                    } // FOR
+                    
                     // (1) Process all of the aborting txns that need to come *before* 
                     //     we abort the dtxn
                     if (toAbortBefore.isEmpty() == false)
@@ -4737,6 +4843,7 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
                     while ((spec_ts = this.specExecBlocked.pollFirst()) != null) {
                         ClientResponseImpl spec_cr = spec_ts.getClientResponse();
                         assert(spec_cr != null);
+                        this.specExecScheduler.markCommitted(spec_ts);
                         if (hstore_conf.site.exec_readwrite_tracking) 
                             this.markTransactionFinished(spec_ts);
                         else
@@ -2,16 +2,19 @@ package edu.brown.hstore;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.log4j.Logger;
 import org.voltdb.TransactionIdManager;
 
 import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.hstore.specexec.SpecExecCandidateIndex;
 import edu.brown.hstore.txns.AbstractTransaction;
+import edu.brown.hstore.util.ConcurrentSortedQueue;
 import edu.brown.hstore.util.ThrottlingQueue;
 import edu.brown.interfaces.DebugContext;
 import edu.brown.logging.LoggerUtil;
@@ -31,6 +34,11 @@ import edu.brown.utils.StringUtil;
  *
  * <p>This class manages all that state.</p>
  * 
+ * <p>None of the methods in this queue acquire a lock. Any number of threads can
+ * offer/remove txns, but only one thread (i.e., the PartitionExecutor) should
+ * poll/take from it. Whichever thread grabs the update flag is the one that 
+ * recomputes the queue state. Any thread that fails to get it leaves behind a
+ * pending update that the flag holder will process before it gives it up.</p>
  */
 public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
     protected static final Logger LOG = Logger.getLogger(PartitionLockQueue.class);
@@ -57,36 +65,67 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
      */
     private static final long NULL_BLOCK_TIMESTAMP = -1l;
     
+    /**
+     * Pending queue state update flags
+     */
+    private static final int PENDING_CHECK = 0x01;
+    private static final int PENDING_AFTER_REMOVAL = 0x02;
+    private static final int PENDING_WAKEUP = 0x04;
+    
     // ----------------------------------------------------------------------------
     // INTERNAL STATE
     // ----------------------------------------------------------------------------
-
+    
     private final int partitionId;
-    private int maxWaitTime;
+    private volatile int maxWaitTime;
     
-    private final ReentrantLock lock = new ReentrantLock(true);
-    private final Condition isReady = lock.newCondition();
+    /**
+     * Only the thread that sets this flag is allowed to update the queue state.
+     */
+    private final AtomicBoolean updating = new AtomicBoolean(false);
+    
+    /**
+     * The queue state updates that were requested by threads that
+     * could not acquire the update flag.
+     */
+    private final AtomicInteger pending = new AtomicInteger(0);
+    
+    /**
+     * The thread that is blocked in take() waiting for the next txn.
+     */
+    private volatile Thread waiter;
     
     /**
      * This is the timestamp (in milliseconds) when we can unblock
      * the next transaction in the queue.
-     * <B>Note:</B> Do not manipulate this outside of a synchronized block.
+     * <B>Note:</B> Do not manipulate this without holding the update flag.
      */
-    private long blockTimestamp = NULL_BLOCK_TIMESTAMP;
-
+    private volatile long blockTimestamp = NULL_BLOCK_TIMESTAMP;
+    
     /**
      * The current state of the queue
-     * <B>Note:</B> Do not manipulate this outside of a synchronized block.
+     * <B>Note:</B> Do not manipulate this without holding the update flag.
      */
-    private QueueState state = QueueState.BLOCKED_EMPTY;
+    private volatile QueueState state = QueueState.BLOCKED_EMPTY;
     
     private long txnsPopped = 0;
-    private Long lastSeenTxnId = -1l;
-    private Long lastSafeTxnId = -1l;
-    private Long lastTxnPopped = -1l;
+    private volatile Long lastSeenTxnId = -1l;
+    private volatile Long lastTxnPopped = -1l;
+    
+    /**
+     * The id of the next txn that is safe to execute. Any thread can lower
+     * this when a new txn arrives, so it can only be replaced with a CAS.
+     */
+    private final AtomicLong lastSafeTxnId = new AtomicLong(-1l);
     
     private final PartitionLockQueueProfiler profiler;
     
+    /**
+     * Optional index of the speculative candidates in this queue.
+     * This should be enabled before the queue is used by other threads.
+     */
+    private SpecExecCandidateIndex candidateIndex;
+    
     // ----------------------------------------------------------------------------
     // INITIALIZATION
     // ----------------------------------------------------------------------------
@@ -100,7 +139,7 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
      * @param hstore_site
      */
     public PartitionLockQueue(int partitionId, int maxWaitTime, int throttle_threshold, double throttle_release) {
-        super(new PriorityBlockingQueue<AbstractTransaction>(), throttle_threshold, throttle_release);
+        super(new ConcurrentSortedQueue<AbstractTransaction>(), throttle_threshold, throttle_release);
         
         this.partitionId = partitionId;
         this.maxWaitTime = maxWaitTime;
@@ -129,10 +168,138 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
         return (this.partitionId);
     }
     
+    /**
+     * Start keeping an index of the speculative candidates in this queue.
+     * <B>Note:</B> This is not thread safe.
+     * @return
+     */
+    public SpecExecCandidateIndex enableCandidateIndex() {
+        if (this.candidateIndex == null) {
+            this.candidateIndex = new SpecExecCandidateIndex();
+            for (AbstractTransaction ts : this) {
+                this.candidateIndex.add(ts);
+            } // FOR
+        }
+        return (this.candidateIndex);
+    }
+    
+    /**
+     * Returns the index of speculative candidates in this queue or null if it is disabled.
+     */
+    public SpecExecCandidateIndex getCandidateIndex() {
+        return (this.candidateIndex);
+    }
+    
     public Long getLastTransactionId() {
         return (this.lastTxnPopped);
     }
     
+    /**
+     * Request that the queue state gets recomputed. If another thread is already
+     * updating the state, then it will take care of our request for us.
+     * @param afterRemoval
+     */
+    private void updateQueueState(boolean afterRemoval) {
+        int flags = PENDING_CHECK | (afterRemoval ? PENDING_AFTER_REMOVAL : 0);
+        int current;
+        do {
+            current = this.pending.get();
+        } while (this.pending.compareAndSet(current, current | flags) == false);
+        
+        if (this.updating.compareAndSet(false, true)) {
+            this.releaseUpdateFlag();
+        }
+        else if (trace.val) {
+            LOG.trace(String.format("Partition %d :: Deferring queue state update [afterRemoval=%s]",
+                      this.partitionId, afterRemoval));
+        }
+    }
+    
+    /**
+     * Process any pending queue state updates and then give up the update flag.
+     * We have to check again after we release it because another thread may have
+     * left a request right before we let go.
+     */
+    private void releaseUpdateFlag() {
+        boolean wakeup = false;
+        do {
+            int flags;
+            while ((flags = this.pending.getAndSet(0)) != 0) {
+                if ((flags & PENDING_CHECK) != 0) {
+                    this.checkQueueState((flags & PENDING_AFTER_REMOVAL) != 0);
+                }
+                if ((flags & PENDING_WAKEUP) != 0) wakeup = true;
+            } // WHILE
+            this.updating.set(false);
+        } while (this.pending.get() != 0 && this.updating.compareAndSet(false, true));
+        
+        // Let the thread blocked in take() know that it can grab the flag now
+        if (wakeup) {
+            Thread t = this.waiter;
+            if (t != null) LockSupport.unpark(t);
+        }
+    }
+    
+    /**
+     * Remove the txn at the front of the queue if it is still safe to do so.
+     * We only publish it as the last txn popped once we have actually removed it,
+     * and then we check whether another thread lowered the lastSafeTxnId in the
+     * meantime. Since that thread will check lastTxnPopped after it lowers 
+     * lastSafeTxnId, at least one of us will see the other's update. If we lost,
+     * then we put the txn back so that the new txn can go first.
+     * A new txn does not have to lower the lastSafeTxnId if it was already below it,
+     * so we also check whether a txn with a lower id was added to the queue while 
+     * we were releasing this one. Since offer() checks lastTxnPopped after it adds
+     * the txn, either we will see that txn here or offer() will reject it.
+     * <B>Note:</B> The caller must hold the update flag.
+     * @return
+     */
+    private AbstractTransaction releaseNext() {
+        // 2012-12-21
+        // So this is allow to be null because there is a race condition 
+        // if another thread removes the txn from the queue.
+        AbstractTransaction next = super.peek();
+        if (next == null) {
+            this.checkQueueState(true);
+            return (null);
+        }
+        
+        Long txnId = next.getTransactionId();
+        if (txnId.longValue() > this.lastSafeTxnId.get()) {
+            if (debug.val)
+                LOG.debug(String.format("Partition %d :: Not releasing %s because a new txn " +
+                          "with a lower id has arrived", this.partitionId, next));
+            this.checkQueueState(false);
+            return (null);
+        }
+        if (super.remove(next) == false) {
+            this.checkQueueState(true);
+            return (null);
+        }
+        Long prevTxnPopped = this.lastTxnPopped;
+        this.lastTxnPopped = txnId;
+        AbstractTransaction head = null;
+        Long headTxnId = null;
+        if (txnId.longValue() > this.lastSafeTxnId.get() ||
+                ((head = super.peek()) != null &&
+                 (headTxnId = head.getTransactionId()) != null &&
+                 headTxnId.compareTo(txnId) < 0)) {
+            if (debug.val)
+                LOG.debug(String.format("Partition %d :: Putting back %s because a new txn " +
+                          "with a lower id arrived while we were releasing it", this.partitionId, next));
+            this.lastTxnPopped = prevTxnPopped;
+            super.offer(next, true);
+            this.checkQueueState(false);
+            return (null);
+        }
+        if (this.candidateIndex != null) this.candidateIndex.remove(next);
+        this.txnsPopped++;
+        
+        // Call this again to prime the next txn
+        this.checkQueueState(true);
+        return (next);
+    }
+    
     // ----------------------------------------------------------------------------
     // POLL/TAKE METHODS
     // ----------------------------------------------------------------------------
@@ -146,37 +313,26 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
     public AbstractTransaction poll() {
         AbstractTransaction retval = null;
         
-        if (trace.val)
-            LOG.trace(String.format("Partition %d :: Attempting to acquire lock", this.partitionId));
-        this.lock.lock();
+        // If somebody else is updating the queue state right now, then 
+        // we'll just come back later.
+        if (this.updating.compareAndSet(false, true) == false) {
+            if (trace.val)
+                LOG.trace(String.format("Partition %d :: Queue state is being updated", this.partitionId));
+            return (null);
+        }
         try {
             if (this.state == QueueState.BLOCKED_SAFETY || this.state == QueueState.BLOCKED_ORDERING) {
                 this.checkQueueState(false);
             }
             if (this.state == QueueState.UNBLOCKED) {
-
-                if (this.state == QueueState.UNBLOCKED) {
-                    // 2012-12-21
-                    // So this is allow to be null because there is a race condition 
-                    // if another thread removes the txn from the queue.
-                    retval = super.poll();
-                    
-                    if (retval != null) {
-                        if (debug.val)
-                            LOG.debug(String.format("Partition %d :: poll() -> %s",
-                                      this.partitionId, retval));
-                        this.lastTxnPopped = retval.getTransactionId();
-                        this.txnsPopped++;
-                    }
-                    // call this again to prime the next txn
-                    this.checkQueueState(true);
-                }
+                retval = this.releaseNext();
+                if (debug.val && retval != null)
+                    LOG.debug(String.format("Partition %d :: poll() -> %s",
+                              this.partitionId, retval));
             }
         } finally {
-            if (trace.val)
-                LOG.trace(String.format("Partition %d :: Releasing lock", this.partitionId));
-            this.lock.unlock();
-        } // SYNCH
+            this.releaseUpdateFlag();
+        }
         return (retval);
     }
     
@@ -198,98 +354,83 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
         // Note that we can't simply attach ourselves to our inner queue because
         // we don't want to get back the txn right when it gets added.
         // We want to wait until the time period has passed.
-        if (trace.val)
-            LOG.trace(String.format("Partition %d :: Attempting to acquire lock", this.partitionId));
-        this.lock.lockInterruptibly();
+        this.waiter = Thread.currentThread();
         try {
-            if (debug.val && this.state != QueueState.UNBLOCKED)
-                LOG.debug(String.format("Partition %d :: take() -> " +
-                          "Current state is %s. Blocking until ready", this.partitionId, this.state));
-            while (this.state != QueueState.UNBLOCKED) {
-                if (trace.val)
-                    LOG.trace(String.format("Partition %d :: take() -> Calculating how long to block",
-                              this.partitionId));
+            boolean needsUpdateQueue = false;
+            while (retval == null) {
+                if (Thread.interrupted()) throw new InterruptedException();
                 
-                long waitTime = -1;
-                boolean isEmpty = (this.state == QueueState.BLOCKED_EMPTY);
-                boolean needsUpdateQueue = false;
-                
-                // If the queue isn't empty, then we need to figure out
-                // how long we should sleep for
-                if (isEmpty == false) {
-                    // If we're blocked because of an ordering issue (i.e., we have a new txn
-                    // in the system that is less than our current head of the queue, but we 
-                    // haven't inserted it yet), then we will want to wait for the full timeout
-                    // period. We won't actually have to wait this long because somebody will poke
-                    // us after the new txn is added to the queue.
-                    if (this.state == QueueState.BLOCKED_ORDERING) {
-                        waitTime = this.maxWaitTime;
-                    } else { 
-                        waitTime = this.blockTimestamp - System.currentTimeMillis();
-                    }
+                // If somebody else is updating the queue state, then we'll ask
+                // them to wake us up once they have released the update flag.
+                // We only block if it's still held after our request is in, 
+                // otherwise the holder may have let go before it saw it.
+                if (this.updating.compareAndSet(false, true) == false) {
+                    int current;
+                    do {
+                        current = this.pending.get();
+                    } while (this.pending.compareAndSet(current, current | PENDING_WAKEUP) == false);
+                    if (this.updating.get()) LockSupport.park(this);
+                    continue;
                 }
-                
+                long waitTime = -1;
+                boolean isEmpty = false;
                 try {
-                    // If we're empty, then we need to block indefinitely until we're poked
-                    if (isEmpty) {
-                        if (debug.val)
-                            LOG.debug(String.format("Partition %d :: take() -> " +
-                            		  "Blocking because queue is empty", this.partitionId));
-                        this.isReady.await();
-                    }
-                    // Otherwise, we'll sleep until our time out and then 
-                    // check the queue status for ourselves
-                    else if (waitTime > 0) {
-                        // We are going to wait for the specified time
-                        // The Condition will return true if somebody poked us, which
-                        // means that somebody changed the queue state to UNBLOCKED 
-                        // for us. If we are woken because of a timeout, then the
-                        // return status will be false, which means that we need to
-                        // queue state ourself.
-                        if (debug.val)
-                            LOG.debug(String.format("Partition %d :: take() -> " +
-                                      "Blocking for %d ms", this.partitionId, waitTime));
-                        needsUpdateQueue = (this.isReady.await(waitTime, TimeUnit.MILLISECONDS) == false);
+                    if (needsUpdateQueue) this.checkQueueState(false);
+                    needsUpdateQueue = false;
+                    
+                    if (this.state == QueueState.UNBLOCKED) {
+                        retval = this.releaseNext();
+                        continue;
                     }
-                    // Our txn is ready to run now, so we don't need to block
-                    else {
-                        if (debug.val)
-                            LOG.debug(String.format("Partition %d :: take() -> " +
-                                      "Ready to retrieve next txn immediately [waitTime=%d, isEmpty=%s]",
-                                      this.partitionId, waitTime, isEmpty));
-                        needsUpdateQueue = true;
+                    if (debug.val)
+                        LOG.debug(String.format("Partition %d :: take() -> " +
+                                  "Current state is %s. Blocking until ready", this.partitionId, this.state));
+                    
+                    // If the queue isn't empty, then we need to figure out
+                    // how long we should sleep for
+                    isEmpty = (this.state == QueueState.BLOCKED_EMPTY);
+                    if (isEmpty == false) {
+                        // If we're blocked because of an ordering issue (i.e., we have a new txn
+                        // in the system that is less than our current head of the queue, but we 
+                        // haven't inserted it yet), then we will want to wait for the full timeout
+                        // period. We won't actually have to wait this long because somebody will poke
+                        // us after the new txn is added to the queue.
+                        if (this.state == QueueState.BLOCKED_ORDERING) {
+                            waitTime = this.maxWaitTime;
+                        } else { 
+                            waitTime = this.blockTimestamp - System.currentTimeMillis();
+                        }
                     }
-                } catch (InterruptedException ex) {
-                    this.isReady.signal();
-                    throw ex;
+                } finally {
+                    this.releaseUpdateFlag();
                 }
                 
-                if (needsUpdateQueue) this.checkQueueState(false);
-                
+                // If we're empty, then we need to block indefinitely until we're poked
+                if (isEmpty) {
+                    if (debug.val)
+                        LOG.debug(String.format("Partition %d :: take() -> " +
+                                  "Blocking because queue is empty", this.partitionId));
+                    LockSupport.park(this);
+                }
+                // Otherwise, we'll sleep until our time out and then 
+                // check the queue status for ourselves. If somebody pokes us
+                // before then, we still have to check the queue state.
+                else if (waitTime > 0) {
+                    if (debug.val)
+                        LOG.debug(String.format("Partition %d :: take() -> " +
+                                  "Blocking for %d ms", this.partitionId, waitTime));
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(waitTime));
+                }
+                // Our txn is ready to run now, so we don't need to block
+                else if (debug.val) {
+                    LOG.debug(String.format("Partition %d :: take() -> " +
+                              "Ready to retrieve next txn immediately [waitTime=%d, isEmpty=%s]",
+                              this.partitionId, waitTime, isEmpty));
+                }
+                needsUpdateQueue = true;
             } // WHILE
-            // The next txn is ready to run now!
-            assert(this.state == QueueState.UNBLOCKED);
-            retval = super.poll();
-            
-            // 2012-01-06
-            // This could be null because there is a race condition if all of the
-            // txns are removed by another thread right before we try to
-            // poll our queue.
-            if (retval != null) {
-                this.lastTxnPopped = retval.getTransactionId();
-                this.txnsPopped++;
-                
-                // Call this again to prime the next txn
-                this.checkQueueState(true);
-            }
-            
-            if (trace.val)
-                LOG.trace(String.format("Partition %d :: take() -> Leaving blocking section",
-                          this.partitionId));
         } finally {
-            if (trace.val)
-                LOG.trace(String.format("Partition %d :: Releasing lock", this.partitionId));
-            this.lock.unlock();
+            this.waiter = null;
         }
         if (debug.val)
             LOG.debug(String.format("Partition %d :: take() -> %s",
@@ -297,7 +438,7 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
         
         return (retval);
     }
-
+    
     /**
      * Only return transaction state objects that are ready to run.
      * It is safe to call this from any thread if you need to (but you probably don't)
@@ -329,21 +470,34 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
         assert(ts.isInitialized()) :
             String.format("Unexpected uninitialized transaction %s [partition=%d]", ts, this.partitionId);
         
+        // We have to add the txn to the candidate index before it shows up in the queue.
+        // Otherwise another thread could poll or remove it before we add it, and then
+        // the index would be left with a txn that is not in the queue anymore.
+        SpecExecCandidateIndex index = this.candidateIndex;
+        if (index != null) index.add(ts);
+        
         boolean retval = super.offer(ts, force);
         if (debug.val)
             LOG.debug(String.format("Partition %d :: offer(%s) -> %s", this.partitionId, ts, retval));
-
+        
+        // If the PartitionExecutor released a txn with a greater id before our txn 
+        // made it into the queue, then it's too late for us. We have to check this 
+        // after we are in the queue. See releaseNext()
+        // Note that if we can't remove it, then our txn was released before that one.
+        if (retval && this.lastTxnPopped.compareTo(ts.getTransactionId()) > 0 && this.remove(ts)) {
+            if (debug.val)
+                LOG.warn(String.format("Partition %d :: Rejecting %s because txn #%d was already released",
+                         this.partitionId, ts, this.lastTxnPopped));
+            return (false);
+        }
+        
         if (retval) {
-            if (trace.val)
-                LOG.trace(String.format("Partition %d :: Attempting to acquire lock", this.partitionId));
-            this.lock.lock();
-            try {
-                if (retval) this.checkQueueState(false);
-            } finally {
-                if (trace.val)
-                    LOG.trace(String.format("Partition %d :: Releasing lock", this.partitionId));
-                this.lock.unlock();
-            }
+            this.updateQueueState(false);
+        }
+        // We were throttled. Note that we can't remove it from the index if
+        // the txn was rejected because it was already in the queue.
+        else if (index != null && super.contains(ts) == false) {
+            index.remove(ts);
         }
         return (retval);
     }
@@ -353,7 +507,7 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
     public boolean offer(AbstractTransaction e) {
         return this.offer(e, false);
     }
-
+    
     // ----------------------------------------------------------------------------
     // REMOVE METHODS
     // ----------------------------------------------------------------------------
@@ -363,31 +517,31 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
         AbstractTransaction txn = (AbstractTransaction)obj;
         boolean retval;
         
-        if (trace.val)
-            LOG.trace(String.format("Partition %d :: Attempting to acquire lock", this.partitionId));
-        this.lock.lock();
-        try {
-            // We have to check whether we are the first txn in the queue,
-            // because we will need to reset the blockTimestamp after 
-            // delete ourselves so that the next guy can get executed
-            // This is not thread-safe...
-            boolean reset = txn.equals(super.peek());
-            retval = super.remove(txn);
-            if (debug.val) {
-                LOG.debug(String.format("Partition %d :: remove(%s) -> %s", this.partitionId, txn, retval));
-                // Sanity Check
-                assert(super.contains(txn) == false) : 
-                    "Failed to remove " + txn + "???\n" + this.debug();
-            }
-            if (retval) this.checkQueueState(reset);
-        } finally {
-            if (trace.val)
-                LOG.trace(String.format("Partition %d :: Releasing lock", this.partitionId));
-            this.lock.unlock();
+        // We have to check whether we are the first txn in the queue,
+        // because we will need to reset the blockTimestamp after 
+        // delete ourselves so that the next guy can get executed
+        // This is not thread-safe...
+        boolean reset = txn.equals(super.peek());
+        retval = super.remove(txn);
+        if (debug.val) {
+            LOG.debug(String.format("Partition %d :: remove(%s) -> %s", this.partitionId, txn, retval));
+            // Sanity Check
+            assert(super.contains(txn) == false) : 
+                "Failed to remove " + txn + "???\n" + this.debug();
+        }
+        if (retval) {
+            if (this.candidateIndex != null) this.candidateIndex.remove(txn);
+            this.updateQueueState(reset);
         }
         return (retval);
     }
     
+    @Override
+    public void clear() {
+        super.clear();
+        if (this.candidateIndex != null) this.candidateIndex.clear();
+    }
+    
     /**
      * Update the information stored about the latest transaction
      * seen from each initiator. Compute the newest safe transaction id.
@@ -397,49 +551,81 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
         if (debug.val)
             LOG.debug(String.format("Partition %d :: noteTransactionRecievedAndReturnLastSeen(%d)",
                       this.partitionId, txnId));
-
+        
         this.lastSeenTxnId = txnId;
-        if (trace.val) {
+        if (trace.val)
             LOG.trace(String.format("Partition %d :: SET lastSeenTxnId = %d",
                       this.partitionId, this.lastSeenTxnId));
-            LOG.trace(String.format("Partition %d :: Attempting to acquire lock", this.partitionId));
+        
+        Long lastTxnPopped = this.lastTxnPopped;
+        if (lastTxnPopped.compareTo(txnId) > 0) {
+            if (debug.val)
+                LOG.warn(String.format("Partition %d :: Txn ordering deadlock --> LastTxn:%d / NewTxn:%d",
+                         this.partitionId, lastTxnPopped, txnId));
+            return (lastTxnPopped);
         }
-        this.lock.lock();
-        try {
-            if (this.lastTxnPopped.compareTo(txnId) > 0) {
+        
+        // We always need to check whether this new txnId is less than our next safe txnID
+        // If it is, then we know that we need to replace it.
+        long lastSafeTxnId;
+        boolean lowered = false;
+        while (txnId.longValue() < (lastSafeTxnId = this.lastSafeTxnId.get())) {
+            if (this.lastSafeTxnId.compareAndSet(lastSafeTxnId, txnId.longValue())) {
+                lowered = true;
+                if (trace.val)
+                    LOG.trace(String.format("Partition %d :: SET lastSafeTxnId = %d",
+                              this.partitionId, txnId));
+                break;
+            }
+        } // WHILE
+        
+        if (lowered) {
+            // The PartitionExecutor may have released a txn with a greater id 
+            // right before we changed the lastSafeTxnId. If it did, then it will
+            // have already set lastTxnPopped before it checked our update.
+            lastTxnPopped = this.lastTxnPopped;
+            if (lastTxnPopped.compareTo(txnId) > 0) {
                 if (debug.val)
                     LOG.warn(String.format("Partition %d :: Txn ordering deadlock --> LastTxn:%d / NewTxn:%d",
-                             this.partitionId, this.lastTxnPopped, txnId));
-                return (this.lastTxnPopped);
+                             this.partitionId, lastTxnPopped, txnId));
+                return (lastTxnPopped);
             }
             
-            // We always need to check whether this new txnId is less than our next safe txnID
-            // If it is, then we know that we need to replace it.
-            if (txnId.compareTo(this.lastSafeTxnId) < 0) {
-                // 2013-01-15
-                // Instead of calling checkQueueState() here, we'll 
-                // just change the state real quickly. This should be ok because
-                // then we'll immediately insert this new txn into the queue
-                // and then update the queue state then.
-                this.state = QueueState.BLOCKED_ORDERING;
-                this.lastSafeTxnId = txnId;
-                if (trace.val)
-                        LOG.trace(String.format("Partition %d :: SET lastSafeTxnId = %d",
-                                  this.partitionId, this.lastSafeTxnId));
-
-                // Since we know that we just replaced the last safeTxnId, we 
-                // need to check our queue state to update ourselves
-                // this.checkQueueState(false);
-            }
-        } finally {
+            // 2013-01-15
+            // Instead of calling checkQueueState() here, we'll rely on the 
+            // state update that happens when this new txn gets inserted into
+            // the queue. Until then, the PartitionExecutor won't release 
+            // anything with an id greater than the new lastSafeTxnId.
+        }
+        return (this.lastSafeTxnId.get());
+    }
+    
+    /**
+     * Undo noteTransactionRecievedAndReturnLastSafeTxnId() for a txn that was rejected
+     * before it could be added to this queue. If it is still the lastSafeTxnId, then
+     * the txn at the front of the queue becomes the next safe txn again. Otherwise
+     * we would block waiting for a txn that is never going to show up.
+     * It is safe to call this from any thread.
+     * @param txnId
+     */
+    public void noteTransactionRejected(Long txnId) {
+        assert(txnId != null);
+        long lastSafeTxnId = this.lastSafeTxnId.get();
+        if (lastSafeTxnId != txnId.longValue()) return;
+        
+        AbstractTransaction next = super.peek();
+        if (next == null) return;
+        Long nextTxnId = next.getTransactionId();
+        if (nextTxnId != null && nextTxnId.longValue() > lastSafeTxnId &&
+            this.lastSafeTxnId.compareAndSet(lastSafeTxnId, nextTxnId.longValue())) {
             if (trace.val)
-                LOG.trace(String.format("Partition %d :: Releasing lock", this.partitionId));
-            this.lock.unlock();
-        } // SYNCH
-        return (this.lastSafeTxnId);
+                LOG.trace(String.format("Partition %d :: SET lastSafeTxnId = %d after rejecting txn #%d",
+                          this.partitionId, nextTxnId, txnId));
+            this.updateQueueState(false);
+        }
     }
-
-
+    
+    
     // ----------------------------------------------------------------------------
     // INTERNAL STATE CALCULATION
     // ----------------------------------------------------------------------------
@@ -448,7 +634,7 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
      * This is the most important method of the queue.
      * This will figure out the next state and how long we must wait until we 
      * can release the next transaction.
-     * <B>Note:</B> I believe that this is the only thing that needs to be synchronized
+     * <B>Note:</B> The caller must hold the update flag.
      * @param afterRemoval If this flag is set to true, then it means that who ever is calling this method
      *                     just removed something from the queue. That means that we need to go and check
      *                     whether the lastSafeTxnId should change.
@@ -460,7 +646,8 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
                       this.partitionId, afterRemoval, this.state));
         QueueState newState = (afterRemoval ? QueueState.BLOCKED_SAFETY : QueueState.UNBLOCKED);
         long currentTimestamp = -1l;
-        AbstractTransaction ts = super.peek(); // BLOCKING
+        long lastSafeTxnId = this.lastSafeTxnId.get();
+        AbstractTransaction ts = super.peek();
         Long txnId = null;
         if (ts == null) {
 //            if (trace.val)
@@ -482,11 +669,11 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
             // If this txnId is greater than the last safe one that we've seen, then we know
             // that the lastSafeTxnId has been polled. That means that we need to 
             // wait for an appropriate amount of time before we're allow to be executed.
-            if (txnId.compareTo(this.lastSafeTxnId) > 0 && afterRemoval == false) {
+            if (txnId.longValue() > lastSafeTxnId && afterRemoval == false) {
                 newState = QueueState.BLOCKED_ORDERING;
                 if (debug.val)
                     LOG.debug(String.format("Partition %d :: txnId[%d] > lastSafeTxnId[%d]",
-                              this.partitionId, txnId, this.lastSafeTxnId));
+                              this.partitionId, txnId, lastSafeTxnId));
             }
             // If our current block time is negative, then we know that we're the first txnId
             // that's been in the system. We'll also want to wait a bit before we're
@@ -544,7 +731,7 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
                 if (this.blockTimestamp <= currentTimestamp) {
                     newState = QueueState.UNBLOCKED;
                 }
-                if (this.profiler != null && this.lastSafeTxnId.equals(txnId) == false)
+                if (this.profiler != null && lastSafeTxnId != txnId.longValue())
                     this.profiler.waitTimes.put(newState == QueueState.UNBLOCKED ? 0 : waitTime);
                 
                 if (debug.val) {
@@ -569,20 +756,25 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
                 }
             }
         } // IF
-
+        
         // This txn should always becomes our next safeTxnId.
         // This is essentially the next txn
         // that should be executed, but somebody *could* come along and add in 
         // a new txn with a lower id. But that's ok because we've synchronized setting
-        // the id up above. This is actually probably the only part of this entire method
-        // that needs to be protected...
-        if (txnId != null) this.lastSafeTxnId = txnId;
+        // the id up above. If somebody lowered the lastSafeTxnId while we were 
+        // in here, then we have to leave it alone and check our state again.
+        if (txnId != null && this.lastSafeTxnId.compareAndSet(lastSafeTxnId, txnId.longValue()) == false) {
+            int current;
+            do {
+                current = this.pending.get();
+            } while (this.pending.compareAndSet(current, current | PENDING_CHECK) == false);
+        }
         
         // Set the new state
         if (newState != this.state) {
             if (trace.val)
                 LOG.trace(String.format("Partition %d :: ORIG[%s]->NEW[%s] / LastSafeTxn:%d",
-                          this.partitionId, this.state, newState, this.lastSafeTxnId));
+                          this.partitionId, this.state, newState, this.lastSafeTxnId.get()));
             if (this.profiler != null) {
                 this.profiler.queueStates.get(this.state).stopIfStarted();
                 this.profiler.queueStates.get(newState).start();
@@ -592,7 +784,8 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
             // Always poke anybody that is blocking on this queue.
             // The txn may not be ready to run just yet, but at least they'll be
             // able to recompute a new sleep time.
-            this.isReady.signal();
+            Thread t = this.waiter;
+            if (t != null) LockSupport.unpark(t);
         }
         else if (this.profiler != null) {
             this.profiler.queueStates.get(this.state).restart();
@@ -624,16 +817,21 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
         public long getBlockedTimestamp() {
             return (blockTimestamp);
         }
+        public long getLastSafeTxnId() {
+            return (lastSafeTxnId.get());
+        }
         public PartitionLockQueueProfiler getProfiler() {
             return (profiler);
         }
         public QueueState checkQueueState() {
             QueueState ret = null;
-            lock.lock();
+            while (updating.compareAndSet(false, true) == false) {
+                Thread.yield();
+            } // WHILE
             try {
                 ret = PartitionLockQueue.this.checkQueueState(false);
             } finally {
-                lock.unlock();
+                releaseUpdateFlag();
             }
             return (ret);
         }
@@ -666,7 +864,7 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
         m[i].put("# of Popped", this.txnsPopped);
         m[i].put("Last Popped Txn", this.lastTxnPopped);
         m[i].put("Last Seen Txn", this.lastSeenTxnId);
-        m[i].put("Last Safe Txn", this.lastSafeTxnId);
+        m[i].put("Last Safe Txn", this.lastSafeTxnId.get());
         
         m[++i] = new LinkedHashMap<String, Object>();
         m[i].put("Throttled", super.isThrottled());
@@ -674,7 +872,7 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
         m[i].put("Release", super.getThrottleRelease());
         m[i].put("Increase Delta", super.getThrottleThresholdIncreaseDelta());
         m[i].put("Max Size", super.getThrottleThresholdMaxSize());
-
+        
         m[++i] = new LinkedHashMap<String, Object>();
         m[i].put("Peek Txn", (peek == null ? "null" : peek));
         m[i].put("Wait Time", this.maxWaitTime + " ms");
@@ -1,5 +1,6 @@
 package edu.brown.hstore;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Random;
@@ -12,6 +13,8 @@ import org.voltdb.types.SpeculationType;
 import edu.brown.hstore.conf.HStoreConf;
 import edu.brown.hstore.estimators.EstimatorState;
 import edu.brown.hstore.internal.InternalMessage;
+import edu.brown.hstore.specexec.SpecExecAdaptiveController;
+import edu.brown.hstore.specexec.SpecExecCandidateIndex;
 import edu.brown.hstore.specexec.checkers.AbstractConflictChecker;
 import edu.brown.hstore.txns.AbstractTransaction;
 import edu.brown.hstore.txns.LocalTransaction;
@@ -51,6 +54,33 @@ public class SpecExecScheduler implements Configurable {
     private int lastSize = 0;
     private boolean interrupted = false;
     private Class<? extends InternalMessage> latchMsg;
+    
+    /**
+     * The index of speculative candidates in our queue, grouped by Procedure.
+     * This will be null if site.specexec_scheduler_index is disabled.
+     */
+    private final SpecExecCandidateIndex candidateIndex;
+    
+    /**
+     * ProcedureId -> TxnId of the dtxn that we found it to conflict with.
+     * This is only used if the ConflictChecker is procedure-level, since then
+     * a conflict will not go away until the dtxn finishes. We key on the 
+     * txnId because the dtxn handles get reused.
+     */
+    private long conflictTxnIds[] = new long[0];
+    
+    /**
+     * Adjusts our window and disables stall points based on how many of
+     * our speculative txns get rolled back.
+     * This will be null if site.specexec_adaptive is disabled.
+     */
+    private SpecExecAdaptiveController adaptive;
+    
+    /**
+     * Reusable arrays for the candidates at the front of each index bucket
+     */
+    private LocalTransaction candidates[] = new LocalTransaction[0];
+    private long candidateTxnIds[] = new long[0];
 
     // ----------------------------------------------------------------------------
     // CONFIGURATION PARAMETERS
@@ -128,6 +158,20 @@ public class SpecExecScheduler implements Configurable {
         this.policyType = schedule_policy;
         this.windowSize = window_size;
         
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        if (hstore_conf.site.specexec_scheduler_index) {
+            this.candidateIndex = queue.enableCandidateIndex();
+        } else {
+            this.candidateIndex = null;
+        }
+        
+        if (hstore_conf.site.specexec_adaptive) {
+            this.adaptive = new SpecExecAdaptiveController(partitionId, window_size,
+                                                           hstore_conf.site.specexec_adaptive_interval,
+                                                           hstore_conf.site.specexec_adaptive_min_success,
+                                                           hstore_conf.site.specexec_adaptive_cooldown);
+        }
+        
         this.profiling = HStoreConf.singleton().site.specexec_profiling;
         this.profiling_sample = HStoreConf.singleton().site.specexec_profiling_sample;
         this.profilerExecuteCounter.setKeepZeroEntries(true);
@@ -210,6 +254,10 @@ public class SpecExecScheduler implements Configurable {
         return (this.disabled);
     }
 
+    protected void setAdaptiveController(SpecExecAdaptiveController adaptive) {
+        this.adaptive = adaptive;
+    }
+    
     public void ignoreSpeculationType(SpeculationType specType) {
         if (this.ignore_types == null) {
             this.ignore_types = new HashSet<SpeculationType>();
@@ -302,6 +350,15 @@ public class SpecExecScheduler implements Configurable {
             return (null);
         }
         
+        // Check whether we have backed off from speculating at this stall point
+        if (this.adaptive != null && this.adaptive.isEnabled(specType) == false) {
+            if (debug.val)
+                LOG.debug(String.format("%s - Ignoring txn because too many speculative txns at %s were aborted",
+                          dtxn, specType));
+            if (profiler != null) profiler.total_time.stop();
+            return (null);
+        }
+        
         // If we have a distributed txn, then check make sure it's legit
         if (dtxn != null) {
             assert(this.checker.shouldIgnoreTransaction(dtxn) == false) :
@@ -320,6 +377,19 @@ public class SpecExecScheduler implements Configurable {
             }
         }
         
+        int windowSize = (this.adaptive != null ? this.adaptive.getWindowSize(specType) : this.windowSize);
+        
+        // If we only want the first match and the ConflictChecker does not care about
+        // the individual candidates, then we only need to look at the oldest txn
+        // for each Procedure in our index.
+        if (this.candidateIndex != null &&
+                this.policyType == SpecExecSchedulerPolicyType.FIRST &&
+                (this.needsConflictCheck(specType) == false || this.checker.isProcedureLevel())) {
+            LocalTransaction next = this.nextFromIndex(dtxn, specType, windowSize, profiler);
+            if (profiler != null) profiler.total_time.stop();
+            return (next);
+        }
+        
         // Now peek in the queue looking for single-partition txns that do not
         // conflict with the current dtxn
         LocalTransaction next = null;
@@ -350,6 +420,9 @@ public class SpecExecScheduler implements Configurable {
                 was_interrupted = true;
                 if (this.ignore_interrupts == false) break;
             }
+            // Stop if we've reached our window size. Candidates that conflict
+            // with the dtxn count against it too.
+            if (examined_ctr >= windowSize) break;
             
             AbstractTransaction txn = this.lastIterator.next();
             assert(txn != null) : "Null transaction handle " + txn;
@@ -398,7 +471,7 @@ public class SpecExecScheduler implements Configurable {
                     // is expected to execute in the future.
                     case SP1_LOCAL:
                     case SP2_REMOTE_AFTER: {
-                        if (this.checker.hasConflictBefore(dtxn, localTxn, this.partitionId)) {
+                        if (this.hasConflict(dtxn, localTxn)) {
                             if (debug.val)
                                 LOG.debug(String.format("Skipping %s because it conflicts with current transaction", localTxn));
                             continue;
@@ -436,13 +509,10 @@ public class SpecExecScheduler implements Configurable {
                             next = localTxn;
                             if (debug.val)
                                 LOG.debug(String.format("[%s %d/%d] New Match -> %s / remainingTime=%d",
-                                          this.policyType, examined_ctr, this.windowSize, next, remainingTime));
+                                          this.policyType, examined_ctr, windowSize, next, remainingTime));
                          }
                     }
                 }
-                // Stop if we've reached our window size
-                if (examined_ctr == this.windowSize) break;
-                
             } finally {
                 if (profiler != null) profiler.compute_time.stop();
             }
@@ -466,6 +536,7 @@ public class SpecExecScheduler implements Configurable {
             }
             if (this.policyType == SpecExecSchedulerPolicyType.FIRST) {
                 this.lastIterator.remove();
+                if (this.candidateIndex != null) this.candidateIndex.remove(next);
             } else {
                 this.queue.remove(next);
             }
@@ -493,6 +564,208 @@ public class SpecExecScheduler implements Configurable {
         return (next);
     }
     
+    // ----------------------------------------------------------------------------
+    // OUTCOME TRACKING
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * Record that the given speculative txn was committed along with its dtxn.
+     * @param ts
+     */
+    public void markCommitted(LocalTransaction ts) {
+        SpeculationType specType = ts.getSpeculationType();
+        assert(specType != SpeculationType.NULL) : ts + " was not executed speculatively";
+        if (this.adaptive != null) this.adaptive.recordCommit(specType);
+        if (this.profiling) this.profilerMap[specType.ordinal()].committed++;
+    }
+    
+    /**
+     * Record that the given speculative txn has to be rolled back and
+     * restarted because of its dtxn.
+     * @param ts
+     */
+    public void markAborted(LocalTransaction ts) {
+        SpeculationType specType = ts.getSpeculationType();
+        assert(specType != SpeculationType.NULL) : ts + " was not executed speculatively";
+        long rollbackTime = ts.getSpeculativeExecTime();
+        if (this.adaptive != null) this.adaptive.recordAbort(specType, rollbackTime);
+        if (this.profiling) {
+            SpecExecProfiler profiler = this.profilerMap[specType.ordinal()];
+            profiler.aborted++;
+            profiler.rollback_time.appendTime(0, rollbackTime);
+        }
+    }
+    
+    /**
+     * Find the oldest non-conflicting txn using our SpecExecCandidateIndex.
+     * This returns the same txn as the FIRST policy's queue scan but only checks
+     * the first candidate of each Procedure. Like the queue scan, we will examine
+     * at most windowSize candidates, even if they all conflict with the dtxn.
+     * @param dtxn
+     * @param specType
+     * @param windowSize
+     * @param profiler
+     * @return
+     */
+    private LocalTransaction nextFromIndex(AbstractTransaction dtxn, SpeculationType specType, int windowSize, SpecExecProfiler profiler) {
+        if (profiler != null) profiler.queue_size.put(this.queue.size());
+        LocalTransaction next = null;
+        int examined_ctr = 0;
+        int matched_ctr = 0;
+        boolean was_interrupted = false;
+        
+        while (next == null && examined_ctr < windowSize) {
+            // Grab the oldest candidate for each Procedure and sort them by txnId
+            int num_candidates = this.collectCandidates();
+            if (num_candidates == 0) break;
+            
+            if (profiler != null) profiler.compute_time.start();
+            try {
+                for (int i = 0; i < num_candidates; i++) {
+                    if (this.interrupted && was_interrupted == false) {
+                        if (debug.val)
+                            LOG.warn(String.format("Search interrupted after %d examinations [%s]",
+                                     examined_ctr, this.latchMsg.getSimpleName()));
+                        if (profiler != null) profiler.interrupts++;
+                        was_interrupted = true;
+                        if (this.ignore_interrupts == false) break;
+                    }
+                    if (examined_ctr >= windowSize) break;
+                    LocalTransaction localTxn = this.candidates[i];
+                    if (debug.val)
+                        LOG.debug(String.format("Examining whether %s conflicts with current dtxn", localTxn));
+                    examined_ctr++;
+                    if (this.needsConflictCheck(specType) && this.hasConflict(dtxn, localTxn)) {
+                        if (debug.val)
+                            LOG.debug(String.format("Skipping %s because it conflicts with current transaction", localTxn));
+                        continue;
+                    }
+                    matched_ctr++;
+                    next = localTxn;
+                    break;
+                } // FOR
+            } finally {
+                if (profiler != null) profiler.compute_time.stop();
+            }
+            // Make sure that if we were interrupted that we don't actually try to execute it.
+            if (was_interrupted) next = null;
+            if (next == null) break;
+            
+            // Somebody else might have taken this txn out of the queue after we
+            // looked it up in the index. If so, then we'll just try again.
+            if (this.queue.remove(next) == false) {
+                this.candidateIndex.remove(next);
+                next = null;
+            }
+        } // WHILE
+        Arrays.fill(this.candidates, null);
+        
+        if (profiler != null) {
+            profiler.num_comparisons.put(examined_ctr);
+            profiler.num_matches.put(matched_ctr);
+        }
+        
+        if (next != null) {
+            next.markReleased(this.partitionId);
+            if (profiler != null) {
+                this.profilerExecuteCounter.put(specType.ordinal());
+                profiler.success++;
+            }
+            if (debug.val)
+                LOG.debug(dtxn + " - Found next non-conflicting speculative txn " + next);
+        }
+        else if (debug.val && this.queue.isEmpty() == false) {
+            LOG.debug(String.format("Failed to find non-conflicting speculative txn " +
+                      "[dtxn=%s, examinedCtr=%d, interrupted=%s]",
+                      dtxn, examined_ctr, was_interrupted));
+        }
+        
+        this.lastDtxn = dtxn;
+        this.lastSpecType = specType;
+        this.lastIterator = null;
+        return (next);
+    }
+    
+    /**
+     * Fill in our candidates array with the first txn of each Procedure in
+     * the index, sorted by their txnIds. Returns the number of candidates.
+     */
+    private int collectCandidates() {
+        int num_buckets = this.candidateIndex.getBucketCount();
+        if (this.candidates.length < num_buckets) {
+            this.candidates = new LocalTransaction[num_buckets];
+            this.candidateTxnIds = new long[num_buckets];
+        }
+        int cnt = 0;
+        for (int procId = 0; procId < num_buckets; procId++) {
+            LocalTransaction ts = this.candidateIndex.getFirst(procId);
+            if (ts == null) continue;
+            Long txnId = ts.getTransactionId();
+            if (txnId == null) continue;
+            
+            // Insertion sort, since there are only a handful of Procedures
+            int pos = cnt++;
+            while (pos > 0 && this.candidateTxnIds[pos-1] > txnId.longValue()) {
+                this.candidates[pos] = this.candidates[pos-1];
+                this.candidateTxnIds[pos] = this.candidateTxnIds[pos-1];
+                pos--;
+            } // WHILE
+            this.candidates[pos] = ts;
+            this.candidateTxnIds[pos] = txnId.longValue();
+        } // FOR
+        return (cnt);
+    }
+    
+    /**
+     * Returns true if we need to use the ConflictChecker for the given stall point.
+     * We can execute anything when we are in SP3 (i.e., 2PC) or IDLE.
+     * For SP2, we can execute anything if the txn has not executed a query at this partition.
+     */
+    private boolean needsConflictCheck(SpeculationType specType) {
+        switch (specType) {
+            case IDLE:
+            case SP2_REMOTE_BEFORE:
+            case SP3_LOCAL:
+            case SP3_REMOTE:
+                return (false);
+            case SP1_LOCAL:
+            case SP2_REMOTE_AFTER:
+                return (true);
+            default:
+                String msg = String.format("Unexpected %s.%s", specType.getClass().getSimpleName(), specType);
+                throw new RuntimeException(msg);
+        } // SWITCH
+    }
+    
+    /**
+     * Check whether the candidate conflicts with the dtxn. If the ConflictChecker
+     * is procedure-level, then we will remember conflicts for the rest of the dtxn.
+     */
+    private boolean hasConflict(AbstractTransaction dtxn, LocalTransaction candidate) {
+        if (this.checker.isProcedureLevel() == false || dtxn == null) {
+            return (this.checker.hasConflictBefore(dtxn, candidate, this.partitionId));
+        }
+        Long dtxnId = dtxn.getTransactionId();
+        int procId = candidate.getProcedure().getId();
+        if (dtxnId == null) {
+            return (this.checker.hasConflictBefore(dtxn, candidate, this.partitionId));
+        }
+        if (procId < this.conflictTxnIds.length && this.conflictTxnIds[procId] == dtxnId.longValue()) {
+            return (true);
+        }
+        if (this.checker.hasConflictBefore(dtxn, candidate, this.partitionId)) {
+            if (procId >= this.conflictTxnIds.length) {
+                long resized[] = new long[procId + 1];
+                Arrays.fill(resized, -1);
+                System.arraycopy(this.conflictTxnIds, 0, resized, 0, this.conflictTxnIds.length);
+                this.conflictTxnIds = resized;
+            }
+            this.conflictTxnIds[procId] = dtxnId.longValue();
+            return (true);
+        }
+        return (false);
+    }
+    
     // ----------------------------------------------------------------------------
     // DEBUG METHODS
     // ----------------------------------------------------------------------------
@@ -516,6 +789,12 @@ public class SpecExecScheduler implements Configurable {
         public SpecExecProfiler getProfiler(SpeculationType stype) {
             return (profilerMap[stype.ordinal()]);
         }
+        public SpecExecCandidateIndex getCandidateIndex() {
+            return (candidateIndex);
+        }
+        public SpecExecAdaptiveController getAdaptiveController() {
+            return (adaptive);
+        }
         /**
          * Replace the ConflictChecker. This should only be used for testing
          * @param checker
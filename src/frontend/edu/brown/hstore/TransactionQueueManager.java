@@ -11,7 +11,6 @@ import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Logger;
 import org.voltdb.CatalogContext;
@@ -81,8 +80,6 @@ public class TransactionQueueManager extends ExceptionHandlingRunnable implement
      */
     private final PartitionLockQueue[] lockQueues;
     
-    private final ReentrantLock lockQueueBarriers[];
-    
     /**
      * The last txns that was executed for each partition
      * Our local partitions must be accurate, but we can be off for the remote ones.
@@ -131,7 +128,6 @@ public class TransactionQueueManager extends ExceptionHandlingRunnable implement
         this.localPartitions = hstore_site.getLocalPartitionIds();
         this.lockQueues = new PartitionLockQueue[catalogContext.numberOfPartitions];
         this.lockQueueLastTxns = new Long[catalogContext.numberOfPartitions];
-        this.lockQueueBarriers = new ReentrantLock[catalogContext.numberOfPartitions];
         this.initQueue = new LinkedBlockingQueue<AbstractTransaction>();
         this.restartQueue = new LinkedBlockingQueue<Pair<LocalTransaction,Status>>();
         this.profilers = new TransactionQueueManagerProfiler[catalogContext.numberOfPartitions];
@@ -143,7 +139,6 @@ public class TransactionQueueManager extends ExceptionHandlingRunnable implement
                                                               this.initThrottleThreshold,
                                                               this.initThrottleRelease);
             this.lockQueues[partition] = queue;
-            this.lockQueueBarriers[partition] = new ReentrantLock(true);
             this.profilers[partition] = new TransactionQueueManagerProfiler();
         } // FOR
         Arrays.fill(this.lockQueueLastTxns, Long.valueOf(-1l));
@@ -338,21 +333,23 @@ public class TransactionQueueManager extends ExceptionHandlingRunnable implement
         if (trace.val)
             LOG.trace(String.format("Adding %s to lock queus for partitions %s\n%s",
                       nextTxn, nextTxn.getPredictTouchedPartitions(), callback));
-        for (int partition : nextTxn.getPredictTouchedPartitions().values()) {
-            // Skip any non-local partition
-            if (this.lockQueues[partition] == null) continue;
             
-            // If this txn gets rejected when we try to insert it, then we 
-            // just need to stop trying to add it to other partitions
-            if (ret) {
-                status = this.lockQueueInsert(nextTxn, partition, callback);
-                if (status != Status.OK) ret = false;
-            // IMPORTANT: But we still need to go through and decrement the
-            // callback's counter for those other partitions.
-            } else {
+        // Register the txn with all of its local partitions in one step.
+        // If it gets rejected, then lockQueueInsert() will take care of
+        // decrementing the callback's counter for the other partitions.
+        if (ret) {
+            status = this.lockQueueInsert(nextTxn, nextTxn.getPredictTouchedPartitions(), callback);
+            ret = (status == Status.OK);
+        }
+        // IMPORTANT: But we still need to go through and decrement the
+        // callback's counter for all of our partitions.
+        else {
+            for (int partition : nextTxn.getPredictTouchedPartitions().values()) {
+                // Skip any non-local partition
+                if (this.lockQueues[partition] == null) continue;
                 callback.decrementCounter(partition);
-            }
-        } // FOR
+            } // FOR
+        }
         if (trace.val && ret) {
             LOG.trace(String.format("Finished processing lock queues for %s [result=%s]",
                       nextTxn, ret));
@@ -419,12 +416,9 @@ public class TransactionQueueManager extends ExceptionHandlingRunnable implement
         Long next_safe_id = null;
         Status status = Status.OK;
         
-        this.lockQueueBarriers[partition].lock();
-        try {
-            next_safe_id = this.lockQueues[partition].noteTransactionRecievedAndReturnLastSafeTxnId(txn_id);
-        } finally {
-            this.lockQueueBarriers[partition].unlock();
-        } // SYNCH
+        // The PartitionLockQueue makes sure that it never releases a txn with a
+        // greater id than this one once we get back the next safe id.
+        next_safe_id = this.lockQueues[partition].noteTransactionRecievedAndReturnLastSafeTxnId(txn_id);
         
         // The next txnId that we're going to try to execute is already greater
         // than this new txnId that we were given! Rejection!
@@ -439,9 +433,6 @@ public class TransactionQueueManager extends ExceptionHandlingRunnable implement
         else {
             boolean ret = false;
             if (ts.isPredictSinglePartition() || callback.isAborted() == false) {
-                // 2013-04-04
-                // I think that we don't need to hold the lockQueueBarrier for this part here,
-                // because the PartitionLockQueue will already have an internal lock...
                 ret = this.lockQueues[partition].offer(ts, ts.isSysProc());
             }
             if (ret == false) {
@@ -450,6 +441,7 @@ public class TransactionQueueManager extends ExceptionHandlingRunnable implement
                               "Throttling %s until id is greater than %s [queueSize=%d]",
                               partition, ts, next_safe_id, this.lockQueues[partition].size()));
                 status = Status.ABORT_REJECT;
+                this.lockQueues[partition].noteTransactionRejected(txn_id);
             }
         }
         
@@ -471,6 +463,162 @@ public class TransactionQueueManager extends ExceptionHandlingRunnable implement
         return (status);
     }
     
+    /**
+     * Add a new transaction to the lock queues for all of the given partitions
+     * that are local to this site in a single step. We first check whether the txn
+     * is safe at every partition before we insert it into any of the queues. That
+     * way a txn that gets rejected never ends up sitting in some of the queues, and 
+     * the callback only sends back a single abort message for the entire site.
+     * Returns Status.OK if the transaction was successfully inserted at all partitions.
+     * <B>Note:</B> This should not be called directly. You probably want to use initTransaction().
+     * @param ts
+     * @param partitions
+     * @param callback
+     * @return
+     */
+    protected Status lockQueueInsert(AbstractTransaction ts,
+                                     PartitionSet partitions,
+                                     PartitionCountingCallback<? extends AbstractTransaction> callback) {
+        assert(ts.isInitialized()) :
+            String.format("Unexpected uninitialized transaction %s [partitions=%s]", ts, partitions);
+        
+        // This is actually bad and should never happen. But for the sake of trying
+        // to get the experiments working, we're just going to ignore it...
+        if (callback.isInitialized() == false) {
+            LOG.warn(String.format("Unexpected uninitialized %s for %s [partitions=%s]",
+                     callback.getClass().getSimpleName(), ts, partitions));
+            return (Status.ABORT_UNEXPECTED);
+        }
+        if (hstore_conf.site.queue_profiling) {
+            for (int partition : partitions.values()) {
+                if (this.lockQueues[partition] != null) profilers[partition].init_time.start();
+            } // FOR
+        }
+        
+        if (debug.val)
+            LOG.debug(String.format("Adding %s into lockQueues for partitions %s",
+                      ts, partitions));
+        
+        // First make sure that none of our partitions have already 
+        // released a txn with an id that is greater than this one.
+        // We check all of them before we touch any of their lastSafeTxnIds
+        // so that a rejection doesn't leave the earlier partitions waiting
+        // for a txn that is never going to get there.
+        Long txn_id = ts.getTransactionId();
+        Long next_safe_id = null;
+        Long reject_txnId = null;
+        int reject_partition = HStoreConstants.NULL_PARTITION_ID;
+        Status status = Status.OK;
+        for (int partition : partitions.values()) {
+            // Skip any non-local partition
+            if (this.lockQueues[partition] == null) continue;
+            
+            Long last_txnId = this.lockQueues[partition].getLastTransactionId();
+            if (last_txnId.compareTo(txn_id) > 0) {
+                if (debug.val)
+                    LOG.warn(String.format("The last lockQueue txn for partition #%d is %s but this " +
+                             "is greater than our new txn %s. Rejecting...",
+                             partition, last_txnId, ts));
+                status = Status.ABORT_RESTART;
+                reject_partition = partition;
+                reject_txnId = last_txnId;
+                break;
+            }
+        } // FOR
+        
+        // Then let each partition know about the new txn. A partition could still
+        // release a txn with a greater id while we are doing this, so if one rejects
+        // us then we have to undo what we did at the partitions that came before it.
+        if (status == Status.OK) {
+            for (int partition : partitions.values()) {
+                if (this.lockQueues[partition] == null) continue;
+                
+                next_safe_id = this.lockQueues[partition].noteTransactionRecievedAndReturnLastSafeTxnId(txn_id);
+                if (next_safe_id != null && next_safe_id.compareTo(txn_id) > 0) {
+                    if (debug.val)
+                        LOG.warn(String.format("The next safe lockQueue txn for partition #%d is %s but this " +
+                                 "is greater than our new txn %s. Rejecting...",
+                                 partition, next_safe_id, ts));
+                    status = Status.ABORT_RESTART;
+                    reject_partition = partition;
+                    reject_txnId = next_safe_id;
+                    for (int p : partitions.values()) {
+                        if (p == partition) break;
+                        if (this.lockQueues[p] != null) this.lockQueues[p].noteTransactionRejected(txn_id);
+                    } // FOR
+                    break;
+                }
+                if (reject_txnId == null || reject_txnId.compareTo(next_safe_id) < 0) {
+                    reject_txnId = next_safe_id;
+                }
+            } // FOR
+        }
+        
+        // Then insert it into all of the queues. If one of them is overloaded, 
+        // then we have to pull it back out of the ones that we already added it to.
+        if (status == Status.OK) {
+            for (int partition : partitions.values()) {
+                if (this.lockQueues[partition] == null) continue;
+                
+                boolean ret = false;
+                if (ts.isPredictSinglePartition() || callback.isAborted() == false) {
+                    ret = this.lockQueues[partition].offer(ts, ts.isSysProc());
+                }
+                if (ret == false) {
+                    // The queue will also reject us if it released a txn with a greater 
+                    // id while we were being added. That's the same as above.
+                    Long last_txnId = this.lockQueues[partition].getLastTransactionId();
+                    if (last_txnId.compareTo(txn_id) > 0) {
+                        if (debug.val)
+                            LOG.warn(String.format("The last lockQueue txn for partition #%d is %s but this " +
+                                     "is greater than our new txn %s. Rejecting...",
+                                     partition, last_txnId, ts));
+                        status = Status.ABORT_RESTART;
+                        reject_txnId = last_txnId;
+                    } else {
+                        if (debug.val)
+                            LOG.debug(String.format("The initQueue for partition #%d is overloaded. " +
+                                      "Throttling %s until id is greater than %s [queueSize=%d]",
+                                      partition, ts, reject_txnId, this.lockQueues[partition].size()));
+                        status = Status.ABORT_REJECT;
+                    }
+                    reject_partition = partition;
+                    boolean added = true;
+                    for (int p : partitions.values()) {
+                        if (this.lockQueues[p] == null) continue;
+                        if (p == partition) added = false;
+                        if (added) this.lockQueues[p].remove(ts);
+                        this.lockQueues[p].noteTransactionRejected(txn_id);
+                    } // FOR
+                    break;
+                }
+            } // FOR
+        }
+        
+        // Reject the txn
+        if (status != Status.OK) {
+            if (hstore_conf.site.queue_profiling) profilers[reject_partition].rejection_time.start();
+            this.rejectTransaction(ts, status, reject_partition, (reject_txnId != null ? reject_txnId : txn_id));
+            
+            // IMPORTANT: We still need to go through and decrement the
+            // callback's counter for all of the other partitions.
+            for (int partition : partitions.values()) {
+                if (partition == reject_partition || this.lockQueues[partition] == null) continue;
+                callback.decrementCounter(partition);
+            } // FOR
+            if (hstore_conf.site.queue_profiling) profilers[reject_partition].rejection_time.stopIfStarted();
+        }
+        else if (trace.val) {
+            LOG.trace(String.format("Added %s to lockQueues for partitions %s", ts, partitions));
+        }
+        if (hstore_conf.site.queue_profiling) {
+            for (int partition : partitions.values()) {
+                if (this.lockQueues[partition] != null) profilers[partition].init_time.stopIfStarted();
+            } // FOR
+        }
+        return (status);
+    }
+    
     /**
      * Check whether there are any transactions that need to be released for execution
      * at the partitions controlled by this queue manager
@@ -483,13 +631,7 @@ public class TransactionQueueManager extends ExceptionHandlingRunnable implement
                       partition, this.lockQueues[partition].size()));
         
         // Poll the queue and get the next value.
-        AbstractTransaction nextTxn = null;
-        this.lockQueueBarriers[partition].lockInterruptibly();
-        try {
-            nextTxn = this.lockQueues[partition].poll();
-        } finally {
-            this.lockQueueBarriers[partition].unlock();
-        } // SYNCH
+        AbstractTransaction nextTxn = this.lockQueues[partition].poll(); // NON-BLOCKING
         
         if (nextTxn == null) {
             if (hstore_conf.site.queue_profiling) profilers[partition].lock_time.stopIfStarted();
@@ -597,33 +739,27 @@ public class TransactionQueueManager extends ExceptionHandlingRunnable implement
         // If this remove() returns false, then we know that our transaction wasn't
         // sitting in the queue for that partition.
         boolean removed = false;
-//        this.lockQueueBarriers[partition].lock();
-        try {
-            if (checkQueue) {
-                // If it wasn't running, then we need to make sure that we remove it from
-                // our initialization queue. Unfortunately this means that we need to traverse
-                // the queue to find it and remove.
-                removed = this.lockQueues[partition].remove(ts);
-                if (debug.val && removed)
-                    LOG.warn(String.format("Removed %s from partition %d queue", ts, partition));
-            }
-            
-            // Calling contains() is super slow, so we'll only do this if we have tracing enabled
-            if (trace.val) {
-                assert(this.lockQueues[partition].contains(ts) == false) :
-                    String.format("The %s for partition %d contains %s even though it should not! " +
-                    		      "[checkQueue=%s, removed=%s]",
-                    		      this.lockQueues[partition].getClass().getSimpleName(), partition,
-                    		      checkQueue, removed);
-            }
-            
-            // Make sure that if this txn is being aborted, that everyone
-            // that is part of it knows what's going on.
-            PartitionCountingCallback<AbstractTransaction> callback = ts.getInitCallback();
-            callback.decrementCounter(partition);
-        } finally {
-//            this.lockQueueBarriers[partition].unlock();
-        } // SYNCH
+        if (checkQueue) {
+            // If it wasn't running, then we need to make sure that we remove it from
+            // our initialization queue.
+            removed = this.lockQueues[partition].remove(ts);
+            if (debug.val && removed)
+                LOG.warn(String.format("Removed %s from partition %d queue", ts, partition));
+        }
+        
+        // Calling contains() is super slow, so we'll only do this if we have tracing enabled
+        if (trace.val) {
+            assert(this.lockQueues[partition].contains(ts) == false) :
+                String.format("The %s for partition %d contains %s even though it should not! " +
+                		      "[checkQueue=%s, removed=%s]",
+                		      this.lockQueues[partition].getClass().getSimpleName(), partition,
+                		      checkQueue, removed);
+        }
+        
+        // Make sure that if this txn is being aborted, that everyone
+        // that is part of it knows what's going on.
+        PartitionCountingCallback<AbstractTransaction> callback = ts.getInitCallback();
+        callback.decrementCounter(partition);
         
         if (debug.val)
             LOG.warn(String.format("%s is finished on partition %d " +
@@ -0,0 +1,68 @@
+/***************************************************************************
+ *   Copyright (C) 2011 by H-Store Project                                 *
+ *   Brown University                                                      *
+ *   Massachusetts Institute of Technology                                 *
+ *   Yale University                                                       *
+ *                                                                         *
+ *   Permission is hereby granted, free of charge, to any person obtaining *
+ *   a copy of this software and associated documentation files (the       *
+ *   "Software"), to deal in the Software without restriction, including   *
+ *   without limitation the rights to use, copy, modify, merge, publish,   *
+ *   distribute, sublicense, and/or sell copies of the Software, and to    *
+ *   permit persons to whom the Software is furnished to do so, subject to *
+ *   the following conditions:                                             *
+ *                                                                         *
+ *   The above copyright notice and this permission notice shall be        *
+ *   included in all copies or substantial portions of the Software.       *
+ *                                                                         *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,       *
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF    *
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.*
+ *   IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR     *
+ *   OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, *
+ *   ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR *
+ *   OTHER DEALINGS IN THE SOFTWARE.                                       *
+ ***************************************************************************/
+
+package edu.brown.hstore.cmdlog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compresses the per-partition chunks of a group commit batch when the
+ * CommandLogWriter is using the CHUNKED compression type. The name of the
+ * implementing class is stored in the log header so that the CommandLogReader
+ * can create the same compressor to decompress the chunks later on.
+ * Implementations must have a public no-argument constructor and
+ * {@link #decompress(byte[])} must be safe to call from multiple threads.
+ */
+public interface CommandLogCompressor {
+
+    /**
+     * Returns the maximum number of bytes that {@link #compress(ByteBuffer, ByteBuffer)}
+     * could write out for an input of the given length
+     * @param length
+     * @return
+     */
+    public int maxCompressedLength(int length);
+    
+    /**
+     * Compress the remaining bytes of the input buffer into the output buffer,
+     * starting at the output buffer's current position. Both buffers are direct.
+     * @param input
+     * @param output
+     * @return the number of compressed bytes written into the output buffer
+     * @throws IOException
+     */
+    public int compress(ByteBuffer input, ByteBuffer output) throws IOException;
+    
+    /**
+     * Decompress a chunk that was written out by {@link #compress(ByteBuffer, ByteBuffer)}
+     * @param data
+     * @return
+     * @throws IOException
+     */
+    public byte[] decompress(byte data[]) throws IOException;
+    
+}
@@ -32,96 +32,201 @@ import java.io.RandomAccessFile;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
-import org.jfree.util.Log;
 import org.voltdb.messaging.FastDeserializer;
+import org.voltdb.types.CommandLogCompressionType;
 import org.voltdb.utils.CompressionService;
 import org.voltdb.utils.NotImplementedException;
 
+import edu.brown.utils.ClassUtil;
+
 
 /**
  * Transaction Command Log Reader
+ * If the log was written out in segments, then the reader will iterate over
+ * all of the segments that still exist on disk in the order that they were written.
  * @author mkirsch
  * @author pavlo
  */
 public class CommandLogReader implements Iterable<LogEntry> {
     
-    final FastDeserializer fd;
+    final List<File> files;
+    final boolean truncated;
     final Map<Integer, String> procedures;
+    byte version;
     boolean groupCommit;
+    CommandLogCompressionType compression;
+    CommandLogCompressor compressor;
     
+    /**
+     * Constructor
+     * @param path Either the path to a single command log file or the base
+     *             path of a segmented command log 
+     */
     public CommandLogReader(String path) {
+        File f = new File(path);
+        List<File> segments = CommandLogWriter.getSegmentFiles(f);
+        if (segments.isEmpty() && f.isFile()) {
+            this.files = Collections.singletonList(f);
+        } else {
+            this.files = segments;
+        }
+        if (this.files.isEmpty()) {
+            throw new RuntimeException("No command log files exist at " + path);
+        }
+        // The segment ids always start at zero, so if the first one is missing
+        // then the CommandLogWriter deleted it after a snapshot
+        this.truncated = (segments.isEmpty() == false &&
+                          segments.get(0).equals(CommandLogWriter.getSegmentFile(f, 0)) == false);
+        
+        // All of the segments have the same header, so we only
+        // need to look at the first one
+        this.procedures = this.readHeader(this.open(this.files.get(0)));
+    }
+    
+    /**
+     * Return the list of log files that this reader will iterate over
+     * @return
+     */
+    public List<File> getFiles() {
+        return (this.files);
+    }
+    
+    /**
+     * Returns true if the first segments of the log were deleted after a snapshot.
+     * Such a log only contains the txns that came after that snapshot.
+     * @return
+     */
+    public boolean isTruncated() {
+        return (this.truncated);
+    }
+    
+    /**
+     * Returns true if the log was written out using group commit
+     * @return
+     */
+    public boolean isGroupCommit() {
+        return (this.groupCommit);
+    }
+    
+    /**
+     * Returns how the group commit batches in the log were compressed
+     * @return
+     */
+    public CommandLogCompressionType getCompression() {
+        return (this.compression);
+    }
+    
+    /**
+     * Returns the CommandLogCompressor used for the batches in the log.
+     * This will be null unless the log was written with CHUNKED compression
+     * @return
+     */
+    public CommandLogCompressor getCompressor() {
+        return (this.compressor);
+    }
+    
+    /**
+     * Return the mapping from ProcedureIds to Procedure names that
+     * was stored in the log's header 
+     * @return
+     */
+    public Map<Integer, String> getProcedures() {
+        return (this.procedures);
+    }
+    
+    private FastDeserializer open(File f) {
         FileChannel roChannel = null;
         ByteBuffer readonlybuffer = null;
-        
-        File f = new File(path);
         try {
             roChannel = new RandomAccessFile(f, "r").getChannel();
             readonlybuffer = roChannel.map(FileChannel.MapMode.READ_ONLY, 0, (int)roChannel.size());
+            roChannel.close();
         } catch (IOException ex) {
             throw new RuntimeException(ex);
         }
         assert(readonlybuffer != null);
-        this.fd = new FastDeserializer(readonlybuffer);
-        
-        this.procedures = this.readHeader();
+        return new FastDeserializer(readonlybuffer);
     }
     
     @Override
     public Iterator<LogEntry> iterator() {
+        // With group commit, we can just decode one batch at a time
+        if (this.groupCommit) {
+            final Iterator<byte[]> batches = this.batchIterator();
+            Iterator<LogEntry> it = new Iterator<LogEntry>() {
+                private Iterator<LogEntry> current = Collections.<LogEntry>emptyList().iterator();
+                
+                @Override
+                public boolean hasNext() {
+                    while (current.hasNext() == false && batches.hasNext()) {
+                        try {
+                            current = decodeBatch(batches.next()).iterator();
+                        } catch (IOException ex) {
+                            throw new RuntimeException("Failed to decompress data from the WAL file!", ex);
+                        }
+                    } // WHILE
+                    return (current.hasNext());
+                }
+                @Override
+                public LogEntry next() {
+                    if (this.hasNext() == false) throw new NoSuchElementException();
+                    return (current.next());
+                }
+                @Override
+                public void remove() {
+                    throw new NotImplementedException("Can't call remove! You crazy!");
+                }
+            };
+            return (it);
+        }
+        
         Iterator<LogEntry> it = new Iterator<LogEntry>() {
-            FastDeserializer decompressedFd;
+            FastDeserializer fd;
+            int fileIdx = 0;
             private LogEntry _next;
             {
-                decompressedFd = new FastDeserializer(ByteBuffer.allocate(0));
-                
                 this.next();
             }
             @Override
             public boolean hasNext() {
                 return _next != null;
-                //return fd.buffer().hasRemaining();
             }
-
+            
             @Override
             public LogEntry next() {
                 LogEntry ret = _next;
                 _next = null;
                 
-                //Fill the decompressed buffer if it is empty
-                if (groupCommit && !decompressedFd.buffer().hasRemaining()) {
-                    Log.info("filling the decompressed buffer");
-                    int sizeCompressed = 0;
+                while (_next == null) {
+                    // Move on to the next file if we've exhausted the current one
+                    if (fd == null || fd.buffer().hasRemaining() == false) {
+                        if (fileIdx >= files.size()) break;
+                        fd = open(files.get(fileIdx++));
+                        readHeader(fd);
+                        continue;
+                    }
                     try {
-                        sizeCompressed = fd.readInt();
-                        byte[] b = new byte[sizeCompressed];
-                        fd.readFully(b);
-                        byte[] decompressed = CompressionService.decompressBytes(b);
-                        this.decompressedFd.setBuffer(ByteBuffer.wrap(decompressed));
+                        _next = new LogEntry();
+                        _next.readExternal(fd, version);
                     } catch (IOException ex) {
-                        throw new RuntimeException("Failed to decompress data from the WAL file!", ex);
+                        throw new RuntimeException("Failed to deserialize LogEntry!", ex);
                     } catch (BufferUnderflowException ex) {
-                        this.decompressedFd.setBuffer(ByteBuffer.allocate(0));
+                        // The tail of this file is incomplete, so skip it
+                        fd.buffer().position(fd.buffer().limit());
+                        _next = null;
                     }
-                }
-                
-                try {
-                    if (groupCommit)
-                        _next = decompressedFd.readObject(LogEntry.class);
-                    else
-                        _next = fd.readObject(LogEntry.class);
-                } catch (IOException ex) {
-                    throw new RuntimeException("Failed to deserialize LogEntry!", ex);
-                } catch (BufferUnderflowException ex) {
-                    
-                    _next = null;
-                }
+                } // WHILE
                 return (ret);
             }
-
+            
             @Override
             public void remove() {
                 throw new NotImplementedException("Can't call remove! You crazy!");
@@ -138,18 +243,134 @@ public class CommandLogReader implements Iterable<LogEntry> {
         // So maybe we want to make this a StoredProcedure Invocation iterator?
     }
     
+    /**
+     * Returns an iterator over the compressed group commit batches in the log.
+     * Each batch can be turned into LogEntries with {@link #decodeBatch(byte[])}.
+     * This allows the caller to decompress and deserialize batches in parallel.
+     * This can only be used if the log was written using group commit.
+     * @return
+     */
+    public Iterator<byte[]> batchIterator() {
+        assert(this.groupCommit) : "Unable to read batches from a log without group commit";
+        Iterator<byte[]> it = new Iterator<byte[]>() {
+            FastDeserializer fd;
+            int fileIdx = 0;
+            private byte[] _next;
+            {
+                this.next();
+            }
+            @Override
+            public boolean hasNext() {
+                return _next != null;
+            }
+            
+            @Override
+            public byte[] next() {
+                byte[] ret = _next;
+                _next = null;
+                
+                while (_next == null) {
+                    if (fd == null || fd.buffer().hasRemaining() == false) {
+                        if (fileIdx >= files.size()) break;
+                        fd = open(files.get(fileIdx++));
+                        readHeader(fd);
+                        continue;
+                    }
+                    try {
+                        int sizeCompressed = fd.readInt();
+                        _next = new byte[sizeCompressed];
+                        fd.readFully(_next);
+                    } catch (IOException ex) {
+                        throw new RuntimeException("Failed to read batch from the WAL file!", ex);
+                    } catch (BufferUnderflowException ex) {
+                        // The tail of this file is incomplete, so skip it
+                        fd.buffer().position(fd.buffer().limit());
+                        _next = null;
+                    }
+                } // WHILE
+                return (ret);
+            }
+            
+            @Override
+            public void remove() {
+                throw new NotImplementedException("Can't call remove! You crazy!");
+            }
+        };
+        return (it);
+    }
+    
+    /**
+     * Decompress and deserialize all of the LogEntries in the given group commit batch.
+     * This is safe to call from multiple threads at the same time.
+     * @param batch
+     * @return
+     * @throws IOException
+     */
+    public List<LogEntry> decodeBatch(byte[] batch) throws IOException {
+        List<LogEntry> entries = new ArrayList<LogEntry>();
+        
+        // The original format is just a single compressed buffer
+        if (this.compression == CommandLogCompressionType.SNAPPY) {
+            decodeEntries(CompressionService.decompressBytes(batch), entries);
+        }
+        // Otherwise the batch is made up of separate chunks 
+        // for each partition that are prefixed by their length
+        else {
+            ByteBuffer buffer = ByteBuffer.wrap(batch);
+            while (buffer.hasRemaining()) {
+                byte chunk[] = new byte[buffer.getInt()];
+                buffer.get(chunk);
+                if (this.compressor != null) {
+                    chunk = this.compressor.decompress(chunk);
+                }
+                decodeEntries(chunk, entries);
+            } // WHILE
+        }
+        return (entries);
+    }
+    
+    private void decodeEntries(byte[] data, List<LogEntry> entries) throws IOException {
+        FastDeserializer fd = new FastDeserializer(ByteBuffer.wrap(data));
+        while (fd.buffer().hasRemaining()) {
+            LogEntry entry = new LogEntry();
+            entry.readExternal(fd, this.version);
+            entries.add(entry);
+        } // WHILE
+    }
+    
     /**
      * 
      * @return
      */
-    protected Map<Integer, String> readHeader() {
+    protected Map<Integer, String> readHeader(FastDeserializer fd) {
         Map<Integer, String> procedures = new HashMap<Integer, String>();
         
         try {
-            this.groupCommit = fd.readBoolean();
+            // Logs from before we versioned the header start with the group
+            // commit flag and always used SNAPPY for their batches
+            byte version = fd.readByte();
+            this.version = version;
+            if (version > 1) {
+                if (version > CommandLogWriter.HEADER_VERSION) {
+                    throw new RuntimeException("Unsupported WAL log header version " + version);
+                }
+                this.groupCommit = fd.readBoolean();
+            } else {
+                this.groupCommit = (version != 0);
+            }
             int num_procs = fd.readInt();
             for (int i = 0; i < num_procs; i++)
                 procedures.put(new Integer(fd.readInt()), fd.readString());
+            if (version > 1) {
+                this.compression = CommandLogCompressionType.values()[fd.readByte()];
+            } else {
+                this.compression = CommandLogCompressionType.SNAPPY;
+            }
+            if (this.compression == CommandLogCompressionType.CHUNKED) {
+                this.compressor = ClassUtil.newInstance(fd.readString(), new Object[0], new Class<?>[0]);
+            } else {
+                this.compressor = null;
+            }
         } catch (IOException ex) {
             throw new RuntimeException("Failed to read WAL log header!", ex);
         }
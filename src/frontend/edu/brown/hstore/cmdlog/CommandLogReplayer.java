@@ -0,0 +1,520 @@
+/***************************************************************************
+ *   Copyright (C) 2013 by H-Store Project                                 *
+ *   Brown University                                                      *
+ *   Massachusetts Institute of Technology                                 *
+ *   Yale University                                                       *
+ *                                                                         *
+ *   Permission is hereby granted, free of charge, to any person obtaining *
+ *   a copy of this software and associated documentation files (the       *
+ *   "Software"), to deal in the Software without restriction, including   *
+ *   without limitation the rights to use, copy, modify, merge, publish,   *
+ *   distribute, sublicense, and/or sell copies of the Software, and to    *
+ *   permit persons to whom the Software is furnished to do so, subject to *
+ *   the following conditions:                                             *
+ *                                                                         *
+ *   The above copyright notice and this permission notice shall be        *
+ *   included in all copies or substantial portions of the Software.       *
+ *                                                                         *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,       *
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF    *
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.*
+ *   IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR     *
+ *   OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, *
+ *   ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR *
+ *   OTHER DEALINGS IN THE SOFTWARE.                                       *
+ ***************************************************************************/
+
+package edu.brown.hstore.cmdlog;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.voltdb.CatalogContext;
+import org.voltdb.ClientResponseImpl;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.exceptions.ServerFaultException;
+
+import com.google.protobuf.RpcCallback;
+
+import edu.brown.hstore.HStoreConstants;
+import edu.brown.hstore.HStoreSite;
+import edu.brown.hstore.HStoreThreadManager;
+import edu.brown.hstore.Hstoreservice.Status;
+import edu.brown.hstore.TransactionInitializer;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.hstore.txns.LocalTransaction;
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.utils.ThreadUtil;
+
+/**
+ * Transaction Command Log Replayer
+ * <p>
+ * Re-executes the txns stored in a command log at an HStoreSite. The group commit
+ * batches are decompressed and deserialized in parallel by a pool of decoder threads.
+ * A single router thread then walks through the entries in the same order that they
+ * appear in the log. Every entry that the log marks as single-partition is handed off
+ * to a dispatcher thread for its base partition, which creates the txn and queues it
+ * at that partition. Each partition's dispatcher queues its txns in log order, so the
+ * partitions replay their part of the log at the same time and each of them executes
+ * its txns in the same order that they were committed there in the original run.
+ * Distributed txns are the only ones that are serialized: the router waits for the
+ * dispatchers and everything before it to finish, executes it by itself, and then
+ * continues on with the rest of the log.
+ * <p>
+ * Logs that were written before we recorded whether a txn was single-partitioned
+ * are replayed by the router thread itself using the txn's predicted partitions.
+ * <p>
+ * <B>Note:</B> A single-partition txn that gets restarted during replay
+ * (e.g., because it was mispredicted) will get a new txn id and therefore may
+ * execute after txns that came after it in the log.
+ * <p>
+ * If ${site.commandlog_replay} is enabled, then the HStoreSite will use this to replay
+ * the log left behind by the previous run when it starts up.
+ */
+public class CommandLogReplayer {
+    private static final Logger LOG = Logger.getLogger(CommandLogReplayer.class);
+    private static final LoggerBoolean debug = new LoggerBoolean();
+    private static final LoggerBoolean trace = new LoggerBoolean();
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+    
+    /**
+     * The extension that we add to the command log from a previous run
+     * while we are replaying it.
+     */
+    public static final String REPLAY_EXT = ".replay";
+    
+    /**
+     * A txn that the router has handed off to a partition's dispatcher
+     */
+    private static class ReplayTask {
+        final LogEntry entry;
+        final Procedure catalog_proc;
+        final long client_handle;
+        final int base_partition;
+        
+        ReplayTask(LogEntry entry, Procedure catalog_proc, long client_handle, int base_partition) {
+            this.entry = entry;
+            this.catalog_proc = catalog_proc;
+            this.client_handle = client_handle;
+            this.base_partition = base_partition;
+        }
+    } // CLASS
+    
+    /**
+     * Tells a dispatcher that there is nothing left in the log
+     */
+    private static final ReplayTask STOP = new ReplayTask(null, null, -1, HStoreConstants.NULL_PARTITION_ID);
+    
+    private final HStoreSite hstore_site;
+    private final HStoreConf hstore_conf;
+    private final CatalogContext catalogContext;
+    private final TransactionInitializer txnInitializer;
+    private final CommandLogReader reader;
+    private final int num_threads;
+    private final int max_outstanding;
+    
+    /**
+     * ProcedureId in the log -> Procedure in the current catalog
+     */
+    private final Map<Integer, Procedure> procedures = new HashMap<Integer, Procedure>();
+    
+    /**
+     * Local PartitionId -> Queue of txns for that partition's dispatcher
+     */
+    private final Map<Integer, BlockingQueue<ReplayTask>> dispatchQueues = new HashMap<Integer, BlockingQueue<ReplayTask>>();
+    
+    /**
+     * One permit for every txn that we are allowed to have queued at the HStoreSite
+     * at the same time. Each replayed txn gives its permit back when it finishes.
+     */
+    private final Semaphore outstanding;
+    
+    /**
+     * The number of txns that the router has handed off to the dispatchers
+     * that have not been queued at the HStoreSite yet.
+     */
+    private final AtomicInteger routed = new AtomicInteger(0);
+    
+    /**
+     * The first error that one of the dispatchers hit
+     */
+    private volatile Throwable dispatchError = null;
+    
+    private long clientHandle = 0;
+    private final AtomicInteger singlePartitionCounter = new AtomicInteger(0);
+    private final AtomicInteger multiPartitionCounter = new AtomicInteger(0);
+    private int skippedCounter = 0;
+    private final AtomicInteger failedCounter = new AtomicInteger(0);
+    
+    /**
+     * Callback for all of the replayed txns
+     */
+    private final RpcCallback<ClientResponseImpl> callback = new RpcCallback<ClientResponseImpl>() {
+        @Override
+        public void run(ClientResponseImpl cresponse) {
+            if (cresponse.getStatus() != Status.OK) {
+                if (debug.val)
+                    LOG.debug(String.format("Replayed txn #%d finished with status %s",
+                              cresponse.getTransactionId(), cresponse.getStatus()));
+                failedCounter.incrementAndGet();
+            }
+            outstanding.release();
+        }
+    };
+    
+    /**
+     * Constructor
+     * @param hstore_site
+     * @param reader
+     */
+    public CommandLogReplayer(HStoreSite hstore_site, CommandLogReader reader) {
+        this.hstore_site = hstore_site;
+        this.hstore_conf = hstore_site.getHStoreConf();
+        this.catalogContext = hstore_site.getCatalogContext();
+        this.txnInitializer = hstore_site.getTransactionInitializer();
+        this.reader = reader;
+        
+        int num_partitions = hstore_site.getLocalPartitionIds().size();
+        int limit = Math.max(1, hstore_conf.site.network_incoming_limit_txns);
+        this.num_threads = Math.max(1, Math.min(num_partitions, ThreadUtil.availableProcessors()));
+        this.max_outstanding = limit * num_partitions;
+        this.outstanding = new Semaphore(this.max_outstanding);
+        for (int partition : hstore_site.getLocalPartitionIds()) {
+            this.dispatchQueues.put(partition, new LinkedBlockingQueue<ReplayTask>(limit));
+        } // FOR
+        
+        // The ProcedureIds stored in the log may not match up with the
+        // current catalog, so we have to look them up by their name
+        for (Map.Entry<Integer, String> e : reader.getProcedures().entrySet()) {
+            Procedure catalog_proc = this.catalogContext.procedures.getIgnoreCase(e.getValue());
+            if (catalog_proc != null) this.procedures.put(e.getKey(), catalog_proc);
+        } // FOR
+    }
+    
+    /**
+     * Replay all of the txns in the command log. This blocks until all of
+     * the txns have finished executing.
+     * We refuse to replay a log that was truncated after a snapshot, since we
+     * would need to load that snapshot first in order to get the right state.
+     * @return The number of txns that were replayed
+     * @throws InterruptedException
+     */
+    public int replay() throws InterruptedException {
+        if (this.reader.isTruncated()) {
+            String msg = String.format("Unable to replay command log %s because its segments " +
+                                       "before the last snapshot were deleted", this.reader.getFiles());
+            throw new RuntimeException(msg);
+        }
+        if (debug.val)
+            LOG.debug(String.format("Replaying command log %s [groupCommit=%s, decoderThreads=%d, dispatchers=%d]",
+                      this.reader.getFiles(), this.reader.isGroupCommit(),
+                      this.num_threads, this.dispatchQueues.size()));
+        
+        String threadName = HStoreThreadManager.getThreadName(this.hstore_site,
+                                                              HStoreConstants.THREAD_NAME_COMMANDLOG_REPLAY);
+        ExecutorService dispatchers = Executors.newFixedThreadPool(this.dispatchQueues.size(),
+                                                                   ThreadUtil.getThreadFactory(threadName, null));
+        for (final BlockingQueue<ReplayTask> queue : this.dispatchQueues.values()) {
+            dispatchers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    dispatchLoop(queue);
+                }
+            });
+        } // FOR
+        
+        try {
+            if (this.reader.isGroupCommit()) {
+                ExecutorService pool = Executors.newFixedThreadPool(this.num_threads,
+                                                                    ThreadUtil.getThreadFactory(threadName, null));
+                try {
+                    this.replayBatches(pool);
+                } finally {
+                    pool.shutdownNow();
+                }
+            }
+            else {
+                for (LogEntry entry : this.reader) {
+                    this.route(entry);
+                } // FOR
+            }
+            this.waitForDispatchers();
+        } finally {
+            for (BlockingQueue<ReplayTask> queue : this.dispatchQueues.values()) {
+                queue.clear();
+                queue.offer(STOP);
+            } // FOR
+            dispatchers.shutdown();
+        }
+        
+        // Wait for everything to finish
+        this.waitForOutstanding(0);
+        
+        if (debug.val)
+            LOG.debug(String.format("Finished replaying command log " +
+                      "[singlePartition=%d, multiPartition=%d, skipped=%d, failed=%d]",
+                      this.singlePartitionCounter.get(), this.multiPartitionCounter.get(),
+                      this.skippedCounter, this.failedCounter.get()));
+        return (this.singlePartitionCounter.get() + this.multiPartitionCounter.get());
+    }
+    
+    /**
+     * Decode the group commit batches in parallel and route their entries
+     * in the same order that they were written out. We can't reorder the entries
+     * within a batch (e.g., by txn id) because that may not be the order that they
+     * were committed in at their partition.
+     * @param pool
+     * @throws InterruptedException
+     */
+    private void replayBatches(ExecutorService pool) throws InterruptedException {
+        // We only let the decoders get a little bit ahead of the router
+        // so that we don't have the entire log in memory at once
+        int window = this.num_threads * 2;
+        Deque<Future<List<LogEntry>>> pending = new ArrayDeque<Future<List<LogEntry>>>();
+        Iterator<byte[]> it = this.reader.batchIterator();
+        
+        while (true) {
+            while (pending.size() < window && it.hasNext()) {
+                final byte[] batch = it.next();
+                pending.addLast(pool.submit(new Callable<List<LogEntry>>() {
+                    @Override
+                    public List<LogEntry> call() throws Exception {
+                        return (reader.decodeBatch(batch));
+                    }
+                }));
+            } // WHILE
+            if (pending.isEmpty()) break;
+            
+            List<LogEntry> entries = null;
+            try {
+                entries = pending.removeFirst().get();
+            } catch (ExecutionException ex) {
+                throw new ServerFaultException("Failed to decode command log batch", ex.getCause());
+            }
+            for (LogEntry entry : entries) {
+                this.route(entry);
+            } // FOR
+        } // WHILE
+    }
+    
+    /**
+     * Send the given LogEntry to its base partition's dispatcher if it is
+     * single-partitioned. Otherwise wait for all of the txns before it to finish
+     * and then execute it from this thread.
+     * @param entry
+     * @throws InterruptedException
+     */
+    private void route(LogEntry entry) throws InterruptedException {
+        this.checkDispatchError();
+        
+        Procedure catalog_proc = this.procedures.get(entry.getProcedureId());
+        if (catalog_proc == null || catalog_proc.getSystemproc()) {
+            LOG.warn(String.format("Unable to replay txn #%d for unknown Procedure #%d",
+                     entry.getTransactionId(), entry.getProcedureId()));
+            this.skippedCounter++;
+            return;
+        }
+        long client_handle = this.clientHandle++;
+        int base_partition = this.txnInitializer.calculateBasePartition(client_handle,
+                                                                        catalog_proc,
+                                                                        entry.getProcedureParams(),
+                                                                        HStoreConstants.NULL_PARTITION_ID);
+        if (this.hstore_site.isLocalPartition(base_partition) == false) {
+            LOG.warn(String.format("Unable to replay txn #%d because its base partition %d is not local",
+                     entry.getTransactionId(), base_partition));
+            this.skippedCounter++;
+            return;
+        }
+        ReplayTask task = new ReplayTask(entry, catalog_proc, client_handle, base_partition);
+        
+        if (entry.isSinglePartition()) {
+            this.routed.incrementAndGet();
+            this.dispatchQueues.get(base_partition).put(task);
+            return;
+        }
+        
+        // Everything that we handed off to the dispatchers has to get its txn id
+        // before this one so that they are executed in the same order as the log
+        this.waitForDispatchers();
+        LocalTransaction ts = this.dispatch(task);
+        
+        // Distributed txns need everything that came before them to finish
+        // and then need to finish before we move on
+        if (ts.isPredictSinglePartition() == false) {
+            this.waitForOutstanding(1);
+            this.hstore_site.transactionQueue(ts);
+            this.waitForOutstanding(0);
+            this.multiPartitionCounter.incrementAndGet();
+        }
+        // This can only happen for logs that don't tell us which txns were
+        // single-partitioned, so we just go with what the txn predicted
+        else {
+            this.hstore_site.transactionQueue(ts);
+            this.singlePartitionCounter.incrementAndGet();
+        }
+    }
+    
+    /**
+     * Main loop for a partition's dispatcher thread.
+     * @param queue
+     */
+    private void dispatchLoop(BlockingQueue<ReplayTask> queue) {
+        try {
+            while (true) {
+                ReplayTask task = queue.take();
+                if (task == STOP) break;
+                
+                // The txn only touched its base partition in the original run, so we can
+                // queue it even if it gets predicted to be distributed this time around
+                LocalTransaction ts = this.dispatch(task);
+                this.hstore_site.transactionQueue(ts);
+                if (ts.isPredictSinglePartition()) {
+                    this.singlePartitionCounter.incrementAndGet();
+                } else {
+                    this.multiPartitionCounter.incrementAndGet();
+                }
+                
+                if (this.routed.decrementAndGet() == 0) {
+                    synchronized (this.routed) {
+                        this.routed.notifyAll();
+                    } // SYNCH
+                }
+            } // WHILE
+        } catch (InterruptedException ex) {
+            // Nothing to do...
+        } catch (Throwable ex) {
+            LOG.error("Unexpected error while replaying command log", ex);
+            this.dispatchError = ex;
+            synchronized (this.routed) {
+                this.routed.notifyAll();
+            } // SYNCH
+        }
+    }
+    
+    /**
+     * Create the txn for the given ReplayTask. The caller has to queue it at the HStoreSite.
+     * This will block until we are allowed to have another txn outstanding.
+     * @param task
+     * @return
+     * @throws InterruptedException
+     */
+    private LocalTransaction dispatch(ReplayTask task) throws InterruptedException {
+        // Don't let too many txns get queued up at once
+        this.outstanding.acquire();
+        
+        long timestamp = (hstore_conf.global.nanosecond_latencies ? System.nanoTime() : System.currentTimeMillis());
+        LocalTransaction ts = this.txnInitializer.createLocalTransaction(null,
+                                                                         timestamp,
+                                                                         task.client_handle,
+                                                                         task.base_partition,
+                                                                         task.catalog_proc,
+                                                                         task.entry.getProcedureParams(),
+                                                                         this.callback);
+        if (trace.val)
+            LOG.trace(String.format("Replaying txn #%d as %s", task.entry.getTransactionId(), ts));
+        return (ts);
+    }
+    
+    /**
+     * Block until the dispatchers have queued all of the txns that we gave them
+     * @throws InterruptedException
+     */
+    private void waitForDispatchers() throws InterruptedException {
+        synchronized (this.routed) {
+            while (this.routed.get() > 0) {
+                this.checkDispatchError();
+                this.routed.wait(10);
+            } // WHILE
+        } // SYNCH
+        this.checkDispatchError();
+    }
+    
+    /**
+     * Block until all of the txns that have been queued have finished
+     * @param held The number of permits that the caller is holding for txns that
+     *             it has not queued yet
+     * @throws InterruptedException
+     */
+    private void waitForOutstanding(int held) throws InterruptedException {
+        int permits = this.max_outstanding - held;
+        this.outstanding.acquire(permits);
+        this.outstanding.release(permits);
+    }
+    
+    private void checkDispatchError() {
+        if (this.dispatchError != null) {
+            throw new ServerFaultException("Failed to replay command log", this.dispatchError);
+        }
+    }
+    
+    // ----------------------------------------------------------------------------
+    // LOG FILES
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * Move the command log (and all of its segments) at the given path out of the way
+     * so that a new CommandLogWriter does not overwrite it before we get a chance to 
+     * replay it. If there is already an archived log that we never finished replaying,
+     * then we will keep that one and let the new CommandLogWriter overwrite the log at 
+     * the given path, since that only contains the txns that we replayed from it.
+     * @param outputFile
+     * @return The path of the archived log or null if there is nothing to replay
+     */
+    public static File archiveLog(File outputFile) {
+        File archive = new File(outputFile.getPath() + REPLAY_EXT);
+        if (archive.isFile() || CommandLogWriter.getSegmentFiles(archive).isEmpty() == false) {
+            LOG.warn("Found command log from an unfinished replay at " + archive);
+            return (archive);
+        }
+        
+        List<File> files = new ArrayList<File>(CommandLogWriter.getSegmentFiles(outputFile));
+        if (outputFile.isFile()) files.add(outputFile);
+        if (files.isEmpty()) return (null);
+        
+        for (File f : files) {
+            String suffix = f.getName().substring(outputFile.getName().length());
+            File dest = new File(archive.getPath() + suffix);
+            if (debug.val) LOG.debug(String.format("Moving command log %s to %s", f, dest));
+            if (f.renameTo(dest) == false) {
+                throw new RuntimeException(String.format("Failed to move command log %s to %s", f, dest));
+            }
+        } // FOR
+        return (archive);
+    }
+    
+    // ----------------------------------------------------------------------------
+    // STATISTICS
+    // ----------------------------------------------------------------------------
+    
+    public int getSinglePartitionCount() {
+        return (this.singlePartitionCounter.get());
+    }
+    public int getMultiPartitionCount() {
+        return (this.multiPartitionCounter.get());
+    }
+    public int getSkippedCount() {
+        return (this.skippedCounter);
+    }
+    public int getFailedCount() {
+        return (this.failedCounter.get());
+    }
+}
@@ -28,19 +28,29 @@ package edu.brown.hstore.cmdlog;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.lang.reflect.Array;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.log4j.Logger;
 import org.voltdb.CatalogContext;
 import org.voltdb.ClientResponseImpl;
+import org.voltdb.ParameterSet;
 import org.voltdb.catalog.Procedure;
 import org.voltdb.exceptions.ServerFaultException;
 import org.voltdb.messaging.FastSerializer;
+import org.voltdb.types.CommandLogCompressionType;
 import org.voltdb.utils.CompressionService;
 import org.voltdb.utils.DBBPool.BBContainer;
 
@@ -56,6 +66,7 @@ import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.profilers.CommandLogWriterProfiler;
 import edu.brown.profilers.ProfileMeasurementUtil;
+import edu.brown.utils.ClassUtil;
 import edu.brown.utils.ExceptionHandlingRunnable;
 import edu.brown.utils.StringUtil;
 
@@ -78,6 +89,37 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
      */
     public static final String LOG_OUTPUT_EXT = ".cmdlog"; 
     
+    /**
+     * The version of the log header that we write out. Logs written before we
+     * versioned the header start with the group commit flag instead, so any
+     * value greater than one means that the header is versioned.
+     * Version 3 added the single-partition flag to each LogEntry.
+     */
+    public static final byte HEADER_VERSION = 3;
+    
+    /**
+     * The format of the suffix that is appended to the output file name
+     * for each segment when ${site.commandlog_segment_size} is enabled
+     */
+    private static final String SEGMENT_SUFFIX_FORMAT = ".%06d";
+    
+    /**
+     * A closed command log segment that is waiting to be truncated
+     */
+    private static class LogSegment {
+        private final File file;
+        private final long lastTxnId;
+        
+        private LogSegment(File file, long lastTxnId) {
+            this.file = file;
+            this.lastTxnId = lastTxnId;
+        }
+        @Override
+        public String toString() {
+            return String.format("%s[lastTxnId=%d]", this.file.getName(), this.lastTxnId);
+        }
+    } // CLASS
+    
     /**
      * Special LogEntry that holds additional data that we
      * need in order to send back a ClientResponse
@@ -87,12 +129,18 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
         protected RpcCallback<ClientResponseImpl> clientCallback;
         protected long initiateTime;
         protected int restartCounter;
+        protected long queuedTime;
+        protected int estimatedSize;
         
         public LogEntry init(LocalTransaction ts, ClientResponseImpl cresponse) {
             this.cresponse = cresponse;
             this.clientCallback = ts.getClientCallback();
             this.initiateTime = ts.getInitiateTime();
             this.restartCounter = ts.getRestartCounter();
+            this.queuedTime = System.nanoTime();
+            // We only need to know how big the entry is if we're going to
+            // use it to decide when to flush
+            this.estimatedSize = (useAdaptiveFlush ? estimateSize(ts.getProcedureParameters()) : 0);
             return super.init(ts);
         }
         
@@ -103,16 +151,29 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
             this.clientCallback = null;
             this.initiateTime = -1;
             this.restartCounter = -1;
+            this.queuedTime = -1;
+            this.estimatedSize = 0;
         }
     }
     
     /**
      * Circular Buffer of Log Entries
+     * There is one of these per partition. The partition's thread is the only one
+     * that appends to the buffer (by moving nextPos) and the WriterThread is the only 
+     * one that removes from it (by moving startPos). This means that the partition
+     * never has to wait for the WriterThread to finish a flush unless the
+     * buffer is completely full.
      */
     protected class CircularLogEntryBuffer {
         private final WriterLogEntry buffer[];
-        private int startPos;
-        private int nextPos;
+        private volatile int startPos;
+        private volatile int nextPos;
+        
+        /**
+         * The position that the WriterThread will stop at for the current
+         * group commit. Only used by the WriterThread.
+         */
+        private int flushPos;
         
         public CircularLogEntryBuffer(int size) {
             size += 1; //hack to make wrapping around work
@@ -122,8 +183,9 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
             } // FOR
             this.startPos = 0;
             this.nextPos = 0; 
+            this.flushPos = 0;
         }
-        public LogEntry next(LocalTransaction ts, ClientResponseImpl cresponse) {
+        public WriterLogEntry next(LocalTransaction ts, ClientResponseImpl cresponse) {
             // Check that they don't try add the same txn twice right after each other
             if (hstore_conf.site.jvm_asserts) {
                 LogEntry prev = this.buffer[this.previous()];
@@ -136,16 +198,40 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
             
             // The internal pointer to the next element does not need to be atomic because 
             // we are going to maintain separate buffers for each partition.
-            // But we need to think about what happens if we are about to wrap around and we
-            // haven't been flushed to disk yet.
-            LogEntry ret = this.buffer[this.nextPos].init(ts, cresponse); 
-            this.nextPos = (this.nextPos + 1) % this.buffer.length;;
+            // If we are about to wrap around on top of entries that haven't been 
+            // flushed to disk yet, then we have to wait for the WriterThread.
+            int pos = this.nextPos;
+            int following = (pos + 1) % this.buffer.length;
+            if (following == this.startPos) {
+                if (hstore_conf.site.commandlog_profiling && profiler != null) profiler.blockedTime.start();
+                while (following == this.startPos && stop == false) {
+                    wakeWriter();
+                    Thread.yield();
+                } // WHILE
+                if (hstore_conf.site.commandlog_profiling && profiler != null) profiler.blockedTime.stopIfStarted();
+            }
+            WriterLogEntry ret = this.buffer[pos];
+            ret.init(ts, cresponse);
+            
+            // This is what makes the entry visible to the WriterThread
+            this.nextPos = following;
             return ret;
         }
+        /**
+         * Mark the entries that the WriterThread will write out in the
+         * next group commit. Returns the number of entries.
+         */
+        public int prepareFlush() {
+            this.flushPos = this.nextPos;
+            return (this.getFlushSize());
+        }
+        public int getFlushSize() {
+            return ((this.flushPos + this.buffer.length) - this.startPos) % this.buffer.length;
+        }
         public void flushCleanup() {
             //for (int i = 0; i < this.getSize(); i++)
             //this.buffer[(this.startPos + i) % this.buffer.length].finish();
-            this.startPos = this.nextPos;
+            this.startPos = this.flushPos;
         }
         public int getStart() {
             return this.startPos;
@@ -153,6 +239,15 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
         public int size() {
             return ((this.nextPos + this.buffer.length) - this.startPos) % this.buffer.length;
         }
+        /**
+         * Return the time (in nanoseconds) that the oldest entry in this buffer that 
+         * has not been written out was queued at, or Long.MAX_VALUE if the buffer is empty.
+         */
+        public long getOldestQueuedTime() {
+            int start = this.startPos;
+            if (start == this.nextPos) return (Long.MAX_VALUE);
+            return (this.buffer[start].queuedTime);
+        }
         private int previous() {
             return ((this.nextPos == 0 ? this.buffer.length : this.nextPos) - 1);
         }
@@ -167,32 +262,80 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
     private final HStoreConf hstore_conf;
     private final CatalogContext catalogContext;
     private final File outputFile;
-    private final FileChannel fstream;
-    
-    private final Semaphore writingEntry;
-    private final int numWritingLocks;
+    private FileChannel fstream;
     
     private final boolean useGroupCommit;
+    private final boolean useAdaptiveFlush;
     private boolean usePostProcessor;
     private final int group_commit_size;
+    private final long group_commit_timeout;
+    private final int flush_txns;
+    private final long flush_bytes;
     private final FastSerializer singletonSerializer;
     private final LogEntry singletonLogEntry;
+    
+    /**
+     * Direct buffer write path
+     * If we are not using the original SNAPPY compression, then each partition 
+     * gets its own direct FastSerializer and (optionally) its own direct buffer
+     * for the compressed output. These are reused for every group commit
+     * and are only used by the WriterThread.
+     */
+    private final CommandLogCompressionType compression;
+    private final CommandLogCompressor compressor;
+    private final FastSerializer partitionSerializers[];
+    private final ByteBuffer compressionBuffers[];
+    private final ByteBuffer batchHeader;
+    private final ByteBuffer writeBuffers[];
+    
+    /**
+     * Segmented log files
+     * The segment size is zero if we are writing everything to a single file.
+     * The current segment information is only used by the thread that is 
+     * writing to the log file.
+     */
+    private final long segment_size;
+    private final boolean useTruncation;
+    private int segmentId = 0;
+    private File segmentFile;
+    private long segmentLastTxnId = -1;
+    
+    /**
+     * The segments that we have finished writing to but have not
+     * been covered by a snapshot yet. Access must be synchronized.
+     */
+    private final Deque<LogSegment> closedSegments = new ArrayDeque<LogSegment>();
      
     private int commitBatchCounter = 0;
-    private boolean stop = false;
-    private Thread self;
-
+    private volatile boolean stop = false;
+    private volatile Thread self;
+    
     /**
-     * If set to true, then the WriterThread is in the middle of writing out
-     * data to the log file.
+     * The number of group commit rounds that the WriterThread has started
+     * and finished writing out to the log file. Only the WriterThread
+     * updates these.
      */
-    private final AtomicBoolean flushInProgress = new AtomicBoolean(false);
+    private volatile long flushStarted = 0;
+    private volatile long flushFinished = 0;
+    
+    /**
+     * If set to true, then the WriterThread will flush whatever it has
+     * right away without waiting for the timeout.
+     */
+    private volatile boolean flushRequested = false;
+    
+    /**
+     * The number of txns and the estimated number of bytes that are 
+     * queued in the entry buffers but have not been written out yet.
+     * These are only used to decide when to wake up the WriterThread.
+     */
+    private final AtomicInteger pendingTxns = new AtomicInteger(0);
+    private final AtomicLong pendingBytes = new AtomicLong(0);
     
     /**
      * The log entry buffers (one per partition) 
      */
-    private CircularLogEntryBuffer entries[];
-    private CircularLogEntryBuffer entriesFlushing[];
+    private final CircularLogEntryBuffer entries[];
     
     private CommandLogWriterProfiler profiler;
     
@@ -211,7 +354,6 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
         
         // Number of local partitions
         int num_partitions = hstore_site.getLocalPartitionIds().size();
-        this.numWritingLocks = num_partitions;
         
         // Number of log entries per partition
         // hack, set arbitrarily high to avoid contention for log buffer
@@ -219,10 +361,22 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
         
         // The global number of txns we will commit in a batch
         this.group_commit_size = num_entries * num_partitions; 
+        this.group_commit_timeout = TimeUnit.MILLISECONDS.toNanos(Math.max(1, hstore_conf.site.commandlog_timeout));
+        
+        // Adaptive group commit thresholds
+        this.useAdaptiveFlush = hstore_conf.site.commandlog_adaptive;
+        this.flush_txns = (hstore_conf.site.commandlog_flush_txns > 0 ?
+                                hstore_conf.site.commandlog_flush_txns : Integer.MAX_VALUE);
+        this.flush_bytes = (hstore_conf.site.commandlog_flush_bytes > 0 ?
+                                hstore_conf.site.commandlog_flush_bytes : Long.MAX_VALUE);
         
         if (debug.val) {
             LOG.debug("group_commit_size: " + this.group_commit_size);
             LOG.debug("group_commit_timeout: " + hstore_conf.site.commandlog_timeout);
+            if (this.useAdaptiveFlush) {
+                LOG.debug("group_commit_flush_txns: " + hstore_conf.site.commandlog_flush_txns);
+                LOG.debug("group_commit_flush_bytes: " + hstore_conf.site.commandlog_flush_bytes);
+            }
         }
         
         // Configure group commit parameters
@@ -230,33 +384,68 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
             this.useGroupCommit = true;
             
             // Make one entry buffer per partition SO THAT SYNCHRONIZATION ON EACH BUFFER IS NOT REQUIRED
-            this.writingEntry = new Semaphore(this.numWritingLocks, false); 
             this.entries = new CircularLogEntryBuffer[num_partitions];
-            this.entriesFlushing = new CircularLogEntryBuffer[num_partitions];
             for (int partition = 0; partition < num_partitions; partition++) {
                 this.entries[partition] = new CircularLogEntryBuffer(num_entries);
-                this.entriesFlushing[partition] = new CircularLogEntryBuffer(num_entries);
             } // FOR
             this.singletonLogEntry = null;
         } else {
             this.useGroupCommit = false;
-            this.writingEntry = null; 
+            this.entries = null;
             this.singletonLogEntry = new LogEntry();
         }
         
-        FileOutputStream f = null;
-        try {
-            this.outputFile.getParentFile().mkdirs();
-            LOG.info("Command Log File: " + this.outputFile.getAbsolutePath());
-            this.outputFile.createNewFile();
-            f = new FileOutputStream(this.outputFile, false);
-        } catch (IOException ex) {
-            throw new RuntimeException(ex);
+        // Group commit compression
+        this.compression = CommandLogCompressionType.get(hstore_conf.site.commandlog_compression);
+        assert(this.compression != null) : String.format("Invalid %s '%s'",
+                                                         CommandLogCompressionType.class.getSimpleName(),
+                                                         hstore_conf.site.commandlog_compression);
+        if (this.compression == CommandLogCompressionType.CHUNKED) {
+            this.compressor = ClassUtil.newInstance(hstore_conf.site.commandlog_compressor_class,
+                                                    new Object[0], new Class<?>[0]);
+        } else {
+            this.compressor = null;
+        }
+        if (this.useGroupCommit && this.compression != CommandLogCompressionType.SNAPPY) {
+            this.partitionSerializers = new FastSerializer[num_partitions];
+            for (int partition = 0; partition < num_partitions; partition++) {
+                this.partitionSerializers[partition] = new FastSerializer(true, true);
+            } // FOR
+            this.compressionBuffers = new ByteBuffer[num_partitions];
+            this.batchHeader = ByteBuffer.allocateDirect(4);
+            this.writeBuffers = new ByteBuffer[num_partitions + 1];
+        } else {
+            this.partitionSerializers = null;
+            this.compressionBuffers = null;
+            this.batchHeader = null;
+            this.writeBuffers = null;
         }
-        this.fstream = f.getChannel();
         
-        // Write out a header to the file 
-        this.writeHeader();
+        // Segmented log files
+        this.segment_size = (hstore_conf.site.commandlog_segment_size > 0 ?
+                                hstore_conf.site.commandlog_segment_size : 0);
+        // We can't throw away old segments if we're going to replay the log, because
+        // the replay does not load the snapshot that they were truncated at
+        this.useTruncation = (this.segment_size > 0 &&
+                              hstore_conf.site.commandlog_truncate &&
+                              hstore_conf.site.commandlog_replay == false);
+        if (this.segment_size > 0 && hstore_conf.site.commandlog_truncate && this.useTruncation == false) {
+            LOG.warn("Disabling command log truncation because command log replay is enabled");
+        }
+        
+        this.outputFile.getParentFile().mkdirs();
+        if (this.segment_size > 0) {
+            // Remove any segments left over from a previous run so that
+            // they don't get mixed up with the ones that we are about to write 
+            for (File f : getSegmentFiles(this.outputFile)) {
+                if (debug.val) LOG.debug("Removing old command log segment " + f);
+                f.delete();
+            } // FOR
+            this.segmentFile = getSegmentFile(this.outputFile, this.segmentId);
+        } else {
+            this.segmentFile = this.outputFile;
+        }
+        this.openSegment();
         
         // Writer Profiling
         if (hstore_conf.site.commandlog_profiling) {
@@ -272,71 +461,84 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
         this.self = Thread.currentThread();
         this.self.setName(HStoreThreadManager.getThreadName(hstore_site, HStoreConstants.THREAD_NAME_COMMANDLOGGER));
         this.hstore_site.getThreadManager().registerProcessingThread();
-
+        
         this.usePostProcessor = hstore_site.hasTransactionPostProcessors();
         
-        CircularLogEntryBuffer temp[] = null;
-        long next = System.currentTimeMillis() + hstore_conf.site.commandlog_timeout;
+        long lastFlush = System.nanoTime();
         while (this.stop == false) {
-            // Sleep until our timeout period, at which point a 
-            // flush will be initiated
-            try {
-                long sleep = Math.max(0, System.currentTimeMillis() - next);
-                Thread.sleep(sleep);
-            } catch (InterruptedException e) {
-                if (this.stop) break;
-            } finally {
-                next = System.currentTimeMillis() + hstore_conf.site.commandlog_timeout;
-                if (debug.val)
-                    LOG.debug("Group commit timeout occurred, writing buffer to disk.");
-            }
-            
-            // Take all of the writing permits. This will stop any other
-            // thread from appending to the buffer that we're about to swap
-            int free_permits = this.numWritingLocks - this.writingEntry.drainPermits();
-            if (free_permits > 0) {
-                if (trace.val)
-                    LOG.trace("Acquiring " + free_permits + " this.writeEntry permits");
-                do {
-                    try {
-                        writingEntry.acquire(free_permits);
-                    } catch (InterruptedException ex) {
-                        continue;
-                    }
-                    break;
-                } while (this.stop == false);
+            // Figure out whether we need to write out the buffers now or
+            // whether we can go to sleep until the next deadline. 
+            // In the default mode we flush every ${site.commandlog_timeout} ms.
+            // In adaptive mode we flush as soon as we have enough txns or bytes
+            // queued up, or the oldest queued txn has waited long enough.
+            long now = System.nanoTime();
+            long deadline = this.getFlushDeadline(lastFlush);
+            if (this.flushRequested == false && now < deadline && this.hasReachedFlushThreshold() == false) {
+                LockSupport.parkNanos(this, deadline - now);
+                continue;
             }
+            this.flushRequested = false;
+            if (debug.val)
+                LOG.debug(String.format("Group commit triggered [pendingTxns=%d, pendingBytes=%d, timeout=%s]",
+                          this.pendingTxns.get(), this.pendingBytes.get(), (now >= deadline)));
             
-            // At this point we know that nobody else could be writing to the
-            // current buffer for the threads, so it's safe for us to swap it 
-            // with the one that we just wrote out to disk
-            // SYNC POINT: a synchronization point between the thread 
-            // filling the buffer and the writing thread where a full 
-            // buffer is exchanged for an empty one and the full
-            // buffer is written out to disk.
-            temp = this.entries;
-            this.entries = this.entriesFlushing;
-            this.entriesFlushing = temp;
-            assert(this.entries != this.entriesFlushing);
-            
-            // Release our entry permits so that other threads can 
-            // start filling up their Entry buffers
-            if (trace.val) LOG.trace("Releasing writingEntry permits");
-            this.writingEntry.release(this.group_commit_size);
-
             // Write the entries out to disk
+            // We don't need to stop the partitions from adding new entries to 
+            // their buffers. Each buffer only writes out the entries that were 
+            // there at the moment that we started.
             if (debug.val) LOG.debug("Executing group commit");
-            this.flushInProgress.set(true);
-            if (this.groupCommit(this.entriesFlushing) == 0) {
-                next = System.currentTimeMillis() + hstore_conf.site.commandlog_timeout;
-            }
-            this.flushInProgress.lazySet(false);
+            this.flushStarted++;
+            this.groupCommit(this.entries);
+            this.flushFinished++;
+            lastFlush = System.nanoTime();
         } // WHILE
     }
     
+    /**
+     * Return the time (in nanoseconds) that the WriterThread must flush
+     * the entry buffers by. 
+     * @param lastFlush
+     * @return
+     */
+    private long getFlushDeadline(long lastFlush) {
+        if (this.useAdaptiveFlush == false) {
+            return (lastFlush + this.group_commit_timeout);
+        }
+        
+        // The deadline is based on how long the oldest entry has been waiting
+        long oldest = Long.MAX_VALUE;
+        for (CircularLogEntryBuffer buffer : this.entries) {
+            oldest = Math.min(oldest, buffer.getOldestQueuedTime());
+        } // FOR
+        if (oldest == Long.MAX_VALUE) {
+            // There is nothing in the buffers, so we will just sleep until 
+            // somebody wakes us up. The first entry to show up in the buffers
+            // will always wake us up so that we can use its deadline instead.
+            // We still wake up every so often so that we can check whether 
+            // we've been told to stop.
+            return (System.nanoTime() + this.group_commit_timeout);
+        }
+        return (oldest + this.group_commit_timeout);
+    }
+    
+    private boolean hasReachedFlushThreshold() {
+        return (this.useAdaptiveFlush &&
+                (this.pendingTxns.get() >= this.flush_txns ||
+                 this.pendingBytes.get() >= this.flush_bytes));
+    }
+    
+    /**
+     * Wake up the WriterThread if it is sleeping.
+     */
+    private void wakeWriter() {
+        Thread t = this.self;
+        if (t != null) LockSupport.unpark(t);
+    }
+    
     @Override
     public void prepareShutdown(boolean error) {
         this.stop = true;
+        this.wakeWriter();
     }
     
     /**
@@ -344,47 +546,47 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
      * to disk right now. Multiple invocations of this will not be queued 
      */
     protected void flush() throws InterruptedException {
-        // Wait until it starts running
-        while (this.flushInProgress.get() == false) {
-            // this.flushThread.interrupt();
+        // If the WriterThread is in the middle of a flush, then that one might 
+        // not include everything that was queued before we got here. So we 
+        // need to wait until the next one that it starts is finished
+        long last = this.flushStarted;
+        this.flushRequested = true;
+        while (this.flushFinished <= last && this.stop == false) {
+            this.wakeWriter();
             Thread.yield();
         } // WHILE
-        
-        // Then wait until it's done running
-        while (this.flushInProgress.get()) {
-            Thread.yield();
-        }  // WHILE
     }
     
     /**
      * Get the total number of txns that are queued within this object.
-     * <B>Note:</B> This is not thread-safe because the writer thread may swap
-     * the entries in the middle of the count calculation. 
+     * <B>Note:</B> This is not exact because the partitions and the writer thread
+     * may change the entries in the middle of the count calculation. 
      * @return
      */
     public int getTotalTxnCount() {
         int total = 0;
-        for (CircularLogEntryBuffer c : this.entries) {
-            total += c.size();
-        } // FOR
-        for (CircularLogEntryBuffer c : this.entriesFlushing) {
-            total += c.size();
-        } // FOR
+        if (this.entries != null) {
+            for (CircularLogEntryBuffer c : this.entries) {
+                total += c.size();
+            } // FOR
+        }
         return (total);
     }
     
     @Override
     public void shutdown() {
+        this.stop = true;
         if (this.self != null) {
-            this.stop = true;
             while (this.self.isAlive()) {
+                this.wakeWriter();
                 Thread.yield();
             } // WHILE
         
             if (debug.val) {
                 Map<String, Object> m = new LinkedHashMap<String, Object>();
                 m.put("Current Buffer", StringUtil.join("\n", this.entries));
-                m.put("Flushing Buffer", StringUtil.join("\n", this.entriesFlushing));
+                m.put("Pending Txns", this.pendingTxns.get());
+                m.put("Pending Bytes", this.pendingBytes.get());
                 LOG.debug("Closing WAL file\n" + StringUtil.formatMaps(m).trim());
             }
         }
@@ -410,6 +612,7 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
         assert(this.singletonSerializer != null);
         try {
             this.singletonSerializer.clear();
+            this.singletonSerializer.writeByte(HEADER_VERSION);
             this.singletonSerializer.writeBoolean(this.group_commit_size > 0);//Using group commit
             this.singletonSerializer.writeInt(this.catalogContext.procedures.size());
             for (Procedure catalog_proc : this.catalogContext.procedures.values()) {
@@ -417,6 +620,10 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
                 this.singletonSerializer.writeInt(procId);
                 this.singletonSerializer.writeString(catalog_proc.getName());
             } // FOR
+            this.singletonSerializer.writeByte(this.compression.ordinal());
+            if (this.compressor != null) {
+                this.singletonSerializer.writeString(this.compressor.getClass().getName());
+            }
             
             BBContainer b = this.singletonSerializer.getBBContainer();
             this.fstream.write(b.b.asReadOnlyBuffer());
@@ -429,6 +636,121 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
         return (true);
     }
     
+    // ----------------------------------------------------------------------------
+    // LOG SEGMENTS
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * Returns the File for the segment with the given id 
+     * @param outputFile
+     * @param segmentId
+     * @return
+     */
+    public static File getSegmentFile(File outputFile, int segmentId) {
+        return new File(outputFile.getPath() + String.format(SEGMENT_SUFFIX_FORMAT, segmentId));
+    }
+    
+    /**
+     * Returns all of the segment files that exist on disk for the given
+     * output file, sorted in the order that they were written.
+     * @param outputFile
+     * @return
+     */
+    public static List<File> getSegmentFiles(File outputFile) {
+        List<File> segments = new ArrayList<File>();
+        File dir = outputFile.getAbsoluteFile().getParentFile();
+        File files[] = (dir != null ? dir.listFiles() : null);
+        if (files == null) return (segments);
+        
+        String prefix = outputFile.getName() + ".";
+        for (File f : files) {
+            String name = f.getName();
+            if (name.startsWith(prefix) == false) continue;
+            String suffix = name.substring(prefix.length());
+            if (suffix.isEmpty() || suffix.matches("[0-9]+") == false) continue;
+            segments.add(f);
+        } // FOR
+        // The segment ids are zero-padded, so we can just sort them by name
+        File sorted[] = segments.toArray(new File[segments.size()]);
+        Arrays.sort(sorted);
+        return (Arrays.asList(sorted));
+    }
+    
+    /**
+     * Open the current segment file and write out the header 
+     */
+    private void openSegment() {
+        FileOutputStream f = null;
+        try {
+            LOG.info("Command Log File: " + this.segmentFile.getAbsolutePath());
+            this.segmentFile.createNewFile();
+            f = new FileOutputStream(this.segmentFile, false);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        this.fstream = f.getChannel();
+        this.segmentLastTxnId = -1;
+        
+        // Write out a header to the file 
+        this.writeHeader();
+    }
+    
+    /**
+     * Check whether the current segment file has grown past the max segment size.
+     * If it has, then we will close it and start writing to a new one.
+     * This should only be called by the thread that is writing to the log.
+     * @param lastTxnId The largest txn id that was just written out
+     */
+    private void checkSegment(long lastTxnId) {
+        this.segmentLastTxnId = Math.max(this.segmentLastTxnId, lastTxnId);
+        if (this.segment_size <= 0) return;
+        
+        try {
+            if (this.fstream.position() < this.segment_size) return;
+            this.fstream.close();
+        } catch (IOException ex) {
+            String message = "Failed to close command log segment " + this.segmentFile;
+            throw new ServerFaultException(message, ex);
+        }
+        LogSegment closed = new LogSegment(this.segmentFile, this.segmentLastTxnId);
+        if (debug.val) LOG.debug("Closed command log segment " + closed);
+        synchronized (this.closedSegments) {
+            this.closedSegments.addLast(closed);
+        } // SYNCH
+        
+        this.segmentFile = getSegmentFile(this.outputFile, ++this.segmentId);
+        this.openSegment();
+    }
+    
+    /**
+     * Notify the CommandLogWriter that a snapshot was successfully taken by the 
+     * txn with the given id. Any closed segment that only contains txns that came
+     * before that txn is no longer needed for recovery, so we will delete it.
+     * @param txnId
+     * @return The number of segments that were deleted
+     */
+    public int snapshotCompleted(long txnId) {
+        if (this.useTruncation == false) return (0);
+        
+        int deleted = 0;
+        synchronized (this.closedSegments) {
+            while (this.closedSegments.isEmpty() == false) {
+                LogSegment segment = this.closedSegments.peekFirst();
+                if (segment.lastTxnId >= txnId) break;
+                this.closedSegments.removeFirst();
+                if (segment.file.delete()) {
+                    if (debug.val)
+                        LOG.debug(String.format("Deleted command log segment %s [snapshotTxnId=%d]",
+                                  segment, txnId));
+                    deleted++;
+                } else {
+                    LOG.warn("Failed to delete command log segment " + segment.file);
+                }
+            } // WHILE
+        } // SYNCH
+        return (deleted);
+    }
+    
     /**
      * GroupCommits the given buffer set all at once
      * @param eb
@@ -439,19 +761,33 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
             this.profiler.writingTime.start();
         }
         
-        // Write all to a single FastSerializer buffer
+        // Write all to a single FastSerializer buffer, unless we are using
+        // the direct buffer write path. Then each partition gets its own buffer
+        // that starts with a placeholder for its length.
+        final boolean useDirect = (this.compression != CommandLogCompressionType.SNAPPY);
         this.singletonSerializer.clear();
         int txnCounter = 0;
+        long byteCounter = 0;
+        long lastTxnId = -1;
         for (int i = 0; i < eb.length; i++) {
             try {
-                assert(this.singletonSerializer != null);
+                FastSerializer fs = this.singletonSerializer;
+                if (useDirect) {
+                    fs = this.partitionSerializers[i];
+                    fs.clear();
+                    fs.writeInt(0);
+                }
+                assert(fs != null);
                 int size = eb[i].buffer.length;
                 int position = eb[i].startPos;
-                while (position != eb[i].nextPos) {
+                int end = eb[i].prepareFlush();
+                for (int j = 0; j < end; j++) {
                     WriterLogEntry entry = eb[i].buffer[position++];
                     try {
-                        this.singletonSerializer.writeObject(entry);
+                        fs.writeObject(entry);
                         txnCounter++;
+                        byteCounter += entry.estimatedSize;
+                        lastTxnId = Math.max(lastTxnId, entry.getTransactionId().longValue());
                     } catch (Throwable ex) {
                         LOG.warn("Failed to write log entry", ex);
                     }
@@ -459,7 +795,7 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
                         LOG.debug(String.format("Prepared txn #%d for group commit batch #%d",
                                   entry.getTransactionId(), this.commitBatchCounter));
                     if (position >= size) position = 0;
-                } // WHILE
+                } // FOR
             } catch (Exception e) {
                 String message = "Failed to serialize buffer during group commit";
                 throw new ServerFaultException(message, e);
@@ -472,24 +808,28 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
         }
         
         // Compress and force out to disk
-        ByteBuffer compressed;
-        try {
-            compressed = CompressionService.compressBufferForMessaging(this.singletonSerializer.getBBContainer().b);
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to compress WAL buffer");
-        }
-        
-        if (debug.val)
-            LOG.debug(String.format("Writing out %d bytes for %d txns [batchCtr=%d]",
-                      compressed.limit(), txnCounter, this.commitBatchCounter)); 
         try {
-            this.fstream.write(compressed);
+            if (useDirect) {
+                this.writeDirect(eb);
+            } else {
+                ByteBuffer compressed = null;
+                try {
+                    compressed = CompressionService.compressBufferForMessaging(this.singletonSerializer.getBBContainer().b);
+                } catch (IOException e) {
+                    throw new RuntimeException("Failed to compress WAL buffer");
+                }
+                if (debug.val)
+                    LOG.debug(String.format("Writing out %d bytes for %d txns [batchCtr=%d]",
+                              compressed.limit(), txnCounter, this.commitBatchCounter)); 
+                this.fstream.write(compressed);
+            }
             this.fstream.force(true);
         } catch (IOException ex) {
             ex.printStackTrace();
             String message = "Failed to group commit for buffer";
             throw new ServerFaultException(message, ex);
         }
+        this.checkSegment(lastTxnId);
         if (hstore_conf.site.commandlog_profiling && profiler != null) 
             ProfileMeasurementUtil.swap(profiler.writingTime, profiler.networkTime);
         try {
@@ -497,7 +837,7 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
             for (int i = 0; i < eb.length; i++) {
                 CircularLogEntryBuffer buffer = eb[i];
                 int start = buffer.getStart();
-                for (int j = 0, size = buffer.size(); j < size; j++) {
+                for (int j = 0, size = buffer.getFlushSize(); j < size; j++) {
                     WriterLogEntry entry = buffer.buffer[(start + j) % buffer.buffer.length];
                     if (entry.isInitialized()) {
                         if (this.usePostProcessor) {
@@ -521,10 +861,91 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
         } finally {
             if (hstore_conf.site.commandlog_profiling && profiler != null) profiler.networkTime.stop();
         }
+        this.pendingTxns.addAndGet(-txnCounter);
+        this.pendingBytes.addAndGet(-byteCounter);
         this.commitBatchCounter++;
         return (txnCounter);
     }
     
+    /**
+     * Write out the partitions' direct buffers for the current group commit
+     * using a single gathering write. The batch starts with its total length
+     * followed by each partition's chunk, which is prefixed by its own length.
+     * If we are using CHUNKED compression, then each chunk is compressed from its 
+     * direct buffer into another direct buffer by our CommandLogCompressor
+     * before we write it out.
+     * @param eb
+     * @throws IOException
+     */
+    private void writeDirect(CircularLogEntryBuffer[] eb) throws IOException {
+        int num_buffers = 0;
+        int total = 0;
+        this.writeBuffers[num_buffers++] = this.batchHeader;
+        for (int i = 0; i < eb.length; i++) {
+            if (eb[i].getFlushSize() == 0) continue;
+            
+            ByteBuffer chunk = this.partitionSerializers[i].getBBContainer().b;
+            if (this.compressor != null) {
+                chunk.position(4);
+                int max_size = 4 + this.compressor.maxCompressedLength(chunk.remaining());
+                ByteBuffer output = this.compressionBuffers[i];
+                if (output == null || output.capacity() < max_size) {
+                    int capacity = Math.max(max_size, (output != null ? output.capacity() * 2 : 0));
+                    output = ByteBuffer.allocateDirect(capacity);
+                    this.compressionBuffers[i] = output;
+                }
+                output.clear();
+                output.position(4);
+                int compressedSize = this.compressor.compress(chunk, output);
+                output.limit(4 + compressedSize);
+                output.position(0);
+                chunk = output;
+            }
+            chunk.putInt(0, chunk.limit() - 4);
+            total += chunk.limit();
+            this.writeBuffers[num_buffers++] = chunk;
+        } // FOR
+        this.batchHeader.clear();
+        this.batchHeader.putInt(0, total);
+        
+        if (debug.val)
+            LOG.debug(String.format("Writing out %d bytes in %d chunks using %s compression [batchCtr=%d]",
+                      total, num_buffers - 1, this.compression, this.commitBatchCounter));
+        long remaining = total + 4;
+        while (remaining > 0) {
+            remaining -= this.fstream.write(this.writeBuffers, 0, num_buffers);
+        } // WHILE
+    }
+    
+    /**
+     * Returns a rough estimate of the number of bytes that the given
+     * ParameterSet will take up once it is serialized in a LogEntry.
+     * This is only used to decide when to trigger a group commit, so it
+     * does not need to be exact.
+     * @param params
+     * @return
+     */
+    protected static int estimateSize(ParameterSet params) {
+        // txnId + timestamp + procId + single-partition flag + number of parameters
+        int size = 8 + 8 + 4 + 1 + 2;
+        if (params == null) return (size);
+        for (Object obj : params.toArray()) {
+            size += 1;
+            if (obj == null) {
+                continue;
+            } else if (obj instanceof String) {
+                size += 4 + ((String)obj).length();
+            } else if (obj instanceof byte[]) {
+                size += 4 + ((byte[])obj).length;
+            } else if (obj.getClass().isArray()) {
+                size += 3 + (Array.getLength(obj) * 8);
+            } else {
+                size += 8;
+            }
+        } // FOR
+        return (size);
+    }
+    
     /**
      * Write a completed transaction handle out to the WAL file.
      * Returns true if the entry has been successfully written to disk and
@@ -534,7 +955,7 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
      */
     public boolean appendToLog(final LocalTransaction ts, final ClientResponseImpl cresponse) {
         boolean sendResponse = true;
-
+        
         // -------------------------------
         // QUEUE FOR GROUP COMMIT
         // -------------------------------
@@ -545,32 +966,35 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
             int basePartition = ts.getBasePartition();
             assert(this.hstore_site.isLocalPartition(basePartition));
             int offset = this.hstore_site.getLocalPartitionOffset(basePartition);
-
+            
             // get the buffer for the partition of the current transaction
             CircularLogEntryBuffer buffer = this.entries[offset];
             assert(buffer != null) : "Missing log entry buffer for partition " + basePartition;
-            try {
-                // acquire semaphore permit to write a transaction to the log
-                // buffer will wait if buffer is currently being swapped
-                this.writingEntry.acquire();
-
-                // create an entry for this transaction in the buffer for this partition
-                // NOTE: this is guaranteed to be thread-safe because there is
-                // only one thread per partition
-                LogEntry entry = buffer.next(ts, cresponse);
-                assert(entry != null);
-                if (trace.val)
-                    LOG.trace(String.format("New %s %s from %s for partition %d",
-                              entry.getClass().getSimpleName(),
-                              entry, buffer, basePartition));
-
-                this.writingEntry.release();
-            } catch (InterruptedException e) {
-                throw new RuntimeException("Unexpected interruption while waiting for WriterThread to finish");
-            } finally {
-                if (hstore_conf.site.commandlog_profiling && profiler != null) profiler.blockedTime.stopIfStarted();
+            
+            // create an entry for this transaction in the buffer for this partition
+            // NOTE: this is guaranteed to be thread-safe because there is
+            // only one thread per partition. We never have to wait for the 
+            // WriterThread unless our buffer is full.
+            WriterLogEntry entry = buffer.next(ts, cresponse);
+            assert(entry != null);
+            if (trace.val)
+                LOG.trace(String.format("New %s %s from %s for partition %d",
+                          entry.getClass().getSimpleName(),
+                          entry, buffer, basePartition));
+            
+            int txns = this.pendingTxns.incrementAndGet();
+            if (this.useAdaptiveFlush) {
+                long bytes = this.pendingBytes.addAndGet(entry.estimatedSize);
+                // If the buffers were empty, then the WriterThread is sleeping until a 
+                // deadline that isn't based on this entry. We need to wake it up so that 
+                // it can figure out when this entry has to be written out by.
+                if (txns == 1 || txns >= this.flush_txns || bytes >= this.flush_bytes) {
+                    if (debug.val)
+                        LOG.debug(String.format("Waking up WriterThread [pendingTxns=%d, pendingBytes=%d]", txns, bytes));
+                    this.wakeWriter();
+                }
             }
-
+            
             if (trace.val)
                 LOG.trace(ts + " - Finished queuing txn to write out to command log");
             
@@ -596,6 +1020,7 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
                 String message = "Failed to write single log entry for " + ts.toString();
                 throw new ServerFaultException(message, e, ts.getTransactionId());
             }
+            this.checkSegment(ts.getTransactionId().longValue());
         }
         
         return (sendResponse);
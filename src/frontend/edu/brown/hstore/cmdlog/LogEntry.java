@@ -47,6 +47,7 @@ public class LogEntry implements FastSerializable, Poolable {
     private Long txnId;
     private long timestamp;
     private int procId;
+    private boolean singlePartition;
     private ParameterSet procParams;
     
     /**
@@ -59,6 +60,7 @@ public class LogEntry implements FastSerializable, Poolable {
     public LogEntry init(LocalTransaction ts) {
         this.txnId = ts.getTransactionId();
         this.procId = ts.getProcedure().getId();
+        this.singlePartition = ts.isPredictSinglePartition();
         this.procParams = ts.getProcedureParameters();
         assert(this.isInitialized()) : 
             "Unexpected uninitialized " + this.getClass().getSimpleName();
@@ -74,6 +76,15 @@ public class LogEntry implements FastSerializable, Poolable {
     public int getProcedureId() {
         return procId;
     }
+    /**
+     * Returns true if this txn only executed at its base partition.
+     * This is always false for entries from logs that were written before
+     * we started recording it.
+     * @return
+     */
+    public boolean isSinglePartition() {
+        return singlePartition;
+    }
     public ParameterSet getProcedureParams() {
         return procParams;
     }
@@ -88,14 +99,26 @@ public class LogEntry implements FastSerializable, Poolable {
         this.txnId = null;
         this.timestamp = -1;
         this.procId = -1;
+        this.singlePartition = false;
         this.procParams = null;
     }
 
     @Override
     public void readExternal(FastDeserializer in) throws IOException {
+        this.readExternal(in, CommandLogWriter.HEADER_VERSION);
+    }
+    
+    /**
+     * Deserialize an entry from a log with the given header version
+     * @param in
+     * @param version
+     * @throws IOException
+     */
+    public void readExternal(FastDeserializer in, int version) throws IOException {
         this.txnId = Long.valueOf(in.readLong());
         this.timestamp = in.readLong();
         this.procId = in.readInt();
+        this.singlePartition = (version >= 3 ? in.readBoolean() : false);
         this.procParams = in.readObject(ParameterSet.class);
     }
 
@@ -106,6 +129,7 @@ public class LogEntry implements FastSerializable, Poolable {
         out.writeLong(this.txnId.longValue());
         out.writeLong(EstTime.currentTimeMillis());
         out.writeInt(this.procId);
+        out.writeBoolean(this.singlePartition);
         out.writeObject(this.procParams);
     }
     
@@ -0,0 +1,54 @@
+/***************************************************************************
+ *   Copyright (C) 2011 by H-Store Project                                 *
+ *   Brown University                                                      *
+ *   Massachusetts Institute of Technology                                 *
+ *   Yale University                                                       *
+ *                                                                         *
+ *   Permission is hereby granted, free of charge, to any person obtaining *
+ *   a copy of this software and associated documentation files (the       *
+ *   "Software"), to deal in the Software without restriction, including   *
+ *   without limitation the rights to use, copy, modify, merge, publish,   *
+ *   distribute, sublicense, and/or sell copies of the Software, and to    *
+ *   permit persons to whom the Software is furnished to do so, subject to *
+ *   the following conditions:                                             *
+ *                                                                         *
+ *   The above copyright notice and this permission notice shall be        *
+ *   included in all copies or substantial portions of the Software.       *
+ *                                                                         *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,       *
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF    *
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.*
+ *   IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR     *
+ *   OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, *
+ *   ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR *
+ *   OTHER DEALINGS IN THE SOFTWARE.                                       *
+ ***************************************************************************/
+
+package edu.brown.hstore.cmdlog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.voltdb.utils.CompressionService;
+
+/**
+ * The default CommandLogCompressor that uses Snappy
+ */
+public class SnappyCommandLogCompressor implements CommandLogCompressor {
+
+    @Override
+    public int maxCompressedLength(int length) {
+        return (CompressionService.maxCompressedLength(length));
+    }
+
+    @Override
+    public int compress(ByteBuffer input, ByteBuffer output) throws IOException {
+        return (CompressionService.compressBuffer(input, output));
+    }
+
+    @Override
+    public byte[] decompress(byte data[]) throws IOException {
+        return (CompressionService.decompressBytes(data));
+    }
+    
+}
@@ -115,6 +115,15 @@ public final class HStoreConf {
         )
         public String hasher_plan;
         
+        @ConfigProperty(
+            description="The number of values whose partitions are remembered by the HashCache " +
+                        "that is used by the CachedHasher. The cache is shared by all of the " +
+                        "threads at a site.",
+            defaultInt=8192,
+            experimental=true
+        )
+        public int hasher_cache_size;
+        
         @ConfigProperty(
             description="How often in milliseconds the log4j refresh thread will check to see " +
                         "whether the log4j.properties file has changed. We have to do this manually " +
@@ -408,6 +417,18 @@ public final class HStoreConf {
             experimental=false
         )
         public boolean exec_early_prepare;
+        
+        @ConfigProperty(
+            description="If this parameter is enabled, then the results of the last SQLStmt batch of a " +
+                        "transaction will be returned to the stored procedure as read-only views over the " +
+                        "ExecutionEngine's result buffer instead of being copied out of it first, as long as " +
+                        "every query in that batch executes at the transaction's base partition. This " +
+                        "applies to both single-partition and distributed transactions. Any of these " +
+                        "VoltTables that are returned to the client are copied when the procedure finishes.",
+            defaultBoolean=true,
+            experimental=false
+        )
+        public boolean exec_ee_result_views;
 
         @ConfigProperty(
             description="Setting this configuration parameter to true allows clients to " +
@@ -488,12 +509,25 @@ public final class HStoreConf {
         public String specexec_scheduler_policy;
 
         @ConfigProperty(
-            description="The window size to pick up txn to run speculatively. ",
+            description="The window size to pick up txn to run speculatively. This is the maximum " +
+                        "number of candidates that the SpecExecScheduler will examine for each stall point, " +
+                        "including the ones that conflict with the distributed txn.",
             defaultInt= 10,
             experimental=false
         )
         public int specexec_scheduler_window;
         
+        @ConfigProperty(
+            description="If this parameter is true, then each partition's lock queue will keep an index " +
+                        "of its speculative candidates grouped by their Procedure. The SpecExecScheduler " +
+                        "will use this index with the FIRST policy when the ConflictChecker's decisions " +
+                        "only depend on the candidate's Procedure so that it only has to check the oldest " +
+                        "txn per Procedure instead of scanning the queue.",
+            defaultBoolean=true,
+            experimental=false
+        )
+        public boolean specexec_scheduler_index;
+        
         @ConfigProperty(
             description="If this parameter is true, then the SpecExecScheduler will not attempt to " +
                         "speculatively execute any transactions if the current distributed transaction " +
@@ -550,6 +584,44 @@ public final class HStoreConf {
         )
         public int specexec_unsafe_limit;
         
+        @ConfigProperty(
+            description="If enabled, then the SpecExecScheduler will keep track of how many speculative " +
+                        "txns at each stall point are committed versus rolled back because their dtxn " +
+                        "aborted. Every ${site.specexec_adaptive_interval} outcomes, it will halve the " +
+                        "window for a stall point whose success ratio is below " +
+                        "${site.specexec_adaptive_min_success} (or stop speculating there for " +
+                        "${site.specexec_adaptive_cooldown} ms once the window is one) and double it " +
+                        "(up to ${site.specexec_scheduler_window}) when the ratio is high again.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean specexec_adaptive;
+        
+        @ConfigProperty(
+            description="The number of speculative txn outcomes per stall point between adjustments " +
+                        "when ${site.specexec_adaptive} is enabled.",
+            defaultInt=100,
+            experimental=true
+        )
+        public int specexec_adaptive_interval;
+        
+        @ConfigProperty(
+            description="The ratio of committed speculative txns (0.0 - 1.0) below which the " +
+                        "SpecExecScheduler will back off at a stall point when ${site.specexec_adaptive} " +
+                        "is enabled.",
+            defaultDouble=0.5,
+            experimental=true
+        )
+        public double specexec_adaptive_min_success;
+        
+        @ConfigProperty(
+            description="How long (in milliseconds) the SpecExecScheduler will stop speculating at a stall " +
+                        "point after it has backed off completely when ${site.specexec_adaptive} is enabled.",
+            defaultInt=10000,
+            experimental=true
+        )
+        public int specexec_adaptive_cooldown;
+        
         @ConfigProperty(
             description="If enabled, then the SpecExecScheduler will keep track of various internal " +
                         "profile statistics. " +
@@ -595,12 +667,92 @@ public final class HStoreConf {
         public String commandlog_dir;
         
         @ConfigProperty(
-            description="Timeout in milliseconds before group commit buffer flushes, if it does not fill",
+            description="Timeout in milliseconds before group commit buffer flushes, if it does not fill. " +
+                        "If ${site.commandlog_adaptive} is enabled, then this is the longest amount of time " +
+                        "that a txn will wait in the group commit buffer before it is written out.",
             defaultInt=10,
             experimental=true
         )
         public int commandlog_timeout;
         
+        @ConfigProperty(
+            description="If enabled, then the CommandLogWriter will flush the group commit buffer as soon as " +
+                        "it has ${site.commandlog_flush_txns} txns or ${site.commandlog_flush_bytes} bytes " +
+                        "queued up, or when the oldest txn in the buffer has waited for " +
+                        "${site.commandlog_timeout} ms, whichever comes first.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean commandlog_adaptive;
+        
+        @ConfigProperty(
+            description="The number of queued txns that will cause the CommandLogWriter to flush " +
+                        "its group commit buffer when ${site.commandlog_adaptive} is enabled. " +
+                        "Set to -1 to disable this threshold.",
+            defaultInt=1000,
+            experimental=true
+        )
+        public int commandlog_flush_txns;
+        
+        @ConfigProperty(
+            description="The estimated number of queued bytes that will cause the CommandLogWriter to flush " +
+                        "its group commit buffer when ${site.commandlog_adaptive} is enabled. " +
+                        "Set to -1 to disable this threshold.",
+            defaultInt=1048576,
+            experimental=true
+        )
+        public int commandlog_flush_bytes;
+        
+        @ConfigProperty(
+            description="How the CommandLogWriter will compress the group commit batches before writing " +
+                        "them out to disk. The NONE and CHUNKED options serialize each partition's entries " +
+                        "into separate direct buffers and write them out with a single gathering write.",
+            defaultString="SNAPPY",
+            experimental=true,
+            enumOptions="org.voltdb.types.CommandLogCompressionType"
+        )
+        public String commandlog_compression;
+        
+        @ConfigProperty(
+            description="The name of the CommandLogCompressor class that the CommandLogWriter will use " +
+                        "to compress each partition's entries when ${site.commandlog_compression} is " +
+                        "set to CHUNKED. The class name is stored in the log header so that the log " +
+                        "can be read back with the same compressor.",
+            defaultString="edu.brown.hstore.cmdlog.SnappyCommandLogCompressor",
+            experimental=true
+        )
+        public String commandlog_compressor_class;
+        
+        @ConfigProperty(
+            description="The size in bytes of each command log segment file. Once the current segment " +
+                        "grows past this size, the CommandLogWriter will close it and start writing to " +
+                        "a new segment. Set to -1 to write everything out to a single file.",
+            defaultInt=-1,
+            experimental=true
+        )
+        public int commandlog_segment_size;
+        
+        @ConfigProperty(
+            description="If enabled along with ${site.commandlog_segment_size}, then the CommandLogWriter " +
+                        "will delete closed segments once a snapshot has been taken that covers all of " +
+                        "the txns in them. This is ignored if ${site.commandlog_replay} is enabled, because " +
+                        "the replay does not load the snapshot before it re-executes the rest of the log.",
+            defaultBoolean=true,
+            experimental=true
+        )
+        public boolean commandlog_truncate;
+        
+        @ConfigProperty(
+            description="If enabled along with ${site.commandlog_enable}, then when the HStoreSite starts up " +
+                        "it will replay the txns in the command log left behind by the previous run before it " +
+                        "starts accepting new requests. The old log is deleted once all of its txns have been " +
+                        "replayed and written out to the new log. The HStoreSite will not start if the old log " +
+                        "was truncated by ${site.commandlog_truncate}.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean commandlog_replay;
+        
         @ConfigProperty(
             description="If enabled, then the CommandLogWriter will keep track of various internal " +
                         "profile statistics.",
@@ -1000,6 +1152,45 @@ public final class HStoreConf {
         )
         public boolean markov_learning_enable;
         
+        @ConfigProperty(
+            description="If this parameter is set to true, then the MarkovPathEstimator will estimate " +
+                        "transaction paths using an array-based copy of each MarkovGraph instead of " +
+                        "traversing the graph itself. The copy is rebuilt in a background thread whenever " +
+                        "the graph changes, and the estimator falls back to the graph until the new copy is " +
+                        "ready. This is ignored if ${site.markov_learning_enable} is set to true.",
+            defaultBoolean=true,
+            experimental=true
+        )
+        public boolean markov_compiled_graphs;
+        
+        @ConfigProperty(
+            description="If this parameter is set to true, then the MarkovEstimator will not modify " +
+                        "the MarkovGraphs when a transaction executes queries or finishes. Instead, it will " +
+                        "append the path that the transaction took to a ring buffer that a separate thread " +
+                        "uses to update the graphs and publish new versions of them. If the buffer is full, " +
+                        "then the path is discarded. This should be used with ${site.markov_compiled_graphs}.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean markov_async_updates;
+        
+        @ConfigProperty(
+            description="The number of transaction paths that each partition's ring buffer can hold " +
+                        "when ${site.markov_async_updates} is enabled.",
+            defaultInt=1024,
+            experimental=true
+        )
+        public int markov_async_buffer_size;
+        
+        @ConfigProperty(
+            description="The number of transaction paths that the background thread will apply to a " +
+                        "MarkovGraph before it recomputes that graph's probabilities when " +
+                        "${site.markov_async_updates} is enabled. Set this to zero to never recompute.",
+            defaultInt=1000,
+            experimental=true
+        )
+        public int markov_async_recompute_interval;
+        
         @ConfigProperty(
             description="If this parameter is set to true, then the PartitionExecutor will use its " +
                         "TransactionEstimator to calculate updated estimates after a single-partition " +
@@ -26,6 +26,7 @@ import edu.brown.hstore.txns.TransactionUtil;
 import edu.brown.interfaces.DebugContext;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.markov.CompiledMarkovGraph;
 import edu.brown.markov.MarkovEdge;
 import edu.brown.markov.MarkovGraph;
 import edu.brown.markov.MarkovGraphTimes;
@@ -99,6 +100,12 @@ public class MarkovEstimator extends TransactionEstimator {
     
     private final MarkovEstimatorProfiler profiler;
     
+    /**
+     * If this is not null, then we will pass the paths of txns to the MarkovGraphUpdater
+     * instead of modifying the MarkovGraphs ourselves.
+     */
+    private final MarkovGraphUpdater.Buffer updateBuffer;
+    
     // ----------------------------------------------------------------------------
     // CONSTRUCTORS
     // ----------------------------------------------------------------------------
@@ -141,6 +148,13 @@ public class MarkovEstimator extends TransactionEstimator {
         } else {
             this.profiler = null;
         }
+        
+        if (hstore_conf.site.markov_async_updates) {
+            MarkovGraphUpdater updater = MarkovGraphUpdater.singleton(this.catalogContext.getAllPartitionIds());
+            this.updateBuffer = updater.createBuffer(hstore_conf.site.markov_async_buffer_size);
+        } else {
+            this.updateBuffer = null;
+        }
     }
 
     // ----------------------------------------------------------------------------
@@ -187,6 +201,9 @@ public class MarkovEstimator extends TransactionEstimator {
             if (this.profiler != null) this.profiler.start_time.appendTime(timestamp);
             return (null);
         }
+        if (this.updateBuffer != null && markov.isBackgroundUpdates() == false) {
+            markov.setBackgroundUpdates(true);
+        }
         
         if (trace.val)
             LOG.trace(String.format("%s - Creating new MarkovEstimatorState",
@@ -327,6 +344,7 @@ public class MarkovEstimator extends TransactionEstimator {
         // Roll through the Statements in this batch and move the current vertex
         // for the txn's State handle along the path in the MarkovGraph
         if (next_v == null) {
+            int num_edges = state.actual_path_edges.size();
             for (int i = 0; i < batch_size; i++) {
                 int queryCount = (stmt_idxs != null ? stmt_idxs[i] : -1);
                 this.consume(state, markov, catalog_stmts[i], partitions[i], queryCount);
@@ -334,7 +352,10 @@ public class MarkovEstimator extends TransactionEstimator {
             } // FOR
             
             // Update our cache if we tried and failed before
-            if (hstore_conf.site.markov_endpoint_caching && stmt_idxs != null) {
+            // If we had to make any new vertices that aren't in the graph yet, then
+            // we don't have an edge to the last one and we can't cache it
+            if (hstore_conf.site.markov_endpoint_caching && stmt_idxs != null &&
+                    state.actual_path_edges.size() - num_edges == batch_size) {
                 if (debug.val)
                     LOG.debug(String.format("Updating cache batch end for %s: %s -> %s",
                               markov, current, state.getCurrent()));
@@ -367,7 +388,8 @@ public class MarkovEstimator extends TransactionEstimator {
         
         // Once the workload shifts we detect it and trigger this method. Recomputes
         // the graph with the data we collected with the current workload method.
-        if (this.enable_recomputes && markov.shouldRecompute(this.txn_count.get(), RECOMPUTE_TOLERANCE)) {
+        if (this.enable_recomputes && this.updateBuffer == null &&
+                markov.shouldRecompute(this.txn_count.get(), RECOMPUTE_TOLERANCE)) {
             markov.calculateProbabilities(catalogContext.getAllPartitionIds());
         }
         
@@ -418,18 +440,27 @@ public class MarkovEstimator extends TransactionEstimator {
                 return;
             }
             
-            // If no edge exists to the next vertex, then we need to create one
-            MarkovEdge next_e = null;
-            synchronized (next_v) {
-                next_e = markov.addToEdge(current, next_v);
-            } // SYNCH
-            state.setCurrent(next_v, next_e); // For post-txn processing...
-    
-            // Update counters
-            // We want to update the counters for the entire path right here so that
-            // nobody gets incomplete numbers if they recompute probabilities
-            for (MarkovVertex v : state.actual_path) v.incrementInstanceHits();
-            for (MarkovEdge e : state.actual_path_edges) e.incrementInstanceHits();
+            // Let the MarkovGraphUpdater add the path to the graph for us
+            if (this.updateBuffer != null) {
+                state.setCurrent(next_v, null); // For post-txn processing...
+                if (this.updateBuffer.offer(markov, state.actual_path, status) == false && debug.val) {
+                    LOG.debug(String.format("Dropped path for txn #%d because the update buffer is full", txn_id));
+                }
+            }
+            else {
+                // If no edge exists to the next vertex, then we need to create one
+                MarkovEdge next_e = null;
+                synchronized (next_v) {
+                    next_e = markov.addToEdge(current, next_v);
+                } // SYNCH
+                state.setCurrent(next_v, next_e); // For post-txn processing...
+        
+                // Update counters
+                // We want to update the counters for the entire path right here so that
+                // nobody gets incomplete numbers if they recompute probabilities
+                for (MarkovVertex v : state.actual_path) v.incrementInstanceHits();
+                for (MarkovEdge e : state.actual_path_edges) e.incrementInstanceHits();
+            }
             if (this.enable_recomputes) {
                 this.markovTimes.addInstanceTime(next_v, txn_id, state.getExecutionTimeOffset(end_time));
             }
@@ -498,6 +529,9 @@ public class MarkovEstimator extends TransactionEstimator {
                           TransactionUtil.formatTxnName(catalog_proc, state.getTransactionId()),
                           state.hashCode(), state);
         boolean compute_path = true;
+        // If the MarkovGraphUpdater is changing the graph, then we have to use the
+        // probabilities from the last version that it published
+        CompiledMarkovGraph compiled = (markov.isBackgroundUpdates() ? markov.getCompiledGraph() : null);
         if (hstore_conf.site.markov_fast_path && currentVertex.isStartVertex() == false) {
             List<MarkovVertex> initialPath = ((MarkovEstimate)state.getInitialEstimate()).getMarkovPath();
             if (initialPath.contains(currentVertex)) {
@@ -506,7 +540,7 @@ public class MarkovEstimator extends TransactionEstimator {
                               TransactionUtil.formatTxnName(catalog_proc, state.getTransactionId()), markov, markov.getGraphId()));
                 if (this.profiler != null) timestamp = ProfileMeasurement.getTime();
                 try {
-                    MarkovPathEstimator.fastEstimation(est, initialPath, currentVertex);
+                    MarkovPathEstimator.fastEstimation(est, initialPath, currentVertex, compiled);
                     compute_path = false;
                 } finally {
                     if (this.profiler != null) this.profiler.fastest_time.appendTime(timestamp);
@@ -538,7 +572,7 @@ public class MarkovEstimator extends TransactionEstimator {
                               markov, markov.getGraphId()));
                 if (this.profiler != null) timestamp = ProfileMeasurement.getTime();
                 try {
-                    MarkovPathEstimator.fastEstimation(est, cached, currentVertex);
+                    MarkovPathEstimator.fastEstimation(est, cached, currentVertex, compiled);
                     compute_path = false;
                 } finally {
                     if (this.profiler != null) this.profiler.cachedest_time.appendTime(timestamp);
@@ -559,7 +593,8 @@ public class MarkovEstimator extends TransactionEstimator {
                 pathEstimator.init(state.getMarkovGraph(), est, args, state.getBasePartition());
                 
                 pathEstimator.setForceTraversal(hstore_conf.site.markov_force_traversal);
-                pathEstimator.setLearningEnabled(hstore_conf.site.markov_learning_enable);
+                pathEstimator.setLearningEnabled(hstore_conf.site.markov_learning_enable && this.updateBuffer == null);
+                pathEstimator.setCompiledEnabled(hstore_conf.site.markov_compiled_graphs);
             } catch (Throwable ex) {
                 String txnName = TransactionUtil.formatTxnName(catalog_proc, state.getTransactionId());
                 String msg = "Failed to intitialize new MarkovPathEstimator for " + txnName; 
@@ -569,7 +604,7 @@ public class MarkovEstimator extends TransactionEstimator {
             
             if (this.profiler != null) timestamp = ProfileMeasurement.getTime();
             try {
-                pathEstimator.traverse(est.getVertex());
+                pathEstimator.traversePath(est.getVertex());
             } catch (Throwable ex) {
                 try {
                     GraphvizExport<MarkovVertex, MarkovEdge> gv = MarkovUtil.exportGraphviz(markov, true, markov.getPath(pathEstimator.getVisitPath()));
@@ -633,46 +668,66 @@ public class MarkovEstimator extends TransactionEstimator {
         MarkovVertex next_v = null;
         MarkovEdge next_e = null;
         
-        // Synchronize on the single vertex so that it's more fine-grained than the entire graph
-        synchronized (current) {
-            Collection<MarkovEdge> edges = markov.getOutEdges(current);
-            if (edges != null) {
-                if (debug.val)
-                    LOG.debug(String.format("Examining %d edges from %s for txn #%d",
-                              edges.size(), current, state.getTransactionId())); 
-                for (MarkovEdge e : edges) {
-                    MarkovVertex v = markov.getDest(e);
-                    if (v.isEqual(catalog_stmt, partitions, touchedPartitions, queryCounter)) {
-                        if (debug.val)
-                            LOG.debug("Found next vertex " + v + " for Txn #" + state.getTransactionId());
-                        next_v = v;
-                        next_e = e;
-                        break;
-                    }
-                } // FOR
-            }
-        
-            // If we fail to find the next vertex, that means we have to dynamically create a new 
-            // one. The graph is self-managed, so we don't need to worry about whether 
-            // we need to recompute probabilities.
-            if (next_v == null) {
+        // If the MarkovGraphUpdater is the only one that is allowed to modify the graph, then we
+        // look for the next vertex in the last version of the graph that it published. If it's not
+        // there, then we'll make a new vertex that the updater will add after the txn finishes.
+        if (this.updateBuffer != null) {
+            CompiledMarkovGraph compiled = markov.getCompiledGraph();
+            int id = (compiled != null ? compiled.getVertexId(current) : -1);
+            int e = (id >= 0 ? compiled.findQueryEdge(id, catalog_stmt, queryCounter, partitions, touchedPartitions) : -1);
+            if (e >= 0) {
+                next_e = compiled.getEdge(e);
+                next_v = compiled.getVertex(compiled.getEdgeDest(e));
+            } else {
                 next_v = new MarkovVertex(catalog_stmt,
                                           MarkovVertex.Type.QUERY,
                                           queryCounter,
                                           partitions,
                                           touchedPartitions);
-                assert(markov.containsVertex(current)) :
-                    String.format("%s does not have current vertex %s for %s",
-                                  markov, current,
-                                  TransactionUtil.formatTxnName(markov.getProcedure(), state.getTransactionId())); 
-                markov.addVertex(next_v);
-                next_e = markov.addToEdge(current, next_v);
-                if (debug.val)
-                    LOG.debug(String.format("Created new edge from %s to new vertex %s for txn #%d", 
-                              state.getCurrent(), next_v, state.getTransactionId()));
-                // assert(state.getCurrent().getPartitions().size() <= touchedPartitions.size());
             }
-        } // SYNCH
+        }
+        else {
+            // Synchronize on the single vertex so that it's more fine-grained than the entire graph
+            synchronized (current) {
+                Collection<MarkovEdge> edges = markov.getOutEdges(current);
+                if (edges != null) {
+                    if (debug.val)
+                        LOG.debug(String.format("Examining %d edges from %s for txn #%d",
+                                  edges.size(), current, state.getTransactionId())); 
+                    for (MarkovEdge e : edges) {
+                        MarkovVertex v = markov.getDest(e);
+                        if (v.isEqual(catalog_stmt, partitions, touchedPartitions, queryCounter)) {
+                            if (debug.val)
+                                LOG.debug("Found next vertex " + v + " for Txn #" + state.getTransactionId());
+                            next_v = v;
+                            next_e = e;
+                            break;
+                        }
+                    } // FOR
+                }
+        
+                // If we fail to find the next vertex, that means we have to dynamically create a new 
+                // one. The graph is self-managed, so we don't need to worry about whether 
+                // we need to recompute probabilities.
+                if (next_v == null) {
+                    next_v = new MarkovVertex(catalog_stmt,
+                                              MarkovVertex.Type.QUERY,
+                                              queryCounter,
+                                              partitions,
+                                              touchedPartitions);
+                    assert(markov.containsVertex(current)) :
+                        String.format("%s does not have current vertex %s for %s",
+                                      markov, current,
+                                      TransactionUtil.formatTxnName(markov.getProcedure(), state.getTransactionId())); 
+                    markov.addVertex(next_v);
+                    next_e = markov.addToEdge(current, next_v);
+                    if (debug.val)
+                        LOG.debug(String.format("Created new edge from %s to new vertex %s for txn #%d", 
+                                  state.getCurrent(), next_v, state.getTransactionId()));
+                    // assert(state.getCurrent().getPartitions().size() <= touchedPartitions.size());
+                }
+            } // SYNCH
+        }
         
         if (current.isStartVertex() && next_v.isCommitVertex()) {
             throw new ServerFaultException("Trying to connect START->COMMIT", state.getTransactionId());
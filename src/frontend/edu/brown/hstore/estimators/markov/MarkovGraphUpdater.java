@@ -0,0 +1,281 @@
+package edu.brown.hstore.estimators.markov;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+
+import edu.brown.hstore.Hstoreservice.Status;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.markov.MarkovGraph;
+import edu.brown.markov.MarkovVertex;
+import edu.brown.utils.PartitionSet;
+import edu.brown.utils.ThreadUtil;
+
+/**
+ * Background thread that applies the paths that txns took at runtime to their MarkovGraphs.
+ * <p>
+ * Each MarkovEstimator gets its own Buffer that it appends a txn's path to when the txn finishes.
+ * Appending never blocks. If the Buffer is full, then the path is just dropped. This thread is the
+ * only one that modifies the MarkovGraphs, so the estimators never look at a graph while it is
+ * being changed. Instead they use the last CompiledMarkovGraph that we published for it.
+ * After we drain the Buffers, we recompute the probabilities of any graph that has received enough
+ * new paths and then publish a new CompiledMarkovGraph for every graph that changed.
+ */
+public class MarkovGraphUpdater implements Runnable {
+    private static final Logger LOG = Logger.getLogger(MarkovGraphUpdater.class);
+    private static final LoggerBoolean debug = new LoggerBoolean();
+    static {
+        LoggerUtil.attachObserver(LOG, debug);
+    }
+
+    /**
+     * How long we will sleep when there is nothing in the buffers
+     */
+    private static final long POLL_INTERVAL = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private static MarkovGraphUpdater singleton;
+
+    /**
+     * Returns the MarkovGraphUpdater for this JVM.
+     * The first invocation will start its thread.
+     * @param allPartitions
+     * @return
+     */
+    public static synchronized MarkovGraphUpdater singleton(PartitionSet allPartitions) {
+        if (singleton == null) {
+            HStoreConf hstore_conf = HStoreConf.singleton();
+            singleton = new MarkovGraphUpdater(allPartitions, hstore_conf.site.markov_async_recompute_interval);
+            Thread t = ThreadUtil.getThreadFactory("markov-updater", null).newThread(singleton);
+            t.start();
+        }
+        return (singleton);
+    }
+
+    // ----------------------------------------------------------------------------
+    // OBSERVATIONS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * The path that a txn took through a MarkovGraph
+     */
+    protected static class Observation {
+        private final MarkovGraph markov;
+        private final MarkovVertex path[];
+        private final Status status;
+
+        private Observation(MarkovGraph markov, MarkovVertex path[], Status status) {
+            this.markov = markov;
+            this.path = path;
+            this.status = status;
+        }
+    } // CLASS
+
+    /**
+     * Bounded lock-free ring buffer of Observations.
+     * Any number of threads can add to it, but only the MarkovGraphUpdater takes from it.
+     */
+    public static class Buffer {
+        private final AtomicReferenceArray<Observation> slots;
+        private final int mask;
+        private final AtomicLong head = new AtomicLong(0);
+        private final AtomicLong tail = new AtomicLong(0);
+        private final AtomicLong dropped = new AtomicLong(0);
+        private final MarkovGraphUpdater updater;
+
+        private Buffer(MarkovGraphUpdater updater, int capacity) {
+            int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+            this.slots = new AtomicReferenceArray<Observation>(size);
+            this.mask = size - 1;
+            this.updater = updater;
+        }
+
+        /**
+         * Queue up the path that a txn took through the given MarkovGraph.
+         * Returns false if the buffer was full.
+         * @param markov
+         * @param path
+         * @param status
+         * @return
+         */
+        public boolean offer(MarkovGraph markov, List<MarkovVertex> path, Status status) {
+            long t;
+            do {
+                t = this.tail.get();
+                if (t - this.head.get() >= this.slots.length()) {
+                    this.dropped.incrementAndGet();
+                    return (false);
+                }
+            } while (this.tail.compareAndSet(t, t + 1) == false);
+
+            MarkovVertex copy[] = path.toArray(new MarkovVertex[path.size()]);
+            this.slots.set((int)(t & this.mask), new Observation(markov, copy, status));
+            this.updater.wake();
+            return (true);
+        }
+
+        /**
+         * Returns the next Observation or null if there isn't one.
+         * Only the MarkovGraphUpdater can call this.
+         */
+        protected Observation poll() {
+            long h = this.head.get();
+            int idx = (int)(h & this.mask);
+            Observation o = this.slots.get(idx);
+            // Either the buffer is empty or somebody has claimed the slot
+            // but hasn't put their Observation in it yet
+            if (o == null) return (null);
+            this.slots.set(idx, null);
+            this.head.lazySet(h + 1);
+            return (o);
+        }
+
+        public int getCapacity() {
+            return (this.slots.length());
+        }
+        public int size() {
+            return ((int)(this.tail.get() - this.head.get()));
+        }
+        public long getDroppedCount() {
+            return (this.dropped.get());
+        }
+    } // CLASS
+
+    // ----------------------------------------------------------------------------
+    // INSTANCE MEMBERS
+    // ----------------------------------------------------------------------------
+
+    private final PartitionSet allPartitions;
+    private final int recomputeInterval;
+    private final List<Buffer> buffers = new CopyOnWriteArrayList<Buffer>();
+
+    /**
+     * The number of Observations that we have applied to each MarkovGraph
+     * since the last time that we recomputed its probabilities.
+     */
+    private final Map<MarkovGraph, Integer> pending = new IdentityHashMap<MarkovGraph, Integer>();
+
+    /**
+     * The MarkovGraphs that we need to publish at the end of the current round
+     */
+    private final Set<MarkovGraph> changed = Collections.newSetFromMap(new IdentityHashMap<MarkovGraph, Boolean>());
+
+    private final AtomicLong processed = new AtomicLong(0);
+    private volatile Thread self;
+    private volatile boolean sleeping = false;
+
+    /**
+     * Constructor
+     * @param allPartitions The partitions to use when recomputing probabilities
+     * @param recomputeInterval The number of Observations for a MarkovGraph before we recompute its probabilities
+     */
+    protected MarkovGraphUpdater(PartitionSet allPartitions, int recomputeInterval) {
+        this.allPartitions = allPartitions;
+        this.recomputeInterval = recomputeInterval;
+    }
+
+    /**
+     * Create a new Buffer that this MarkovGraphUpdater will drain.
+     * @param capacity
+     * @return
+     */
+    public Buffer createBuffer(int capacity) {
+        Buffer buffer = new Buffer(this, capacity);
+        this.buffers.add(buffer);
+        return (buffer);
+    }
+
+    public long getProcessedCount() {
+        return (this.processed.get());
+    }
+
+    private void wake() {
+        if (this.sleeping) {
+            Thread t = this.self;
+            if (t != null) LockSupport.unpark(t);
+        }
+    }
+
+    // ----------------------------------------------------------------------------
+    // PROCESSING METHODS
+    // ----------------------------------------------------------------------------
+
+    @Override
+    public void run() {
+        this.self = Thread.currentThread();
+        while (true) {
+            int ctr = 0;
+            try {
+                ctr = this.drain();
+            } catch (Throwable ex) {
+                LOG.error("Unexpected error while updating MarkovGraphs", ex);
+            }
+            if (ctr == 0) {
+                this.sleeping = true;
+                LockSupport.parkNanos(this, POLL_INTERVAL);
+                this.sleeping = false;
+            }
+        } // WHILE
+    }
+
+    /**
+     * Apply all of the Observations in our Buffers to their MarkovGraphs and then
+     * publish a new CompiledMarkovGraph for each graph that changed.
+     * Returns the number of Observations that we applied.
+     */
+    protected int drain() {
+        int ctr = 0;
+        for (Buffer buffer : this.buffers) {
+            Observation o = null;
+            while ((o = buffer.poll()) != null) {
+                this.apply(o);
+                ctr++;
+            } // WHILE
+        } // FOR
+        if (ctr > 0) {
+            for (MarkovGraph markov : this.changed) {
+                if (debug.val) LOG.debug("Publishing new version of " + markov);
+                markov.compile();
+            } // FOR
+            this.changed.clear();
+            this.processed.addAndGet(ctr);
+        }
+        return (ctr);
+    }
+
+    private void apply(Observation o) {
+        MarkovGraph markov = o.markov;
+        Integer cnt = this.pending.get(markov);
+        if (cnt == null) {
+            // First time that we've seen this graph, so we have to make sure that 
+            // we publish it even if the path doesn't change its structure
+            markov.setBackgroundUpdates(true);
+            this.changed.add(markov);
+            cnt = 0;
+        }
+        int version = markov.getVersion();
+        if (markov.processObservedPath(o.path, o.status) == false) return;
+
+        cnt = cnt.intValue() + 1;
+        if (this.recomputeInterval > 0 && cnt >= this.recomputeInterval) {
+            if (debug.val) LOG.debug(String.format("Recomputing probabilities for %s after %d paths", markov, cnt));
+            markov.calculateProbabilities(this.allPartitions);
+            cnt = 0;
+        }
+        this.pending.put(markov, cnt);
+
+        if (markov.getVersion() != version) {
+            this.changed.add(markov);
+        }
+    }
+}
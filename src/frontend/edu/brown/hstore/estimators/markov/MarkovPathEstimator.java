@@ -27,6 +27,7 @@ import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.mappings.ParameterMapping;
 import edu.brown.mappings.ParameterMappingsSet;
+import edu.brown.markov.CompiledMarkovGraph;
 import edu.brown.markov.MarkovEdge;
 import edu.brown.markov.MarkovGraph;
 import edu.brown.markov.MarkovVertex;
@@ -107,6 +108,12 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
      * This is primarily used for debugging.
      */
     private Set<MarkovVertex> created_vertices;
+    
+    /**
+     * If this flag is set to true, then we will use the MarkovGraph's CompiledMarkovGraph
+     * to estimate the path whenever we can instead of the tree walker.
+     */
+    private boolean compiled_enabled = false;
 
     // ----------------------------------------------------------------------------
     // TEMPORARY TRAVERSAL MEMBERS
@@ -117,6 +124,23 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
     private final SortedSet<MarkovEdge> candidate_edges = new TreeSet<MarkovEdge>();
     private final Collection<CountedStatement> next_statements = new HashSet<CountedStatement>();
     
+    /** StmtParameter arrays that we can reuse, indexed by the number of parameters */
+    private Object stmt_args_cache[][] = new Object[0][];
+    /** Default StmtParameter offsets, indexed by the number of parameters */
+    private int stmt_offsets_cache[][] = new int[0][];
+    
+    // ----------------------------------------------------------------------------
+    // TEMPORARY COMPILED TRAVERSAL MEMBERS
+    // ----------------------------------------------------------------------------
+    
+    private int compiled_candidates[] = new int[0];
+    private int compiled_visited[] = new int[0];
+    private int compiled_stamp = 0;
+    
+    private static final int MAPPING_NONE = 0;
+    private static final int MAPPING_OK = 1;
+    private static final int MAPPING_FAILED = 2;
+    
     // ----------------------------------------------------------------------------
     // CONSTRUCTORS
     // ----------------------------------------------------------------------------
@@ -217,11 +241,173 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
     protected Collection<MarkovVertex> getCreatedVertices() {
         return this.created_vertices;
     }
+    
+    /**
+     * Setting this flag to true means that traversePath() will estimate the path
+     * using the MarkovGraph's CompiledMarkovGraph when it is up-to-date.
+     * Learning must be disabled for this to be used.
+     * @param flag
+     */
+    public void setCompiledEnabled(boolean flag) {
+        this.compiled_enabled = flag;
+    }
 
     // ----------------------------------------------------------------------------
     // TRAVERSAL METHODS
     // ----------------------------------------------------------------------------
     
+    /**
+     * Estimate the txn's path starting at the given vertex.
+     * If we are allowed to, this will walk the MarkovGraph's CompiledMarkovGraph.
+     * Otherwise it will fall back to traversing the MarkovGraph itself.
+     * If the MarkovGraph is updated in the background, then we always use the last
+     * CompiledMarkovGraph that was published, because the MarkovGraphUpdater could be
+     * changing the graph while we are looking at it.
+     * @param start
+     */
+    public void traversePath(MarkovVertex start) {
+        MarkovGraph markov = (MarkovGraph)this.getGraph();
+        if (markov.isBackgroundUpdates()) {
+            CompiledMarkovGraph compiled = markov.getCompiledGraph();
+            assert(compiled != null) : "Missing CompiledMarkovGraph for " + markov;
+            int id = compiled.getVertexId(start);
+            if (id >= 0) {
+                this.traverseCompiled(compiled, id);
+            } else {
+                // The vertex is not in the last version of the graph that was published,
+                // so we don't know where the txn will go from here
+                this.estimate.path.add(start);
+                MarkovPathEstimator.populateMarkovEstimate(this.estimate, start, compiled);
+            }
+            return;
+        }
+        if (this.compiled_enabled && this.learning_enabled == false) {
+            CompiledMarkovGraph compiled = markov.getCompiledGraph();
+            if (compiled != null) {
+                int id = compiled.getVertexId(start);
+                if (id >= 0) {
+                    this.traverseCompiled(compiled, id);
+                    return;
+                }
+            }
+        }
+        this.traverse(start);
+    }
+    
+    /**
+     * Estimate the txn's path using the array-based copy of the MarkovGraph.
+     * This produces the same path as populate_children() and callback() do
+     * when the tree walker traverses the MarkovGraph.
+     * @param compiled
+     * @param id
+     */
+    private void traverseCompiled(CompiledMarkovGraph compiled, int id) {
+        if (this.compiled_visited.length < compiled.getVertexCount()) {
+            this.compiled_visited = new int[compiled.getVertexCount()];
+            this.compiled_stamp = 0;
+        }
+        if (this.compiled_candidates.length < compiled.getMaxDegree()) {
+            this.compiled_candidates = new int[compiled.getMaxDegree()];
+        }
+        int stamp = ++this.compiled_stamp;
+        if (stamp == Integer.MAX_VALUE) {
+            Arrays.fill(this.compiled_visited, 0);
+            this.compiled_stamp = stamp = 1;
+        }
+        
+        while (id >= 0) {
+            MarkovVertex element = compiled.getVertex(id);
+            this.past_partitions.addAll(element.getPartitions());
+            if (trace.val) LOG.trace("Current Vertex: " + element);
+            
+            int first_edge = compiled.getFirstEdge(id);
+            int end_edge = compiled.getEndEdge(id);
+            int first_stmt = compiled.getFirstStatement(id);
+            int end_stmt = compiled.getEndStatement(id);
+            int num_candidates = 0;
+            boolean failed = false;
+            
+            // COMMIT/ABORT successors are always candidates
+            for (int e = first_edge; e < end_edge; e++) {
+                if (compiled.isFinishVertex(compiled.getEdgeDest(e))) {
+                    this.compiled_candidates[num_candidates++] = e;
+                }
+            } // FOR
+            
+            // For each unique Statement+StatementIndex pair, figure out which partitions
+            // the query will go to and then find the successor with those partitions
+            for (int i = first_stmt; i < end_stmt; i++) {
+                Statement catalog_stmt = compiled.getStatement(i);
+                int catalog_stmt_index = compiled.getStatementCounter(i);
+                int mapped = this.mapStatementPartitions(catalog_stmt, catalog_stmt_index);
+                if (mapped == MAPPING_FAILED) {
+                    failed = true;
+                    break;
+                }
+                if (mapped == MAPPING_OK) {
+                    int e = compiled.findQueryEdge(id, catalog_stmt, catalog_stmt_index,
+                                                   this.stmt_partitions, this.past_partitions);
+                    if (e >= 0) this.compiled_candidates[num_candidates++] = e;
+                }
+            } // FOR
+            if (failed) break;
+            
+            // Force traversal
+            boolean was_forced = false;
+            if (num_candidates == 0 && this.force_traversal) {
+                for (int e = first_edge; e < end_edge; e++) {
+                    this.compiled_candidates[num_candidates++] = e;
+                } // FOR
+                was_forced = true;
+            }
+            
+            // Pick the candidate with the highest probability. Since the edges for each vertex
+            // are sorted, that's the one with the lowest offset.
+            int next_id = -1;
+            if (num_candidates > 0) {
+                int next_edge = this.compiled_candidates[0];
+                for (int i = 1; i < num_candidates; i++) {
+                    if (this.compiled_candidates[i] < next_edge) next_edge = this.compiled_candidates[i];
+                } // FOR
+                next_id = compiled.getEdgeDest(next_edge);
+                MarkovVertex next_vertex = compiled.getVertex(next_id);
+                if (was_forced) {
+                    if (this.forced_vertices == null) this.forced_vertices = new HashSet<MarkovVertex>();
+                    this.forced_vertices.add(next_vertex);
+                }
+                
+                if (was_forced == false && (end_stmt - first_stmt) == 1 && num_candidates == 1) {
+                    // Nothing to do!
+                }
+                else {
+                    // Add them up in the same order as the candidate edges in populate_children()
+                    Arrays.sort(this.compiled_candidates, 0, num_candidates);
+                    double total_probability = 0.0;
+                    for (int i = 0; i < num_candidates; i++) {
+                        total_probability += compiled.getEdgeProbability(this.compiled_candidates[i]);
+                    } // FOR
+                    this.estimate.confidence *= compiled.getEdgeProbability(next_edge) / total_probability;
+                }
+                MarkovPathEstimator.populateProbabilities(this.estimate, next_vertex, compiled);
+                
+                if (debug.val)
+                    LOG.debug("SELECTED: " + next_vertex + " [confidence=" + this.estimate.confidence + "]");
+            }
+            
+            this.compiled_visited[id] = stamp;
+            this.estimate.path.add(element);
+            if (compiled.isFinishVertex(id)) {
+                if (trace.val) LOG.trace("Reached " + element + ". Stopping...");
+                break;
+            }
+            if (next_id >= 0 && this.compiled_visited[next_id] == stamp) {
+                next_id = -1;
+            }
+            id = next_id;
+        } // WHILE
+        MarkovPathEstimator.populateMarkovEstimate(this.estimate, this.estimate.getVertex(), compiled);
+    }
+    
     /**
      * This is the main part of where we figure out the path that this transaction will take
      */
@@ -287,155 +473,46 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
             Integer catalog_stmt_index = cstmt.counter;
             if (debug.val) LOG.debug("Examining " + cstmt);
             
-            // Get the mapping objects (if any) for next
-            // This is the only way we can predict what partitions we will touch
-            Map<StmtParameter, SortedSet<ParameterMapping>> stmtMappings = this.allMappings.get(catalog_stmt, catalog_stmt_index);
-            if (stmtMappings == null) {
-                if (debug.val) {
-                    LOG.warn("No parameter mappings for " + catalog_stmt);
-                    if (trace.val) LOG.trace(this.allMappings.debug(catalog_stmt));
-                }
-                continue;
+            int mapped = this.mapStatementPartitions(catalog_stmt, catalog_stmt_index);
+            if (mapped == MAPPING_FAILED) {
+                this.stop();
+                return;
             }
             
-            // Go through the StmtParameters and map values from ProcParameters
-            StmtParameter stmt_params[] = catalog_stmt.getParameters().values();
-            Object stmt_args[] = new Object[stmt_params.length]; // this.getStatementParamsArray(catalog_stmt);
-            boolean stmt_args_set = false;
-            
-            // XXX: This method may return null because it's being used for other
-            // purposes in the BatchPlanner.
-            int stmt_args_offsets[] = this.p_estimator.getStatementEstimationParameters(catalog_stmt);
-            if (stmt_args_offsets == null) {
-                stmt_args_offsets = new int[stmt_args.length];
-                for (int i = 0; i < stmt_args.length; i++)
-                    stmt_args_offsets[i] = i;
-            }
-            assert(stmt_args_offsets != null) :
-                "Unexpected null StmtParameter offsets for " + catalog_stmt.fullName();
-            for (int offset : stmt_args_offsets) {
-                StmtParameter catalog_stmt_param = stmt_params[offset];
-                assert(catalog_stmt_param != null);
+            // Now for this given list of partitions, find a Vertex in our next set
+            // that has the same partitions
+            if (mapped == MAPPING_OK) {
+                candidate_edge = null;
                 if (trace.val)
-                    LOG.trace("Retrieving ParameterMappings for " + catalog_stmt_param.fullName());
-                
-                Collection<ParameterMapping> mappings = stmtMappings.get(catalog_stmt_param);
-                if (mappings == null || mappings.isEmpty()) {
-                    if (trace.val)
-                        LOG.trace("No parameter mappings exists for " + catalog_stmt_param.fullName());
-                    continue;
-                }
-                if (debug.val)
-                    LOG.debug("Found " + mappings.size() + " mapping(s) for " + catalog_stmt_param.fullName());
-        
-                // Special Case:
-                // If the number of possible Statements we could execute next is greater than one,
-                // then we need to prune our list by removing those Statements who have a StmtParameter
-                // that are correlated to a ProcParameter that doesn't exist (such as referencing an
-                // array element that is greater than the size of that current array)
-                // TODO: For now we are just going always pick the first mapping 
-                // that comes back. Is there any choice that we would need to make in order
-                // to have a better prediction about what the transaction might do?
-                if (debug.val && mappings.size() > 1) {
-                    LOG.warn("Multiple parameter mappings for " + catalog_stmt_param.fullName());
-                    if (trace.val) {
-                        int ctr = 0;
-                        for (ParameterMapping m : mappings) {
-                            LOG.trace("[" + (ctr++) + "] Mapping: " + m);
-                        } // FOR
-                    }
-                }
-                for (ParameterMapping m : mappings) {
-                    if (trace.val) LOG.trace("Mapping: " + m);
-                    ProcParameter catalog_proc_param = m.getProcParameter();
-                    if (catalog_proc_param.getIsarray()) {
-                        Object proc_inner_args[] = (Object[])procParams[m.getProcParameter().getIndex()];
-                        if (trace.val)
-                            LOG.trace(CatalogUtil.getDisplayName(m.getProcParameter(), true) + " is an array: " + 
-                                      Arrays.toString(proc_inner_args));
-                        
-                        // TODO: If this Mapping references an array element that is not available for this
-                        // current transaction, should we just skip this mapping or skip the entire query?
-                        if (proc_inner_args.length <= m.getProcParameterIndex()) {
-                            if (trace.val)
-                                LOG.trace("Unable to map parameters: " +
-                                          "proc_inner_args.length[" + proc_inner_args.length + "] <= " +
-                                          "c.getProcParameterIndex[" + m.getProcParameterIndex() + "]"); 
+                    LOG.trace("Partitions:" + this.stmt_partitions + " / Past:" + this.past_partitions);
+                for (MarkovVertex next_v : next_vertices) {
+                    if (trace.val) LOG.trace("Checking whether " + next_v + " is the correct transition");
+                    if (next_v.isEqual(catalog_stmt, this.stmt_partitions, this.past_partitions, catalog_stmt_index, true)) {
+                        // BINGO!!!
+                        assert(candidate_edge == null);
+                        try {
+                            candidate_edge = markov.findEdge(element, next_v);
+                        } catch (NullPointerException ex) {
                             continue;
                         }
-                        stmt_args[offset] = proc_inner_args[m.getProcParameterIndex()];
-                        stmt_args_set = true;
-                        if (trace.val)
-                            LOG.trace("Mapped " + CatalogUtil.getDisplayName(m.getProcParameter()) + "[" + m.getProcParameterIndex() + "] to " +
-                                      CatalogUtil.getDisplayName(catalog_stmt_param) + " [value=" + stmt_args[offset] + "]");
-                    } else {
-                        stmt_args[offset] = procParams[m.getProcParameter().getIndex()];
-                        stmt_args_set = true;
+                        assert(candidate_edge != null);
+                        this.candidate_edges.add(candidate_edge);
                         if (trace.val)
-                            LOG.trace("Mapped " + CatalogUtil.getDisplayName(m.getProcParameter()) + " to " +
-                                      CatalogUtil.getDisplayName(catalog_stmt_param) + " [value=" + stmt_args[offset] + "]"); 
+                            LOG.trace("Found candidate edge to " + next_v + " [" + candidate_edge + "]");
+                        break;
+                    } else if (trace.val) { 
+                        Map<String, Object> m = new LinkedHashMap<String, Object>();
+                        m.put("stmt", next_v.getCatalogItem().equals(catalog_stmt));
+                        m.put("stmtCtr", next_v.getQueryCounter() == catalog_stmt_index);
+                        m.put("partitions", next_v.getPartitions().equals(this.stmt_partitions));
+                        m.put("past", next_v.getPastPartitions().equals(this.past_partitions));
+                        LOG.trace("Invalid candidate transition:\n" + StringUtil.formatMaps(m));
                     }
-                    break;
-                } // FOR (Mapping)
-            } // FOR (StmtParameter)
-                
-            // If we set any of the stmt_args in the previous step, then we can throw it
-            // to our good old friend the PartitionEstimator and see whether we can figure
-            // things out for this Statement
-            if (stmt_args_set) {
-                if (trace.val)
-                    LOG.trace("Mapped StmtParameters: " + Arrays.toString(stmt_args));
-                this.stmt_partitions.clear();
-                try {
-                    this.p_estimator.getAllPartitions(this.stmt_partitions, catalog_stmt, stmt_args, this.base_partition);
-                } catch (Exception ex) {
-                    String msg = "Failed to calculate partitions for " + catalog_stmt + " using parameters " + Arrays.toString(stmt_args);
-                    LOG.error(msg, ex);
-                    this.stop();
-                    return;
-                }
-                if (trace.val)
-                    LOG.trace("Estimated Partitions for " + catalog_stmt + ": " + this.stmt_partitions);
-                
-                // Now for this given list of partitions, find a Vertex in our next set
-                // that has the same partitions
-                if (this.stmt_partitions.isEmpty() == false) {
-                    candidate_edge = null;
-                    if (trace.val)
-                        LOG.trace("Partitions:" + this.stmt_partitions + " / Past:" + this.past_partitions);
-                    for (MarkovVertex next_v : next_vertices) {
-                        if (trace.val) LOG.trace("Checking whether " + next_v + " is the correct transition");
-                        if (next_v.isEqual(catalog_stmt, this.stmt_partitions, this.past_partitions, catalog_stmt_index, true)) {
-                            // BINGO!!!
-                            assert(candidate_edge == null);
-                            try {
-                                candidate_edge = markov.findEdge(element, next_v);
-                            } catch (NullPointerException ex) {
-                                continue;
-                            }
-                            assert(candidate_edge != null);
-                            this.candidate_edges.add(candidate_edge);
-                            if (trace.val)
-                                LOG.trace("Found candidate edge to " + next_v + " [" + candidate_edge + "]");
-                            break;
-                        } else if (trace.val) { 
-                            Map<String, Object> m = new LinkedHashMap<String, Object>();
-                            m.put("stmt", next_v.getCatalogItem().equals(catalog_stmt));
-                            m.put("stmtCtr", next_v.getQueryCounter() == catalog_stmt_index);
-                            m.put("partitions", next_v.getPartitions().equals(this.stmt_partitions));
-                            m.put("past", next_v.getPastPartitions().equals(this.past_partitions));
-                            LOG.trace("Invalid candidate transition:\n" + StringUtil.formatMaps(m));
-                        }
-                    } // FOR (Vertex
-                    if (trace.val && candidate_edge == null)
-                        LOG.trace(String.format("Failed to find candidate edge from %s to %s [partitions=%s]",
-                                  element, catalog_stmt.fullName(), this.stmt_partitions)); 
-                }
+                } // FOR (Vertex
+                if (trace.val && candidate_edge == null)
+                    LOG.trace(String.format("Failed to find candidate edge from %s to %s [partitions=%s]",
+                              element, catalog_stmt.fullName(), this.stmt_partitions)); 
             }
-            // Without any stmt_args, there's nothing we can do here...
-            else if (trace.val) { 
-                LOG.trace("No stmt_args for " + catalog_stmt + ". Skipping...");
-            } // IF
         } // FOR
         
         // If we don't have any candidate edges and the FORCE TRAVERSAL flag is set, then we'll just
@@ -549,6 +626,159 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
         }
     }
     
+    /**
+     * Use the ParameterMappings to figure out what partitions the given Statement invocation
+     * will touch based on the txn's input parameters. If we can figure it out, then
+     * the partitions will be in stmt_partitions.
+     * @param catalog_stmt
+     * @param catalog_stmt_index
+     * @return MAPPING_OK if we have partitions, MAPPING_NONE if we don't, or MAPPING_FAILED
+     *         if the PartitionEstimator threw an error and we need to stop
+     */
+    private int mapStatementPartitions(Statement catalog_stmt, int catalog_stmt_index) {
+        // Get the mapping objects (if any) for next
+        // This is the only way we can predict what partitions we will touch
+        Map<StmtParameter, SortedSet<ParameterMapping>> stmtMappings = this.allMappings.get(catalog_stmt, catalog_stmt_index);
+        if (stmtMappings == null) {
+            if (debug.val) {
+                LOG.warn("No parameter mappings for " + catalog_stmt);
+                if (trace.val) LOG.trace(this.allMappings.debug(catalog_stmt));
+            }
+            return (MAPPING_NONE);
+        }
+        
+        // Go through the StmtParameters and map values from ProcParameters
+        StmtParameter stmt_params[] = catalog_stmt.getParameters().values();
+        Object stmt_args[] = this.getStatementArgs(stmt_params.length);
+        boolean stmt_args_set = false;
+        
+        // XXX: This method may return null because it's being used for other
+        // purposes in the BatchPlanner.
+        int stmt_args_offsets[] = this.p_estimator.getStatementEstimationParameters(catalog_stmt);
+        if (stmt_args_offsets == null) {
+            stmt_args_offsets = this.getDefaultStatementOffsets(stmt_args.length);
+        }
+        assert(stmt_args_offsets != null) :
+            "Unexpected null StmtParameter offsets for " + catalog_stmt.fullName();
+        for (int offset : stmt_args_offsets) {
+            StmtParameter catalog_stmt_param = stmt_params[offset];
+            assert(catalog_stmt_param != null);
+            if (trace.val)
+                LOG.trace("Retrieving ParameterMappings for " + catalog_stmt_param.fullName());
+            
+            Collection<ParameterMapping> mappings = stmtMappings.get(catalog_stmt_param);
+            if (mappings == null || mappings.isEmpty()) {
+                if (trace.val)
+                    LOG.trace("No parameter mappings exists for " + catalog_stmt_param.fullName());
+                continue;
+            }
+            if (debug.val)
+                LOG.debug("Found " + mappings.size() + " mapping(s) for " + catalog_stmt_param.fullName());
+    
+            // Special Case:
+            // If the number of possible Statements we could execute next is greater than one,
+            // then we need to prune our list by removing those Statements who have a StmtParameter
+            // that are correlated to a ProcParameter that doesn't exist (such as referencing an
+            // array element that is greater than the size of that current array)
+            // TODO: For now we are just going always pick the first mapping 
+            // that comes back. Is there any choice that we would need to make in order
+            // to have a better prediction about what the transaction might do?
+            if (debug.val && mappings.size() > 1) {
+                LOG.warn("Multiple parameter mappings for " + catalog_stmt_param.fullName());
+                if (trace.val) {
+                    int ctr = 0;
+                    for (ParameterMapping m : mappings) {
+                        LOG.trace("[" + (ctr++) + "] Mapping: " + m);
+                    } // FOR
+                }
+            }
+            for (ParameterMapping m : mappings) {
+                if (trace.val) LOG.trace("Mapping: " + m);
+                ProcParameter catalog_proc_param = m.getProcParameter();
+                if (catalog_proc_param.getIsarray()) {
+                    Object proc_inner_args[] = (Object[])procParams[m.getProcParameter().getIndex()];
+                    if (trace.val)
+                        LOG.trace(CatalogUtil.getDisplayName(m.getProcParameter(), true) + " is an array: " + 
+                                  Arrays.toString(proc_inner_args));
+                    
+                    // TODO: If this Mapping references an array element that is not available for this
+                    // current transaction, should we just skip this mapping or skip the entire query?
+                    if (proc_inner_args.length <= m.getProcParameterIndex()) {
+                        if (trace.val)
+                            LOG.trace("Unable to map parameters: " +
+                                      "proc_inner_args.length[" + proc_inner_args.length + "] <= " +
+                                      "c.getProcParameterIndex[" + m.getProcParameterIndex() + "]"); 
+                        continue;
+                    }
+                    stmt_args[offset] = proc_inner_args[m.getProcParameterIndex()];
+                    stmt_args_set = true;
+                    if (trace.val)
+                        LOG.trace("Mapped " + CatalogUtil.getDisplayName(m.getProcParameter()) + "[" + m.getProcParameterIndex() + "] to " +
+                                  CatalogUtil.getDisplayName(catalog_stmt_param) + " [value=" + stmt_args[offset] + "]");
+                } else {
+                    stmt_args[offset] = procParams[m.getProcParameter().getIndex()];
+                    stmt_args_set = true;
+                    if (trace.val)
+                        LOG.trace("Mapped " + CatalogUtil.getDisplayName(m.getProcParameter()) + " to " +
+                                  CatalogUtil.getDisplayName(catalog_stmt_param) + " [value=" + stmt_args[offset] + "]"); 
+                }
+                break;
+            } // FOR (Mapping)
+        } // FOR (StmtParameter)
+            
+        // If we set any of the stmt_args in the previous step, then we can throw it
+        // to our good old friend the PartitionEstimator and see whether we can figure
+        // things out for this Statement
+        if (stmt_args_set) {
+            if (trace.val)
+                LOG.trace("Mapped StmtParameters: " + Arrays.toString(stmt_args));
+            this.stmt_partitions.clear();
+            try {
+                this.p_estimator.getAllPartitions(this.stmt_partitions, catalog_stmt, stmt_args, this.base_partition);
+            } catch (Exception ex) {
+                String msg = "Failed to calculate partitions for " + catalog_stmt + " using parameters " + Arrays.toString(stmt_args);
+                LOG.error(msg, ex);
+                return (MAPPING_FAILED);
+            }
+            if (trace.val)
+                LOG.trace("Estimated Partitions for " + catalog_stmt + ": " + this.stmt_partitions);
+            return (this.stmt_partitions.isEmpty() ? MAPPING_NONE : MAPPING_OK);
+        }
+        // Without any stmt_args, there's nothing we can do here...
+        else if (trace.val) { 
+            LOG.trace("No stmt_args for " + catalog_stmt + ". Skipping...");
+        } // IF
+        return (MAPPING_NONE);
+    }
+    
+    private Object[] getStatementArgs(int length) {
+        if (length >= this.stmt_args_cache.length) {
+            this.stmt_args_cache = Arrays.copyOf(this.stmt_args_cache, length + 1);
+        }
+        Object stmt_args[] = this.stmt_args_cache[length];
+        if (stmt_args == null) {
+            stmt_args = new Object[length];
+            this.stmt_args_cache[length] = stmt_args;
+        } else {
+            Arrays.fill(stmt_args, null);
+        }
+        return (stmt_args);
+    }
+    
+    private int[] getDefaultStatementOffsets(int length) {
+        if (length >= this.stmt_offsets_cache.length) {
+            this.stmt_offsets_cache = Arrays.copyOf(this.stmt_offsets_cache, length + 1);
+        }
+        int offsets[] = this.stmt_offsets_cache[length];
+        if (offsets == null) {
+            offsets = new int[length];
+            for (int i = 0; i < length; i++)
+                offsets[i] = i;
+            this.stmt_offsets_cache[length] = offsets;
+        }
+        return (offsets);
+    }
+    
     @Override
     protected void callback(MarkovVertex v) {
         this.estimate.path.add(v);
@@ -574,6 +804,19 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
     // ----------------------------------------------------------------------------
     
     protected static void populateProbabilities(MarkovEstimate estimate, MarkovVertex vertex) {
+        MarkovPathEstimator.populateProbabilities(estimate, vertex, null);
+    }
+    
+    /**
+     * Copy the probabilities for the next vertex in the txn's path into the given MarkovEstimate.
+     * If the CompiledMarkovGraph is not null, then we will use the probabilities that it copied
+     * from the vertex instead of the ones in the vertex itself.
+     * @param estimate
+     * @param vertex
+     * @param compiled
+     */
+    protected static void populateProbabilities(MarkovEstimate estimate, MarkovVertex vertex, CompiledMarkovGraph compiled) {
+        int id = (compiled != null ? compiled.getVertexId(vertex) : -1);
         if (debug.val)
             LOG.debug(String.format("Populating %s probabilities based on %s " +
                       "[touchedPartitions=%s, confidence=%.03f, hashCode=%d]%s",
@@ -586,10 +829,10 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
         boolean readQuery = (catalog_stmt.getQuerytype() == QueryType.SELECT.getValue());
         for (int partition : partitions.values()) {
             if (estimate.isDoneProbabilitySet(partition) == false) {
-                estimate.setDoneProbability(partition, vertex.getDoneProbability(partition));
+                estimate.setDoneProbability(partition, getDoneProbability(vertex, compiled, id, partition));
             }
             if (estimate.isWriteProbabilitySet(partition) == false) {
-                estimate.setWriteProbability(partition, vertex.getWriteProbability(partition));
+                estimate.setWriteProbability(partition, getWriteProbability(vertex, compiled, id, partition));
             }
             (readQuery ? estimate.read_partitions : estimate.write_partitions).add(partition);
             estimate.incrementTouchedCounter(partition);
@@ -600,10 +843,10 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
         for (int partition : vertex.getPastPartitions()) {
             if (partitions.contains(partition) == false) {
                 if (estimate.isDoneProbabilitySet(partition) == false) {
-                    estimate.setDoneProbability(partition, vertex.getDoneProbability(partition));
+                    estimate.setDoneProbability(partition, getDoneProbability(vertex, compiled, id, partition));
                 }
                 if (estimate.isWriteProbabilitySet(partition) == false) {
-                    estimate.setWriteProbability(partition, vertex.getWriteProbability(partition));
+                    estimate.setWriteProbability(partition, getWriteProbability(vertex, compiled, id, partition));
                 }   
             }
         } // FOR
@@ -648,8 +891,9 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
 //        }
         
         // Keep track of the highest abort probability that we've seen thus far
-        if (vertex.isQueryVertex() && vertex.getAbortProbability() > estimate.greatest_abort) {
-            estimate.greatest_abort = vertex.getAbortProbability();
+        float abort = (compiled != null ? compiled.getAbortProbability(id) : vertex.getAbortProbability());
+        if (vertex.isQueryVertex() && abort > estimate.greatest_abort) {
+            estimate.greatest_abort = abort;
         }
     }
     
@@ -659,7 +903,20 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
      * @param vertex
      */
     protected static void populateMarkovEstimate(MarkovEstimate estimate, MarkovVertex vertex) {
+        MarkovPathEstimator.populateMarkovEstimate(estimate, vertex, null);
+    }
+    
+    /**
+     * Copy the MarkovVertex probabilities into the given MarkovEstimate.
+     * If the CompiledMarkovGraph is not null, then we will use the probabilities that it copied
+     * from the vertex instead of the ones in the vertex itself.
+     * @param estimate
+     * @param vertex
+     * @param compiled
+     */
+    protected static void populateMarkovEstimate(MarkovEstimate estimate, MarkovVertex vertex, CompiledMarkovGraph compiled) {
         assert(vertex != null);
+        int id = (compiled != null ? compiled.getVertexId(vertex) : -1);
         if (debug.val)
             LOG.debug(String.format("Populating %s internal properties based on current %s " +
             		  "[touchedPartitions=%s, confidence=%f]",
@@ -673,10 +930,10 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
         // that they all have a probability here.
         for (int partition : estimate.getCatalogContext().getAllPartitionIds().values()) {
             if (estimate.isDoneProbabilitySet(partition) == false) {
-                estimate.setDoneProbability(partition, vertex.getDoneProbability(partition));
+                estimate.setDoneProbability(partition, getDoneProbability(vertex, compiled, id, partition));
             }
             if (estimate.isWriteProbabilitySet(partition) == false) {
-                estimate.setWriteProbability(partition, vertex.getWriteProbability(partition));
+                estimate.setWriteProbability(partition, getWriteProbability(vertex, compiled, id, partition));
             }
 //            estimate.setReadOnlyProbability(partition, vertex.getReadOnlyProbability(partition));
         } // FOR
@@ -695,7 +952,8 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
         
         // Abort Probability
         // Only use the abort probability if we have seen at least ABORT_MIN_TXNS
-        if (vertex.getTotalHits() >= MarkovGraph.MIN_HITS_FOR_NO_ABORT) {
+        long total_hits = (compiled != null ? compiled.getTotalHits(id) : vertex.getTotalHits());
+        if (total_hits >= MarkovGraph.MIN_HITS_FOR_NO_ABORT) {
             if (estimate.greatest_abort == EstimatorUtil.NULL_MARKER) estimate.greatest_abort = 0.0f;
             estimate.setAbortProbability(estimate.greatest_abort);
         } else {
@@ -703,11 +961,31 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
         }
     }
     
+    private static float getDoneProbability(MarkovVertex vertex, CompiledMarkovGraph compiled, int id, int partition) {
+        return (compiled != null ? compiled.getDoneProbability(id, partition) : vertex.getDoneProbability(partition));
+    }
+    private static float getWriteProbability(MarkovVertex vertex, CompiledMarkovGraph compiled, int id, int partition) {
+        return (compiled != null ? compiled.getWriteProbability(id, partition) : vertex.getWriteProbability(partition));
+    }
+    
     // ----------------------------------------------------------------------------
     // CONVENIENCE METHODS
     // ----------------------------------------------------------------------------
     
     public static void fastEstimation(MarkovEstimate estimate, List<MarkovVertex> initialPath, MarkovVertex current) {
+        MarkovPathEstimator.fastEstimation(estimate, initialPath, current, null);
+    }
+    
+    /**
+     * Estimate the rest of the txn's path by reusing the part of a previous path that comes
+     * after the current vertex. If the CompiledMarkovGraph is not null, then we will use the
+     * probabilities that it copied from the vertices instead of the ones in the vertices themselves.
+     * @param estimate
+     * @param initialPath
+     * @param current
+     * @param compiled
+     */
+    public static void fastEstimation(MarkovEstimate estimate, List<MarkovVertex> initialPath, MarkovVertex current, CompiledMarkovGraph compiled) {
         if (debug.val)
             LOG.debug(String.format("Fast Estimation for %s [hashCode=%d]\n%s",
                       estimate.getClass().getSimpleName(), estimate.hashCode(), 
@@ -716,12 +994,12 @@ public class MarkovPathEstimator extends VertexTreeWalker<MarkovVertex, MarkovEd
         boolean add = false;
         for (MarkovVertex v : initialPath) {
             if (add || current.equals(v)) {
-                MarkovPathEstimator.populateProbabilities(estimate, v);
+                MarkovPathEstimator.populateProbabilities(estimate, v, compiled);
                 estimate.path.add(v);
                 add = true;
             }
         } // FOR
-        MarkovPathEstimator.populateMarkovEstimate(estimate, estimate.getVertex());
+        MarkovPathEstimator.populateMarkovEstimate(estimate, estimate.getVertex(), compiled);
     }
     
     /**
@@ -0,0 +1,200 @@
+package edu.brown.hstore.specexec;
+
+import org.apache.log4j.Logger;
+import org.voltdb.types.SpeculationType;
+import org.voltdb.utils.EstTime;
+
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+
+/**
+ * Keeps track of how many speculative txns end up being committed versus
+ * being rolled back because of their dtxn, and adjusts the SpecExecScheduler
+ * for each SpeculationType based on the success ratio.
+ * <p>
+ * Every <i>interval</i> outcomes for a SpeculationType we update its success ratio.
+ * If it is below <i>minSuccess</i>, then we halve the scheduler's window for that
+ * stall point. If the window is already at one, then we stop speculating at that
+ * stall point for <i>cooldown</i> ms and then try again with a window of one.
+ * If the success ratio is at least halfway between <i>minSuccess</i> and one, then
+ * we double the window (up to the configured window size).
+ * <p>
+ * This is not thread-safe. It should only be used by the PartitionExecutor's thread.
+ */
+public class SpecExecAdaptiveController {
+    private static final Logger LOG = Logger.getLogger(SpecExecAdaptiveController.class);
+    private static final LoggerBoolean debug = new LoggerBoolean();
+    static {
+        LoggerUtil.attachObserver(LOG, debug);
+    }
+
+    /**
+     * How much weight the newest interval gets in the success ratio.
+     */
+    private static final double SMOOTHING = 0.5;
+
+    /**
+     * Per-SpeculationType state
+     */
+    private static class TypeState {
+        private long committed = 0;
+        private long aborted = 0;
+        private long rollbackTime = 0;
+        private int intervalCommitted = 0;
+        private int intervalAborted = 0;
+        private double successRatio = 1.0;
+        private int window;
+        private long disabledUntil = -1;
+        private int disableCount = 0;
+    } // CLASS
+
+    private final int partitionId;
+    private final TypeState states[];
+    private final int maxWindow;
+    private final int interval;
+    private final double minSuccess;
+    private final long cooldown;
+
+    /**
+     * Constructor
+     * @param partitionId
+     * @param maxWindow The largest window that we will allow
+     * @param interval The number of outcomes between adjustments
+     * @param minSuccess The success ratio below which we will back off
+     * @param cooldown How long (ms) to stop speculating at a stall point after we have backed off completely
+     */
+    public SpecExecAdaptiveController(int partitionId, int maxWindow, int interval, double minSuccess, long cooldown) {
+        assert(interval > 0) : "Invalid interval " + interval;
+        this.partitionId = partitionId;
+        this.maxWindow = Math.max(1, maxWindow);
+        this.interval = interval;
+        this.minSuccess = minSuccess;
+        this.cooldown = cooldown;
+        this.states = new TypeState[SpeculationType.values().length];
+        for (int i = 0; i < this.states.length; i++) {
+            this.states[i] = new TypeState();
+            this.states[i].window = this.maxWindow;
+        } // FOR
+    }
+
+    // ----------------------------------------------------------------------------
+    // UPDATE METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Record that a txn that was speculatively executed at the given stall point
+     * has been committed.
+     * @param specType
+     */
+    public void recordCommit(SpeculationType specType) {
+        TypeState state = this.states[specType.ordinal()];
+        state.committed++;
+        state.intervalCommitted++;
+        this.checkInterval(specType, state);
+    }
+
+    /**
+     * Record that a txn that was speculatively executed at the given stall point
+     * had to be rolled back and restarted because of its dtxn.
+     * @param specType
+     * @param rollbackTime The amount of time (ns) that the txn spent executing
+     */
+    public void recordAbort(SpeculationType specType, long rollbackTime) {
+        TypeState state = this.states[specType.ordinal()];
+        state.aborted++;
+        state.intervalAborted++;
+        state.rollbackTime += rollbackTime;
+        this.checkInterval(specType, state);
+    }
+
+    private void checkInterval(SpeculationType specType, TypeState state) {
+        int total = state.intervalCommitted + state.intervalAborted;
+        if (total < this.interval) return;
+
+        double ratio = state.intervalCommitted / (double)total;
+        state.successRatio = (SMOOTHING * ratio) + ((1.0 - SMOOTHING) * state.successRatio);
+        state.intervalCommitted = 0;
+        state.intervalAborted = 0;
+
+        if (state.successRatio < this.minSuccess) {
+            if (state.window > 1) {
+                state.window = Math.max(1, state.window / 2);
+            } else {
+                state.disabledUntil = EstTime.currentTimeMillis() + this.cooldown;
+                state.disableCount++;
+            }
+        }
+        else if (state.successRatio >= (1.0 + this.minSuccess) / 2.0) {
+            state.window = Math.min(this.maxWindow, state.window * 2);
+        }
+        if (debug.val)
+            LOG.debug(String.format("Partition %d - Updated %s [successRatio=%.2f, window=%d, disabled=%s]",
+                      this.partitionId, specType, state.successRatio, state.window,
+                      state.disabledUntil >= 0));
+    }
+
+    // ----------------------------------------------------------------------------
+    // ACCESS METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Returns true if the SpecExecScheduler should speculate at the given stall point.
+     * @param specType
+     * @return
+     */
+    public boolean isEnabled(SpeculationType specType) {
+        TypeState state = this.states[specType.ordinal()];
+        if (state.disabledUntil < 0) return (true);
+        if (EstTime.currentTimeMillis() < state.disabledUntil) return (false);
+
+        // Our cooldown is over, so we'll give it another shot.
+        // Start over with a clean slate so that we don't get disabled right away.
+        if (debug.val)
+            LOG.debug(String.format("Partition %d - Enabling speculation for %s after cooldown",
+                      this.partitionId, specType));
+        state.disabledUntil = -1;
+        state.successRatio = (1.0 + this.minSuccess) / 2.0;
+        return (true);
+    }
+
+    /**
+     * Returns the number of candidates the SpecExecScheduler should examine
+     * at the given stall point.
+     * @param specType
+     * @return
+     */
+    public int getWindowSize(SpeculationType specType) {
+        return (this.states[specType.ordinal()].window);
+    }
+
+    public double getSuccessRatio(SpeculationType specType) {
+        return (this.states[specType.ordinal()].successRatio);
+    }
+
+    public long getCommitCount(SpeculationType specType) {
+        return (this.states[specType.ordinal()].committed);
+    }
+
+    public long getAbortCount(SpeculationType specType) {
+        return (this.states[specType.ordinal()].aborted);
+    }
+
+    /**
+     * Returns the total amount of time (ns) that aborted speculative txns
+     * at the given stall point spent executing.
+     * @param specType
+     * @return
+     */
+    public long getRollbackTime(SpeculationType specType) {
+        return (this.states[specType.ordinal()].rollbackTime);
+    }
+
+    /**
+     * Returns the number of times that we have disabled the given stall point
+     * @param specType
+     * @return
+     */
+    public int getDisableCount(SpeculationType specType) {
+        return (this.states[specType.ordinal()].disableCount);
+    }
+}
@@ -0,0 +1,145 @@
+package edu.brown.hstore.specexec;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import edu.brown.hstore.txns.AbstractTransaction;
+import edu.brown.hstore.txns.LocalTransaction;
+
+/**
+ * Index of the single-partition LocalTransactions waiting in a partition's lock queue
+ * that we could speculatively execute. The txns are bucketed by their Procedure
+ * and each bucket is sorted by txnId (i.e., the same order as the queue). Since the
+ * tables that a txn touches are determined by its Procedure, this lets the
+ * SpecExecScheduler check one candidate per Procedure instead of walking the queue.
+ * <p>
+ * Any thread can add or remove txns. The buckets are keyed on the txnId that the
+ * txn had when it was added, so an entry that was not removed before its handle
+ * got recycled is just skipped (and dropped) by the next lookup.
+ */
+public class SpecExecCandidateIndex {
+
+    /**
+     * ProcedureId -> (TxnId -> LocalTransaction)
+     */
+    private volatile ConcurrentSkipListMap<Long, LocalTransaction> buckets[];
+
+    @SuppressWarnings("unchecked")
+    public SpecExecCandidateIndex() {
+        this.buckets = (ConcurrentSkipListMap<Long, LocalTransaction>[])new ConcurrentSkipListMap<?, ?>[0];
+    }
+
+    // ----------------------------------------------------------------------------
+    // UPDATE METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Add the given txn to the index if it is a speculative candidate.
+     * @param ts
+     */
+    public void add(AbstractTransaction ts) {
+        if ((ts instanceof LocalTransaction) == false || ts.isPredictSinglePartition() == false) {
+            return;
+        }
+        int procId = ts.getProcedure().getId();
+        ConcurrentSkipListMap<Long, LocalTransaction> bucket = this.getBucket(procId);
+        if (bucket == null) bucket = this.createBucket(procId);
+        bucket.put(ts.getTransactionId(), (LocalTransaction)ts);
+    }
+
+    /**
+     * Remove the given txn from the index.
+     * @param ts
+     */
+    public void remove(AbstractTransaction ts) {
+        if ((ts instanceof LocalTransaction) == false) {
+            return;
+        }
+        Long txnId = ts.getTransactionId();
+        if (txnId == null) return;
+        ConcurrentSkipListMap<Long, LocalTransaction> bucket = this.getBucket(ts.getProcedure().getId());
+        if (bucket != null) bucket.remove(txnId, ts);
+    }
+
+    public void clear() {
+        for (ConcurrentSkipListMap<Long, LocalTransaction> bucket : this.buckets) {
+            if (bucket != null) bucket.clear();
+        } // FOR
+    }
+
+    // ----------------------------------------------------------------------------
+    // LOOKUP METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Returns the number of buckets in the index. Some of them may be null or empty.
+     */
+    public int getBucketCount() {
+        return (this.buckets.length);
+    }
+
+    /**
+     * Returns the oldest candidate for the given Procedure that has not
+     * already been executed, or null if there isn't one.
+     * @param procId
+     * @return
+     */
+    public LocalTransaction getFirst(int procId) {
+        ConcurrentSkipListMap<Long, LocalTransaction> bucket = this.getBucket(procId);
+        if (bucket == null || bucket.isEmpty()) return (null);
+
+        Iterator<Map.Entry<Long, LocalTransaction>> it = bucket.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, LocalTransaction> e = it.next();
+            LocalTransaction ts = e.getValue();
+            // The handle has been reused for another txn
+            if (e.getKey().equals(ts.getTransactionId()) == false) {
+                it.remove();
+                continue;
+            }
+            if (ts.isMarkedControlCodeExecuted()) {
+                continue;
+            }
+            return (ts);
+        } // WHILE
+        return (null);
+    }
+
+    /**
+     * Returns the number of entries in the index
+     * This is not a constant-time operation.
+     */
+    public int size() {
+        int size = 0;
+        for (ConcurrentSkipListMap<Long, LocalTransaction> bucket : this.buckets) {
+            if (bucket != null) size += bucket.size();
+        } // FOR
+        return (size);
+    }
+
+    // ----------------------------------------------------------------------------
+    // INTERNAL METHODS
+    // ----------------------------------------------------------------------------
+
+    private ConcurrentSkipListMap<Long, LocalTransaction> getBucket(int procId) {
+        ConcurrentSkipListMap<Long, LocalTransaction> b[] = this.buckets;
+        return (procId < b.length ? b[procId] : null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized ConcurrentSkipListMap<Long, LocalTransaction> createBucket(int procId) {
+        ConcurrentSkipListMap<Long, LocalTransaction> b[] = this.buckets;
+        if (procId >= b.length) {
+            ConcurrentSkipListMap<Long, LocalTransaction> resized[] =
+                    (ConcurrentSkipListMap<Long, LocalTransaction>[])new ConcurrentSkipListMap<?, ?>[procId + 1];
+            System.arraycopy(b, 0, resized, 0, b.length);
+            b = resized;
+        }
+        if (b[procId] == null) {
+            b[procId] = new ConcurrentSkipListMap<Long, LocalTransaction>();
+        }
+        this.buckets = b;
+        return (b[procId]);
+    }
+}
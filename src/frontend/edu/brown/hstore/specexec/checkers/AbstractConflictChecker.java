@@ -36,6 +36,18 @@ public abstract class AbstractConflictChecker {
         return (false);
     }
     
+    /**
+     * Returns true if the result of hasConflictBefore() only depends on the candidate's
+     * Procedure and on what the dtxn has done so far, and a candidate that conflicts
+     * with the dtxn will keep conflicting with it until the dtxn finishes.
+     * The SpecExecScheduler uses this to check one candidate per Procedure and
+     * to remember which Procedures conflict with the current dtxn.
+     * @return
+     */
+    public boolean isProcedureLevel() {
+        return (false);
+    }
+    
     /**
      * Returns true if the given transaction should be ignored from conflict checking
      * @param ts
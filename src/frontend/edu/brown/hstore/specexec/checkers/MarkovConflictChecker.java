@@ -174,6 +174,14 @@ public class MarkovConflictChecker extends TableConflictChecker {
         return (true);
     }
     
+    /**
+     * We look at each candidate's own estimates
+     */
+    @Override
+    public boolean isProcedureLevel() {
+        return (false);
+    }
+    
     @Override
     public boolean hasConflictBefore(AbstractTransaction dtxn, LocalTransaction candidate, int partitionId) {
         // If the TableConflictChecker says that there is no conflict, then we know that 
@@ -23,7 +23,7 @@ import edu.brown.utils.StringUtil;
 
 /**
  * OCC Conflict Checker
- * This relies on the EE to generate the txn's read/write tracking sets 
+ * This relies on the EE to track the txn's read/write sets and check them for conflicts
  * @author pavlo
  */
 public class OptimisticConflictChecker extends AbstractConflictChecker {
@@ -52,6 +52,11 @@ public class OptimisticConflictChecker extends AbstractConflictChecker {
         return (false);
     }
     
+    @Override
+    public boolean isProcedureLevel() {
+        return (true);
+    }
+    
     @Override
     public boolean hasConflictBefore(AbstractTransaction ts0, LocalTransaction ts1, int partitionId) {
         return (false);
@@ -64,6 +69,22 @@ public class OptimisticConflictChecker extends AbstractConflictChecker {
         assert(ts1.isInitialized()) :
             String.format("Uninitialized speculative transaction handle [%s]", ts1);
         
+        // Let the EE compare the READ/WRITE tracking sets so that we don't have
+        // to copy them out. If there is no EE, then we will compare the sets
+        // returned by getReadWriteSets() ourselves.
+        if (this.ee != null) {
+            boolean conflict;
+            try {
+                conflict = this.ee.trackingConflict(ts0.getTransactionId(), ts1.getTransactionId());
+            } catch (Exception ex) {
+                String msg = String.format("Failed to check read/write tracking sets for %s and %s", ts0, ts1);
+                throw new RuntimeException(msg, ex);
+            }
+            if (debug.val && conflict)
+                LOG.debug(String.format("Found conflict between %s and %s", ts0, ts1));
+            return (conflict);
+        }
+        
         // Get the READ/WRITE tracking sets from the EE
         VoltTable tsTracking0[] = this.getReadWriteSets(ts0);
         if (trace.val)
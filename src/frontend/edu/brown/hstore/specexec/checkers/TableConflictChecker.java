@@ -68,6 +68,15 @@ public class TableConflictChecker extends AbstractConflictChecker {
         return (this.hasConflicts[ts.getProcedure().getId()] == false);
     }
 
+    /**
+     * The conflicts are precomputed per Procedure pair and the dtxn can only add
+     * to the set of tables that it has read or written.
+     */
+    @Override
+    public boolean isProcedureLevel() {
+        return (true);
+    }
+
     @Override
     public boolean hasConflictBefore(AbstractTransaction dtxn, LocalTransaction candidate, int partitionId) {
         assert(dtxn.isInitialized()) :
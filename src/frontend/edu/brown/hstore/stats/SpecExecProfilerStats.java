@@ -18,6 +18,7 @@ import org.voltdb.utils.Pair;
 import edu.brown.hstore.HStoreSite;
 import edu.brown.hstore.PartitionExecutor;
 import edu.brown.hstore.SpecExecScheduler;
+import edu.brown.hstore.specexec.SpecExecAdaptiveController;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.profilers.ProfileMeasurement;
@@ -96,6 +97,12 @@ public class SpecExecProfilerStats extends StatsSource {
         columns.add(new VoltTable.ColumnInfo("MATCHES_STDEV", VoltType.FLOAT));
         columns.add(new VoltTable.ColumnInfo("EXECUTED_PER_TXN_AVG", VoltType.BIGINT));
         columns.add(new VoltTable.ColumnInfo("EXECUTED_PER_TXN_STDEV", VoltType.FLOAT));
+        columns.add(new VoltTable.ColumnInfo("COMMITTED_CNT", VoltType.BIGINT));
+        columns.add(new VoltTable.ColumnInfo("ABORTED_CNT", VoltType.BIGINT));
+        columns.add(new VoltTable.ColumnInfo("ABORT_RATE", VoltType.FLOAT));
+        columns.add(new VoltTable.ColumnInfo("ADAPTIVE_WINDOW", VoltType.INTEGER));
+        columns.add(new VoltTable.ColumnInfo("ADAPTIVE_SUCCESS_RATIO", VoltType.FLOAT));
+        columns.add(new VoltTable.ColumnInfo("ADAPTIVE_DISABLED_CNT", VoltType.INTEGER));
         
         // Make a dummy profiler just so that we can get the fields from it
         SpecExecProfiler profiler = new SpecExecProfiler();
@@ -137,6 +144,13 @@ public class SpecExecProfilerStats extends StatsSource {
         rowValues[offset++] = HistogramUtil.stdev(profiler.num_matches);
         rowValues[offset++] = MathUtil.weightedMean(profiler.num_executed);
         rowValues[offset++] = HistogramUtil.stdev(profiler.num_executed);
+        rowValues[offset++] = profiler.committed;
+        rowValues[offset++] = profiler.aborted;
+        rowValues[offset++] = profiler.aborted / (double)Math.max(1, profiler.committed + profiler.aborted);
+        SpecExecAdaptiveController adaptive = specExecDebug.getAdaptiveController();
+        rowValues[offset++] = (adaptive != null ? adaptive.getWindowSize(specType) : null);
+        rowValues[offset++] = (adaptive != null ? adaptive.getSuccessRatio(specType) : null);
+        rowValues[offset++] = (adaptive != null ? adaptive.getDisableCount(specType) : null);
         
         List<Long> history = new ArrayList<Long>();
         for (ProfileMeasurement pm : profiler.getProfileMeasurements()) {
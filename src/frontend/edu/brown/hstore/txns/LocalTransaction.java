@@ -182,6 +182,11 @@ public class LocalTransaction extends AbstractTransaction {
      */
     private SpeculationType exec_specExecType = SpeculationType.NULL;
     
+    /**
+     * How long (ns) it took to speculatively execute this txn
+     */
+    private long exec_specExecTime = 0;
+    
     /** 
      * What partitions has this txn touched
      * This needs to be a Histogram so that we can figure out what partitions
@@ -361,6 +366,7 @@ public class LocalTransaction extends AbstractTransaction {
         
         this.exec_controlCode = false;
         this.exec_specExecType = SpeculationType.NULL;
+        this.exec_specExecTime = 0;
         this.exec_touchedPartitions.clear();
         this.exec_stmtCounters.clear();
         this.predict_touchedPartitions = null;
@@ -810,6 +816,19 @@ public class LocalTransaction extends AbstractTransaction {
         return (this.exec_specExecType);
     }
     
+    /**
+     * Set the amount of time (ns) that it took to speculatively execute this txn.
+     * This is the work that we lose if it has to be rolled back.
+     * @param time
+     */
+    public void setSpeculativeExecTime(long time) {
+        this.exec_specExecTime = time;
+    }
+    
+    public long getSpeculativeExecTime() {
+        return (this.exec_specExecTime);
+    }
+    
     // ----------------------------------------------------------------------------
     // COMMAND LOGGING
     // ----------------------------------------------------------------------------
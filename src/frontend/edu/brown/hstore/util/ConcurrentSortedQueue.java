@@ -0,0 +1,108 @@
+package edu.brown.hstore.util;
+
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A non-blocking priority queue that is backed by a ConcurrentSkipListSet.
+ * Unlike PriorityBlockingQueue, none of the operations acquire a lock, so
+ * multiple producers can offer/remove elements while a consumer is polling.
+ * <B>Note:</B> Elements are compared using their natural ordering, so two
+ * different elements that compare as equal cannot both be in the queue.
+ * @param <E>
+ */
+public class ConcurrentSortedQueue<E extends Comparable<? super E>> extends AbstractQueue<E> {
+
+    private final ConcurrentSkipListSet<E> set = new ConcurrentSkipListSet<E>();
+    
+    /**
+     * ConcurrentSkipListSet.size() has to traverse the entire set,
+     * so we keep our own counter.
+     */
+    private final AtomicInteger size = new AtomicInteger(0);
+    
+    @Override
+    public boolean offer(E e) {
+        boolean ret = this.set.add(e);
+        if (ret) this.size.incrementAndGet();
+        return (ret);
+    }
+    
+    @Override
+    public E poll() {
+        E e = this.set.pollFirst();
+        if (e != null) this.size.decrementAndGet();
+        return (e);
+    }
+    
+    @Override
+    public E peek() {
+        // We can't use first() because the set could become empty
+        // after we check whether it has any elements
+        Iterator<E> it = this.set.iterator();
+        return (it.hasNext() ? it.next() : null);
+    }
+    
+    @Override
+    public boolean remove(Object o) {
+        boolean ret = this.set.remove(o);
+        if (ret) this.size.decrementAndGet();
+        return (ret);
+    }
+    
+    @Override
+    public boolean contains(Object o) {
+        return (this.set.contains(o));
+    }
+    
+    @Override
+    public boolean isEmpty() {
+        return (this.set.isEmpty());
+    }
+    
+    @Override
+    public void clear() {
+        while (this.poll() != null) {
+            // Nothing to do...
+        } // WHILE
+    }
+    
+    /**
+     * Like PriorityBlockingQueue, this returns an iterator over a snapshot
+     * of the queue. It will not return elements that were added after it
+     * was created.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        final Object snapshot[] = this.set.toArray();
+        return new Iterator<E>() {
+            private int next = 0;
+            private E last = null;
+            @Override
+            public boolean hasNext() {
+                return (this.next < snapshot.length);
+            }
+            @SuppressWarnings("unchecked")
+            @Override
+            public E next() {
+                if (this.next >= snapshot.length) throw new NoSuchElementException();
+                this.last = (E)snapshot[this.next++];
+                return (this.last);
+            }
+            @Override
+            public void remove() {
+                if (this.last == null) throw new IllegalStateException();
+                ConcurrentSortedQueue.this.remove(this.last);
+                this.last = null;
+            }
+        };
+    }
+    
+    @Override
+    public int size() {
+        return (this.size.get());
+    }
+}
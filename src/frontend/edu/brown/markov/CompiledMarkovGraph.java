@@ -0,0 +1,333 @@
+package edu.brown.markov;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.voltdb.catalog.Statement;
+
+import edu.brown.utils.PartitionSet;
+
+/**
+ * A frozen, array-based copy of a MarkovGraph's structure that the MarkovPathEstimator
+ * can walk without going through the JUNG collections.
+ * <p>
+ * Every vertex gets an integer id. The out-edges of vertex <i>v</i> are stored
+ * in [edgeOffsets[v], edgeOffsets[v+1]) of the edge arrays, sorted in the same order that
+ * MarkovEdge.compareTo() uses (i.e., highest probability first). For each vertex we also
+ * keep the distinct (Statement, counter) pairs of its QUERY successors.
+ * <p>
+ * We also copy each vertex's probability tables and hit count, so that somebody that is
+ * reading them from here will not see a MarkovGraphUpdater recalculating them in place.
+ * <p>
+ * The compiled graph is only valid until a vertex or edge is added to or removed from
+ * the MarkovGraph, or its probabilities are recalculated (see isValid()).
+ */
+public class CompiledMarkovGraph {
+
+    private final MarkovGraph markov;
+    private final int version;
+
+    private final MarkovVertex vertices[];
+    private final Map<MarkovVertex, Integer> vertexIds;
+    private final boolean finish[];
+
+    private final float doneProbabilities[][];
+    private final float writeProbabilities[][];
+    private final float abortProbabilities[];
+    private final long totalHits[];
+
+    private final int edgeOffsets[];
+    private final MarkovEdge edges[];
+    private final int edgeDest[];
+    private final float edgeProbabilities[];
+
+    private final int stmtOffsets[];
+    private final Statement stmts[];
+    private final int stmtCounters[];
+
+    private final int maxDegree;
+
+    /**
+     * Constructor
+     * This will throw a ConcurrentModificationException if it notices that another
+     * thread is changing the graph's structure.
+     * @param markov
+     * @param version The MarkovGraph's version before we started copying it
+     */
+    protected CompiledMarkovGraph(MarkovGraph markov, int version) {
+        this.markov = markov;
+        this.version = version;
+
+        Collection<MarkovVertex> all = markov.getVertices();
+        int num_vertices = all.size();
+        this.vertices = all.toArray(new MarkovVertex[num_vertices]);
+        this.vertexIds = new IdentityHashMap<MarkovVertex, Integer>(num_vertices);
+        this.finish = new boolean[num_vertices];
+        this.doneProbabilities = new float[num_vertices][];
+        this.writeProbabilities = new float[num_vertices][];
+        this.abortProbabilities = new float[num_vertices];
+        this.totalHits = new long[num_vertices];
+        for (int i = 0; i < num_vertices; i++) {
+            MarkovVertex v = this.vertices[i];
+            this.vertexIds.put(v, i);
+            this.finish[i] = (v.isCommitVertex() || v.isAbortVertex());
+
+            // Probability tables
+            int num_partitions = v.probabilities[MarkovVertex.Probability.DONE.ordinal()].length;
+            this.doneProbabilities[i] = new float[num_partitions];
+            this.writeProbabilities[i] = new float[num_partitions];
+            for (int p = 0; p < num_partitions; p++) {
+                this.doneProbabilities[i][p] = v.getDoneProbability(p);
+                this.writeProbabilities[i][p] = v.getWriteProbability(p);
+            } // FOR
+            this.abortProbabilities[i] = v.getAbortProbability();
+            this.totalHits[i] = v.getTotalHits();
+        } // FOR
+
+        // Out-edges
+        List<MarkovEdge> edges = new ArrayList<MarkovEdge>();
+        this.edgeOffsets = new int[num_vertices + 1];
+        int maxDegree = 0;
+        for (int i = 0; i < num_vertices; i++) {
+            this.edgeOffsets[i] = edges.size();
+            Collection<MarkovEdge> out = markov.getOutEdges(this.vertices[i]);
+            if (out == null || out.isEmpty()) continue;
+            MarkovEdge sorted[] = out.toArray(new MarkovEdge[out.size()]);
+            Arrays.sort(sorted);
+            for (MarkovEdge e : sorted) edges.add(e);
+            maxDegree = Math.max(maxDegree, sorted.length);
+        } // FOR
+        this.edgeOffsets[num_vertices] = edges.size();
+        this.maxDegree = maxDegree;
+
+        this.edges = edges.toArray(new MarkovEdge[edges.size()]);
+        this.edgeDest = new int[edges.size()];
+        this.edgeProbabilities = new float[edges.size()];
+        for (int i = 0, cnt = edges.size(); i < cnt; i++) {
+            MarkovEdge e = edges.get(i);
+            Integer dest = this.vertexIds.get(markov.getDest(e));
+            if (dest == null) {
+                // Somebody added a new vertex after we started
+                throw new ConcurrentModificationException("Missing destination vertex for " + e);
+            }
+            this.edgeDest[i] = dest.intValue();
+            this.edgeProbabilities[i] = e.getProbability();
+        } // FOR
+
+        // Distinct Statements of the QUERY successors
+        List<Statement> stmts = new ArrayList<Statement>();
+        List<Integer> counters = new ArrayList<Integer>();
+        this.stmtOffsets = new int[num_vertices + 1];
+        for (int i = 0; i < num_vertices; i++) {
+            int first = stmts.size();
+            this.stmtOffsets[i] = first;
+            for (int e = this.edgeOffsets[i], end = this.edgeOffsets[i+1]; e < end; e++) {
+                MarkovVertex next = this.vertices[this.edgeDest[e]];
+                if (next.isQueryVertex() == false) continue;
+                Statement stmt = next.getCatalogItem();
+                int counter = next.getQueryCounter();
+                boolean found = false;
+                for (int j = first, last = stmts.size(); j < last; j++) {
+                    if (counters.get(j).intValue() == counter && stmts.get(j).equals(stmt)) {
+                        found = true;
+                        break;
+                    }
+                } // FOR
+                if (found == false) {
+                    stmts.add(stmt);
+                    counters.add(counter);
+                }
+            } // FOR
+        } // FOR
+        this.stmtOffsets[num_vertices] = stmts.size();
+        this.stmts = stmts.toArray(new Statement[stmts.size()]);
+        this.stmtCounters = new int[counters.size()];
+        for (int i = 0; i < this.stmtCounters.length; i++) {
+            this.stmtCounters[i] = counters.get(i).intValue();
+        } // FOR
+    }
+
+    // ----------------------------------------------------------------------------
+    // ACCESS METHODS
+    // ----------------------------------------------------------------------------
+
+    public MarkovGraph getMarkovGraph() {
+        return (this.markov);
+    }
+
+    /**
+     * Returns true if the MarkovGraph's structure has not changed since
+     * this was compiled.
+     */
+    public boolean isValid() {
+        return (this.version == this.markov.getVersion());
+    }
+
+    protected int getVersion() {
+        return (this.version);
+    }
+
+    public int getVertexCount() {
+        return (this.vertices.length);
+    }
+
+    /**
+     * Returns the id of the given vertex or -1 if it is not in the compiled graph
+     * @param v
+     * @return
+     */
+    public int getVertexId(MarkovVertex v) {
+        Integer id = this.vertexIds.get(v);
+        return (id != null ? id.intValue() : -1);
+    }
+
+    public MarkovVertex getVertex(int id) {
+        return (this.vertices[id]);
+    }
+
+    /**
+     * Returns true if the given vertex is the COMMIT or ABORT vertex
+     */
+    public boolean isFinishVertex(int id) {
+        return (this.finish[id]);
+    }
+
+    /**
+     * Returns the largest number of out-edges for any vertex
+     */
+    public int getMaxDegree() {
+        return (this.maxDegree);
+    }
+
+    // ----------------------------------------------------------------------------
+    // VERTEX PROBABILITIES
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Returns the DONE probability of the given vertex at the partition when it was compiled.
+     * An id of -1 means a vertex that is not in the compiled graph, so we return the
+     * same default value as a new MarkovVertex.
+     * @param id
+     * @param partition
+     * @return
+     */
+    public float getDoneProbability(int id, int partition) {
+        if (id < 0) return (MarkovVertex.Probability.DONE.default_value);
+        return (this.doneProbabilities[id][partition]);
+    }
+
+    /**
+     * Returns the WRITE probability of the given vertex at the partition when it was compiled.
+     * @see CompiledMarkovGraph#getDoneProbability(int, int)
+     */
+    public float getWriteProbability(int id, int partition) {
+        if (id < 0) return (MarkovVertex.Probability.WRITE.default_value);
+        return (this.writeProbabilities[id][partition]);
+    }
+
+    /**
+     * Returns the ABORT probability of the given vertex when it was compiled.
+     * @see CompiledMarkovGraph#getDoneProbability(int, int)
+     */
+    public float getAbortProbability(int id) {
+        if (id < 0) return (MarkovVertex.Probability.ABORT.default_value);
+        return (this.abortProbabilities[id]);
+    }
+
+    /**
+     * Returns the number of times that the given vertex had been traversed when it was compiled.
+     * @see CompiledMarkovGraph#getDoneProbability(int, int)
+     */
+    public long getTotalHits(int id) {
+        if (id < 0) return (0);
+        return (this.totalHits[id]);
+    }
+
+    // ----------------------------------------------------------------------------
+    // EDGES
+    // ----------------------------------------------------------------------------
+
+    /**
+     * The offset of the first out-edge for the given vertex
+     */
+    public int getFirstEdge(int id) {
+        return (this.edgeOffsets[id]);
+    }
+
+    /**
+     * One past the offset of the last out-edge for the given vertex
+     */
+    public int getEndEdge(int id) {
+        return (this.edgeOffsets[id+1]);
+    }
+
+    public MarkovEdge getEdge(int edge) {
+        return (this.edges[edge]);
+    }
+
+    public int getEdgeDest(int edge) {
+        return (this.edgeDest[edge]);
+    }
+
+    public float getEdgeProbability(int edge) {
+        return (this.edgeProbabilities[edge]);
+    }
+
+    /**
+     * Returns the offset of the out-edge from the given vertex to the QUERY vertex
+     * for the Statement invocation, or -1 if there is no such edge.
+     * @param id
+     * @param stmt
+     * @param counter
+     * @param partitions
+     * @param past_partitions
+     * @return
+     */
+    public int findQueryEdge(int id, Statement stmt, int counter, PartitionSet partitions, PartitionSet past_partitions) {
+        for (int e = this.edgeOffsets[id], end = this.edgeOffsets[id+1]; e < end; e++) {
+            MarkovVertex next = this.vertices[this.edgeDest[e]];
+            if (next.isQueryVertex() && next.isEqual(stmt, partitions, past_partitions, counter, true)) {
+                return (e);
+            }
+        } // FOR
+        return (-1);
+    }
+
+    // ----------------------------------------------------------------------------
+    // NEXT STATEMENTS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * The offset of the first distinct Statement that the given vertex's successors execute
+     */
+    public int getFirstStatement(int id) {
+        return (this.stmtOffsets[id]);
+    }
+
+    /**
+     * One past the offset of the last distinct Statement for the given vertex
+     */
+    public int getEndStatement(int id) {
+        return (this.stmtOffsets[id+1]);
+    }
+
+    public Statement getStatement(int offset) {
+        return (this.stmts[offset]);
+    }
+
+    public int getStatementCounter(int offset) {
+        return (this.stmtCounters[offset]);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s{%s, vertices=%d, edges=%d, version=%d}",
+                             this.getClass().getSimpleName(), this.markov,
+                             this.vertices.length, this.edgeDest.length, this.version);
+    }
+}
@@ -3,12 +3,16 @@ package edu.brown.markov;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
@@ -36,8 +40,11 @@ import edu.brown.utils.MathUtil;
 import edu.brown.utils.PartitionEstimator;
 import edu.brown.utils.PartitionSet;
 import edu.brown.utils.ProjectType;
+import edu.brown.utils.ThreadUtil;
 import edu.brown.workload.QueryTrace;
 import edu.brown.workload.TransactionTrace;
+import edu.uci.ics.jung.graph.util.EdgeType;
+import edu.uci.ics.jung.graph.util.Pair;
 
 /**
  * Markov Model Graph
@@ -70,6 +77,11 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
      */
     public static final int MIN_HITS_FOR_NO_ABORT = 5;
     
+    /**
+     * Single background thread that rebuilds the CompiledMarkovGraphs
+     */
+    private static ExecutorService compileExecutor;
+    
     // ----------------------------------------------------------------------------
     // INSTANCE DATA MEMBERS
     // ----------------------------------------------------------------------------
@@ -84,6 +96,15 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
     private transient double xact_accuracy = 1.0;
     /** How many times have we recomputed the probabilities for this graph */
     private transient int recompute_count = 0;
+    
+    /** Incremented whenever the structure or the probabilities of this graph change */
+    private transient final AtomicInteger version = new AtomicInteger(0);
+    /** The last array-based copy of this graph */
+    private transient volatile CompiledMarkovGraph compiled = null;
+    /** Whether we have already queued up a request to compile this graph */
+    private transient final AtomicBoolean compilePending = new AtomicBoolean(false);
+    /** If true, then this graph is only modified by a background thread that publishes its own compiled graphs */
+    private transient volatile boolean background_updates = false;
 
     // ----------------------------------------------------------------------------
     // CONSTRUCTORS
@@ -224,9 +245,31 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
                 assert(this.cache_specialVertices[idx] == null) : "Trying add duplicate " + vtype + " vertex";
                 this.cache_specialVertices[idx] = v;
             }
+            this.version.incrementAndGet();
         }
         return (ret);
     }
+    
+    @Override
+    public boolean addEdge(MarkovEdge edge, Pair<? extends MarkovVertex> endpoints, EdgeType edgeType) {
+        boolean ret = super.addEdge(edge, endpoints, edgeType);
+        if (ret) this.version.incrementAndGet();
+        return (ret);
+    }
+    
+    @Override
+    public boolean removeVertex(MarkovVertex v) {
+        boolean ret = super.removeVertex(v);
+        if (ret) this.version.incrementAndGet();
+        return (ret);
+    }
+    
+    @Override
+    public boolean removeEdge(MarkovEdge edge) {
+        boolean ret = super.removeEdge(edge);
+        if (ret) this.version.incrementAndGet();
+        return (ret);
+    }
 
     /**
      * For the given Vertex type, return the special vertex
@@ -311,6 +354,7 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
         if (stmt_vertices == null) {
             this.buildCache();
             stmt_vertices = this.cache_stmtVertices.get(a);
+            if (stmt_vertices == null) return (null);
         }
         for (MarkovVertex v : stmt_vertices) {
             if (v.isEqual(a, partitions, past_partitions, queryInstanceIndex)) {
@@ -336,6 +380,94 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
         return (successors);
     }
     
+    // ----------------------------------------------------------------------------
+    // COMPILED GRAPH
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * Returns the number of times that the structure or the probabilities
+     * of this graph have been changed. 
+     */
+    public int getVersion() {
+        return (this.version.get());
+    }
+    
+    /**
+     * Build a new CompiledMarkovGraph for the current state of this graph.
+     * The caller must make sure that nobody else is modifying the graph at the same time. 
+     * @return
+     */
+    public CompiledMarkovGraph compile() {
+        int v = this.version.get();
+        CompiledMarkovGraph c = new CompiledMarkovGraph(this, v);
+        synchronized (this) {
+            // Don't let a compile that was queued up before replace a newer version
+            if (this.version.get() == v && (this.compiled == null || this.compiled.getVersion() < v)) {
+                this.compiled = c;
+            }
+        } // SYNCH
+        if (debug.val) LOG.debug("Compiled " + c);
+        return (c);
+    }
+    
+    /**
+     * Returns the CompiledMarkovGraph for this graph if it is up-to-date.
+     * Otherwise we will queue up a request to build a new one in the background
+     * and return null. If this graph is updated in the background, then we will
+     * always return the last CompiledMarkovGraph that was published.
+     * @return
+     */
+    public CompiledMarkovGraph getCompiledGraph() {
+        CompiledMarkovGraph c = this.compiled;
+        if (c != null && (this.background_updates || c.isValid())) return (c);
+        this.scheduleCompile();
+        return (null);
+    }
+    
+    /**
+     * Setting this flag to true means that only one background thread will modify this graph
+     * and that it will call compile() whenever it wants the estimators to see its changes.
+     * The first time that it is set we publish a CompiledMarkovGraph of the graph as it is now,
+     * so that the estimators never have to look at the graph itself. The background thread
+     * must call this before it changes anything.
+     * @param flag
+     */
+    public synchronized void setBackgroundUpdates(boolean flag) {
+        if (flag && this.background_updates == false) {
+            this.compile();
+        }
+        this.background_updates = flag;
+    }
+    public boolean isBackgroundUpdates() {
+        return (this.background_updates);
+    }
+    
+    private void scheduleCompile() {
+        if (this.compilePending.compareAndSet(false, true) == false) return;
+        getCompileExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                MarkovGraph.this.compilePending.set(false);
+                try {
+                    MarkovGraph.this.compile();
+                } catch (ConcurrentModificationException ex) {
+                    // The graph was modified while we were copying it.
+                    // We'll try again the next time somebody asks for it.
+                    if (debug.val) LOG.debug("Failed to compile " + MarkovGraph.this, ex);
+                } catch (RuntimeException ex) {
+                    LOG.warn("Failed to compile " + MarkovGraph.this, ex);
+                }
+            }
+        });
+    }
+    
+    private static synchronized ExecutorService getCompileExecutor() {
+        if (compileExecutor == null) {
+            compileExecutor = Executors.newSingleThreadExecutor(ThreadUtil.getThreadFactory("markov-compile", null));
+        }
+        return (compileExecutor);
+    }
+    
     // ----------------------------------------------------------------------------
     // STATISTICAL MODEL METHODS
     // ----------------------------------------------------------------------------
@@ -366,6 +498,10 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
         this.calculateVertexProbabilities(partitions);
         
         this.recompute_count++;
+        
+        // Our compiled graph has the old probabilities, so we need a new one
+        this.version.incrementAndGet();
+        if (this.compiled != null && this.background_updates == false) this.scheduleCompile();
     }
 
     /**
@@ -600,6 +736,41 @@ public class MarkovGraph extends AbstractDirectedGraph<MarkovVertex, MarkovEdge>
         return (path);
     }
     
+    /**
+     * Update the instance counters for the path that a txn took at runtime.
+     * Any QUERY vertex in the path that is not in this graph will be replaced by the
+     * matching vertex in this graph, or added to the graph if there isn't one. 
+     * This is not thread-safe. 
+     * @param path The vertices that the txn visited, starting at the START vertex
+     * @param status The txn's final status
+     * @return false if this graph does not have a finish vertex for the status
+     */
+    public boolean processObservedPath(MarkovVertex path[], Status status) {
+        MarkovVertex finish = this.getFinishVertex(status);
+        if (finish == null) return (false);
+        
+        MarkovVertex previous = this.getStartVertex();
+        previous.incrementInstanceHits();
+        for (MarkovVertex v : path) {
+            if (v.isQueryVertex() == false) continue;
+            MarkovVertex existing = this.getVertex(v.getCatalogItem(), v.getPartitions(),
+                                                   v.getPastPartitions(), v.getQueryCounter());
+            if (existing == null) {
+                this.addVertex(v);
+            } else {
+                v = existing;
+            }
+            MarkovEdge e = this.addToEdge(previous, v);
+            v.incrementInstanceHits();
+            e.incrementInstanceHits();
+            previous = v;
+        } // FOR
+        MarkovEdge e = this.addToEdge(previous, finish);
+        finish.incrementInstanceHits();
+        e.incrementInstanceHits();
+        return (true);
+    }
+    
     // ----------------------------------------------------------------------------
     // UTILITY METHODS
     // ----------------------------------------------------------------------------
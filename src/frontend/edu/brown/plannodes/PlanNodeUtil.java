@@ -33,6 +33,7 @@ import org.voltdb.plannodes.AbstractScanPlanNode;
 import org.voltdb.plannodes.AggregatePlanNode;
 import org.voltdb.plannodes.DeletePlanNode;
 import org.voltdb.plannodes.DistinctPlanNode;
+import org.voltdb.plannodes.HashJoinPlanNode;
 import org.voltdb.plannodes.IndexScanPlanNode;
 import org.voltdb.plannodes.InsertPlanNode;
 import org.voltdb.plannodes.LimitPlanNode;
@@ -236,7 +237,8 @@ public abstract class PlanNodeUtil {
             // JOINS
             // ---------------------------------------------------
             case NESTLOOP:
-            case NESTLOOPINDEX: {
+            case NESTLOOPINDEX:
+            case HASHJOIN: {
                 AbstractJoinPlanNode cast_node = (AbstractJoinPlanNode) node;
                 if (cast_node.getPredicate() != null)
                     exps.add(cast_node.getPredicate());
@@ -326,7 +328,8 @@ public abstract class PlanNodeUtil {
                     }
                     // JOINS
                     case NESTLOOP:
-                    case NESTLOOPINDEX: {
+                    case NESTLOOPINDEX:
+                    case HASHJOIN: {
                         AbstractJoinPlanNode cast_node = (AbstractJoinPlanNode) node;
                         exps.add(cast_node.getPredicate());
                         break;
@@ -762,6 +765,10 @@ public abstract class PlanNodeUtil {
         } else if (node instanceof NestLoopPlanNode) {
             // Nothing
 
+            // HashJoinPlanNode
+        } else if (node instanceof HashJoinPlanNode) {
+            // Nothing
+
         } else if (node instanceof OrderByPlanNode) {
             OrderByPlanNode cast_node = (OrderByPlanNode) node;
             sb.append(inner_spacer).append(PlanNodeUtil.debugOutputColumns("SortColumns", cast_node.getSortColumnGuids(), line_spacer));
@@ -14,6 +14,12 @@ public class SpecExecProfiler extends AbstractProfiler {
      */
     public final ProfileMeasurement compute_time = new ProfileMeasurement("COMPUTE_TIME", true);
     
+    /**
+     * The amount of time that speculative txns spent executing before they
+     * were rolled back because of their dtxn.
+     */
+    public final ProfileMeasurement rollback_time = new ProfileMeasurement("ROLLBACK_TIME", false);
+    
     /**
      * The current queue size when SpecExecScheduler.next() is invoked
      */
@@ -47,11 +53,24 @@ public class SpecExecProfiler extends AbstractProfiler {
      */
     public int interrupts = 0;
     
+    /**
+     * The number of speculative txns that were committed
+     */
+    public int committed = 0;
+    
+    /**
+     * The number of speculative txns that had to be rolled back and restarted
+     * because of their dtxn.
+     */
+    public int aborted = 0;
+    
     @Override
     public void reset() {
         super.reset();
         this.success = 0;
         this.interrupts = 0;
+        this.committed = 0;
+        this.aborted = 0;
         this.num_comparisons.clear();
         this.num_matches.clear();
         this.num_executed.clear();
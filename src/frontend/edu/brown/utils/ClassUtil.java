@@ -349,7 +349,9 @@ public abstract class ClassUtil {
     public static Class<?> getClass(String class_name) {
         Class<?> target_class = null;
         try {
-            ClassLoader loader = ClassLoader.getSystemClassLoader();
+            // Use the loader that loaded us instead of the system loader so that
+            // this still works when we're running inside of an isolated loader
+            ClassLoader loader = ClassUtil.class.getClassLoader();
             target_class = (Class<?>) loader.loadClass(class_name);
         } catch (Exception ex) {
             throw new RuntimeException("Failed to retrieve class for " + class_name, ex);
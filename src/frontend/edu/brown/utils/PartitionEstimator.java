@@ -70,8 +70,10 @@ import edu.brown.catalog.special.MultiProcParameter;
 import edu.brown.catalog.special.NullProcParameter;
 import edu.brown.catalog.special.RandomProcParameter;
 import edu.brown.catalog.special.VerticalPartitionColumn;
+import edu.brown.expressions.ExpressionUtil;
 import edu.brown.hashing.AbstractHasher;
 import edu.brown.hashing.DefaultHasher;
+import edu.brown.hashing.RangeHasher;
 import edu.brown.hstore.HStoreConstants;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
@@ -582,6 +584,7 @@ public class PartitionEstimator {
                         for (Table catalog_tbl : frag_tables) {
                             Column catalog_col = null;
                             CatalogType catalog_param = null;
+                            ExpressionType expType = pair.getComparisonExp();
                             
                             // *********************************** DEBUG ***********************************
                             if (trace.val) {
@@ -619,10 +622,12 @@ public class PartitionEstimator {
                             
                             } 
                             // (StmtParameter or ConstantValue) = Column
+                            // We always store the comparison as "Column OP Parameter"
                             else if (pair.getSecond().getParent() != null && pair.getSecond().getParent().equals(catalog_tbl) && 
                                     (pair.getFirst() instanceof StmtParameter || pair.getFirst() instanceof ConstantValue)) {
                                 catalog_col = (Column) pair.getSecond();
                                 catalog_param = pair.getFirst();
+                                expType = ExpressionUtil.reverseComparison(expType);
                             }
                             if (catalog_col != null && catalog_param != null) {
                                 // If this table is a view, then we need to check whether 
@@ -638,8 +643,8 @@ public class PartitionEstimator {
                                                             CatalogUtil.getDisplayName(catalog_frag),
                                                             CatalogUtil.getDisplayName(catalog_col),
                                                             CatalogUtil.getDisplayName(catalog_param)));
-                                stmt_cache.put(catalog_col, catalog_param, pair.getComparisonExp(), catalog_tbl);
-                                frag_cache.put(catalog_col, catalog_param, pair.getComparisonExp(), catalog_tbl);
+                                stmt_cache.put(catalog_col, catalog_param, expType, catalog_tbl);
+                                frag_cache.put(catalog_col, catalog_param, expType, catalog_tbl);
                             }
                         } // FOR (tables)
                         if (trace.val)
@@ -715,11 +720,13 @@ public class PartitionEstimator {
                     for (CatalogPair pair : update_cset) {
                         Column catalog_col = null;
                         CatalogType catalog_param = null;
+                        ExpressionType expType = pair.getComparisonExp();
 
                         // For now we only care up look-ups using StmtParameters or ConstantValues
                         if (pair.getFirst() instanceof StmtParameter || pair.getFirst() instanceof ConstantValue) {
                             catalog_col = (Column) pair.getSecond();
                             catalog_param = pair.getFirst();
+                            expType = ExpressionUtil.reverseComparison(expType);
                         }
                         else if (pair.getSecond() instanceof StmtParameter || pair.getSecond() instanceof ConstantValue) {
                             catalog_col = (Column) pair.getFirst();
@@ -733,7 +740,7 @@ public class PartitionEstimator {
                         }
                         assert (catalog_col != null);
                         assert (catalog_param != null);
-                        stmt_cache.put(catalog_col, catalog_param, pair.getComparisonExp(), catalog_tbl);
+                        stmt_cache.put(catalog_col, catalog_param, expType, catalog_tbl);
                         found = true;
                     } // FOR
                     if (trace.val && found)
@@ -1377,7 +1384,8 @@ public class PartitionEstimator {
                                                          params,
                                                          target.is_array,
                                                          target.predicates.get(mc_column),
-                                                         mc_column);
+                                                         mc_column,
+                                                         false);
                             }
 
                             // Unless we have partition values for both keys,
@@ -1432,7 +1440,8 @@ public class PartitionEstimator {
                     } else {
                         if (trace.val)
                             LOG.trace("Calculating partitions normally for " + target);
-                        this.calculatePartitions(table_partitions, params, target.is_array, predicates, catalog_col);
+                        this.calculatePartitions(table_partitions, params, target.is_array,
+                                                 predicates, catalog_col, target.isMarkedContainsOR());
                     }
                 }
             } // ELSE
@@ -1467,31 +1476,36 @@ public class PartitionEstimator {
      * 
      * @param partitions
      * @param params
+     * @param is_array
      * @param predicates
      * @param catalog_col
+     * @param contains_or Whether the predicates came from a query with an OR
      */
     private void calculatePartitions(final PartitionSet partitions,
                                      final Object params[],
                                      final boolean is_array[],
                                      final List<Pair<ExpressionType, CatalogType>> predicates,
-                                     final Column catalog_col) throws Exception {
+                                     final Column catalog_col,
+                                     final boolean contains_or) throws Exception {
+        // If any of the predicates is not an equality comparison, then the
+        // whole set of them is a range look-up. Only the RangeHasher knows which
+        // partitions store a range of values. Everybody else has to go to all partitions.
+        for (Pair<ExpressionType, CatalogType> pair : predicates) {
+            if (pair.getFirst() != ExpressionType.COMPARE_EQUAL) {
+                if (this.calculateRangePartitions(partitions, params, is_array,
+                                                  predicates, catalog_col, contains_or) == false) {
+                    partitions.addAll(this.all_partitions);
+                }
+                return;
+            }
+        } // FOR
+        
         // Note that we have to go through all of the mappings from the partitioning column
         // to parameters. This can occur when the partitioning column is referenced multiple times
         // This allows us to handle complex WHERE clauses and what not.
         for (Pair<ExpressionType, CatalogType> pair : predicates) {
-            ExpressionType expType = pair.getFirst();
             CatalogType param = pair.getSecond();
             
-            // HACK HACK HACK
-            // If this is not an equality comparison, then it has to go to all partitions.
-            // If we ever want to support smarter range partitioning, then 
-            // we will need to move the logic that examines the expression type into
-            // the hasher code.
-            if (expType != ExpressionType.COMPARE_EQUAL) {
-                partitions.addAll(this.all_partitions);
-                break;
-            }
-            
             // STATEMENT PARAMETER
             // This is the common case
             if (param instanceof StmtParameter) {
@@ -1525,10 +1539,7 @@ public class PartitionEstimator {
             // CONSTANT VALUE
             // This is more rare
             else if (param instanceof ConstantValue) {
-                ConstantValue const_param = (ConstantValue)param;
-                VoltType vtype = VoltType.get(const_param.getType());
-                Object const_value = VoltTypeUtil.getObjectFromString(vtype, const_param.getValue());
-                int partition_id = this.hasher.hash(const_value);
+                int partition_id = this.hasher.hash(this.getConstantValue((ConstantValue)param), catalog_col);
                 partitions.add(partition_id);
             }
             // BUSTED!
@@ -1538,6 +1549,98 @@ public class PartitionEstimator {
         } // FOR
         return;
     }
+    
+    /**
+     * Calculate the partitions touched by a range look-up on the given column.
+     * The predicates are all AND-ed together, so we intersect them into a single
+     * inclusive range [min, max] and then ask the RangeHasher where it lives.
+     * Returns false if we could not figure out the range, in which case the
+     * caller has to broadcast.
+     * 
+     * @param partitions
+     * @param params
+     * @param is_array
+     * @param predicates
+     * @param catalog_col
+     * @param contains_or
+     * @return
+     */
+    private boolean calculateRangePartitions(final PartitionSet partitions,
+                                             final Object params[],
+                                             final boolean is_array[],
+                                             final List<Pair<ExpressionType, CatalogType>> predicates,
+                                             final Column catalog_col,
+                                             final boolean contains_or) throws Exception {
+        // We can't intersect the predicates if they may be OR-ed together
+        if (contains_or || (this.hasher instanceof RangeHasher) == false) {
+            return (false);
+        }
+        RangeHasher rangeHasher = (RangeHasher)this.hasher;
+        Table catalog_tbl = catalog_col.getParent();
+        if (rangeHasher.hasRanges(catalog_tbl) == false) {
+            return (false);
+        }
+        
+        long min = Long.MIN_VALUE;
+        long max = Long.MAX_VALUE;
+        for (Pair<ExpressionType, CatalogType> pair : predicates) {
+            CatalogType param = pair.getSecond();
+            Object value = null;
+            if (param instanceof StmtParameter) {
+                int param_idx = ((StmtParameter)param).getIndex();
+                if (is_array[param_idx]) return (false);
+                value = params[param_idx];
+            } else if (param instanceof ConstantValue) {
+                value = this.getConstantValue((ConstantValue)param);
+            }
+            if ((value instanceof Long || value instanceof Integer ||
+                 value instanceof Short || value instanceof Byte) == false) {
+                return (false);
+            }
+            long val = ((Number)value).longValue();
+            
+            switch (pair.getFirst()) {
+                case COMPARE_EQUAL:
+                    min = Math.max(min, val);
+                    max = Math.min(max, val);
+                    break;
+                case COMPARE_GREATERTHAN:
+                    // Nothing is greater than the largest value
+                    if (val == Long.MAX_VALUE) return (false);
+                    min = Math.max(min, val + 1);
+                    break;
+                case COMPARE_GREATERTHANOREQUALTO:
+                    min = Math.max(min, val);
+                    break;
+                case COMPARE_LESSTHAN:
+                    // Nothing is less than the smallest value
+                    if (val == Long.MIN_VALUE) return (false);
+                    max = Math.min(max, val - 1);
+                    break;
+                case COMPARE_LESSTHANOREQUALTO:
+                    max = Math.min(max, val);
+                    break;
+                default:
+                    return (false);
+            } // SWITCH
+        } // FOR
+        
+        // An empty range won't match any tuples, but we don't know which
+        // partition to send it to, so we'll just let the caller broadcast it
+        if (min > max) {
+            return (false);
+        }
+        rangeHasher.getPartitions(catalog_tbl, min, max, partitions);
+        if (trace.val)
+            LOG.trace(String.format("%s RANGE [%d, %d] -> %s",
+                      catalog_col.fullName(), min, max, partitions));
+        return (true);
+    }
+    
+    private Object getConstantValue(ConstantValue const_param) throws Exception {
+        VoltType vtype = VoltType.get(const_param.getType());
+        return (VoltTypeUtil.getObjectFromString(vtype, const_param.getValue()));
+    }
 
     /**
      * Return the partition touched for a given procedure's parameter value.
@@ -27,9 +27,12 @@ package edu.brown.utils;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.BitSet;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
 import java.util.regex.Pattern;
 
 import org.json.JSONArray;
@@ -47,11 +50,26 @@ import edu.brown.hstore.HStoreConstants;
 /**
  * Container class that represents a list of partitionIds
  * This is the fastest way to represent a list of partitions in the system.
+ * The partition ids are stored in an array of 64-bit words, so all of the
+ * set operations work on a whole word at a time. You can walk through the
+ * set without boxing any of the ids by using {@link #next(int)}:
+ * <pre>
+ * for (int p = pset.next(0); p != HStoreConstants.NULL_PARTITION_ID; p = pset.next(p+1)) {
+ *     ...
+ * }
+ * </pre>
  * @author pavlo
  */
 public class PartitionSet implements Collection<Integer>, JSONSerializable, FastSerializable {
     
-    private final BitSet inner = new BitSet();
+    private static final int ADDRESS_BITS_PER_WORD = 6;
+    private static final int BITS_PER_WORD = 1 << ADDRESS_BITS_PER_WORD;
+    
+    /**
+     * The bitmap of partition ids. One word is enough for clusters
+     * with less than 64 partitions, so that's what we start with.
+     */
+    private long words[] = new long[1];
     private boolean contains_null = false;
     private int[] values = null;
 
@@ -97,6 +115,24 @@ public class PartitionSet implements Collection<Integer>, JSONSerializable, Fast
         this.addAll(partitions);
     }
     
+    // ----------------------------------------------------------------------------
+    // INTERNAL METHODS
+    // ----------------------------------------------------------------------------
+    
+    private static int wordIndex(int partition) {
+        return (partition >> ADDRESS_BITS_PER_WORD);
+    }
+    
+    /**
+     * Make sure that the bitmap has at least the given number of words
+     * @param num_words
+     */
+    private void ensureCapacity(int num_words) {
+        if (this.words.length < num_words) {
+            this.words = Arrays.copyOf(this.words, Math.max(this.words.length * 2, num_words));
+        }
+    }
+    
     // ----------------------------------------------------------------------------
     // API METHODS
     // ----------------------------------------------------------------------------
@@ -109,19 +145,44 @@ public class PartitionSet implements Collection<Integer>, JSONSerializable, Fast
      */
     public final int[] values() {
         if (this.values == null) {
-            int remaining = this.inner.cardinality();
-            int size = remaining + (this.contains_null ? 1 : 0);
-            this.values = new int[size];
+            int size = this.size();
+            int arr[] = new int[size];
             int idx = 0;
             if (this.contains_null) {
-                this.values[idx++] = HStoreConstants.NULL_PARTITION_ID;
+                arr[idx++] = HStoreConstants.NULL_PARTITION_ID;
             }
-            for (int i = 0; idx < size; i++) {
-                if (this.inner.get(i)) this.values[idx++] = i;
+            for (int p = this.next(0); p >= 0; p = this.next(p+1)) {
+                arr[idx++] = p;
             } // FOR
+            this.values = arr;
         }
         return (this.values);
     }
+    
+    /**
+     * Return the first partition id in this set that is greater than or equal
+     * to the given partition id. If there is no such partition, then this
+     * will return HStoreConstants.NULL_PARTITION_ID.
+     * <B>Note:</B> The null partition id is never returned by this method, 
+     * even if it is in this set. Use contains() to check for it separately. 
+     * @param fromPartition
+     * @return
+     */
+    public int next(int fromPartition) {
+        if (fromPartition < 0) fromPartition = 0;
+        int u = wordIndex(fromPartition);
+        if (u >= this.words.length) return (HStoreConstants.NULL_PARTITION_ID);
+        long word = this.words[u] & (-1L << fromPartition);
+        while (true) {
+            if (word != 0) {
+                return ((u * BITS_PER_WORD) + Long.numberOfTrailingZeros(word));
+            }
+            if (++u == this.words.length) break;
+            word = this.words[u];
+        } // WHILE
+        return (HStoreConstants.NULL_PARTITION_ID);
+    }
+    
     /**
      * Return first partition found in this PartitionSet. This is primarily
      * useful for single-partition txns when you just want the only partition in
@@ -130,54 +191,90 @@ public class PartitionSet implements Collection<Integer>, JSONSerializable, Fast
      * @throws IndexOutOfBoundsException
      */
     public int get() throws IndexOutOfBoundsException {
-        for (int partition = 0, cnt = this.inner.size(); partition < cnt; partition++) {
-            if (this.inner.get(partition)) return (partition);
-        } // FOR
+        int partition = this.next(0);
+        if (partition >= 0) return (partition);
         if (this.contains_null) return HStoreConstants.NULL_PARTITION_ID;
         throw new IndexOutOfBoundsException();
     }
     
+    /**
+     * Returns true if this set has at least one partition id in common
+     * with the given PartitionSet. 
+     * @param partitions
+     * @return
+     */
+    public boolean intersects(PartitionSet partitions) {
+        if (this.contains_null && partitions.contains_null) return (true);
+        for (int i = Math.min(this.words.length, partitions.words.length) - 1; i >= 0; i--) {
+            if ((this.words[i] & partitions.words[i]) != 0) return (true);
+        } // FOR
+        return (false);
+    }
+    
     @Override
     public boolean equals(Object obj) {
         if (obj instanceof PartitionSet) {
-            return this.inner.equals(((PartitionSet)obj).inner);
+            PartitionSet other = (PartitionSet)obj;
+            if (this.contains_null != other.contains_null) return (false);
+            long a[] = this.words;
+            long b[] = other.words;
+            if (a.length < b.length) {
+                long temp[] = a;
+                a = b;
+                b = temp;
+            }
+            for (int i = 0; i < a.length; i++) {
+                if (a[i] != (i < b.length ? b[i] : 0)) return (false);
+            } // FOR
+            return (true);
         }
         else if (obj instanceof Collection<?>) {
             Collection<?> other = (Collection<?>)obj;
-            if (this.inner.size() != other.size()) return (false);
+            if (this.size() != other.size()) return (false);
             return (this.containsAll(other));
         }
         return (false);
     }
     @Override
     public int hashCode() {
-        return this.inner.hashCode();
+        // Same as BitSet.hashCode() so trailing empty words don't matter
+        long h = 1234;
+        for (int i = this.words.length; --i >= 0; ) {
+            h ^= this.words[i] * (i + 1);
+        } // FOR
+        return ((int)((h >> 32) ^ h) + (this.contains_null ? 1 : 0));
     }
     @Override
     public String toString() {
-        String s = this.inner.toString(); 
-        // HACK
-        if (this.contains_null) {
-            s = s.substring(0, 1) +
-                HStoreConstants.NULL_PARTITION_ID + ", " +
-                s.substring(1);
-        }
-        return (s);
+        StringBuilder sb = new StringBuilder("{");
+        String add = "";
+        for (int partition : this.values()) {
+            sb.append(add).append(partition);
+            add = ", ";
+        } // FOR
+        return (sb.append("}").toString());
     }
     @Override
     public int size() {
-        return (this.contains_null ? 1 : 0) + this.inner.cardinality();
-        // return (this.values().length);
+        int cnt = (this.contains_null ? 1 : 0);
+        for (int i = 0; i < this.words.length; i++) {
+            cnt += Long.bitCount(this.words[i]);
+        } // FOR
+        return (cnt);
     }
     @Override
     public void clear() {
         this.contains_null = false;
-        this.inner.clear();
+        Arrays.fill(this.words, 0);
         this.values = null;
     }
     @Override
     public boolean isEmpty() {
-        return (this.contains_null == false && this.inner.isEmpty());
+        if (this.contains_null) return (false);
+        for (int i = 0; i < this.words.length; i++) {
+            if (this.words[i] != 0) return (false);
+        } // FOR
+        return (true);
     }
     @Override
     public boolean contains(Object o) {
@@ -190,32 +287,32 @@ public class PartitionSet implements Collection<Integer>, JSONSerializable, Fast
         return this.contains(partition.intValue());
     }
     public boolean contains(int partition) {
-        if (partition == HStoreConstants.NULL_PARTITION_ID) {
-            return (this.contains_null);
+        if (partition < 0) {
+            return (partition == HStoreConstants.NULL_PARTITION_ID && this.contains_null);
         }
-        return (this.inner.get(partition));
+        int u = wordIndex(partition);
+        return (u < this.words.length && (this.words[u] & (1L << partition)) != 0);
     }
     @Override
     public Object[] toArray() {
-        int length = this.inner.cardinality();
-        Object arr[] = new Object[length];
-        int idx = 0;
-        for (Integer partition : this) {
-            arr[idx++] = partition;
-        }
+        int values[] = this.values();
+        Object arr[] = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            arr[i] = Integer.valueOf(values[i]);
+        } // FOR
         return (arr);
     }
     @SuppressWarnings("unchecked")
     @Override
     public <T> T[] toArray(T[] a) {
-        int length = this.inner.cardinality();
-        if (a.length != length) {
-            a = (T[])new Object[length];
+        int values[] = this.values();
+        if (a.length < values.length) {
+            a = (T[])java.lang.reflect.Array.newInstance(a.getClass().getComponentType(), values.length);
         }
-        int idx = 0;
-        for (Integer partition : this) {
-            a[idx++] = (T)partition;
+        for (int i = 0; i < values.length; i++) {
+            a[i] = (T)Integer.valueOf(values[i]);
         } // FOR
+        if (a.length > values.length) a[values.length] = null;
         return (a);
     }
     @Override
@@ -226,7 +323,9 @@ public class PartitionSet implements Collection<Integer>, JSONSerializable, Fast
         if (partition == HStoreConstants.NULL_PARTITION_ID) {
             this.contains_null = true;
         } else {
-            this.inner.set(partition);
+            int u = wordIndex(partition);
+            this.ensureCapacity(u + 1);
+            this.words[u] |= (1L << partition);
         }
         this.values = null;
         return (true);
@@ -244,15 +343,18 @@ public class PartitionSet implements Collection<Integer>, JSONSerializable, Fast
         if (partition == HStoreConstants.NULL_PARTITION_ID) {
             ret = this.contains_null;
             this.contains_null = false;
-        } else if (this.inner.get(partition)) {
+        } else if (this.contains(partition)) {
             ret = true;
-            this.inner.set(partition, false);            
+            this.words[wordIndex(partition)] &= ~(1L << partition);
         }
         this.values = null;
         return (ret);
     }
     @Override
     public boolean containsAll(Collection<?> c) {
+        if (c instanceof PartitionSet) {
+            return (this.containsAll((PartitionSet)c));
+        }
         for (Object o : c) {
             if (this.contains(o) == false) {
                 return (false);
@@ -261,14 +363,12 @@ public class PartitionSet implements Collection<Integer>, JSONSerializable, Fast
         return (true);
     }
     public boolean containsAll(PartitionSet partitions) {
-        if (this.contains_null != partitions.contains_null) return (false);
-        if (this.inner.intersects(partitions.inner)) {
-            for (int partition = 0, cnt = partitions.inner.size(); partition < cnt; partition++) {
-                if (partitions.inner.get(partition) && this.inner.get(partition) == false) return (false);
-            } // FOR
-            return (true);
-        }
-        return (false);
+        if (partitions.contains_null && this.contains_null == false) return (false);
+        for (int i = 0; i < partitions.words.length; i++) {
+            long mine = (i < this.words.length ? this.words[i] : 0);
+            if ((partitions.words[i] & ~mine) != 0) return (false);
+        } // FOR
+        return (true);
     }
     public boolean addAll(int partitions[]) {
         boolean ret = true;
@@ -279,7 +379,19 @@ public class PartitionSet implements Collection<Integer>, JSONSerializable, Fast
     }
     @Override
     public boolean addAll(Collection<? extends Integer> partitions) {
+        if (partitions instanceof PartitionSet) {
+            return (this.addAll((PartitionSet)partitions));
+        }
         boolean ret = true;
+        // Avoid allocating an iterator for the lists that come 
+        // out of our protocol buffer messages
+        if (partitions instanceof List<?> && partitions instanceof RandomAccess) {
+            List<? extends Integer> list = (List<? extends Integer>)partitions;
+            for (int i = 0, cnt = list.size(); i < cnt; i++) {
+                ret = this.add(list.get(i).intValue()) && ret;
+            } // FOR
+            return (ret);
+        }
         for (Integer partition : partitions) {
             ret = this.add(partition.intValue()) && ret;
         } // FOR
@@ -287,11 +399,18 @@ public class PartitionSet implements Collection<Integer>, JSONSerializable, Fast
     }
     public boolean addAll(PartitionSet partitions) {
         if (partitions.contains_null) this.contains_null = true;
-        this.inner.or(partitions.inner);
+        this.ensureCapacity(partitions.words.length);
+        for (int i = 0; i < partitions.words.length; i++) {
+            this.words[i] |= partitions.words[i];
+        } // FOR
+        this.values = null;
         return (true);
     }
     @Override
     public boolean removeAll(Collection<?> c) {
+        if (c instanceof PartitionSet) {
+            return (this.removeAll((PartitionSet)c));
+        }
         boolean ret = false;
         for (Object o : c) {
             if (o instanceof Number) {
@@ -306,15 +425,22 @@ public class PartitionSet implements Collection<Integer>, JSONSerializable, Fast
             ret = this.contains_null;
             this.contains_null = false;
         }
-        if (this.inner.intersects(partitions.inner)) {
-            this.inner.andNot(partitions.inner);
-            ret = true;
-        }
+        for (int i = Math.min(this.words.length, partitions.words.length) - 1; i >= 0; i--) {
+            long word = this.words[i];
+            if ((word & partitions.words[i]) != 0) {
+                this.words[i] = word & ~partitions.words[i];
+                ret = true;
+            }
+        } // FOR
+        this.values = null;
         return (ret);
     }
     @Override
     public boolean retainAll(Collection<?> c) {
-        for (Integer partition : this) {
+        if (c instanceof PartitionSet) {
+            return (this.retainAll((PartitionSet)c));
+        }
+        for (int partition : this.values()) {
             if (c.contains(partition) == false) {
                 this.remove(partition);
             }
@@ -323,7 +449,10 @@ public class PartitionSet implements Collection<Integer>, JSONSerializable, Fast
     }
     public boolean retainAll(PartitionSet partitions) {
         if (this.contains_null != partitions.contains_null) this.contains_null = false;
-        this.inner.and(partitions.inner);
+        for (int i = 0; i < this.words.length; i++) {
+            this.words[i] &= (i < partitions.words.length ? partitions.words[i] : 0);
+        } // FOR
+        this.values = null;
         return (true);
     }
     @Override
@@ -390,32 +519,22 @@ public class PartitionSet implements Collection<Integer>, JSONSerializable, Fast
     // ----------------------------------------------------------------------------
     
     private class Itr implements Iterator<Integer> {
-        int idx = 0;
-        boolean shown_null = false;
-        boolean need_seek = true;
+        boolean shown_null = (contains_null == false);
+        int next = PartitionSet.this.next(0);
         @Override
         public boolean hasNext() {
-            this.need_seek = false;
-            if (contains_null && this.shown_null == false) {
-                return (true);
-            }
-            for (int cnt = inner.size(); this.idx < cnt; this.idx++) {
-                if (inner.get(this.idx)) {
-                    return (true);
-                }
-            } // FOR
-            return (false);
+            return (this.shown_null == false || this.next >= 0);
         }
         @Override
         public Integer next() {
-            if (this.need_seek) {
-                if (this.hasNext() == false) return (null);
-            }
-            if (contains_null && this.shown_null == false) {
+            if (this.shown_null == false) {
                 this.shown_null = true;
                 return (HStoreConstants.NULL_PARTITION_ID);
             }
-            return Integer.valueOf(this.idx++);
+            if (this.next < 0) throw new NoSuchElementException();
+            int partition = this.next;
+            this.next = PartitionSet.this.next(partition + 1);
+            return Integer.valueOf(partition);
         }
         @Override
         public void remove() {
@@ -442,9 +561,9 @@ public class PartitionSet implements Collection<Integer>, JSONSerializable, Fast
     @Override
     public void writeExternal(FastSerializer out) throws IOException {
         out.writeBoolean(this.contains_null);
-        out.writeShort(this.inner.cardinality());
-        for (Integer partition : this) {
-            out.writeInt(partition.intValue());
+        out.writeShort(this.size() - (this.contains_null ? 1 : 0));
+        for (int p = this.next(0); p >= 0; p = this.next(p+1)) {
+            out.writeInt(p);
         } // FOR
     }
     
@@ -467,7 +586,7 @@ public class PartitionSet implements Collection<Integer>, JSONSerializable, Fast
     @Override
     public void toJSON(JSONStringer stringer) throws JSONException {
         stringer.key("P").array();
-        for (Integer partition : this) {
+        for (int partition : this.values()) {
             stringer.value(partition);
         } // FOR
         stringer.endArray();
@@ -477,7 +596,7 @@ public class PartitionSet implements Collection<Integer>, JSONSerializable, Fast
     public void fromJSON(JSONObject json_object, Database catalog_db) throws JSONException {
         JSONArray json_arr = json_object.getJSONArray("P");
         for (int i = 0, cnt = json_arr.length(); i < cnt; i++) {
-            this.inner.set(json_arr.getInt(i));
+            this.add(json_arr.getInt(i));
         }
     }
 }
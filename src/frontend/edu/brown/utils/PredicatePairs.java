@@ -44,6 +44,7 @@ import org.voltdb.types.QueryType;
 import org.voltdb.utils.Pair;
 
 import edu.brown.catalog.CatalogPair;
+import edu.brown.expressions.ExpressionUtil;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.statistics.Histogram;
@@ -145,7 +146,9 @@ public class PredicatePairs extends ListOrderedSet<CatalogPair> {
         // and the other element is of the same type of match_class
         for (CatalogPair e : this) {
             if (e.getFirst().getClass().equals(match_class) && e.getSecond().getParent().equals(parent_search_key)) {
-                ret.add(CatalogPair.factory(e.getSecond(), e.getFirst(), e.getComparisonExp(), e.getQueryTypes()));
+                ret.add(CatalogPair.factory(e.getSecond(), e.getFirst(),
+                                            ExpressionUtil.reverseComparison(e.getComparisonExp()),
+                                            e.getQueryTypes()));
             } else if (e.getSecond().getClass().equals(match_class) && e.getFirst().getParent().equals(parent_search_key)) {
                 ret.add(e);
             }
@@ -35,4 +35,15 @@ public abstract class PrivateVoltTableFactory {
     public static VoltTable createVoltTableFromBuffer(ByteBuffer backing, boolean readOnly) {
         return new VoltTable(backing, readOnly);
     }
+
+    /**
+     * Create a read-only VoltTable directly on top of the given buffer without
+     * copying it. The table is only valid for as long as the buffer's contents are.
+     * @see VoltTable#isView()
+     */
+    public static VoltTable createVoltTableViewOfBuffer(ByteBuffer backing) {
+        VoltTable vt = new VoltTable(backing, true);
+        vt.m_view = true;
+        return vt;
+    }
 }
@@ -31,6 +31,7 @@ import org.voltdb.sysprocs.saverestore.SnapshotUtil;
 
 import edu.brown.catalog.CatalogUtil;
 import edu.brown.hstore.PartitionExecutor.SystemProcedureExecutionContext;
+import edu.brown.hstore.cmdlog.CommandLogWriter;
 
 /**
  * SnapshotSaveAPI extracts reusuable snapshot production code
@@ -54,10 +55,11 @@ public class SnapshotSaveAPI
      * @param startTime
      * @param context
      * @param hostname
+     * @param txnId the id of the txn that is taking this snapshot
      * @return VoltTable describing the results of the snapshot attempt
      */
     public VoltTable startSnapshotting(String file_path, String file_nonce, byte block,
-            long startTime, SystemProcedureExecutionContext context, String hostname)
+            long startTime, SystemProcedureExecutionContext context, String hostname, long txnId)
     {
         LOG.trace("Creating snapshot target and handing to EEs");
         final VoltTable result = SnapshotSave.constructNodeResultsTable();
@@ -66,7 +68,7 @@ public class SnapshotSaveAPI
         // m_taskListsForSites for the other sites and creating an appropriate
         // number of snapshot permits
         if (SnapshotSiteProcessor.m_snapshotCreateSetupPermit.tryAcquire()) {
-            createSetup(file_path, file_nonce, startTime, context, hostname, result);
+            createSetup(file_path, file_nonce, startTime, context, hostname, txnId, result);
         }
 
         // All sites wait for a permit to start their individual snapshot tasks
@@ -128,8 +130,8 @@ public class SnapshotSaveAPI
 
 
     private void createSetup(String file_path, String file_nonce,
-            long startTime, SystemProcedureExecutionContext context,
-            String hostname, final VoltTable result) {
+            long startTime, final SystemProcedureExecutionContext context,
+            String hostname, final long txnId, final VoltTable result) {
         {
             final int numLocalSites = VoltDB.instance().getLocalSites().values().size();
 
@@ -202,6 +204,14 @@ public class SnapshotSaveAPI
                                             "Snapshot " + snapshotRecord.nonce + " finished at " +
                                              completed.timeFinished + " and took " + duration
                                              + " seconds ");
+                                    
+                                    // Everything in the command log before this snapshot's
+                                    // txn is now covered by the snapshot, so the writer
+                                    // can get rid of the old segments
+                                    CommandLogWriter commandLogger = context.getHStoreSite().getCommandLogWriter();
+                                    if (completed.result && commandLogger != null) {
+                                        commandLogger.snapshotCompleted(txnId);
+                                    }
                                 }
                             }
                         };
@@ -589,6 +589,13 @@ public abstract class VoltProcedure implements Poolable {
                 Object rawResult = this.procMethod.invoke(this, this.procParams);
                 this.results = this.getResultsFromRawResults(rawResult);
                 if (this.results == null) results = HStoreConstants.EMPTY_RESULT;
+                // The results of the last batch may still be pointing into the EE's
+                // buffer, so we have to copy them before they are sent to the client
+                for (int i = 0; i < this.results.length; i++) {
+                    if (this.results[i] != null && this.results[i].isView()) {
+                        this.results[i] = this.results[i].copy();
+                    }
+                } // FOR
             } catch (IllegalAccessException e) {
                 // If reflection fails, invoke the same error handling that other exceptions do
                 throw new InvocationTargetException(e);
@@ -988,6 +995,9 @@ public abstract class VoltProcedure implements Poolable {
      * Execute the currently queued SQL {@link org.voltdb.SQLStmt statements} and return
      * the result tables. Boolean option allows caller to indicate if this is the final
      * batch for a procedure. If it's final, then additional optimizatons can be enabled.
+     * Note that the tables returned for the final batch may be read-only views over the
+     * ExecutionEngine's buffers (see {@link VoltTable#isView()}), so they should not be
+     * kept around after the procedure returns.
      *
      * @param isFinalSQL Is this the final batch for a procedure?
      * @return Result {@link org.voltdb.VoltTable tables} generated by executing the queued
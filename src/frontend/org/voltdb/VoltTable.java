@@ -121,6 +121,7 @@ public class VoltTable extends VoltTableRow implements FastSerializable {
     static final AtomicInteger expandCountDouble = new AtomicInteger(0);
 
     boolean m_readOnly = false;
+    boolean m_view = false;
     int m_rowStart = -1; // the beginning of the row data (points to before the row count int)
     int m_rowCount = -1;
     int m_colCount = -1;
@@ -329,6 +330,34 @@ public class VoltTable extends VoltTableRow implements FastSerializable {
         return (m_buffer);
     }
 
+    /**
+     * End users should not call this method.
+     * Returns true if this table does not own its backing buffer but is instead a
+     * read-only view over a buffer that belongs to someone else (e.g., the
+     * ExecutionEngine's result buffer). The contents of a view are only valid until
+     * the owner of the buffer writes to it again, so anything that needs to hold on
+     * to the table after that must use {@link #copy()}.
+     */
+    public boolean isView() {
+        return (m_view);
+    }
+
+    /**
+     * Generates a duplicate of this table, including all of its rows, that is
+     * backed by its own buffer.
+     * @return An <tt>VoltTable</tt> with the same schema and contents as the original.
+     */
+    public final VoltTable copy() {
+        assert(verifyTableInvariants());
+        final ByteBuffer src = m_buffer.duplicate();
+        src.limit(src.position());
+        src.position(0);
+        final ByteBuffer buf = ByteBuffer.allocate(src.remaining());
+        buf.put(src);
+        buf.flip();
+        return (new VoltTable(buf, m_readOnly));
+    }
+
     /**
      * Delete all row data. Column data is preserved.
      * Useful for reusing an <tt>VoltTable</tt>.
@@ -432,7 +432,9 @@ public class DDLCompiler {
 
         // set the type of the index based on it's name (giant hack)
         String indexNameNoCase = name.toLowerCase();
-        if (indexNameNoCase.contains("tree"))
+        if (indexNameNoCase.contains("btree"))
+            index.setType(IndexType.BTREE.getValue());
+        else if (indexNameNoCase.contains("tree"))
             index.setType(IndexType.BALANCED_TREE.getValue());
         else if (indexNameNoCase.contains("array"))
                 index.setType(IndexType.ARRAY.getValue());
@@ -492,7 +494,9 @@ public class DDLCompiler {
                 else {
                     // if the constraint name contains index type hints, exercise them (giant hack)
                     String constraintNameNoCase = name.toLowerCase();
-                    if (constraintNameNoCase.contains("tree"))
+                    if (constraintNameNoCase.contains("btree"))
+                        catalog_index.setType(IndexType.BTREE.getValue());
+                    else if (constraintNameNoCase.contains("tree"))
                         catalog_index.setType(IndexType.BALANCED_TREE.getValue());
                     if (constraintNameNoCase.contains("array"))
                         catalog_index.setType(IndexType.ARRAY.getValue());
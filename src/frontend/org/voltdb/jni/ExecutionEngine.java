@@ -40,6 +40,7 @@ import org.voltdb.utils.DBBPool.BBContainer;
 import org.voltdb.utils.LogKeys;
 import org.voltdb.utils.VoltLoggerFactory;
 
+import edu.brown.hashing.AbstractHasher;
 import edu.brown.hstore.HStore;
 import edu.brown.hstore.PartitionExecutor;
 import edu.brown.logging.LoggerUtil;
@@ -331,6 +332,31 @@ public abstract class ExecutionEngine implements FastDeserializer.Deserializatio
                                                                        long txnId, long lastCommittedTxnId,
                                                                        long undoQuantumToken) throws EEException;
 
+    /**
+     * Run multiple query plan fragments, but the VoltTables in the returned DependencySet
+     * are allowed to be read-only views over the engine's result buffer instead of copies.
+     * These tables are only valid until the next time that the engine is invoked, so
+     * the caller must use {@link VoltTable#copy()} on any table that it needs to keep
+     * around longer than that. Engines that can't do this just return regular tables.
+     */
+    public DependencySet executeQueryPlanFragmentsAndGetDependencyViews(long[] planFragmentIds,
+                                                                       int numFragmentIds,
+                                                                       int[] input_depIds,
+                                                                       int[] output_depIds,
+                                                                       ParameterSet[] parameterSets,
+                                                                       int numParameterSets,
+                                                                       long txnId, long lastCommittedTxnId,
+                                                                       long undoQuantumToken) throws EEException {
+        return (this.executeQueryPlanFragmentsAndGetDependencySet(planFragmentIds,
+                                                                  numFragmentIds,
+                                                                  input_depIds,
+                                                                  output_depIds,
+                                                                  parameterSets,
+                                                                  numParameterSets,
+                                                                  txnId, lastCommittedTxnId,
+                                                                  undoQuantumToken));
+    }
+
 //    abstract public DependencySet executeQueryPlanFragmentsAndGetDependencySet(long[] planFragmentIds,
 //            int numFragmentIds,
 //            int[] input_depIds,
@@ -447,6 +473,16 @@ public abstract class ExecutionEngine implements FastDeserializer.Deserializatio
      */
     public abstract int hashinate(Object value, int partitionCount);
 
+    /**
+     * Send the given hasher's current mapping from partitioning column values
+     * to partitions to the ExecutionEngine. The EE uses this mapping instead of
+     * its own hashinator to check that the tuples written by INSERT and UPDATE
+     * statements belong to its partition.
+     * @param hasher
+     * @throws EEException
+     */
+    public abstract void updateHasher(AbstractHasher hasher) throws EEException;
+
     /*
      * Declare the native interface. Structurally, in Java, it would be cleaner to
      * declare this in ExecutionEngineJNI.java. However, that would necessitate multiple
@@ -617,6 +653,15 @@ public abstract class ExecutionEngine implements FastDeserializer.Deserializatio
      */
     protected native int nativeHashinate(long pointer, int partitionCount);
 
+    /**
+     * Replace the EE's mapping from partitioning column values to partitions
+     * with the one that AbstractHasher.serializeForExecutionEngine() wrote into
+     * the input parameter buffer.
+     * @param pointer
+     * @return
+     */
+    protected native int nativeUpdateHasher(long pointer);
+
     /**
      * @param nextUndoToken The undo token to associate with future work
      * @return true for success false for failure
@@ -765,6 +810,26 @@ public abstract class ExecutionEngine implements FastDeserializer.Deserializatio
      * @throws EEException
      */
     protected native int nativeTrackingWriteSet(long pointer, long txnId) throws EEException;
+    
+    /**
+     * Returns true if the first txn read or wrote a tuple that the second txn wrote.
+     * The read/write sets are compared inside of the EE so that they do not
+     * need to be copied out.
+     * @param txnId0
+     * @param txnId1
+     * @throws EEException
+     */
+    public abstract boolean trackingConflict(Long txnId0, Long txnId1) throws EEException;
+    
+    /**
+     * Returns 1 if the first txn read or wrote a tuple that the second txn wrote.
+     * @param pointer
+     * @param txnId0
+     * @param txnId1
+     * @return
+     * @throws EEException
+     */
+    protected native int nativeTrackingConflict(long pointer, long txnId0, long txnId1) throws EEException;
 
     
     // ----------------------------------------------------------------------------
@@ -50,6 +50,7 @@ import org.voltdb.messaging.FastSerializer;
 import org.voltdb.utils.DBBPool.BBContainer;
 import org.voltdb.utils.NotImplementedException;
 
+import edu.brown.hashing.AbstractHasher;
 import edu.brown.hstore.HStore;
 import edu.brown.hstore.PartitionExecutor;
 
@@ -131,7 +132,8 @@ public class ExecutionEngineIPC extends ExecutionEngine {
         ExportAction(20),
         RecoveryMessage(21),
         TableHashCode(22),
-        Hashinate(23);
+        Hashinate(23),
+        UpdateHasher(24);
         Commands(final int id) {
             m_id = id;
         }
@@ -1460,6 +1462,35 @@ public class ExecutionEngineIPC extends ExecutionEngine {
         }
     }
 
+    @Override
+    public void updateHasher(AbstractHasher hasher) throws EEException {
+        final FastSerializer fser = new FastSerializer();
+        try {
+            hasher.serializeForExecutionEngine(fser);
+        } catch (final IOException exception) {
+            throw new RuntimeException(exception);
+        }
+        final ByteBuffer mapping = fser.getBuffer();
+        
+        m_data.clear();
+        if (m_data.capacity() < mapping.remaining() + 4) {
+            m_data = ByteBuffer.allocate(mapping.remaining() + 100);
+        }
+        m_data.putInt(Commands.UpdateHasher.m_id);
+        m_data.put(mapping);
+        
+        int result = ExecutionEngine.ERRORCODE_ERROR;
+        try {
+            m_data.flip();
+            m_connection.write();
+            result = m_connection.readStatusByte();
+        } catch (final IOException e) {
+            System.out.println("Exception: " + e.getMessage());
+            throw new RuntimeException(e);
+        }
+        checkErrorCode(result);
+    }
+    
     @Override
     public void trackingEnable(Long txnId) throws EEException {
         throw new NotImplementedException("Read/Write Set Tracking is disabled for IPC ExecutionEngine");
@@ -1476,6 +1507,10 @@ public class ExecutionEngineIPC extends ExecutionEngine {
     public VoltTable trackingWriteSet(Long txnId) throws EEException {
         throw new NotImplementedException("Read/Write Set Tracking is disabled for IPC ExecutionEngine");
     }
+    @Override
+    public boolean trackingConflict(Long txnId0, Long txnId1) throws EEException {
+        throw new NotImplementedException("Read/Write Set Tracking is disabled for IPC ExecutionEngine");
+    }
     
     @Override
     public void antiCacheInitialize(File dbFilePath, long blockSize) throws EEException {
@@ -41,6 +41,7 @@ import org.voltdb.messaging.FastSerializer;
 import org.voltdb.messaging.FastSerializer.BufferGrowCallback;
 import org.voltdb.utils.DBBPool.BBContainer;
 
+import edu.brown.hashing.AbstractHasher;
 import edu.brown.hstore.HStoreConstants;
 import edu.brown.hstore.PartitionExecutor;
 import edu.brown.logging.LoggerUtil;
@@ -331,6 +332,40 @@ public class ExecutionEngineJNI extends ExecutionEngine {
             ParameterSet[] parameterSets,
             int numParameterSets,
             long txnId, long lastCommittedTxnId, long undoToken) throws EEException {
+        return (this.executeQueryPlanFragments(planFragmentIds, batchSize,
+                                               input_depIds, output_depIds,
+                                               parameterSets, numParameterSets,
+                                               txnId, lastCommittedTxnId, undoToken, false));
+    }
+    
+    /**
+     * The output VoltTables are read-only slices of the direct result buffer that
+     * is shared with the EE, so they will be overwritten by the next invocation.
+     */
+    @Override
+    public DependencySet executeQueryPlanFragmentsAndGetDependencyViews(
+            long[] planFragmentIds,
+            int batchSize,
+            int[] input_depIds,
+            int[] output_depIds,
+            ParameterSet[] parameterSets,
+            int numParameterSets,
+            long txnId, long lastCommittedTxnId, long undoToken) throws EEException {
+        return (this.executeQueryPlanFragments(planFragmentIds, batchSize,
+                                               input_depIds, output_depIds,
+                                               parameterSets, numParameterSets,
+                                               txnId, lastCommittedTxnId, undoToken, true));
+    }
+    
+    private DependencySet executeQueryPlanFragments(
+            long[] planFragmentIds,
+            int batchSize,
+            int[] input_depIds,
+            int[] output_depIds,
+            ParameterSet[] parameterSets,
+            int numParameterSets,
+            long txnId, long lastCommittedTxnId, long undoToken,
+            boolean views) throws EEException {
 
         assert(parameterSets != null) : "Null ParameterSets for txn #" + txnId;
         assert(planFragmentIds.length == parameterSets.length) :
@@ -414,12 +449,17 @@ public class ExecutionEngineJNI extends ExecutionEngine {
                     
                     int tableSize = fullBacking.getInt();
                     assert(tableSize < 10000000);
-                    byte tableBytes[] = new byte[tableSize];
-                    fullBacking.get(tableBytes, 0, tableSize);
-                    final ByteBuffer tableBacking = ByteBuffer.wrap(tableBytes);
-//                    fullBacking.position(fullBacking.position() + tableSize);
-
-                    results[dep_ctr] = PrivateVoltTableFactory.createVoltTableFromBuffer(tableBacking, true);
+                    if (views) {
+                        final ByteBuffer tableBacking = fullBacking.slice();
+                        tableBacking.limit(tableSize);
+                        fullBacking.position(fullBacking.position() + tableSize);
+                        results[dep_ctr] = PrivateVoltTableFactory.createVoltTableViewOfBuffer(tableBacking);
+                    } else {
+                        byte tableBytes[] = new byte[tableSize];
+                        fullBacking.get(tableBytes, 0, tableSize);
+                        final ByteBuffer tableBacking = ByteBuffer.wrap(tableBytes);
+                        results[dep_ctr] = PrivateVoltTableFactory.createVoltTableFromBuffer(tableBacking, true);
+                    }
                     dependencies[dep_ctr] = depid;
                     if (debug.val) LOG.debug(String.format("%d - New output VoltTable for DependencyId %d [origTableSize=%d]\n%s",
                                                    txnId, depid, tableSize, results[dep_ctr].toString())); 
@@ -647,6 +687,21 @@ public class ExecutionEngineJNI extends ExecutionEngine {
         return nativeHashinate(this.pointer, partitionCount);
     }
     
+    @Override
+    public void updateHasher(AbstractHasher hasher) throws EEException {
+        if (debug.val)
+            LOG.debug(String.format("Updating %s mapping at partition %d",
+                      hasher.getClass().getSimpleName(), this.executor.getPartitionId()));
+        fsForParameterSet.clear();
+        try {
+            hasher.serializeForExecutionEngine(fsForParameterSet);
+        } catch (final IOException exception) {
+            throw new RuntimeException(exception); // can't happen
+        }
+        final int errorCode = nativeUpdateHasher(this.pointer);
+        checkErrorCode(errorCode);
+    }
+    
     // ----------------------------------------------------------------------------
     // READ/WRITE SET TRACKING
     // ----------------------------------------------------------------------------
@@ -730,6 +785,15 @@ public class ExecutionEngineJNI extends ExecutionEngine {
         }
     }
     
+    @Override
+    public boolean trackingConflict(Long txnId0, Long txnId1) throws EEException {
+        if (debug.val)
+            LOG.debug(String.format("Checking for conflicts between txn #%d and txn #%d at partition %d",
+                      txnId0, txnId1, this.executor.getPartitionId()));
+        final int result = nativeTrackingConflict(this.pointer, txnId0.longValue(), txnId1.longValue());
+        return (result != 0);
+    }
+    
     private final void trackingRemoveCacheEntry(Long txnId) {
         if (this.trackingCache != null) {
             this.trackingCache.remove(txnId);
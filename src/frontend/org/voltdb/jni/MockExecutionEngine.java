@@ -31,6 +31,8 @@ import org.voltdb.exceptions.EEException;
 import org.voltdb.export.ExportProtoMessage;
 import org.voltdb.utils.DBBPool.BBContainer;
 
+import edu.brown.hashing.AbstractHasher;
+
 public class MockExecutionEngine extends ExecutionEngine {
 
     public MockExecutionEngine() {
@@ -188,6 +190,11 @@ public class MockExecutionEngine extends ExecutionEngine {
         return 0;
     }
 
+    @Override
+    public void updateHasher(AbstractHasher hasher) throws EEException {
+        // Nothing to do: we never check the tuples that we write
+    }
+
     @Override
     public void trackingEnable(Long txnId) throws EEException {
         // TODO Auto-generated method stub
@@ -206,6 +213,15 @@ public class MockExecutionEngine extends ExecutionEngine {
         // TODO Auto-generated method stub
         return null;
     }
+    @Override
+    public boolean trackingConflict(Long txnId0, Long txnId1) throws EEException {
+        // We never execute anything, so we don't have any read/write sets to compare.
+        // We can't just say that there is no conflict, because then the
+        // OptimisticConflictChecker would let a conflicting txn commit.
+        throw new UnsupportedOperationException(String.format(
+                "%s does not track read/write sets [txnId0=%d, txnId1=%d]",
+                this.getClass().getSimpleName(), txnId0, txnId1));
+    }
     
     @Override
     public void antiCacheInitialize(File dbFilePath, long blockSize) throws EEException {
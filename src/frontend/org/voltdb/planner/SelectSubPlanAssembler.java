@@ -27,11 +27,14 @@ import org.voltdb.catalog.Database;
 import org.voltdb.catalog.Table;
 import org.voltdb.expressions.AbstractExpression;
 import org.voltdb.expressions.ExpressionUtil;
+import org.voltdb.expressions.TupleValueExpression;
 import org.voltdb.plannodes.AbstractPlanNode;
+import org.voltdb.plannodes.HashJoinPlanNode;
 import org.voltdb.plannodes.IndexScanPlanNode;
 import org.voltdb.plannodes.NestLoopIndexPlanNode;
 import org.voltdb.plannodes.NestLoopPlanNode;
 import org.voltdb.plannodes.ReceivePlanNode;
+import org.voltdb.types.ExpressionType;
 import org.voltdb.types.JoinType;
 
 /**
@@ -290,6 +293,24 @@ public class SelectSubPlanAssembler extends SubPlanAssembler {
 
             retval = nlijNode;
         }
+        /*
+         * Without a usable index on the inner table, an equality clause between
+         * this table and the rest of the join lets the EE hash one side and probe
+         * it with the other instead of running a nested loop. This also covers
+         * joins against the dependency tables that we get from a ReceivePlanNode.
+         */
+        else if (hasEquiJoinClause(joinOrder[0], joinClauses)) {
+            HashJoinPlanNode hjNode = new HashJoinPlanNode(m_context, PlanAssembler.getNextPlanNodeId());
+            hjNode.setPredicate(ExpressionUtil.combine(joinClauses));
+            hjNode.setJoinType(JoinType.INNER);
+
+            // combine the tails plan graph with the new head node
+            hjNode.addAndLinkChild(nljAccessPlan);
+
+            hjNode.addAndLinkChild(subPlan);
+
+            retval = hjNode;
+        }
         else {
             NestLoopPlanNode nljNode = new NestLoopPlanNode(m_context, PlanAssembler.getNextPlanNodeId());
             if ((joinClauses != null) && (joinClauses.size() > 0))
@@ -316,6 +337,30 @@ public class SelectSubPlanAssembler extends SubPlanAssembler {
         return retval;
     }
 
+    /**
+     * Returns true if one of the join clauses is an equality between a column
+     * of the given table and a column of another table. These are the clauses
+     * that the HashJoinExecutor can use as its join keys.
+     *
+     * @param table The outer table of the join.
+     * @param joinClauses The clauses that join the outer table with the rest of the join order.
+     */
+    private static boolean hasEquiJoinClause(Table table, List<AbstractExpression> joinClauses) {
+        if (joinClauses == null) return (false);
+        for (AbstractExpression expr : joinClauses) {
+            if (expr.getExpressionType() != ExpressionType.COMPARE_EQUAL) continue;
+            if ((expr.getLeft() instanceof TupleValueExpression) == false ||
+                (expr.getRight() instanceof TupleValueExpression) == false) continue;
+
+            String leftTable = ((TupleValueExpression)expr.getLeft()).getTableName();
+            String rightTable = ((TupleValueExpression)expr.getRight()).getTableName();
+            if (leftTable == null || rightTable == null || leftTable.equalsIgnoreCase(rightTable)) continue;
+            if (leftTable.equalsIgnoreCase(table.getTypeName()) || rightTable.equalsIgnoreCase(table.getTypeName()))
+                return (true);
+        } // FOR
+        return (false);
+    }
+
     /**
      * For each table in the list, compute the set of all valid access paths that will get
      * tuples that match the right predicate (assuming there is a predicate).
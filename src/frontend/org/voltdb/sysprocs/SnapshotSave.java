@@ -126,7 +126,7 @@ public class SnapshotSave extends VoltSystemProcedure
             final long startTime = (Long)params.toArray()[2];
             byte block = (Byte)params.toArray()[3];
             SnapshotSaveAPI saveAPI = new SnapshotSaveAPI();
-            VoltTable result = saveAPI.startSnapshotting(file_path, file_nonce, block, startTime, context, hostname);
+            VoltTable result = saveAPI.startSnapshotting(file_path, file_nonce, block, startTime, context, hostname, txn_id.longValue());
             return new DependencySet(SnapshotSave.DEP_createSnapshotTargets, result);
         }
         else if (fragmentId == SysProcFragmentId.PF_createSnapshotTargetsResults)
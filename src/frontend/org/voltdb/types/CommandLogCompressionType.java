@@ -0,0 +1,42 @@
+package org.voltdb.types;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This defines how the CommandLogWriter will compress the
+ * group commit batches before writing them out to disk.
+ */
+public enum CommandLogCompressionType {
+    /**
+     * Do not compress anything. Each partition's entries are serialized into
+     * their own direct buffer and written out with a single gathering write.
+     * This is the fastest option if the disk is not the bottleneck.
+     */
+    NONE,
+    /**
+     * Compress each partition's direct buffer into another direct buffer
+     * using the CommandLogCompressor given by site.commandlog_compressor_class
+     * and write them out with a single gathering write.
+     * This avoids copying the compressed data back onto the heap.
+     */
+    CHUNKED,
+    /**
+     * Serialize all of the partitions' entries into a single buffer and 
+     * then compress the entire thing with Snappy.
+     * This is the default configuration.
+     */
+    SNAPPY;
+    
+    private static final Map<String, CommandLogCompressionType> name_lookup = new HashMap<String, CommandLogCompressionType>();
+    static {
+        for (CommandLogCompressionType e : EnumSet.allOf(CommandLogCompressionType.class)) {
+            CommandLogCompressionType.name_lookup.put(e.name().toLowerCase(), e);
+        } // FOR
+    } // STATIC
+    
+    public static CommandLogCompressionType get(String name) {
+        return CommandLogCompressionType.name_lookup.get(name.toLowerCase());
+    }
+} // ENUM
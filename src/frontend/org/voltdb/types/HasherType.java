@@ -0,0 +1,54 @@
+package org.voltdb.types;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The ways that the EE can map the partitioning column values of the tuples 
+ * that it writes to partitions. Each one corresponds to one of the AbstractHasher
+ * implementations in edu.brown.hashing.
+ * This must match HasherType in the EE's common/types.h
+ */
+public enum HasherType {
+    INVALID         (0),
+    /** TheHashinator's modulo hash */
+    DEFAULT         (1),
+    /** TheHashinator's modulo hash followed by a hash->partition map */
+    MAPPED          (2),
+    /** Sorted split points per table */
+    RANGE           (3),
+    /** Consistent hashing ring */
+    CONSISTENT      (4);
+
+    HasherType(int val) {
+        assert (this.ordinal() == val) :
+            "Enum element " + this.name() +
+            " in position " + this.ordinal() +
+            " instead of position " + val;
+    }
+
+    public int getValue() {
+        return this.ordinal();
+    }
+
+    protected static final Map<Integer, HasherType> idx_lookup = new HashMap<Integer, HasherType>();
+    protected static final Map<String, HasherType> name_lookup = new HashMap<String, HasherType>();
+    static {
+        for (HasherType vt : EnumSet.allOf(HasherType.class)) {
+            HasherType.idx_lookup.put(vt.ordinal(), vt);
+            HasherType.name_lookup.put(vt.name().toLowerCase().intern(), vt);
+        }
+    }
+
+    public static HasherType get(Integer idx) {
+        assert(idx >= 0);
+        HasherType ret = HasherType.idx_lookup.get(idx);
+        return (ret == null ? HasherType.INVALID : ret);
+    }
+
+    public static HasherType get(String name) {
+        HasherType ret = HasherType.name_lookup.get(name.toLowerCase().intern());
+        return (ret == null ? HasherType.INVALID : ret);
+    }
+}
@@ -0,0 +1,138 @@
+/* Copyright (C) 2012 by H-Store Project
+ * Brown University
+ * Massachusetts Institute of Technology
+ * Yale University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+#include <string>
+#include "harness.h"
+#include "common/HasherMapping.h"
+#include "common/NValue.hpp"
+#include "common/ValueFactory.hpp"
+#include "common/serializeio.h"
+
+using namespace std;
+using namespace voltdb;
+
+#define NUM_PARTITIONS 4
+
+class HasherMappingTest : public Test {
+public:
+    HasherMappingTest() : out(buffer, sizeof(buffer)) {}
+protected:
+    char buffer[1024];
+    ReferenceSerializeOutput out;
+    HasherMapping mapping;
+
+    void load() {
+        ReferenceSerializeInput in(buffer, out.size());
+        mapping.deserialize(in);
+    }
+
+    int32_t hashinate(const NValue &value, const string &tableName = "WAREHOUSE") {
+        return mapping.hashinate(value, tableName, NUM_PARTITIONS);
+    }
+};
+
+TEST_F(HasherMappingTest, Default) {
+    // Without a mapping from the frontend we have to match TheHashinator
+    EXPECT_EQ(HASHER_TYPE_DEFAULT, mapping.getType());
+    for (int64_t ii = 0; ii < 100; ii++) {
+        NValue value = ValueFactory::getBigIntValue(ii);
+        EXPECT_EQ(TheHashinator::hashinate(value, NUM_PARTITIONS), hashinate(value));
+    }
+}
+
+TEST_F(HasherMappingTest, Mapped) {
+    out.writeByte(HASHER_TYPE_MAPPED);
+    out.writeInt(NUM_PARTITIONS);
+    out.writeInt(1);
+    out.writeInt(1);
+    out.writeInt(3);
+    load();
+    EXPECT_EQ(HASHER_TYPE_MAPPED, mapping.getType());
+
+    for (int64_t ii = 0; ii < 100; ii++) {
+        NValue value = ValueFactory::getBigIntValue(ii);
+        int32_t expected = TheHashinator::hashinate(value, NUM_PARTITIONS);
+        if (expected == 1) expected = 3;
+        EXPECT_EQ(expected, hashinate(value));
+    }
+}
+
+TEST_F(HasherMappingTest, Range) {
+    // Same ranges as TestRangeHasher
+    out.writeByte(HASHER_TYPE_RANGE);
+    out.writeInt(NUM_PARTITIONS);
+    out.writeInt(1);
+    out.writeTextString("WAREHOUSE");
+    out.writeInt(3);
+    out.writeLong(10);
+    out.writeLong(20);
+    out.writeLong(30);
+    out.writeInt(3);
+    out.writeInt(2);
+    out.writeInt(1);
+    out.writeInt(0);
+    load();
+    EXPECT_EQ(HASHER_TYPE_RANGE, mapping.getType());
+
+    EXPECT_EQ(3, hashinate(ValueFactory::getBigIntValue(9)));
+    EXPECT_EQ(2, hashinate(ValueFactory::getIntegerValue(10)));
+    EXPECT_EQ(2, hashinate(ValueFactory::getSmallIntValue(19)));
+    EXPECT_EQ(1, hashinate(ValueFactory::getTinyIntValue(20)));
+    EXPECT_EQ(0, hashinate(ValueFactory::getBigIntValue(30)));
+
+    // Tables without ranges still use TheHashinator
+    NValue value = ValueFactory::getBigIntValue(9);
+    EXPECT_EQ(TheHashinator::hashinate(value, NUM_PARTITIONS), hashinate(value, "CUSTOMER"));
+}
+
+TEST_F(HasherMappingTest, Consistent) {
+    // The hashes of 42 and "abc" in ConsistentHasher are
+    // -9148929187392628276 and 3741276987793851837
+    out.writeByte(HASHER_TYPE_CONSISTENT);
+    out.writeInt(NUM_PARTITIONS);
+    out.writeInt(2);
+    out.writeLong(-9148929187392628276LL);
+    out.writeLong(3741276987793851836LL);
+    out.writeInt(1);
+    out.writeInt(2);
+    load();
+    EXPECT_EQ(HASHER_TYPE_CONSISTENT, mapping.getType());
+
+    // A point is owned by the partition that it belongs to
+    EXPECT_EQ(1, hashinate(ValueFactory::getBigIntValue(42)));
+    EXPECT_EQ(1, hashinate(ValueFactory::getIntegerValue(42)));
+
+    // Hashes after the last point wrap around to the first one
+    NValue str = ValueFactory::getStringValue("abc");
+    EXPECT_EQ(1, hashinate(str));
+    str.free();
+
+    // Null is hashed as zero
+    EXPECT_EQ(2, hashinate(ValueFactory::getNullValue()));
+}
+
+int main() {
+    return TestSuite::globalInstance()->runAll();
+}
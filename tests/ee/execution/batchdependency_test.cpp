@@ -0,0 +1,188 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2010 VoltDB L.L.C.
+ *
+ * This file contains original code and/or modifications of original code.
+ * Any modifications made by VoltDB L.L.C. are licensed under the following
+ * terms and conditions:
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/* Copyright (C) 2008 by H-Store Project
+ * Brown University
+ * Massachusetts Institute of Technology
+ * Yale University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+#include <sstream>
+#include <boost/scoped_array.hpp>
+#include <boost/scoped_ptr.hpp>
+#include "harness.h"
+#include "common/common.h"
+#include "common/serializeio.h"
+#include "common/tabletuple.h"
+#include "common/Topend.h"
+#include "common/ValueFactory.hpp"
+#include "execution/VoltDBEngine.h"
+#include "storage/temptable.h"
+#include "storage/tablefactory.h"
+#include "storage/tableiterator.h"
+
+#define TUPLES 20
+#define BUFFER_SIZE (1024 * 1024)
+
+using namespace std;
+using namespace voltdb;
+
+/**
+ * Topend that never has anything to give back. It only counts how many
+ * times the engine had to go out to it.
+ */
+class CountingTopend : public Topend {
+    public:
+        CountingTopend() : m_calls(0) {}
+        int loadNextDependency(int32_t dependencyId, Pool *pool, Table* destination) {
+            m_calls++;
+            return 0;
+        }
+        void crashVoltDB(FatalException e) {}
+        int m_calls;
+};
+
+class BatchDependencyTest : public Test {
+    public:
+        BatchDependencyTest() :
+            m_parameterBuffer(new char[BUFFER_SIZE]),
+            m_resultBuffer(new char[BUFFER_SIZE]),
+            m_exceptionBuffer(new char[BUFFER_SIZE])
+        {
+            m_topend = new CountingTopend();
+            m_engine = new VoltDBEngine(m_topend, new StdoutLogProxy());
+            m_engine->setBuffers(m_parameterBuffer.get(), BUFFER_SIZE,
+                                 m_resultBuffer.get(), BUFFER_SIZE,
+                                 m_exceptionBuffer.get(), BUFFER_SIZE);
+            m_engine->resetReusedResultOutputBuffer();
+
+            m_columnNames = new std::string[2];
+            m_columnNames[0] = "id";
+            m_columnNames[1] = "val";
+            std::vector<ValueType> columnTypes;
+            columnTypes.push_back(VALUE_TYPE_BIGINT);
+            columnTypes.push_back(VALUE_TYPE_VARCHAR);
+            std::vector<int32_t> columnSizes;
+            columnSizes.push_back(8);
+            columnSizes.push_back(20);
+            std::vector<bool> columnAllowNull(2, false);
+            TupleSchema *schema = TupleSchema::createTupleSchema(columnTypes, columnSizes, columnAllowNull, true);
+            m_table = TableFactory::getTempTable(1000, "temp_table", schema, m_columnNames, NULL);
+
+            for (int64_t i = 1; i <= TUPLES; ++i) {
+                TableTuple &tuple = m_table->tempTuple();
+                tuple.setNValue(0, ValueFactory::getBigIntValue(i));
+                ostringstream str;
+                str << "varchar string:" << i;
+                NValue stringValue = ValueFactory::getStringValue(str.str());
+                tuple.setNValueAllocateForObjectCopies(1, stringValue, NULL);
+                stringValue.free();
+                m_table->insertTuple(tuple);
+            }
+        }
+        ~BatchDependencyTest() {
+            delete m_engine;
+            m_table->deleteAllTuples(true);
+            delete m_table;
+            delete [] m_columnNames;
+        }
+
+        TempTable* copyTable() {
+            return (TableFactory::getCopiedTempTable(1000, "copy_table", m_table, NULL));
+        }
+
+    protected:
+        boost::scoped_array<char> m_parameterBuffer;
+        boost::scoped_array<char> m_resultBuffer;
+        boost::scoped_array<char> m_exceptionBuffer;
+        CountingTopend *m_topend;
+        VoltDBEngine *m_engine;
+        TempTable *m_table;
+        std::string *m_columnNames;
+};
+
+/*
+ * A dependency that was sent earlier in the batch is loaded straight out
+ * of the result buffer. The Topend never sees it, not even after we have
+ * loaded all of the copies.
+ */
+TEST_F(BatchDependencyTest, LoadFromResultBuffer) {
+    ASSERT_TRUE(m_engine->send(m_table));
+    ASSERT_TRUE(m_engine->send(m_table));
+
+    boost::scoped_ptr<TempTable> copy(copyTable());
+    EXPECT_EQ(1, m_engine->loadNextDependency(copy.get()));
+    EXPECT_EQ(1, m_engine->loadNextDependency(copy.get()));
+    EXPECT_EQ(0, m_topend->m_calls);
+    EXPECT_EQ(0, m_engine->loadNextDependency(copy.get()));
+    EXPECT_EQ(0, m_topend->m_calls);
+    ASSERT_EQ(TUPLES * 2, copy->activeTupleCount());
+
+    TableIterator iter(copy.get());
+    TableTuple tuple(copy->schema());
+    int64_t expected = 1;
+    while (iter.next(tuple)) {
+        EXPECT_EQ(0, tuple.getNValue(0).compare(ValueFactory::getBigIntValue(expected)));
+        ostringstream str;
+        str << "varchar string:" << expected;
+        NValue stringValue = ValueFactory::getStringValue(str.str());
+        EXPECT_EQ(0, tuple.getNValue(1).compare(stringValue));
+        stringValue.free();
+        expected = (expected % TUPLES) + 1;
+    }
+    copy->deleteAllTuples(true);
+}
+
+/*
+ * Resetting the result buffer at the start of the next batch forgets
+ * about everything that the previous batch sent
+ */
+TEST_F(BatchDependencyTest, ResetBetweenBatches) {
+    ASSERT_TRUE(m_engine->send(m_table));
+    m_engine->resetReusedResultOutputBuffer();
+
+    boost::scoped_ptr<TempTable> copy(copyTable());
+    EXPECT_EQ(0, m_engine->loadNextDependency(copy.get()));
+    EXPECT_EQ(1, m_topend->m_calls);
+    EXPECT_EQ(0, copy->activeTupleCount());
+}
+
+int main() {
+    return TestSuite::globalInstance()->runAll();
+}
@@ -0,0 +1,178 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2010 VoltDB L.L.C.
+ *
+ * This file contains original code and/or modifications of original code.
+ * Any modifications made by VoltDB L.L.C. are licensed under the following
+ * terms and conditions:
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/* Copyright (C) 2008 by H-Store Project
+ * Brown University
+ * Massachusetts Institute of Technology
+ * Yale University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+#include <map>
+#include <string>
+#include <vector>
+#include "harness.h"
+#include "common/common.h"
+#include "common/NValue.hpp"
+#include "common/Pool.hpp"
+#include "common/ValueFactory.hpp"
+#include "common/ValuePeeker.hpp"
+#include "common/tabletuple.h"
+#include "common/TupleSchema.h"
+#include "executors/grouphashtable.h"
+
+using namespace std;
+using namespace voltdb;
+
+/**
+ * Group keys are (BIGINT, VARCHAR(16))
+ */
+class GroupHashTableTest : public Test {
+public:
+    GroupHashTableTest()
+    {
+        vector<ValueType> columnTypes;
+        columnTypes.push_back(VALUE_TYPE_BIGINT);
+        columnTypes.push_back(VALUE_TYPE_VARCHAR);
+        vector<int32_t> columnLengths;
+        columnLengths.push_back(NValue::getTupleStorageSize(VALUE_TYPE_BIGINT));
+        columnLengths.push_back(16);
+        vector<bool> columnAllowNull(2, true);
+        schema = TupleSchema::createTupleSchema(columnTypes, columnLengths, columnAllowNull, true);
+        keyData = new char[schema->tupleLength()];
+        table = new GroupHashTable(schema);
+    }
+
+    ~GroupHashTableTest()
+    {
+        delete table;
+        delete[] keyData;
+        TupleSchema::freeTupleSchema(schema);
+    }
+
+    TableTuple key(int64_t id, const string &name)
+    {
+        TableTuple k(schema);
+        k.moveNoHeader(keyData);
+        k.setNValue(0, ValueFactory::getBigIntValue(id));
+        NValue str = ValueFactory::getStringValue(name);
+        k.setNValue(1, str);
+        str.free();
+        return k;
+    }
+
+    int64_t idOf(const GroupHashTable::Entry &entry)
+    {
+        TableTuple k(schema);
+        k.moveNoHeader(entry.key);
+        return ValuePeeker::peekBigInt(k.getNValue(0));
+    }
+
+    TupleSchema *schema;
+    char *keyData;
+    GroupHashTable *table;
+    Pool pool;
+};
+
+TEST_F(GroupHashTableTest, Groups) {
+    for (int round = 0; round < 3; round++) {
+        pool.purge();
+        table->reset(round * 1000);
+
+        // Ten rows for each group
+        for (int i = 0; i < 20000; i++) {
+            int group = i % 2000;
+            bool inserted;
+            GroupHashTable::Entry &entry =
+                table->findOrInsert(key(group, (group % 2 == 0 ? "even" : "odd")), &pool, inserted);
+            EXPECT_EQ(i < 2000, inserted);
+            if (inserted) {
+                entry.value = reinterpret_cast<void*>(static_cast<intptr_t>(1));
+            } else {
+                entry.value = reinterpret_cast<void*>(reinterpret_cast<intptr_t>(entry.value) + 1);
+            }
+        }
+        ASSERT_EQ(2000, (int)table->size());
+
+        // The entries come back in the order that we added them
+        for (int i = 0; i < 2000; i++) {
+            const GroupHashTable::Entry &entry = table->get(i);
+            EXPECT_EQ(i, idOf(entry));
+            EXPECT_EQ(10, (int)reinterpret_cast<intptr_t>(entry.value));
+        }
+
+        // Same id with a different string is a different group
+        bool inserted;
+        table->findOrInsert(key(0, "odd"), &pool, inserted);
+        EXPECT_TRUE(inserted);
+        table->findOrInsert(key(1, "odd"), &pool, inserted);
+        EXPECT_FALSE(inserted);
+    }
+}
+
+TEST_F(GroupHashTableTest, ResetKeepsCapacity) {
+    table->reset(0);
+    size_t initial = table->capacity();
+
+    table->reset(10000);
+    size_t presized = table->capacity();
+    EXPECT_TRUE(presized * 3 / 4 >= 10000);
+
+    // Filling it up to the size that we asked for does not grow the table
+    bool inserted;
+    for (int i = 0; i < 10000; i++) {
+        table->findOrInsert(key(i, "x"), &pool, inserted);
+        ASSERT_TRUE(inserted);
+    }
+    EXPECT_EQ(presized, table->capacity());
+
+    // A smaller execution reuses the array
+    pool.purge();
+    table->reset(5000);
+    EXPECT_EQ(presized, table->capacity());
+    EXPECT_EQ(0, (int)table->size());
+
+    // ... unless it is a lot bigger than what we need now
+    table->reset(0);
+    EXPECT_EQ(initial, table->capacity());
+}
+
+int main()
+{
+    return TestSuite::globalInstance()->runAll();
+}
@@ -0,0 +1,283 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2010 VoltDB L.L.C.
+ *
+ * This file contains original code and/or modifications of original code.
+ * Any modifications made by VoltDB L.L.C. are licensed under the following
+ * terms and conditions:
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/* Copyright (C) 2008 by H-Store Project
+ * Brown University
+ * Massachusetts Institute of Technology
+ * Yale University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+#include <algorithm>
+#include <sstream>
+#include <string>
+#include "harness.h"
+#include "common/common.h"
+#include "common/valuevector.h"
+#include "execution/VoltDBEngine.h"
+#include "executors/plantestutil.h"
+
+using namespace std;
+using namespace voltdb;
+
+#define NUM_OF_OUTER 40
+#define NUM_OF_INNER 120
+
+// Fragment ids. Each join is also run with its inputs swapped so that the
+// hash table gets built on the outer table in one plan and on the inner
+// table in the other.
+#define FRAG_JOIN_SAME          1
+#define FRAG_JOIN_WIDEN         2
+#define FRAG_JOIN_RESIDUAL      3
+#define FRAG_JOIN_FALLBACK      4
+#define FRAG_SWAPPED_OFFSET     10
+
+// Which columns of I the join uses
+enum JoinKey {
+    KEY_INTEGER,    // I_IKEY INTEGER
+    KEY_BIGINT,     // I_KEY BIGINT
+    KEY_DOUBLE      // I_FKEY FLOAT
+};
+
+/**
+ * O(O_ID INTEGER, O_KEY INTEGER, O_VAL BIGINT)
+ * I(I_ID INTEGER, I_KEY BIGINT, I_IKEY INTEGER, I_FKEY FLOAT)
+ * The join keys have lots of duplicates on both sides, some NULLs, and
+ * some values that only show up on one side.
+ */
+class HashJoinTest : public PlanTest {
+public:
+    HashJoinTest() : engine(NULL) {
+        addTable("O");
+        addColumn("O", "O_ID", VALUE_TYPE_INTEGER, false);
+        addColumn("O", "O_KEY", VALUE_TYPE_INTEGER, true);
+        addColumn("O", "O_VAL", VALUE_TYPE_BIGINT, false);
+        addTable("I");
+        addColumn("I", "I_ID", VALUE_TYPE_INTEGER, false);
+        addColumn("I", "I_KEY", VALUE_TYPE_BIGINT, true);
+        addColumn("I", "I_IKEY", VALUE_TYPE_INTEGER, true);
+        addColumn("I", "I_FKEY", VALUE_TYPE_DOUBLE, true);
+
+        for (int swapped = 0; swapped < 2; swapped++) {
+            int base = (swapped ? FRAG_SWAPPED_OFFSET : 0);
+            addFragment(base + FRAG_JOIN_SAME, join(swapped, equals(KEY_INTEGER)));
+            addFragment(base + FRAG_JOIN_WIDEN, join(swapped, equals(KEY_BIGINT)));
+            addFragment(base + FRAG_JOIN_RESIDUAL,
+                        join(swapped, operation("CONJUNCTION_AND", equals(KEY_INTEGER),
+                                                operation("COMPARE_LESSTHAN", outerId(), innerId()))));
+            addFragment(base + FRAG_JOIN_FALLBACK, join(swapped, equals(KEY_DOUBLE)));
+        }
+        engine = createEngine();
+        if (engine == NULL) return;
+        for (int i = 0; i < NUM_OF_OUTER; i++) {
+            insertRow(engine, "O", row(i, outerKeyOf(i), i * 10));
+        }
+        for (int i = 0; i < NUM_OF_INNER; i++) {
+            PlanTestRow r = row(i, innerKeyOf(i), innerKeyOf(i));
+            r.push_back(innerKeyOf(i));
+            insertRow(engine, "I", r);
+        }
+    }
+
+    // Keys 0-14, each one about three times
+    static int64_t outerKeyOf(int id) {
+        return (id % 9 == 4 ? PLANTEST_NULL : id % 15);
+    }
+
+    // Keys 0-19, each one about six times. 15-19 don't match anything in O.
+    static int64_t innerKeyOf(int id) {
+        return (id % 10 == 7 ? PLANTEST_NULL : id % 20);
+    }
+
+    // ------------------------------------------------------------------
+    // PLANS
+    // ------------------------------------------------------------------
+
+    static string outerId() {
+        return (tupleValue(0, "O", "O_ID", VALUE_TYPE_INTEGER));
+    }
+
+    static string innerId() {
+        return (tupleValue(0, "I", "I_ID", VALUE_TYPE_INTEGER));
+    }
+
+    static string equals(JoinKey key) {
+        string inner;
+        switch (key) {
+            case KEY_INTEGER:
+                inner = tupleValue(2, "I", "I_IKEY", VALUE_TYPE_INTEGER);
+                break;
+            case KEY_BIGINT:
+                inner = tupleValue(1, "I", "I_KEY", VALUE_TYPE_BIGINT);
+                break;
+            case KEY_DOUBLE:
+                inner = tupleValue(3, "I", "I_FKEY", VALUE_TYPE_DOUBLE);
+                break;
+        }
+        return (operation("COMPARE_EQUAL", tupleValue(1, "O", "O_KEY", VALUE_TYPE_INTEGER), inner));
+    }
+
+    static string outerColumns(int guid) {
+        return (planColumn(guid, "O_ID", VALUE_TYPE_INTEGER, outerId()) +
+                "," + planColumn(guid + 1, "O_KEY", VALUE_TYPE_INTEGER, tupleValue(1, "O", "O_KEY", VALUE_TYPE_INTEGER)) +
+                "," + planColumn(guid + 2, "O_VAL", VALUE_TYPE_BIGINT, tupleValue(2, "O", "O_VAL", VALUE_TYPE_BIGINT)));
+    }
+
+    static string innerColumns(int guid) {
+        return (planColumn(guid, "I_ID", VALUE_TYPE_INTEGER, innerId()) +
+                "," + planColumn(guid + 1, "I_KEY", VALUE_TYPE_BIGINT, tupleValue(1, "I", "I_KEY", VALUE_TYPE_BIGINT)) +
+                "," + planColumn(guid + 2, "I_IKEY", VALUE_TYPE_INTEGER, tupleValue(2, "I", "I_IKEY", VALUE_TYPE_INTEGER)) +
+                "," + planColumn(guid + 3, "I_FKEY", VALUE_TYPE_DOUBLE, tupleValue(3, "I", "I_FKEY", VALUE_TYPE_DOUBLE)));
+    }
+
+    /**
+     * SEND <- PROJECTION (O_ID, I_ID) <- HASHJOIN <- SEQSCAN O, SEQSCAN I
+     * If swapped is true, then I is the outer table of the join
+     */
+    static string join(bool swapped, const string &predicate) {
+        string outer = planNode(4, "SEQSCAN", "[]", "[3]", "[" + outerColumns(1) + "]",
+                                ",\"TARGET_TABLE_NAME\":\"O\"");
+        string inner = planNode(5, "SEQSCAN", "[]", "[3]", "[" + innerColumns(11) + "]",
+                                ",\"TARGET_TABLE_NAME\":\"I\"");
+        string fields = ",\"JOIN_TYPE\":\"INNER\",\"PREDICATE\":" + predicate;
+        string joined, children;
+        int outer_id_idx, inner_id_idx;
+        if (!swapped) {
+            joined = "[" + outerColumns(1) + "," + innerColumns(11) + "]";
+            children = "[4,5]";
+            outer_id_idx = 0;
+            inner_id_idx = 3;
+        } else {
+            joined = "[" + innerColumns(11) + "," + outerColumns(1) + "]";
+            children = "[5,4]";
+            outer_id_idx = 4;
+            inner_id_idx = 0;
+        }
+        string output = "[" + planColumn(21, "O_ID", VALUE_TYPE_INTEGER,
+                                         tupleValue(outer_id_idx, "temp", "O_ID", VALUE_TYPE_INTEGER)) +
+                        "," + planColumn(22, "I_ID", VALUE_TYPE_INTEGER,
+                                         tupleValue(inner_id_idx, "temp", "I_ID", VALUE_TYPE_INTEGER)) + "]";
+        return (planFragment("[" + planNode(1, "SEND", "[2]", "[]", output, ",\"FAKE\":false") +
+                             "," + planNode(2, "PROJECTION", "[3]", "[1]", output) +
+                             "," + planNode(3, "HASHJOIN", children, "[2]", joined, fields) +
+                             "," + outer + "," + inner + "]", "[4,5,3,2,1]"));
+    }
+
+    // ------------------------------------------------------------------
+    // CHECKS
+    // ------------------------------------------------------------------
+
+    /**
+     * The (O_ID, I_ID) pairs that the join should return. NULL keys never match.
+     */
+    static PlanTestRows expected(bool residual) {
+        PlanTestRows rows;
+        for (int o = 0; o < NUM_OF_OUTER; o++) {
+            for (int i = 0; i < NUM_OF_INNER; i++) {
+                if (outerKeyOf(o) == PLANTEST_NULL || outerKeyOf(o) != innerKeyOf(i)) continue;
+                if (residual && o >= i) continue;
+                rows.push_back(row(o, i));
+            }
+        }
+        return (rows);
+    }
+
+    /**
+     * Execute the join with the inputs in both orders and check that we
+     * get the expected pairs. The order of the output isn't defined.
+     */
+    void check(int fragId, const PlanTestRows &expected) {
+        ASSERT_FALSE(expected.empty());
+        for (int swapped = 0; swapped < 2; swapped++) {
+            NValueArray none(0);
+            PlanTestRows rows;
+            ASSERT_TRUE(execute(engine, fragId + (swapped ? FRAG_SWAPPED_OFFSET : 0), none, rows));
+            sort(rows.begin(), rows.end());
+            EXPECT_EQ(expected.size(), rows.size());
+            EXPECT_TRUE(expected == rows);
+
+            // Make sure that the hash table gets cleared out between executions
+            ASSERT_TRUE(execute(engine, fragId + (swapped ? FRAG_SWAPPED_OFFSET : 0), none, rows));
+            EXPECT_EQ(expected.size(), rows.size());
+        }
+    }
+
+    VoltDBEngine *engine;
+};
+
+TEST_F(HashJoinTest, DuplicateKeys) {
+    ASSERT_TRUE(engine);
+    check(FRAG_JOIN_SAME, expected(false));
+}
+
+TEST_F(HashJoinTest, NullKeys) {
+    ASSERT_TRUE(engine);
+    // Both sides have NULL keys, but none of them should be in the output
+    PlanTestRows rows;
+    NValueArray none(0);
+    for (int swapped = 0; swapped < 2; swapped++) {
+        ASSERT_TRUE(execute(engine, FRAG_JOIN_SAME + (swapped ? FRAG_SWAPPED_OFFSET : 0), none, rows));
+        for (int i = 0; i < (int)rows.size(); i++) {
+            EXPECT_NE(PLANTEST_NULL, outerKeyOf((int)rows[i][0]));
+            EXPECT_NE(PLANTEST_NULL, innerKeyOf((int)rows[i][1]));
+        }
+    }
+}
+
+TEST_F(HashJoinTest, WidenedKeys) {
+    ASSERT_TRUE(engine);
+    // INTEGER = BIGINT gets hashed as BIGINT on both sides
+    check(FRAG_JOIN_WIDEN, expected(false));
+}
+
+TEST_F(HashJoinTest, ResidualPredicate) {
+    ASSERT_TRUE(engine);
+    // The rest of the predicate still has to be true for each match
+    check(FRAG_JOIN_RESIDUAL, expected(true));
+}
+
+TEST_F(HashJoinTest, NestLoopFallback) {
+    ASSERT_TRUE(engine);
+    // INTEGER = FLOAT can't be hashed, so this is a nested loop join
+    check(FRAG_JOIN_FALLBACK, expected(false));
+}
+
+int main() {
+    return TestSuite::globalInstance()->runAll();
+}
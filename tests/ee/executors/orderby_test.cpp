@@ -0,0 +1,256 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2010 VoltDB L.L.C.
+ *
+ * This file contains original code and/or modifications of original code.
+ * Any modifications made by VoltDB L.L.C. are licensed under the following
+ * terms and conditions:
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/* Copyright (C) 2008 by H-Store Project
+ * Brown University
+ * Massachusetts Institute of Technology
+ * Yale University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+#include <algorithm>
+#include <set>
+#include <sstream>
+#include <string>
+#include "harness.h"
+#include "common/common.h"
+#include "common/ValueFactory.hpp"
+#include "common/valuevector.h"
+#include "execution/VoltDBEngine.h"
+#include "executors/plantestutil.h"
+
+using namespace std;
+using namespace voltdb;
+
+#define NUM_OF_TUPLES 200
+#define NUM_OF_VALUES 10
+
+// Fragment ids. The sort key is either T_VAL (lots of ties) or
+// T_VAL, T_KEY (every tuple has a different key)
+#define FRAG_FULL_SORT      1
+#define FRAG_TOPN           2
+#define FRAG_TOPN_PROJECT   3
+#define FRAG_INLINE_LIMIT   4
+#define FRAG_TIES_OFFSET    10
+
+/**
+ * T(T_ID INTEGER, T_KEY INTEGER, T_VAL BIGINT)
+ * Every T_KEY is different and there are only NUM_OF_VALUES different T_VALs
+ * (plus some NULLs), so sorting on T_VAL alone has lots of ties.
+ */
+class OrderByTest : public PlanTest {
+public:
+    OrderByTest() : engine(NULL) {
+        addTable("T");
+        addColumn("T", "T_ID", VALUE_TYPE_INTEGER, false);
+        addColumn("T", "T_KEY", VALUE_TYPE_INTEGER, false);
+        addColumn("T", "T_VAL", VALUE_TYPE_BIGINT, true);
+
+        for (int ties = 0; ties < 2; ties++) {
+            int base = (ties ? FRAG_TIES_OFFSET : 0);
+            addFragment(base + FRAG_FULL_SORT, fullSort(ties));
+            addFragment(base + FRAG_TOPN, topN(ties, false));
+            addFragment(base + FRAG_TOPN_PROJECT, topN(ties, true));
+            addFragment(base + FRAG_INLINE_LIMIT, inlineLimit(ties));
+        }
+        engine = createEngine();
+        if (engine == NULL) return;
+        for (int i = 0; i < NUM_OF_TUPLES; i++) {
+            insertRow(engine, "T", row(i, keyOf(i), valueOf(i)));
+        }
+    }
+
+    static int64_t keyOf(int id) {
+        return ((id * 37) % NUM_OF_TUPLES);
+    }
+
+    static int64_t valueOf(int id) {
+        return (id % 23 == 0 ? PLANTEST_NULL : (id * 7) % NUM_OF_VALUES);
+    }
+
+    static string columns(int guid) {
+        return ("[" + planColumn(guid, "T_ID", VALUE_TYPE_INTEGER, tupleValue(0, "T", "T_ID", VALUE_TYPE_INTEGER)) +
+                "," + planColumn(guid + 1, "T_KEY", VALUE_TYPE_INTEGER, tupleValue(1, "T", "T_KEY", VALUE_TYPE_INTEGER)) +
+                "," + planColumn(guid + 2, "T_VAL", VALUE_TYPE_BIGINT, tupleValue(2, "T", "T_VAL", VALUE_TYPE_BIGINT)) + "]");
+    }
+
+    static string sortFields(bool ties) {
+        string fields = ",\"SORT_COLUMNS\":[{\"COLUMN_NAME\":\"T_VAL\",\"COLUMN_GUID\":3,\"SORT_DIRECTION\":\"DESC\"}";
+        if (!ties) {
+            fields += ",{\"COLUMN_NAME\":\"T_KEY\",\"COLUMN_GUID\":2,\"SORT_DIRECTION\":\"ASC\"}";
+        }
+        return (fields + "]");
+    }
+
+    static string scan(int id, int parent) {
+        ostringstream parents;
+        parents << "[" << parent << "]";
+        return (planNode(id, "SEQSCAN", "[]", parents.str(), columns(1), ",\"TARGET_TABLE_NAME\":\"T\""));
+    }
+
+    // SEND <- ORDERBY <- SEQSCAN
+    static string fullSort(bool ties) {
+        return (planFragment("[" + planNode(1, "SEND", "[2]", "[]", columns(1), ",\"FAKE\":false") +
+                             "," + planNode(2, "ORDERBY", "[3]", "[1]", columns(1), sortFields(ties)) +
+                             "," + scan(3, 2) + "]", "[3,2,1]"));
+    }
+
+    // SEND <- LIMIT ? OFFSET ? <- [PROJECTION] <- ORDERBY <- SEQSCAN
+    static string topN(bool ties, bool projection) {
+        if (!projection) {
+            return (planFragment("[" + planNode(1, "SEND", "[2]", "[]", columns(1), ",\"FAKE\":false") +
+                                 "," + planNode(2, "LIMIT", "[3]", "[1]", columns(1), limitFields(-1, 0, 0, 1)) +
+                                 "," + planNode(3, "ORDERBY", "[4]", "[2]", columns(1), sortFields(ties)) +
+                                 "," + scan(4, 3) + "]", "[4,3,2,1]"));
+        }
+        return (planFragment("[" + planNode(1, "SEND", "[2]", "[]", columns(11), ",\"FAKE\":false") +
+                             "," + planNode(2, "LIMIT", "[5]", "[1]", columns(11), limitFields(-1, 0, 0, 1)) +
+                             "," + planNode(5, "PROJECTION", "[3]", "[2]", columns(11)) +
+                             "," + planNode(3, "ORDERBY", "[4]", "[5]", columns(1), sortFields(ties)) +
+                             "," + scan(4, 3) + "]", "[4,3,5,2,1]"));
+    }
+
+    // SEND <- ORDERBY (LIMIT ? OFFSET ?) <- SEQSCAN
+    static string inlineLimit(bool ties) {
+        string limit = planNode(4, "LIMIT", "[]", "[]", columns(1), limitFields(-1, 0, 0, 1));
+        return (planFragment("[" + planNode(1, "SEND", "[2]", "[]", columns(1), ",\"FAKE\":false") +
+                             "," + planNode(2, "ORDERBY", "[3]", "[1]", columns(1), sortFields(ties), "[" + limit + "]") +
+                             "," + scan(3, 2) + "]", "[3,2,1]"));
+    }
+
+    /**
+     * Run every top-N plan with the given LIMIT and OFFSET and check that
+     * we get the same rows as the full sort followed by a LIMIT
+     */
+    void checkTopN(bool ties, int limit, int offset) {
+        int base = (ties ? FRAG_TIES_OFFSET : 0);
+        NValueArray none(0);
+        PlanTestRows sorted;
+        ASSERT_TRUE(execute(engine, base + FRAG_FULL_SORT, none, sorted));
+        ASSERT_EQ(NUM_OF_TUPLES, (int)sorted.size());
+        int64_t end = min((int64_t)offset + limit, (int64_t)NUM_OF_TUPLES);
+        PlanTestRows expected(sorted.begin() + min(offset, NUM_OF_TUPLES), sorted.begin() + end);
+
+        NValueArray params(2);
+        params[0] = ValueFactory::getIntegerValue(limit);
+        params[1] = ValueFactory::getIntegerValue(offset);
+        int frags[] = { FRAG_TOPN, FRAG_TOPN_PROJECT, FRAG_INLINE_LIMIT };
+        for (int i = 0; i < 3; i++) {
+            PlanTestRows rows;
+            ASSERT_TRUE(execute(engine, base + frags[i], params, rows));
+            ASSERT_EQ(expected.size(), rows.size());
+            if (!ties) {
+                EXPECT_TRUE(expected == rows);
+                continue;
+            }
+
+            // Tuples with the same T_VAL can come back in any order, and at
+            // the edges of the LIMIT we can get any of them. But the sort
+            // keys have to be the same and every row has to be a real one.
+            set<int64_t> ids;
+            for (int j = 0; j < (int)rows.size(); j++) {
+                EXPECT_EQ(expected[j][2], rows[j][2]);
+                EXPECT_EQ(keyOf((int)rows[j][0]), rows[j][1]);
+                EXPECT_EQ(valueOf((int)rows[j][0]), rows[j][2]);
+                EXPECT_TRUE(ids.insert(rows[j][0]).second);
+            }
+        }
+    }
+
+    VoltDBEngine *engine;
+};
+
+TEST_F(OrderByTest, FullSort) {
+    ASSERT_TRUE(engine);
+    NValueArray none(0);
+    PlanTestRows rows;
+    ASSERT_TRUE(execute(engine, FRAG_FULL_SORT, none, rows));
+    ASSERT_EQ(NUM_OF_TUPLES, (int)rows.size());
+    for (int i = 1; i < (int)rows.size(); i++) {
+        EXPECT_TRUE(rows[i-1][2] > rows[i][2] ||
+                    (rows[i-1][2] == rows[i][2] && rows[i-1][1] < rows[i][1]));
+    }
+    // NULLs sort last when descending
+    EXPECT_EQ(PLANTEST_NULL, rows.back()[2]);
+}
+
+TEST_F(OrderByTest, Limit) {
+    ASSERT_TRUE(engine);
+    for (int ties = 0; ties < 2; ties++) {
+        checkTopN(ties, 1, 0);
+        checkTopN(ties, 5, 0);
+        checkTopN(ties, 25, 0);
+        checkTopN(ties, NUM_OF_TUPLES - 1, 0);
+    }
+}
+
+TEST_F(OrderByTest, LimitOffset) {
+    ASSERT_TRUE(engine);
+    for (int ties = 0; ties < 2; ties++) {
+        checkTopN(ties, 5, 3);
+        checkTopN(ties, 20, 17);
+        checkTopN(ties, 10, NUM_OF_TUPLES - 10);
+        checkTopN(ties, 10, NUM_OF_TUPLES - 4);
+        checkTopN(ties, 10, NUM_OF_TUPLES + 5);
+        checkTopN(ties, 1, NUM_OF_TUPLES - 1);
+    }
+}
+
+TEST_F(OrderByTest, LimitLargerThanInput) {
+    ASSERT_TRUE(engine);
+    for (int ties = 0; ties < 2; ties++) {
+        checkTopN(ties, NUM_OF_TUPLES, 0);
+        checkTopN(ties, NUM_OF_TUPLES + 1, 0);
+        checkTopN(ties, NUM_OF_TUPLES * 10, 0);
+        checkTopN(ties, NUM_OF_TUPLES * 10, 7);
+        checkTopN(ties, INT32_MAX, 0);
+        checkTopN(ties, INT32_MAX, 1);
+    }
+}
+
+TEST_F(OrderByTest, LimitZero) {
+    ASSERT_TRUE(engine);
+    for (int ties = 0; ties < 2; ties++) {
+        checkTopN(ties, 0, 0);
+        checkTopN(ties, 0, 10);
+    }
+}
+
+int main() {
+    return TestSuite::globalInstance()->runAll();
+}
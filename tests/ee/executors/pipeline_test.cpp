@@ -0,0 +1,398 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2010 VoltDB L.L.C.
+ *
+ * This file contains original code and/or modifications of original code.
+ * Any modifications made by VoltDB L.L.C. are licensed under the following
+ * terms and conditions:
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/* Copyright (C) 2008 by H-Store Project
+ * Brown University
+ * Massachusetts Institute of Technology
+ * Yale University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+#include <algorithm>
+#include <sstream>
+#include <string>
+#include <vector>
+#include "harness.h"
+#include "common/common.h"
+#include "common/tabletuple.h"
+#include "common/ValueFactory.hpp"
+#include "common/valuevector.h"
+#include "execution/VoltDBEngine.h"
+#include "storage/persistenttable.h"
+#include "storage/tableiterator.h"
+#include "executors/plantestutil.h"
+
+using namespace std;
+using namespace voltdb;
+
+#define NUM_OF_TUPLES 300
+#define NUM_OF_VALUES 11
+
+// Fragment ids. Every fragment takes the parameters
+// (LIMIT, OFFSET, LOW_KEY, HIGH_KEY) even if it doesn't use all of them.
+// The *_ALL fragments don't have a LIMIT and are what we check the others against.
+#define FRAG_SCAN_ALL               1
+#define FRAG_SCAN_LIMIT             2
+#define FRAG_SCAN_PROJECT_LIMIT     3
+#define FRAG_SCAN_INLINE_LIMIT      4
+#define FRAG_INDEX_ALL              5
+#define FRAG_INDEX_LIMIT            6
+#define FRAG_INDEX_PROJECT_LIMIT    7
+#define FRAG_INDEX_LIMIT_LIMIT      8
+#define FRAG_TABLE_ALL              9
+#define FRAG_TABLE_LIMIT            10
+
+// The OFFSET and LIMIT of the inner LIMIT in FRAG_INDEX_LIMIT_LIMIT
+#define INNER_LIMIT     50
+#define INNER_OFFSET    5
+
+/**
+ * T(T_ID INTEGER, T_KEY INTEGER, T_VAL BIGINT) with an index on T_KEY.
+ * We delete some of the tuples after loading so that the table has holes
+ * in it. Every plan gets run in one engine that pipelines tuples between
+ * executors and one that materializes every intermediate table, and both
+ * have to return the same rows.
+ */
+class PipelineTest : public PlanTest {
+public:
+    PipelineTest() : pipelined(NULL), materialized(NULL) {
+        addTable("T");
+        addColumn("T", "T_ID", VALUE_TYPE_INTEGER, false);
+        addColumn("T", "T_KEY", VALUE_TYPE_INTEGER, false);
+        addColumn("T", "T_VAL", VALUE_TYPE_BIGINT, true);
+        addIndex("T", "IDX_T_KEY", "T_KEY", BALANCED_TREE_INDEX, false);
+
+        addFragment(FRAG_SCAN_ALL, scanAll());
+        addFragment(FRAG_SCAN_LIMIT, scanLimit(false));
+        addFragment(FRAG_SCAN_PROJECT_LIMIT, scanLimit(true));
+        addFragment(FRAG_SCAN_INLINE_LIMIT, scanInlineLimit());
+        addFragment(FRAG_INDEX_ALL, indexAll());
+        addFragment(FRAG_INDEX_LIMIT, indexLimit(false));
+        addFragment(FRAG_INDEX_PROJECT_LIMIT, indexLimit(true));
+        addFragment(FRAG_INDEX_LIMIT_LIMIT, indexLimitLimit());
+        addFragment(FRAG_TABLE_ALL, tableAll());
+        addFragment(FRAG_TABLE_LIMIT, tableLimit());
+
+        pipelined = createEngine(true);
+        materialized = createEngine(false);
+        if (pipelined == NULL || materialized == NULL) return;
+        load(pipelined);
+        load(materialized);
+    }
+
+    static int64_t keyOf(int id) {
+        return ((id * 37) % NUM_OF_TUPLES);
+    }
+
+    static int64_t valueOf(int id) {
+        return (id % 13 == 0 ? PLANTEST_NULL : id % NUM_OF_VALUES);
+    }
+
+    /**
+     * Load the same tuples into the engine and then delete every seventh one
+     * so that the scans have to skip over free slots in the table
+     */
+    static void load(VoltDBEngine *engine) {
+        for (int i = 0; i < NUM_OF_TUPLES; i++) {
+            insertRow(engine, "T", row(i, keyOf(i), valueOf(i)));
+        }
+        PersistentTable *table = dynamic_cast<PersistentTable*>(engine->getTable("T"));
+        assert(table);
+        vector<char*> deleted;
+        TableTuple tuple(table->schema());
+        TableIterator iterator = table->tableIterator();
+        while (iterator.next(tuple)) {
+            if (ValuePeeker::peekAsBigInt(tuple.getNValue(0)) % 7 == 3) {
+                deleted.push_back(tuple.address());
+            }
+        }
+        for (int i = 0; i < (int)deleted.size(); i++) {
+            tuple.move(deleted[i]);
+            table->deleteTuple(tuple, true);
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // PLANS
+    // ------------------------------------------------------------------
+
+    static string columns(int guid) {
+        return ("[" + planColumn(guid, "T_ID", VALUE_TYPE_INTEGER, tupleValue(0, "T", "T_ID", VALUE_TYPE_INTEGER)) +
+                "," + planColumn(guid + 1, "T_KEY", VALUE_TYPE_INTEGER, tupleValue(1, "T", "T_KEY", VALUE_TYPE_INTEGER)) +
+                "," + planColumn(guid + 2, "T_VAL", VALUE_TYPE_BIGINT, tupleValue(2, "T", "T_VAL", VALUE_TYPE_BIGINT)) + "]");
+    }
+
+    // T_VAL, T_ID
+    static string projectedColumns(int guid) {
+        return ("[" + planColumn(guid, "T_VAL", VALUE_TYPE_BIGINT, tupleValue(2, "T", "T_VAL", VALUE_TYPE_BIGINT)) +
+                "," + planColumn(guid + 1, "T_ID", VALUE_TYPE_INTEGER, tupleValue(0, "T", "T_ID", VALUE_TYPE_INTEGER)) + "]");
+    }
+
+    static string ids(int id) {
+        ostringstream out;
+        out << "[" << id << "]";
+        return (out.str());
+    }
+
+    static string send(const string &columns) {
+        return (planNode(1, "SEND", "[2]", "[]", columns, ",\"FAKE\":false"));
+    }
+
+    static string limit(int id, int child, int parent, const string &columns) {
+        return (planNode(id, "LIMIT", ids(child), ids(parent), columns, limitFields(-1, 0, 0, 1)));
+    }
+
+    static string projection(int id, int child, int parent) {
+        return (planNode(id, "PROJECTION", ids(child), ids(parent), projectedColumns(21)));
+    }
+
+    // T_KEY >= ?2
+    static string scanPredicate() {
+        return (operation("COMPARE_GREATERTHANOREQUALTO",
+                          tupleValue(1, "T", "T_KEY", VALUE_TYPE_INTEGER),
+                          parameterValue(2, VALUE_TYPE_INTEGER)));
+    }
+
+    static string scan(int id, int parent, bool predicate, const string &inlines = "[]") {
+        string fields = ",\"TARGET_TABLE_NAME\":\"T\"";
+        if (predicate) fields += ",\"PREDICATE\":" + scanPredicate();
+        return (planNode(id, "SEQSCAN", "[]", ids(parent), columns(1), fields, inlines));
+    }
+
+    // T_KEY >= ?2 AND T_KEY < ?3
+    static string indexScan(int id, int parent) {
+        string end = operation("COMPARE_LESSTHAN",
+                               tupleValue(1, "T", "T_KEY", VALUE_TYPE_INTEGER),
+                               parameterValue(3, VALUE_TYPE_INTEGER));
+        string fields = ",\"TARGET_TABLE_NAME\":\"T\""
+                        ",\"KEY_ITERATE\":true,\"LOOKUP_TYPE\":\"GTE\",\"SORT_DIRECTION\":\"ASC\""
+                        ",\"TARGET_INDEX_NAME\":\"IDX_T_KEY\""
+                        ",\"END_EXPRESSION\":" + end +
+                        ",\"SEARCHKEY_EXPRESSIONS\":[" + parameterValue(2, VALUE_TYPE_INTEGER) + "]";
+        return (planNode(id, "INDEXSCAN", "[]", ids(parent), columns(1), fields));
+    }
+
+    // SEND <- SEQSCAN (T_KEY >= ?)
+    static string scanAll() {
+        return (planFragment("[" + send(columns(1)) + "," + scan(2, 1, true) + "]", "[2,1]"));
+    }
+
+    // SEND <- LIMIT <- [PROJECTION] <- SEQSCAN (T_KEY >= ?)
+    static string scanLimit(bool project) {
+        if (!project) {
+            return (planFragment("[" + send(columns(1)) +
+                                 "," + limit(2, 3, 1, columns(1)) +
+                                 "," + scan(3, 2, true) + "]", "[3,2,1]"));
+        }
+        return (planFragment("[" + send(projectedColumns(21)) +
+                             "," + limit(2, 3, 1, projectedColumns(21)) +
+                             "," + projection(3, 4, 2) +
+                             "," + scan(4, 3, true) + "]", "[4,3,2,1]"));
+    }
+
+    // SEND <- LIMIT <- SEQSCAN (T_KEY >= ?) with an inline PROJECTION
+    static string scanInlineLimit() {
+        string inlines = "[" + planNode(4, "PROJECTION", "[]", "[]", projectedColumns(21)) + "]";
+        return (planFragment("[" + send(projectedColumns(21)) +
+                             "," + limit(2, 3, 1, projectedColumns(21)) +
+                             "," + scan(3, 2, true, inlines) + "]", "[3,2,1]"));
+    }
+
+    // SEND <- INDEXSCAN
+    static string indexAll() {
+        return (planFragment("[" + send(columns(1)) + "," + indexScan(2, 1) + "]", "[2,1]"));
+    }
+
+    // SEND <- LIMIT <- [PROJECTION] <- INDEXSCAN
+    static string indexLimit(bool project) {
+        if (!project) {
+            return (planFragment("[" + send(columns(1)) +
+                                 "," + limit(2, 3, 1, columns(1)) +
+                                 "," + indexScan(3, 2) + "]", "[3,2,1]"));
+        }
+        return (planFragment("[" + send(projectedColumns(21)) +
+                             "," + limit(2, 3, 1, projectedColumns(21)) +
+                             "," + projection(3, 4, 2) +
+                             "," + indexScan(4, 3) + "]", "[4,3,2,1]"));
+    }
+
+    // SEND <- LIMIT <- LIMIT 50 OFFSET 5 <- INDEXSCAN
+    static string indexLimitLimit() {
+        string inner = planNode(3, "LIMIT", "[4]", "[2]", columns(1),
+                                limitFields(INNER_LIMIT, INNER_OFFSET, -1, -1));
+        return (planFragment("[" + send(columns(1)) +
+                             "," + limit(2, 3, 1, columns(1)) +
+                             "," + inner +
+                             "," + indexScan(4, 3) + "]", "[4,3,2,1]"));
+    }
+
+    // SEND <- SEQSCAN
+    static string tableAll() {
+        return (planFragment("[" + send(columns(1)) + "," + scan(2, 1, false) + "]", "[2,1]"));
+    }
+
+    // SEND <- LIMIT <- SEQSCAN
+    // Without a predicate the SEQSCAN's output is the table itself, so the
+    // LIMIT has to skip over the deleted tuples even when we are pipelining
+    static string tableLimit() {
+        return (planFragment("[" + send(columns(1)) +
+                             "," + limit(2, 3, 1, columns(1)) +
+                             "," + scan(3, 2, false) + "]", "[3,2,1]"));
+    }
+
+    // ------------------------------------------------------------------
+    // CHECKS
+    // ------------------------------------------------------------------
+
+    static PlanTestRows slice(const PlanTestRows &rows, int64_t limit, int64_t offset) {
+        int64_t start = min(offset, (int64_t)rows.size());
+        int64_t end = min(offset + limit, (int64_t)rows.size());
+        return (PlanTestRows(rows.begin() + start, rows.begin() + end));
+    }
+
+    // T_ID, T_KEY, T_VAL -> T_VAL, T_ID
+    static PlanTestRows project(const PlanTestRows &rows) {
+        PlanTestRows projected;
+        for (int i = 0; i < (int)rows.size(); i++) {
+            projected.push_back(row(rows[i][2], rows[i][0]));
+        }
+        return (projected);
+    }
+
+    static NValueArray params(int limit, int offset, int low, int high) {
+        NValueArray params(4);
+        params[0] = ValueFactory::getIntegerValue(limit);
+        params[1] = ValueFactory::getIntegerValue(offset);
+        params[2] = ValueFactory::getIntegerValue(low);
+        params[3] = ValueFactory::getIntegerValue(high);
+        return (params);
+    }
+
+    /**
+     * Execute the fragment in both engines and check that they both
+     * return the expected rows
+     */
+    void check(int fragId, const NValueArray &params, const PlanTestRows &expected) {
+        PlanTestRows rows;
+        ASSERT_TRUE(execute(pipelined, fragId, params, rows));
+        EXPECT_TRUE(expected == rows);
+        ASSERT_TRUE(execute(materialized, fragId, params, rows));
+        EXPECT_TRUE(expected == rows);
+    }
+
+    /**
+     * Run every plan with the given LIMIT and OFFSET
+     */
+    void checkAll(int limit, int offset, int low, int high) {
+        NValueArray p = params(limit, offset, low, high);
+
+        PlanTestRows all;
+        ASSERT_TRUE(execute(materialized, FRAG_SCAN_ALL, p, all));
+        ASSERT_FALSE(all.empty());
+        check(FRAG_SCAN_LIMIT, p, slice(all, limit, offset));
+        check(FRAG_SCAN_PROJECT_LIMIT, p, project(slice(all, limit, offset)));
+        check(FRAG_SCAN_INLINE_LIMIT, p, project(slice(all, limit, offset)));
+
+        ASSERT_TRUE(execute(materialized, FRAG_INDEX_ALL, p, all));
+        ASSERT_FALSE(all.empty());
+        for (int i = 1; i < (int)all.size(); i++) {
+            ASSERT_TRUE(all[i-1][1] < all[i][1]);
+        }
+        check(FRAG_INDEX_LIMIT, p, slice(all, limit, offset));
+        check(FRAG_INDEX_PROJECT_LIMIT, p, project(slice(all, limit, offset)));
+        check(FRAG_INDEX_LIMIT_LIMIT, p, slice(slice(all, INNER_LIMIT, INNER_OFFSET), limit, offset));
+
+        ASSERT_TRUE(execute(materialized, FRAG_TABLE_ALL, p, all));
+        ASSERT_TRUE(all.size() < NUM_OF_TUPLES);
+        check(FRAG_TABLE_LIMIT, p, slice(all, limit, offset));
+    }
+
+    VoltDBEngine *pipelined;
+    VoltDBEngine *materialized;
+};
+
+TEST_F(PipelineTest, ScanAll) {
+    ASSERT_TRUE(pipelined && materialized);
+    NValueArray p = params(0, 0, 100, 200);
+    PlanTestRows expected;
+    ASSERT_TRUE(execute(materialized, FRAG_SCAN_ALL, p, expected));
+    check(FRAG_SCAN_ALL, p, expected);
+    for (int i = 0; i < (int)expected.size(); i++) {
+        EXPECT_TRUE(expected[i][1] >= 100);
+        EXPECT_NE(3, expected[i][0] % 7);
+    }
+
+    ASSERT_TRUE(execute(materialized, FRAG_INDEX_ALL, p, expected));
+    check(FRAG_INDEX_ALL, p, expected);
+    ASSERT_EQ(87, (int)expected.size());
+}
+
+TEST_F(PipelineTest, Limit) {
+    ASSERT_TRUE(pipelined && materialized);
+    checkAll(1, 0, 0, NUM_OF_TUPLES);
+    checkAll(10, 0, 50, 150);
+    checkAll(NUM_OF_TUPLES, 0, 0, NUM_OF_TUPLES);
+    checkAll(INT32_MAX, 0, 120, 280);
+}
+
+TEST_F(PipelineTest, LimitOffset) {
+    ASSERT_TRUE(pipelined && materialized);
+    checkAll(10, 1, 0, NUM_OF_TUPLES);
+    checkAll(10, 7, 50, 150);
+    checkAll(25, 40, 0, NUM_OF_TUPLES);
+    checkAll(5, 85, 100, 200);
+    checkAll(INT32_MAX, 30, 120, 280);
+}
+
+TEST_F(PipelineTest, OffsetPastEnd) {
+    ASSERT_TRUE(pipelined && materialized);
+    checkAll(10, 87, 100, 200);
+    checkAll(10, 200, 100, 200);
+    checkAll(10, NUM_OF_TUPLES, 0, NUM_OF_TUPLES);
+}
+
+TEST_F(PipelineTest, LimitZero) {
+    ASSERT_TRUE(pipelined && materialized);
+    checkAll(0, 0, 0, NUM_OF_TUPLES);
+    checkAll(0, 10, 50, 150);
+}
+
+int main() {
+    return TestSuite::globalInstance()->runAll();
+}
@@ -0,0 +1,366 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2010 VoltDB L.L.C.
+ *
+ * This file contains original code and/or modifications of original code.
+ * Any modifications made by VoltDB L.L.C. are licensed under the following
+ * terms and conditions:
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/* Copyright (C) 2008 by H-Store Project
+ * Brown University
+ * Massachusetts Institute of Technology
+ * Yale University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+#ifndef HSTORE_PLANTESTUTIL_H
+#define HSTORE_PLANTESTUTIL_H
+
+#include <stdint.h>
+#include <map>
+#include <sstream>
+#include <string>
+#include <vector>
+#include "harness.h"
+#include "catalog/catalog.h"
+#include "common/common.h"
+#include "common/NValue.hpp"
+#include "common/serializeio.h"
+#include "common/tabletuple.h"
+#include "common/types.h"
+#include "common/ValueFactory.hpp"
+#include "common/valuevector.h"
+#include "execution/VoltDBEngine.h"
+#include "storage/table.h"
+
+#define PLANTEST_BUFFER_SIZE (4 * 1024 * 1024)
+
+namespace voltdb {
+
+/**
+ * A result row. Every column is an integer and NULL is PLANTEST_NULL.
+ */
+typedef std::vector<int64_t> PlanTestRow;
+typedef std::vector<PlanTestRow> PlanTestRows;
+
+const int64_t PLANTEST_NULL = INT64_MIN;
+
+/**
+ * Base class for tests that run hand-written plan fragments through the
+ * VoltDBEngine. A test first declares its tables and plan fragments, then
+ * creates one or more engines that all load the same catalog. The JSON
+ * helpers below produce the same format as the Java PlanNodeList.
+ * Only integer columns are supported.
+ */
+class PlanTest : public Test {
+public:
+    PlanTest() : m_txnId(1000) {
+        m_catalog = "add / clusters cluster"
+            "\nadd /clusters[cluster] databases database"
+            "\nadd /clusters[cluster]/databases[database] programs program"
+            "\nadd /clusters[cluster] hosts 0"
+            "\nadd /clusters[cluster] sites 0"
+            "\nadd /clusters[cluster]/sites[0] partitions 0"
+            "\nset /clusters[cluster]/sites[0] host /clusters[cluster]/hosts[0]"
+            "\nadd /clusters[cluster]/databases[database] procedures PlanTest"
+            "\nadd /clusters[cluster]/databases[database]/procedures[PlanTest] statements stmt";
+    }
+    virtual ~PlanTest() {
+        for (int i = 0; i < (int)m_engines.size(); i++) {
+            delete m_engines[i];
+        }
+        for (int i = 0; i < (int)m_buffers.size(); i++) {
+            delete[] m_buffers[i];
+        }
+    }
+
+protected:
+    // ------------------------------------------------------------------
+    // CATALOG
+    // ------------------------------------------------------------------
+
+    void addTable(const std::string &table) {
+        std::ostringstream out;
+        out << "\nadd /clusters[cluster]/databases[database] tables " << table
+            << "\nset " << tablePath(table) << " isreplicated true"
+            << "\nset " << tablePath(table) << " estimatedtuplecount 0";
+        m_catalog += out.str();
+        m_columnCounts[table] = 0;
+    }
+
+    void addColumn(const std::string &table, const std::string &column,
+                   ValueType type, bool nullable) {
+        std::string path = tablePath(table) + "/columns[" + column + "]";
+        std::ostringstream out;
+        out << "\nadd " << tablePath(table) << " columns " << column
+            << "\nset " << path << " index " << m_columnCounts[table]++
+            << "\nset " << path << " type " << type
+            << "\nset " << path << " size " << NValue::getTupleStorageSize(type)
+            << "\nset " << path << " nullable " << (nullable ? "true" : "false")
+            << "\nset " << path << " name \"" << column << "\"";
+        m_catalog += out.str();
+    }
+
+    void addIndex(const std::string &table, const std::string &index,
+                  const std::string &column, TableIndexType type, bool unique) {
+        std::string path = tablePath(table) + "/indexes[" + index + "]";
+        std::ostringstream out;
+        out << "\nadd " << tablePath(table) << " indexes " << index
+            << "\nset " << path << " unique " << (unique ? "true" : "false")
+            << "\nset " << path << " type " << type
+            << "\nadd " << path << " columns " << column
+            << "\nset " << path << "/columns[" << column << "] index 0"
+            << "\nset " << path << "/columns[" << column << "] column "
+            << tablePath(table) << "/columns[" << column << "]";
+        m_catalog += out.str();
+    }
+
+    /**
+     * Add a plan fragment with the given JSON plan. The fragment id is
+     * what gets passed to execute()
+     */
+    void addFragment(int64_t fragId, const std::string &json) {
+        std::vector<char> hex(json.size() * 2 + 1);
+        catalog::Catalog::hexEncodeString(json.c_str(), &hex[0]);
+        std::string path = "/clusters[cluster]/databases[database]/procedures[PlanTest]/statements[stmt]";
+        std::ostringstream out;
+        out << "\nadd " << path << " fragments " << fragId
+            << "\nset " << path << "/fragments[" << fragId << "] plannodetree \"" << &hex[0] << "\"";
+        m_catalog += out.str();
+    }
+
+    /**
+     * Create a new engine that loads all of the tables and fragments
+     * that were added so far
+     */
+    VoltDBEngine* createEngine(bool pipelining = true) {
+        VoltDBEngine *engine = new VoltDBEngine();
+        engine->setPipeliningEnabled(pipelining);
+        m_engines.push_back(engine);
+        for (int i = 0; i < 3; i++) {
+            m_buffers.push_back(new char[PLANTEST_BUFFER_SIZE]);
+        }
+        int n = (int)m_buffers.size();
+        engine->initialize(0, 0, 0, 0, "");
+        engine->setBuffers(m_buffers[n-3], PLANTEST_BUFFER_SIZE,
+                           m_buffers[n-2], PLANTEST_BUFFER_SIZE,
+                           m_buffers[n-1], PLANTEST_BUFFER_SIZE);
+        if (!engine->loadCatalog(m_catalog)) {
+            return (NULL);
+        }
+        return (engine);
+    }
+
+    // ------------------------------------------------------------------
+    // DATA
+    // ------------------------------------------------------------------
+
+    static bool insertRow(VoltDBEngine *engine, const std::string &table, const PlanTestRow &row) {
+        Table *t = engine->getTable(table);
+        assert(t);
+        TableTuple &tuple = t->tempTuple();
+        for (int i = 0; i < (int)row.size(); i++) {
+            ValueType type = t->schema()->columnType(i);
+            if (row[i] == PLANTEST_NULL) {
+                tuple.setNValue(i, NValue::getNullValue(type));
+            } else {
+                tuple.setNValue(i, ValueFactory::getBigIntValue(row[i]).castAs(type));
+            }
+        }
+        return (t->insertTuple(tuple));
+    }
+
+    static PlanTestRow row(int64_t a, int64_t b) {
+        PlanTestRow r;
+        r.push_back(a);
+        r.push_back(b);
+        return (r);
+    }
+
+    static PlanTestRow row(int64_t a, int64_t b, int64_t c) {
+        PlanTestRow r = row(a, b);
+        r.push_back(c);
+        return (r);
+    }
+
+    /**
+     * Execute a fragment and deserialize the table that it sent back
+     */
+    bool execute(VoltDBEngine *engine, int64_t fragId, const NValueArray &params, PlanTestRows &rows) {
+        rows.clear();
+        engine->resetReusedResultOutputBuffer();
+        int64_t txnId = m_txnId++;
+        if (engine->executeQuery(fragId, 1, -1, params, txnId, txnId - 1, true, true) != ENGINE_ERRORCODE_SUCCESS) {
+            return (false);
+        }
+
+        ReferenceSerializeInput in(engine->getReusedResultBuffer(), engine->getResultsSize());
+        in.readInt();    // number of dependencies
+        in.readByte();   // dirty flag
+        if (in.readInt() != 1) return (false);
+        in.readInt();    // dependency id
+        in.readInt();    // table length
+        in.readInt();    // header length
+        in.readByte();   // status
+        int columns = in.readShort();
+        std::vector<ValueType> types;
+        for (int i = 0; i < columns; i++) {
+            types.push_back((ValueType)in.readEnumInSingleByte());
+        }
+        for (int i = 0; i < columns; i++) {
+            in.readTextString();
+        }
+        int count = in.readInt();
+        for (int r = 0; r < count; r++) {
+            in.readInt(); // row length
+            PlanTestRow row;
+            for (int i = 0; i < columns; i++) {
+                int64_t value;
+                switch (types[i]) {
+                    case VALUE_TYPE_TINYINT:
+                        value = in.readByte();
+                        if (value == INT8_MIN) value = PLANTEST_NULL;
+                        break;
+                    case VALUE_TYPE_SMALLINT:
+                        value = in.readShort();
+                        if (value == INT16_MIN) value = PLANTEST_NULL;
+                        break;
+                    case VALUE_TYPE_INTEGER:
+                        value = in.readInt();
+                        if (value == INT32_MIN) value = PLANTEST_NULL;
+                        break;
+                    case VALUE_TYPE_BIGINT:
+                        value = in.readLong();
+                        break;
+                    default:
+                        return (false);
+                }
+                row.push_back(value);
+            }
+            rows.push_back(row);
+        }
+        return (true);
+    }
+
+    // ------------------------------------------------------------------
+    // PLAN JSON
+    // ------------------------------------------------------------------
+
+    static std::string tupleValue(int column_idx, const std::string &table,
+                                  const std::string &column, ValueType type) {
+        std::ostringstream out;
+        out << "{\"TYPE\":\"VALUE_TUPLE\",\"VALUE_TYPE\":\"" << valueToString(type) << "\""
+            << ",\"VALUE_SIZE\":" << NValue::getTupleStorageSize(type)
+            << ",\"COLUMN_IDX\":" << column_idx
+            << ",\"TABLE_NAME\":\"" << table << "\",\"COLUMN_NAME\":\"" << column << "\"}";
+        return (out.str());
+    }
+
+    static std::string constantValue(int64_t value) {
+        std::ostringstream out;
+        out << "{\"TYPE\":\"VALUE_CONSTANT\",\"VALUE_TYPE\":\"BIGINT\",\"VALUE_SIZE\":8"
+            << ",\"VALUE\":" << value << "}";
+        return (out.str());
+    }
+
+    static std::string parameterValue(int param_idx, ValueType type) {
+        std::ostringstream out;
+        out << "{\"TYPE\":\"VALUE_PARAMETER\",\"VALUE_TYPE\":\"" << valueToString(type) << "\""
+            << ",\"VALUE_SIZE\":" << NValue::getTupleStorageSize(type)
+            << ",\"PARAM_IDX\":" << param_idx << "}";
+        return (out.str());
+    }
+
+    /**
+     * A binary expression such as COMPARE_EQUAL or CONJUNCTION_AND
+     */
+    static std::string operation(const std::string &type, const std::string &left, const std::string &right) {
+        return ("{\"TYPE\":\"" + type + "\",\"VALUE_TYPE\":\"BIGINT\",\"VALUE_SIZE\":8"
+                ",\"LEFT\":" + left + ",\"RIGHT\":" + right + "}");
+    }
+
+    static std::string planColumn(int guid, const std::string &name, ValueType type,
+                                  const std::string &expression) {
+        std::ostringstream out;
+        out << "{\"GUID\":" << guid << ",\"NAME\":\"" << name << "\""
+            << ",\"TYPE\":\"" << valueToString(type) << "\""
+            << ",\"SIZE\":" << NValue::getTupleStorageSize(type)
+            << ",\"INPUT_COLUMN_NAME\":\"" << name << "\""
+            << ",\"EXPRESSION\":" << expression << "}";
+        return (out.str());
+    }
+
+    /**
+     * A plan node. The ids and columns are JSON arrays and the fields are
+     * any node-specific members, each with a leading comma
+     */
+    static std::string planNode(int id, const std::string &type,
+                                const std::string &children, const std::string &parents,
+                                const std::string &columns, const std::string &fields = "",
+                                const std::string &inlines = "[]") {
+        std::ostringstream out;
+        out << "{\"ID\":" << id << ",\"PLAN_NODE_TYPE\":\"" << type << "\""
+            << ",\"INLINE_NODES\":" << inlines
+            << ",\"CHILDREN_IDS\":" << children << ",\"PARENT_IDS\":" << parents
+            << ",\"OUTPUT_COLUMNS\":" << columns << fields << "}";
+        return (out.str());
+    }
+
+    static std::string limitFields(int limit, int offset, int limit_param_idx, int offset_param_idx) {
+        std::ostringstream out;
+        out << ",\"LIMIT\":" << limit << ",\"OFFSET\":" << offset
+            << ",\"LIMIT_PARAM_IDX\":" << limit_param_idx
+            << ",\"OFFSET_PARAM_IDX\":" << offset_param_idx;
+        return (out.str());
+    }
+
+    static std::string planFragment(const std::string &nodes, const std::string &executeList) {
+        return ("{\"PLAN_NODES\":" + nodes + ",\"EXECUTE_LIST\":" + executeList +
+                ",\"PARAMETERS\":[]}");
+    }
+
+private:
+    static std::string tablePath(const std::string &table) {
+        return ("/clusters[cluster]/databases[database]/tables[" + table + "]");
+    }
+
+    std::string m_catalog;
+    std::map<std::string, int> m_columnCounts;
+    std::vector<VoltDBEngine*> m_engines;
+    std::vector<char*> m_buffers;
+    int64_t m_txnId;
+};
+
+}
+
+#endif
@@ -0,0 +1,261 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2010 VoltDB L.L.C.
+ *
+ * This file contains original code and/or modifications of original code.
+ * Any modifications made by VoltDB L.L.C. are licensed under the following
+ * terms and conditions:
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/* Copyright (C) 2008 by H-Store Project
+ * Brown University
+ * Massachusetts Institute of Technology
+ * Yale University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+#include <cstdlib>
+#include <vector>
+#include "harness.h"
+#include "common/common.h"
+#include "common/NValue.hpp"
+#include "common/ValueFactory.hpp"
+#include "common/tabletuple.h"
+#include "common/TupleSchema.h"
+#include "common/valuevector.h"
+#include "expressions/abstractexpression.h"
+#include "expressions/expressions.h"
+#include "expressions/expressionutil.h"
+#include "expressions/batchpredicate.h"
+
+using namespace std;
+using namespace voltdb;
+
+#define NUM_OF_TUPLES 1000
+#define NUM_OF_COLUMNS 6
+
+/**
+ * Check that BatchPredicate::filter() selects exactly the same tuples
+ * as calling eval() on the expression tree
+ */
+class BatchPredicateTest : public Test {
+public:
+    BatchPredicateTest() : params(2)
+    {
+        vector<ValueType> columnTypes;
+        columnTypes.push_back(VALUE_TYPE_TINYINT);
+        columnTypes.push_back(VALUE_TYPE_SMALLINT);
+        columnTypes.push_back(VALUE_TYPE_INTEGER);
+        columnTypes.push_back(VALUE_TYPE_BIGINT);
+        columnTypes.push_back(VALUE_TYPE_DOUBLE);
+        columnTypes.push_back(VALUE_TYPE_VARCHAR);
+        vector<int32_t> columnLengths;
+        vector<bool> columnAllowNull(NUM_OF_COLUMNS, true);
+        for (int i = 0; i < NUM_OF_COLUMNS - 1; i++) {
+            columnLengths.push_back(NValue::getTupleStorageSize(columnTypes[i]));
+        }
+        columnLengths.push_back(16);
+        schema = TupleSchema::createTupleSchema(columnTypes, columnLengths, columnAllowNull, true);
+        tupleLength = schema->tupleLength() + TUPLE_HEADER_SIZE;
+        data = new char[tupleLength * NUM_OF_TUPLES];
+        ::memset(data, 0, tupleLength * NUM_OF_TUPLES);
+
+        // Small values so that the comparisons match about half the time
+        srand(5);
+        for (int i = 0; i < NUM_OF_TUPLES; i++) {
+            TableTuple t(schema);
+            t.move(data + (tupleLength * i));
+            for (int col = 0; col < NUM_OF_COLUMNS - 1; col++) {
+                NValue value;
+                int v = (rand() % 21) - 10;
+                if (rand() % 10 == 0) {
+                    value = NValue::getNullValue(columnTypes[col]);
+                } else if (columnTypes[col] == VALUE_TYPE_DOUBLE) {
+                    value = ValueFactory::getDoubleValue(v / 2.0);
+                } else {
+                    value = ValueFactory::getBigIntValue(v).castAs(columnTypes[col]);
+                }
+                t.setNValue(col, value);
+            }
+            t.setNValue(NUM_OF_COLUMNS - 1, ValueFactory::getNullStringValue());
+            tuples.push_back(t.address());
+        }
+    }
+
+    ~BatchPredicateTest()
+    {
+        delete[] data;
+        TupleSchema::freeTupleSchema(schema);
+    }
+
+    AbstractExpression* column(int idx)
+    {
+        return new TupleValueExpression(idx, "T", "C");
+    }
+
+    AbstractExpression* constant(int64_t v)
+    {
+        return new ConstantValueExpression(ValueFactory::getBigIntValue(v));
+    }
+
+    AbstractExpression* compare(ExpressionType type, AbstractExpression *l, AbstractExpression *r)
+    {
+        return comparisonFactory(type, l, r);
+    }
+
+    AbstractExpression* both(AbstractExpression *l, AbstractExpression *r)
+    {
+        return conjunctionFactory(EXPRESSION_TYPE_CONJUNCTION_AND, l, r);
+    }
+
+    /**
+     * Returns the number of matches or -1 if the results are different
+     */
+    int check(AbstractExpression *predicate)
+    {
+        predicate->substitute(params);
+        BatchPredicate *batch = BatchPredicate::compile(predicate, schema);
+        if (batch == NULL || !batch->bind()) {
+            delete batch;
+            delete predicate;
+            return -2;
+        }
+
+        int total = 0;
+        bool same = true;
+        uint16_t selection[BatchPredicate::BLOCK_SIZE];
+        for (int start = 0; start < NUM_OF_TUPLES; start += BatchPredicate::BLOCK_SIZE) {
+            int count = min(BatchPredicate::BLOCK_SIZE, NUM_OF_TUPLES - start);
+            int matches = batch->filter(&tuples[start], count, selection);
+            int next = 0;
+            for (int i = 0; i < count; i++) {
+                TableTuple t(schema);
+                t.move(tuples[start + i]);
+                bool expected = predicate->eval(&t, NULL).isTrue();
+                bool actual = (next < matches && selection[next] == i);
+                if (actual) next++;
+                if (expected != actual) same = false;
+                if (expected) total++;
+            }
+            if (next != matches) same = false;
+        }
+        delete batch;
+        delete predicate;
+        return (same ? total : -1);
+    }
+
+    TupleSchema *schema;
+    int tupleLength;
+    char *data;
+    vector<char*> tuples;
+    NValueArray params;
+};
+
+TEST_F(BatchPredicateTest, SingleComparisons) {
+    const ExpressionType comparisons[] = {
+        EXPRESSION_TYPE_COMPARE_EQUAL,
+        EXPRESSION_TYPE_COMPARE_NOTEQUAL,
+        EXPRESSION_TYPE_COMPARE_LESSTHAN,
+        EXPRESSION_TYPE_COMPARE_GREATERTHAN,
+        EXPRESSION_TYPE_COMPARE_LESSTHANOREQUALTO,
+        EXPRESSION_TYPE_COMPARE_GREATERTHANOREQUALTO,
+    };
+    for (int c = 0; c < 6; c++) {
+        for (int col = 0; col < NUM_OF_COLUMNS - 1; col++) {
+            // Column on either side
+            int matches = check(compare(comparisons[c], column(col), constant(2)));
+            EXPECT_TRUE(matches > 0);
+            EXPECT_TRUE(matches < NUM_OF_TUPLES);
+            EXPECT_TRUE(check(compare(comparisons[c], constant(-3), column(col))) >= 0);
+        }
+    }
+}
+
+TEST_F(BatchPredicateTest, NullValues) {
+    for (int col = 0; col < NUM_OF_COLUMNS - 1; col++) {
+        AbstractExpression *nullConstant = new ConstantValueExpression(NValue::getNullValue(VALUE_TYPE_BIGINT));
+        EXPECT_TRUE(check(compare(EXPRESSION_TYPE_COMPARE_EQUAL, column(col), nullConstant)) >= 0);
+        nullConstant = new ConstantValueExpression(NValue::getNullValue(VALUE_TYPE_BIGINT));
+        EXPECT_TRUE(check(compare(EXPRESSION_TYPE_COMPARE_GREATERTHAN, column(col), nullConstant)) >= 0);
+    }
+}
+
+TEST_F(BatchPredicateTest, Conjunctions) {
+    AbstractExpression *predicate =
+        both(compare(EXPRESSION_TYPE_COMPARE_GREATERTHAN, column(0), constant(-5)),
+             both(compare(EXPRESSION_TYPE_COMPARE_LESSTHANOREQUALTO, column(3), constant(7)),
+                  compare(EXPRESSION_TYPE_COMPARE_NOTEQUAL, constant(0), column(4))));
+    EXPECT_TRUE(check(predicate) > 0);
+}
+
+TEST_F(BatchPredicateTest, Parameters) {
+    params[0] = ValueFactory::getIntegerValue(3);
+    params[1] = ValueFactory::getDoubleValue(1.5);
+    AbstractExpression *predicate =
+        both(compare(EXPRESSION_TYPE_COMPARE_LESSTHAN, column(2), new ParameterValueExpression(0)),
+             compare(EXPRESSION_TYPE_COMPARE_GREATERTHANOREQUALTO, column(4), new ParameterValueExpression(1)));
+    EXPECT_TRUE(check(predicate) > 0);
+
+    // Comparing an integer column to a double parameter has to go through eval()
+    predicate = compare(EXPRESSION_TYPE_COMPARE_LESSTHAN, column(2), new ParameterValueExpression(1));
+    predicate->substitute(params);
+    BatchPredicate *batch = BatchPredicate::compile(predicate, schema);
+    ASSERT_TRUE(batch != NULL);
+    EXPECT_FALSE(batch->bind());
+    delete batch;
+    delete predicate;
+}
+
+TEST_F(BatchPredicateTest, Unsupported) {
+    // OR
+    AbstractExpression *predicate =
+        conjunctionFactory(EXPRESSION_TYPE_CONJUNCTION_OR,
+                           compare(EXPRESSION_TYPE_COMPARE_EQUAL, column(0), constant(1)),
+                           compare(EXPRESSION_TYPE_COMPARE_EQUAL, column(1), constant(1)));
+    EXPECT_TRUE(BatchPredicate::compile(predicate, schema) == NULL);
+    delete predicate;
+
+    // Column vs. column
+    predicate = compare(EXPRESSION_TYPE_COMPARE_EQUAL, column(0), column(1));
+    EXPECT_TRUE(BatchPredicate::compile(predicate, schema) == NULL);
+    delete predicate;
+
+    // Strings
+    predicate = compare(EXPRESSION_TYPE_COMPARE_EQUAL, column(5), constant(1));
+    EXPECT_TRUE(BatchPredicate::compile(predicate, schema) == NULL);
+    delete predicate;
+}
+
+int main()
+{
+    return TestSuite::globalInstance()->runAll();
+}
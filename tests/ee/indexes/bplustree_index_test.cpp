@@ -0,0 +1,367 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2010 VoltDB L.L.C.
+ *
+ * This file contains original code and/or modifications of original code.
+ * Any modifications made by VoltDB L.L.C. are licensed under the following
+ * terms and conditions:
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/* Copyright (C) 2008 by H-Store Project
+ * Brown University
+ * Massachusetts Institute of Technology
+ * Yale University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+#include <cstdlib>
+#include <map>
+#include <set>
+#include <vector>
+#include "harness.h"
+#include "common/common.h"
+#include "common/NValue.hpp"
+#include "common/ValueFactory.hpp"
+#include "common/ValuePeeker.hpp"
+#include "common/tabletuple.h"
+#include "common/TupleSchema.h"
+#include "indexes/tableindex.h"
+#include "indexes/tableindexfactory.h"
+
+using namespace std;
+using namespace voltdb;
+
+#define NUM_OF_TUPLES 20000
+
+/**
+ * Tuples have two BIGINT columns: the index key and the tuple's id
+ */
+class BPlusTreeIndexTest : public Test {
+public:
+    BPlusTreeIndexTest() : index(NULL), tuples(NULL), keyData(NULL)
+    {
+        vector<ValueType> columnTypes(2, VALUE_TYPE_BIGINT);
+        vector<int32_t> columnLengths(2, NValue::getTupleStorageSize(VALUE_TYPE_BIGINT));
+        vector<bool> columnAllowNull(2, false);
+        schema = TupleSchema::createTupleSchema(columnTypes, columnLengths, columnAllowNull, true);
+        tupleLength = schema->tupleLength() + TUPLE_HEADER_SIZE;
+        tuples = new char[tupleLength * NUM_OF_TUPLES];
+        ::memset(tuples, 0, tupleLength * NUM_OF_TUPLES);
+    }
+
+    ~BPlusTreeIndexTest()
+    {
+        delete index;
+        delete[] tuples;
+        delete[] keyData;
+        TupleSchema::freeTupleSchema(schema);
+    }
+
+    void init(bool unique, bool intsOnly)
+    {
+        vector<int> columnIndices(1, 0);
+        vector<ValueType> columnTypes(1, VALUE_TYPE_BIGINT);
+        index = TableIndexFactory::getInstance(TableIndexScheme("bptree", BTREE_INDEX,
+                                                                columnIndices, columnTypes,
+                                                                unique, intsOnly, schema));
+        keyData = new char[index->getKeySchema()->tupleLength() + TUPLE_HEADER_SIZE];
+    }
+
+    TableTuple tuple(int id)
+    {
+        TableTuple t(schema);
+        t.move(tuples + (tupleLength * id));
+        return t;
+    }
+
+    TableTuple setTuple(int id, int64_t key)
+    {
+        TableTuple t = tuple(id);
+        t.setNValue(0, ValueFactory::getBigIntValue(key));
+        t.setNValue(1, ValueFactory::getBigIntValue(id));
+        return t;
+    }
+
+    TableTuple searchKey(int64_t key)
+    {
+        TableTuple k(index->getKeySchema());
+        k.move(keyData);
+        k.setNValue(0, ValueFactory::getBigIntValue(key));
+        return k;
+    }
+
+    static int64_t keyOf(const TableTuple &t)
+    {
+        return ValuePeeker::peekBigInt(t.getNValue(0));
+    }
+
+    static int64_t idOf(const TableTuple &t)
+    {
+        return ValuePeeker::peekBigInt(t.getNValue(1));
+    }
+
+    /**
+     * Check that a full scan in both directions matches the expected
+     * (key, id) pairs
+     */
+    bool checkScan(const set<pair<int64_t, int64_t> > &expected)
+    {
+        if (index->getSize() != expected.size()) return false;
+
+        index->moveToEnd(true);
+        TableTuple t(schema);
+        set<pair<int64_t, int64_t> >::const_iterator it = expected.begin();
+        int64_t last = INT64_MIN;
+        while (!(t = index->nextValue()).isNullTuple()) {
+            if (it == expected.end()) return false;
+            if (keyOf(t) != it->first || keyOf(t) < last) return false;
+            last = keyOf(t);
+            ++it;
+        }
+        if (it != expected.end()) return false;
+
+        index->moveToEnd(false);
+        set<pair<int64_t, int64_t> >::const_reverse_iterator rit = expected.rbegin();
+        while (!(t = index->nextValue()).isNullTuple()) {
+            if (rit == expected.rend()) return false;
+            if (keyOf(t) != rit->first) return false;
+            ++rit;
+        }
+        return (rit == expected.rend());
+    }
+
+    TableIndex *index;
+    TupleSchema *schema;
+    int tupleLength;
+    char *tuples;
+    char *keyData;
+};
+
+TEST_F(BPlusTreeIndexTest, IntsUnique) {
+    init(true, true);
+    EXPECT_EQ("BPlusTreeIndex", index->getTypeName());
+
+    // Insert the keys in a random order
+    vector<int> ids;
+    for (int i = 0; i < NUM_OF_TUPLES; i++) ids.push_back(i);
+    srand(1);
+    random_shuffle(ids.begin(), ids.end());
+
+    set<pair<int64_t, int64_t> > expected;
+    for (int i = 0; i < NUM_OF_TUPLES; i++) {
+        int id = ids[i];
+        TableTuple t = setTuple(id, id * 2);
+        ASSERT_TRUE(index->addEntry(&t));
+        expected.insert(make_pair((int64_t)id * 2, (int64_t)id));
+    }
+    ASSERT_TRUE(checkScan(expected));
+
+    // Duplicate keys are rejected
+    TableTuple dup = setTuple(0, 10);
+    EXPECT_FALSE(index->addEntry(&dup));
+    setTuple(0, 0);
+    EXPECT_EQ(NUM_OF_TUPLES, (int)index->getSize());
+
+    // Point lookups
+    for (int i = 0; i < NUM_OF_TUPLES; i += 7) {
+        TableTuple key = searchKey(i * 2);
+        ASSERT_TRUE(index->moveToKey(&key));
+        TableTuple t = index->nextValueAtKey();
+        EXPECT_EQ(i, idOf(t));
+        EXPECT_TRUE(index->nextValueAtKey().isNullTuple());
+
+        TableTuple missing = searchKey(i * 2 + 1);
+        EXPECT_FALSE(index->moveToKey(&missing));
+        EXPECT_TRUE(index->exists(&t));
+    }
+
+    // Range scans from a key that is not in the index
+    TableTuple key = searchKey(101);
+    index->moveToKeyOrGreater(&key);
+    EXPECT_EQ(102, keyOf(index->nextValue()));
+    EXPECT_EQ(104, keyOf(index->nextValue()));
+
+    key = searchKey(102);
+    index->moveToKeyOrGreater(&key);
+    EXPECT_EQ(102, keyOf(index->nextValue()));
+    index->moveToGreaterThanKey(&key);
+    EXPECT_EQ(104, keyOf(index->nextValue()));
+
+    key = searchKey(NUM_OF_TUPLES * 2);
+    index->moveToKeyOrGreater(&key);
+    EXPECT_TRUE(index->nextValue().isNullTuple());
+
+    // advanceToNextKey walks the keys in order
+    key = searchKey(500);
+    ASSERT_TRUE(index->moveToKey(&key));
+    ASSERT_TRUE(index->advanceToNextKey());
+    EXPECT_EQ(502, keyOf(index->nextValueAtKey()));
+
+    // Delete every third tuple
+    for (int i = 0; i < NUM_OF_TUPLES; i += 3) {
+        TableTuple t = tuple(i);
+        ASSERT_TRUE(index->deleteEntry(&t));
+        EXPECT_FALSE(index->deleteEntry(&t));
+        expected.erase(make_pair((int64_t)i * 2, (int64_t)i));
+    }
+    ASSERT_TRUE(checkScan(expected));
+}
+
+TEST_F(BPlusTreeIndexTest, IntsMulti) {
+    init(false, true);
+
+    set<pair<int64_t, int64_t> > expected;
+    for (int i = 0; i < NUM_OF_TUPLES; i++) {
+        TableTuple t = setTuple(i, i % 100);
+        ASSERT_TRUE(index->addEntry(&t));
+        expected.insert(make_pair((int64_t)(i % 100), (int64_t)i));
+    }
+    ASSERT_TRUE(checkScan(expected));
+
+    // Every key has NUM_OF_TUPLES / 100 tuples
+    for (int k = 0; k < 100; k++) {
+        TableTuple key = searchKey(k);
+        ASSERT_TRUE(index->moveToKey(&key));
+        int count = 0;
+        TableTuple t(schema);
+        while (!(t = index->nextValueAtKey()).isNullTuple()) {
+            EXPECT_EQ(k, keyOf(t));
+            EXPECT_EQ(k, idOf(t) % 100);
+            count++;
+        }
+        EXPECT_EQ(NUM_OF_TUPLES / 100, count);
+    }
+
+    // advanceToNextKey skips the remaining duplicates
+    TableTuple key = searchKey(10);
+    ASSERT_TRUE(index->moveToKey(&key));
+    ASSERT_TRUE(index->advanceToNextKey());
+    EXPECT_EQ(11, keyOf(index->nextValueAtKey()));
+
+    // Delete a specific tuple out of a run of duplicates
+    for (int i = 0; i < NUM_OF_TUPLES; i += 2) {
+        TableTuple t = tuple(i);
+        ASSERT_TRUE(index->deleteEntry(&t));
+        expected.erase(make_pair((int64_t)(i % 100), (int64_t)i));
+    }
+    ASSERT_TRUE(checkScan(expected));
+    for (int i = 1; i < NUM_OF_TUPLES; i += 2) {
+        TableTuple t = tuple(i);
+        EXPECT_TRUE(index->exists(&t));
+    }
+
+    // Update the key of a tuple in place
+    TableTuple t = tuple(1);
+    TableTuple updated = tuple(0);
+    ::memcpy(updated.address(), t.address(), tupleLength);
+    updated.setNValue(0, ValueFactory::getBigIntValue(1000));
+    ASSERT_TRUE(index->checkForIndexChange(&t, &updated));
+    ::memcpy(t.address(), updated.address(), tupleLength);
+    TableTuple oldValue = tuple(0);
+    oldValue.setNValue(0, ValueFactory::getBigIntValue(1));
+    ASSERT_TRUE(index->replaceEntry(&oldValue, &t));
+    expected.erase(make_pair((int64_t)1, (int64_t)1));
+    expected.insert(make_pair((int64_t)1000, (int64_t)1));
+    ASSERT_TRUE(checkScan(expected));
+}
+
+TEST_F(BPlusTreeIndexTest, DeleteEverything) {
+    init(false, true);
+
+    for (int round = 0; round < 2; round++) {
+        for (int i = 0; i < NUM_OF_TUPLES; i++) {
+            TableTuple t = setTuple(i, i);
+            ASSERT_TRUE(index->addEntry(&t));
+        }
+        int64_t memory = index->getMemoryEstimate();
+        EXPECT_GT(memory, 0);
+
+        for (int i = 0; i < NUM_OF_TUPLES; i++) {
+            TableTuple t = tuple(i);
+            ASSERT_TRUE(index->deleteEntry(&t));
+        }
+        EXPECT_EQ(0, (int)index->getSize());
+        index->moveToEnd(true);
+        EXPECT_TRUE(index->nextValue().isNullTuple());
+        index->moveToEnd(false);
+        EXPECT_TRUE(index->nextValue().isNullTuple());
+
+        // Empty leaves are released
+        EXPECT_LT(index->getMemoryEstimate(), memory / 100);
+    }
+}
+
+TEST_F(BPlusTreeIndexTest, SequentialInsertsFillLeaves) {
+    init(true, true);
+
+    for (int i = 0; i < NUM_OF_TUPLES; i++) {
+        TableTuple t = setTuple(i, i);
+        ASSERT_TRUE(index->addEntry(&t));
+    }
+
+    // Appending keys leaves every leaf full, so we should be close to
+    // the size of the keys and pointers themselves
+    const int64_t entryBytes = NUM_OF_TUPLES * (sizeof(int64_t) + sizeof(void*));
+    EXPECT_LT(index->getMemoryEstimate(), entryBytes + entryBytes / 4);
+}
+
+TEST_F(BPlusTreeIndexTest, GenericUnique) {
+    init(true, false);
+
+    set<pair<int64_t, int64_t> > expected;
+    srand(2);
+    for (int i = 0; i < NUM_OF_TUPLES; i++) {
+        int64_t k = (rand() % (NUM_OF_TUPLES * 4)) - NUM_OF_TUPLES;
+        TableTuple t = setTuple(i, k);
+        bool inserted = index->addEntry(&t);
+        bool fresh = true;
+        for (set<pair<int64_t, int64_t> >::const_iterator it = expected.lower_bound(make_pair(k, (int64_t)INT64_MIN));
+             it != expected.end() && it->first == k; ++it) {
+            fresh = false;
+        }
+        ASSERT_EQ(fresh, inserted);
+        if (inserted) expected.insert(make_pair(k, (int64_t)i));
+    }
+    ASSERT_TRUE(checkScan(expected));
+
+    // Negative keys have to sort before the positive ones
+    TableTuple key = searchKey(-1);
+    index->moveToKeyOrGreater(&key);
+    TableTuple t = index->nextValue();
+    ASSERT_FALSE(t.isNullTuple());
+    EXPECT_EQ(expected.lower_bound(make_pair((int64_t)-1, (int64_t)INT64_MIN))->first, keyOf(t));
+}
+
+int main()
+{
+    return TestSuite::globalInstance()->runAll();
+}
@@ -0,0 +1,286 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2010 VoltDB L.L.C.
+ *
+ * This file contains original code and/or modifications of original code.
+ * Any modifications made by VoltDB L.L.C. are licensed under the following
+ * terms and conditions:
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/* Copyright (C) 2008 by H-Store Project
+ * Brown University
+ * Massachusetts Institute of Technology
+ * Yale University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+#include <cstdlib>
+#include <map>
+#include <vector>
+#include "harness.h"
+#include "common/common.h"
+#include "common/NValue.hpp"
+#include "common/ValueFactory.hpp"
+#include "common/ValuePeeker.hpp"
+#include "common/tabletuple.h"
+#include "common/TupleSchema.h"
+#include "indexes/tableindex.h"
+#include "indexes/tableindexfactory.h"
+
+using namespace std;
+using namespace voltdb;
+
+#define NUM_OF_TUPLES 50000
+
+/**
+ * Tuples have three BIGINT columns: two key columns and the tuple's id
+ */
+class OpenHashIndexTest : public Test {
+public:
+    OpenHashIndexTest() : index(NULL), tuples(NULL), keyData(NULL)
+    {
+        vector<ValueType> columnTypes(3, VALUE_TYPE_BIGINT);
+        vector<int32_t> columnLengths(3, NValue::getTupleStorageSize(VALUE_TYPE_BIGINT));
+        vector<bool> columnAllowNull(3, false);
+        schema = TupleSchema::createTupleSchema(columnTypes, columnLengths, columnAllowNull, true);
+        tupleLength = schema->tupleLength() + TUPLE_HEADER_SIZE;
+        tuples = new char[tupleLength * NUM_OF_TUPLES];
+        ::memset(tuples, 0, tupleLength * NUM_OF_TUPLES);
+    }
+
+    ~OpenHashIndexTest()
+    {
+        delete index;
+        delete[] tuples;
+        delete[] keyData;
+        TupleSchema::freeTupleSchema(schema);
+    }
+
+    void init(int keyColumns)
+    {
+        vector<int> columnIndices;
+        vector<ValueType> columnTypes;
+        for (int i = 0; i < keyColumns; i++) {
+            columnIndices.push_back(i);
+            columnTypes.push_back(VALUE_TYPE_BIGINT);
+        }
+        index = TableIndexFactory::getInstance(TableIndexScheme("openhash", HASH_TABLE_INDEX,
+                                                                columnIndices, columnTypes,
+                                                                true, true, schema));
+        keyData = new char[index->getKeySchema()->tupleLength() + TUPLE_HEADER_SIZE];
+    }
+
+    TableTuple tuple(int id)
+    {
+        TableTuple t(schema);
+        t.move(tuples + (tupleLength * id));
+        return t;
+    }
+
+    TableTuple setTuple(int id, int64_t key)
+    {
+        TableTuple t = tuple(id);
+        t.setNValue(0, ValueFactory::getBigIntValue(key));
+        t.setNValue(1, ValueFactory::getBigIntValue(key % 7));
+        t.setNValue(2, ValueFactory::getBigIntValue(id));
+        return t;
+    }
+
+    TableTuple searchKey(int64_t key)
+    {
+        TableTuple k(index->getKeySchema());
+        k.move(keyData);
+        k.setNValue(0, ValueFactory::getBigIntValue(key));
+        if (index->getKeySchema()->columnCount() > 1) {
+            k.setNValue(1, ValueFactory::getBigIntValue(key % 7));
+        }
+        return k;
+    }
+
+    /**
+     * Returns the id of the tuple stored at the given key or -1
+     */
+    int lookup(int64_t key)
+    {
+        TableTuple k = searchKey(key);
+        if (!index->moveToKey(&k)) return -1;
+        TableTuple t = index->nextValueAtKey();
+        if (t.isNullTuple() || !index->nextValueAtKey().isNullTuple()) return -2;
+        return (int)ValuePeeker::peekBigInt(t.getNValue(2));
+    }
+
+    /**
+     * Check every key in the expected map and a few that should be missing
+     */
+    bool check(const map<int64_t, int> &expected)
+    {
+        if (index->getSize() != expected.size()) return false;
+        for (map<int64_t, int>::const_iterator it = expected.begin(); it != expected.end(); ++it) {
+            if (lookup(it->first) != it->second) return false;
+            if (expected.find(it->first + 1) == expected.end() && lookup(it->first + 1) != -1) return false;
+        }
+        return true;
+    }
+
+    TableIndex *index;
+    TupleSchema *schema;
+    int tupleLength;
+    char *tuples;
+    char *keyData;
+};
+
+TEST_F(OpenHashIndexTest, InsertLookupDelete) {
+    init(1);
+    EXPECT_EQ("OpenHashUniqueIndex", index->getTypeName());
+
+    map<int64_t, int> expected;
+    for (int i = 0; i < NUM_OF_TUPLES; i++) {
+        TableTuple t = setTuple(i, i * 3);
+        ASSERT_TRUE(index->addEntry(&t));
+        expected[i * 3] = i;
+
+        // Check while the table is being resized
+        if ((i & (i - 1)) == 0) {
+            ASSERT_TRUE(check(expected));
+        }
+    }
+    ASSERT_TRUE(check(expected));
+
+    // Duplicate keys are rejected
+    TableTuple dup = setTuple(0, 3);
+    EXPECT_FALSE(index->addEntry(&dup));
+    setTuple(0, 0);
+    EXPECT_EQ(NUM_OF_TUPLES, (int)index->getSize());
+
+    // Delete every other tuple
+    for (int i = 0; i < NUM_OF_TUPLES; i += 2) {
+        TableTuple t = tuple(i);
+        ASSERT_TRUE(index->exists(&t));
+        ASSERT_TRUE(index->deleteEntry(&t));
+        EXPECT_FALSE(index->deleteEntry(&t));
+        EXPECT_FALSE(index->exists(&t));
+        expected.erase(i * 3);
+    }
+    ASSERT_TRUE(check(expected));
+
+    // And put them back
+    for (int i = 0; i < NUM_OF_TUPLES; i += 2) {
+        TableTuple t = tuple(i);
+        ASSERT_TRUE(index->addEntry(&t));
+        expected[i * 3] = i;
+    }
+    ASSERT_TRUE(check(expected));
+}
+
+TEST_F(OpenHashIndexTest, RandomOperations) {
+    init(2);
+
+    // Interleave inserts and deletes of random keys so that deletes also
+    // happen while entries are being moved to a bigger table
+    map<int64_t, int> expected;
+    map<int, int64_t> keys;
+    srand(3);
+    for (int op = 0; op < NUM_OF_TUPLES * 4; op++) {
+        int id = rand() % NUM_OF_TUPLES;
+        if (keys.find(id) == keys.end()) {
+            int64_t key = (int64_t)rand() * 7919 - (int64_t)RAND_MAX;
+            TableTuple t = setTuple(id, key);
+            bool fresh = (expected.find(key) == expected.end());
+            ASSERT_EQ(fresh, index->addEntry(&t));
+            if (fresh) {
+                expected[key] = id;
+                keys[id] = key;
+            }
+        } else {
+            TableTuple t = tuple(id);
+            ASSERT_TRUE(index->deleteEntry(&t));
+            expected.erase(keys[id]);
+            keys.erase(id);
+        }
+        ASSERT_EQ(expected.size(), index->getSize());
+    }
+    ASSERT_TRUE(check(expected));
+}
+
+TEST_F(OpenHashIndexTest, ReplaceAndMove) {
+    init(1);
+
+    for (int i = 0; i < 1000; i++) {
+        TableTuple t = setTuple(i, i);
+        ASSERT_TRUE(index->addEntry(&t));
+    }
+
+    // Change the key of tuple 10 from 10 to 5000
+    TableTuple oldValue = tuple(NUM_OF_TUPLES - 1);
+    ::memcpy(oldValue.address(), tuple(10).address(), tupleLength);
+    TableTuple t = setTuple(10, 5000);
+    EXPECT_TRUE(index->checkForIndexChange(&oldValue, &t));
+    ASSERT_TRUE(index->replaceEntry(&oldValue, &t));
+    EXPECT_EQ(-1, lookup(10));
+    EXPECT_EQ(10, lookup(5000));
+    EXPECT_EQ(1000, (int)index->getSize());
+
+    // Point key 5000 at a different tuple
+    TableTuple other = tuple(2000);
+    ::memcpy(other.address(), t.address(), tupleLength);
+    other.setNValue(2, ValueFactory::getBigIntValue(2000));
+    ASSERT_TRUE(index->setEntryToNewAddress(&t, other.address()));
+    EXPECT_EQ(2000, lookup(5000));
+    EXPECT_EQ(1000, (int)index->getSize());
+}
+
+TEST_F(OpenHashIndexTest, MemoryEstimate) {
+    init(1);
+    int64_t empty = index->getMemoryEstimate();
+    EXPECT_GT(empty, 0);
+
+    index->ensureCapacity(NUM_OF_TUPLES);
+    int64_t reserved = index->getMemoryEstimate();
+    EXPECT_GT(reserved, empty);
+
+    // The table does not grow if we stay within the capacity we asked for
+    for (int i = 0; i < NUM_OF_TUPLES; i++) {
+        TableTuple t = setTuple(i, i);
+        ASSERT_TRUE(index->addEntry(&t));
+    }
+    EXPECT_EQ(reserved, index->getMemoryEstimate());
+
+    // Each entry is stored inline, so we should need well under
+    // four times the size of the key and the tuple pointer
+    const int64_t entryBytes = NUM_OF_TUPLES * (sizeof(int64_t) + sizeof(void*));
+    EXPECT_LT(reserved, entryBytes * 4);
+}
+
+int main()
+{
+    return TestSuite::globalInstance()->runAll();
+}
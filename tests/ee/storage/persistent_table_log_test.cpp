@@ -246,6 +246,93 @@ TEST_F(PersistentTableLogTest, InsertThenUndoInsertsOneTest) {
     ASSERT_EQ( m_table->activeTupleCount(), 0);
 }
 
+/*
+ * Inserts and deletes on the same table are logged in a single batch
+ * undo action. Use enough tuples to span several of its chunks.
+ */
+TEST_F(PersistentTableLogTest, InsertDeleteThenUndoBatchTest) {
+    initTable(true);
+    tableutil::addRandomTuples(m_table, 500);
+    m_engine->releaseUndoToken(INT64_MIN + 1);
+    ASSERT_EQ( m_table->activeTupleCount(), 500);
+
+    m_engine->setUndoToken(INT64_MIN + 2);
+    voltdb::TableTuple tuple(m_tableSchema);
+    tableutil::getRandomTuple(m_table, tuple);
+
+    voltdb::TableTuple tupleBackup(m_tableSchema);
+    tupleBackup.move(new char[tupleBackup.tupleLength()]);
+    tupleBackup.copyForPersistentInsert(tuple);
+
+    m_table->deleteTuple(tuple, true);
+    ASSERT_TRUE( m_table->lookupTuple(tupleBackup).isNullTuple());
+    for (int ii = 0; ii < 199; ii++) {
+        tableutil::getRandomTuple(m_table, tuple);
+        m_table->deleteTuple(tuple, true);
+    }
+    tableutil::addRandomTuples(m_table, 300);
+    ASSERT_EQ( m_table->activeTupleCount(), 600);
+
+    m_engine->undoUndoToken(INT64_MIN + 2);
+    ASSERT_EQ( m_table->activeTupleCount(), 500);
+    ASSERT_FALSE( m_table->lookupTuple(tupleBackup).isNullTuple());
+
+    tupleBackup.freeObjectColumns();
+    delete [] tupleBackup.address();
+}
+
+/*
+ * An update in the middle of a batch has to start a new batch so that
+ * the changes are still undone in the reverse order.
+ */
+TEST_F(PersistentTableLogTest, InsertUpdateDeleteThenUndoTest) {
+    initTable(true);
+    tableutil::addRandomTuples(m_table, 10);
+    m_engine->releaseUndoToken(INT64_MIN + 1);
+
+    m_engine->setUndoToken(INT64_MIN + 2);
+    tableutil::addRandomTuples(m_table, 10);
+
+    voltdb::TableTuple tuple(m_tableSchema);
+    tableutil::getRandomTuple(m_table, tuple);
+    voltdb::TableTuple tupleCopy(m_tableSchema);
+    tupleCopy.move(new char[tupleCopy.tupleLength()]);
+    tupleCopy.copyForPersistentInsert(tuple);
+    tupleCopy.setNValue(2, ValueFactory::getIntegerValue(42));
+    m_table->updateTuple(tupleCopy, tuple, true);
+
+    voltdb::TableTuple updated = m_table->lookupTuple(tupleCopy);
+    ASSERT_FALSE( updated.isNullTuple());
+    m_table->deleteTuple(updated, true);
+    ASSERT_EQ( m_table->activeTupleCount(), 19);
+
+    m_engine->undoUndoToken(INT64_MIN + 2);
+    ASSERT_EQ( m_table->activeTupleCount(), 10);
+    ASSERT_TRUE( m_table->lookupTuple(tupleCopy).isNullTuple());
+
+    tupleCopy.freeObjectColumns();
+    delete [] tupleCopy.address();
+}
+
+TEST_F(PersistentTableLogTest, DeleteThenReleaseBatchTest) {
+    initTable(true);
+    tableutil::addRandomTuples(m_table, 500);
+    m_engine->releaseUndoToken(INT64_MIN + 1);
+
+    m_engine->setUndoToken(INT64_MIN + 2);
+    voltdb::TableTuple tuple(m_tableSchema);
+    while (tableutil::getRandomTuple(m_table, tuple)) {
+        m_table->deleteTuple(tuple, true);
+    }
+    ASSERT_EQ( m_table->activeTupleCount(), 0);
+    m_engine->releaseUndoToken(INT64_MIN + 2);
+
+    m_engine->setUndoToken(INT64_MIN + 3);
+    tableutil::addRandomTuples(m_table, 10);
+    m_engine->undoUndoToken(INT64_MIN + 3);
+    ASSERT_EQ( m_table->activeTupleCount(), 0);
+}
+
 int main() {
     return TestSuite::globalInstance()->runAll();
 }
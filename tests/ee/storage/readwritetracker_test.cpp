@@ -0,0 +1,198 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2010 VoltDB L.L.C.
+ *
+ * This file contains original code and/or modifications of original code.
+ * Any modifications made by VoltDB L.L.C. are licensed under the following
+ * terms and conditions:
+ *
+ * VoltDB is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * VoltDB is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/* Copyright (C) 2008 by H-Store Project
+ * Brown University
+ * Massachusetts Institute of Technology
+ * Yale University
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+#include <string>
+#include <vector>
+#include "harness.h"
+#include "common/common.h"
+#include "common/NValue.hpp"
+#include "common/TupleSchema.h"
+#include "common/tabletuple.h"
+#include "storage/table.h"
+#include "storage/temptable.h"
+#include "storage/tablefactory.h"
+#include "storage/tableiterator.h"
+#include "storage/tableutil.h"
+#include "storage/ReadWriteTracker.h"
+
+using namespace voltdb;
+
+#define NUM_OF_TUPLES 10000
+
+class ReadWriteTrackerTest : public Test {
+    public:
+        ReadWriteTrackerTest() {
+            srand(0);
+            table0 = createTable("TABLEA");
+            table1 = createTable("TABLEB");
+            getAddresses(table0, addresses0);
+            getAddresses(table1, addresses1);
+        }
+        ~ReadWriteTrackerTest() {
+            delete table0;
+            delete table1;
+        }
+
+    protected:
+        Table* createTable(std::string name) {
+            std::string columnNames[2] = { "A", "B" };
+            std::vector<ValueType> columnTypes;
+            std::vector<int32_t> columnLengths;
+            std::vector<bool> columnAllowNull;
+            for (int ctr = 0; ctr < 2; ctr++) {
+                columnTypes.push_back(VALUE_TYPE_BIGINT);
+                columnLengths.push_back(NValue::getTupleStorageSize(VALUE_TYPE_BIGINT));
+                columnAllowNull.push_back(true);
+            }
+            TupleSchema *schema = TupleSchema::createTupleSchema(columnTypes, columnLengths, columnAllowNull, true);
+            Table *table = TableFactory::getTempTable(1000, name, schema, columnNames, NULL);
+            tableutil::addRandomTuples(table, NUM_OF_TUPLES);
+            return (table);
+        }
+
+        void getAddresses(Table *table, std::vector<char*> &addresses) {
+            TableTuple tuple(table->schema());
+            TableIterator iterator = table->tableIterator();
+            while (iterator.next(tuple)) {
+                addresses.push_back(tuple.address());
+            }
+        }
+
+        void mark(ReadWriteTracker *tracker, Table *table, std::vector<char*> &addresses,
+                  int first, int last, bool write) {
+            TableTuple tuple(table->schema());
+            for (int i = first; i <= last; i++) {
+                tuple.move(addresses[i]);
+                if (write) {
+                    tracker->markTupleWritten(table, &tuple);
+                } else {
+                    tracker->markTupleRead(table, &tuple);
+                }
+            }
+        }
+
+        Table *table0;
+        Table *table1;
+        std::vector<char*> addresses0;
+        std::vector<char*> addresses1;
+};
+
+TEST_F(ReadWriteTrackerTest, TupleIds) {
+    ASSERT_EQ(NUM_OF_TUPLES, addresses0.size());
+    for (int i = 0; i < NUM_OF_TUPLES; i++) {
+        EXPECT_EQ(i, table0->getTupleID(addresses0[i]));
+    }
+    EXPECT_EQ(-1, table0->getTupleID(addresses1[0]));
+}
+
+TEST_F(ReadWriteTrackerTest, RowOffsets) {
+    RowOffsets offsets0;
+    offsets0.insert(3);
+    offsets0.insert(5000);
+    offsets0.insert(5000);
+    EXPECT_EQ(2, offsets0.size());
+    EXPECT_TRUE(offsets0.contains(3));
+    EXPECT_TRUE(offsets0.contains(5000));
+    EXPECT_FALSE(offsets0.contains(4));
+    EXPECT_FALSE(offsets0.contains(100000));
+
+    std::vector<uint32_t> values;
+    offsets0.getOffsets(values);
+    ASSERT_EQ(2, values.size());
+    EXPECT_EQ(3 + 5000, values[0] + values[1]);
+
+    RowOffsets offsets1;
+    offsets1.insert(4);
+    offsets1.insert(9000);
+    EXPECT_FALSE(offsets0.intersects(&offsets1));
+    EXPECT_FALSE(offsets1.intersects(&offsets0));
+    offsets1.insert(5000);
+    EXPECT_TRUE(offsets0.intersects(&offsets1));
+    EXPECT_TRUE(offsets1.intersects(&offsets0));
+}
+
+TEST_F(ReadWriteTrackerTest, ReadWriteConflict) {
+    ReadWriteTracker tracker0(1000);
+    ReadWriteTracker tracker1(1001);
+    mark(&tracker0, table0, addresses0, 0, 99, false);
+
+    // Different tuples in the same table
+    mark(&tracker1, table0, addresses0, 100, 199, true);
+    // The same tuples in a different table
+    mark(&tracker1, table1, addresses1, 0, 99, true);
+    // The second txn only reading the same tuples is fine
+    mark(&tracker1, table0, addresses0, 0, 99, false);
+    EXPECT_FALSE(tracker0.hasConflict(&tracker1, NULL));
+
+    mark(&tracker1, table0, addresses0, 50, 50, true);
+    EXPECT_TRUE(tracker0.hasConflict(&tracker1, NULL));
+
+    std::vector<std::string> tableNames;
+    EXPECT_TRUE(tracker0.hasConflict(&tracker1, &tableNames));
+    ASSERT_EQ(1, tableNames.size());
+    EXPECT_EQ("TABLEA", tableNames[0]);
+}
+
+TEST_F(ReadWriteTrackerTest, WriteWriteConflict) {
+    ReadWriteTracker tracker0(1000);
+    ReadWriteTracker tracker1(1001);
+    mark(&tracker0, table1, addresses1, NUM_OF_TUPLES - 10, NUM_OF_TUPLES - 1, true);
+    mark(&tracker1, table1, addresses1, 0, 9, true);
+    EXPECT_FALSE(tracker0.hasConflict(&tracker1, NULL));
+
+    // The second txn reading what the first txn wrote does not matter
+    mark(&tracker1, table1, addresses1, NUM_OF_TUPLES - 10, NUM_OF_TUPLES - 1, false);
+    EXPECT_FALSE(tracker0.hasConflict(&tracker1, NULL));
+
+    mark(&tracker1, table1, addresses1, NUM_OF_TUPLES - 1, NUM_OF_TUPLES - 1, true);
+    EXPECT_TRUE(tracker0.hasConflict(&tracker1, NULL));
+
+    tracker0.clear();
+    EXPECT_FALSE(tracker0.hasConflict(&tracker1, NULL));
+}
+
+int main() {
+    return TestSuite::globalInstance()->runAll();
+}
@@ -32,6 +32,7 @@ import org.voltdb.catalog.Statement;
 import org.voltdb.catalog.StmtParameter;
 import org.voltdb.catalog.Table;
 import org.voltdb.plannodes.AbstractPlanNode;
+import org.voltdb.types.ExpressionType;
 import org.voltdb.utils.Pair;
 
 import edu.brown.BaseTestCase;
@@ -708,16 +709,17 @@ public class TestCatalogUtil extends BaseTestCase {
         expected_columns.add(Pair.of(tables[0].getColumns().get("OL_D_ID"), 1));
         expected_columns.add(Pair.of(tables[0].getColumns().get("OL_O_ID"), 2));
         expected_columns.add(Pair.of(tables[0].getColumns().get("OL_O_ID"), 3));
-        expected_columns.add(Pair.of(tables[0].getColumns().get("OL_O_ID"), 3)); // Need
-                                                                                 // two
-                                                                                 // of
-                                                                                 // these
-                                                                                 // because
-                                                                                 // of
-                                                                                 // indexes
         expected_columns.add(Pair.of(tables[1].getColumns().get("S_W_ID"), 4));
         expected_columns.add(Pair.of(tables[1].getColumns().get("S_QUANTITY"), 5));
 
+        // The index search key on OL_O_ID has to keep the scan's comparison
+        for (CatalogPair entry : cset) {
+            if (entry.getFirst().equals(tables[0].getColumns().get("OL_O_ID")) ||
+                entry.getSecond().equals(tables[0].getColumns().get("OL_O_ID"))) {
+                assertFalse(entry.toString(), entry.getComparisonExp() == ExpressionType.COMPARE_EQUAL);
+            }
+        } // FOR
+        
         this.checkColumnSet(cset, expected_columns);
     }
 
@@ -0,0 +1,136 @@
+package edu.brown.hashing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.brown.BaseTestCase;
+
+public class TestCachedHasher extends BaseTestCase {
+
+    private static final int NUM_PARTITIONS = 16;
+    private static final int CACHE_SIZE = 256;
+    
+    private final Random rand = new Random(0);
+    private DefaultHasher expected;
+    private CachedHasher hasher;
+    private HashCache cache;
+    
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.expected = new DefaultHasher(null, NUM_PARTITIONS);
+        this.cache = new HashCache(CACHE_SIZE);
+        this.hasher = new CachedHasher(null, NUM_PARTITIONS, this.cache);
+    }
+    
+    /**
+     * testHash
+     */
+    public void testHash() throws Exception {
+        Object values[] = { 1l, 2, (short)3, (byte)4, "ABC", "XYZ", Long.MAX_VALUE, Integer.MIN_VALUE };
+        for (int round = 0; round < 2; round++) {
+            for (Object val : values) {
+                assertEquals(val.toString(), this.expected.hash(val), this.hasher.hash(val));
+            } // FOR
+        } // FOR
+        assertEquals(values.length, this.cache.getMisses());
+        assertEquals(values.length, this.cache.getHits());
+    }
+    
+    /**
+     * testHashNumPartitions
+     */
+    public void testHashNumPartitions() throws Exception {
+        // The cached value for one partition count should not be
+        // returned for a different partition count
+        for (int num_partitions = 1; num_partitions < NUM_PARTITIONS * 2; num_partitions++) {
+            for (long val = 0; val < 10; val++) {
+                assertEquals(this.expected.hash(val, num_partitions), this.hasher.hash(val, num_partitions));
+                assertEquals(this.expected.hash(Long.toString(val), num_partitions),
+                             this.hasher.hash(Long.toString(val), num_partitions));
+            } // FOR
+        } // FOR
+    }
+    
+    /**
+     * testIntegralTypes
+     */
+    public void testIntegralTypes() throws Exception {
+        // Integers and Longs with the same value should share the same entry
+        int hash = this.hasher.hash(Long.valueOf(99));
+        assertEquals(hash, this.hasher.hash(Integer.valueOf(99)));
+        assertEquals(1, this.cache.getHits());
+    }
+    
+    /**
+     * testEviction
+     */
+    public void testEviction() throws Exception {
+        int num_values = this.cache.getCapacity() * 4;
+        for (int round = 0; round < 2; round++) {
+            for (long val = 0; val < num_values; val++) {
+                assertEquals(this.expected.hash(val), this.hasher.hash(val));
+            } // FOR
+        } // FOR
+        assert(this.cache.getMisses() > num_values) : this.cache;
+        
+        // A value that keeps getting hit should stay in the cache
+        HashCache c = new HashCache(CACHE_SIZE);
+        c.put(-1l, NUM_PARTITIONS, 7);
+        for (long val = 0; val < num_values; val++) {
+            assertEquals(7, c.get(-1l, NUM_PARTITIONS));
+            c.put(val, NUM_PARTITIONS, 1);
+        } // FOR
+        assertEquals(7, c.get(-1l, NUM_PARTITIONS));
+    }
+    
+    /**
+     * testClear
+     */
+    public void testClear() throws Exception {
+        this.hasher.hash("XYZ");
+        this.hasher.hash(1234l);
+        this.hasher.init(null);
+        assertEquals(0, this.cache.getHits());
+        assertEquals(0, this.cache.getMisses());
+        assertEquals(HashCache.NULL_HASH, this.cache.get("XYZ", NUM_PARTITIONS));
+        assertEquals(HashCache.NULL_HASH, this.cache.get(1234l, NUM_PARTITIONS));
+    }
+    
+    /**
+     * testConcurrentAccess
+     */
+    public void testConcurrentAccess() throws Exception {
+        final int num_threads = 8;
+        final int num_values = CACHE_SIZE * 2;
+        final long values[] = new long[num_values];
+        for (int i = 0; i < num_values; i++) {
+            values[i] = this.rand.nextLong();
+        } // FOR
+        
+        final AtomicInteger errors = new AtomicInteger(0);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < num_threads; t++) {
+            final Random r = new Random(t);
+            threads.add(new Thread() {
+                public void run() {
+                    for (int i = 0; i < 50000; i++) {
+                        long val = values[r.nextInt(num_values)];
+                        Object key = (i % 2 == 0 ? Long.valueOf(val) : Long.toString(val));
+                        if (hasher.hash(key) != expected.hash(key)) {
+                            errors.incrementAndGet();
+                        }
+                    } // FOR
+                }
+            });
+        } // FOR
+        for (Thread t : threads) t.start();
+        for (Thread t : threads) t.join();
+        
+        assertEquals(0, errors.get());
+        assertEquals(num_threads * 50000, this.cache.getHits() + this.cache.getMisses());
+        assert(this.cache.getHits() > 0) : this.cache;
+    }
+}
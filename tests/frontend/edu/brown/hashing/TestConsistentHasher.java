@@ -0,0 +1,102 @@
+package edu.brown.hashing;
+
+import org.json.JSONObject;
+
+import edu.brown.BaseTestCase;
+import edu.brown.statistics.Histogram;
+import edu.brown.statistics.ObjectHistogram;
+import edu.brown.utils.PartitionSet;
+
+public class TestConsistentHasher extends BaseTestCase {
+
+    private static final int NUM_PARTITIONS = 8;
+    private static final int NUM_VALUES = 20000;
+    
+    private ConsistentHasher hasher;
+    
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.hasher = new ConsistentHasher(null, NUM_PARTITIONS);
+    }
+    
+    /**
+     * testHash
+     */
+    public void testHash() throws Exception {
+        Histogram<Integer> h = new ObjectHistogram<Integer>();
+        for (long i = 0; i < NUM_VALUES; i++) {
+            int hash = this.hasher.hash(i);
+            assert(hash >= 0 && hash < NUM_PARTITIONS) : "Invalid hash " + hash;
+            h.put(hash);
+            
+            // All of the integral types should end up in the same place
+            assertEquals(hash, this.hasher.hash((int)i));
+        } // FOR
+        assertEquals(NUM_PARTITIONS, h.getValueCount());
+        
+        // Make sure that the values are not too skewed
+        long expected = NUM_VALUES / NUM_PARTITIONS;
+        for (Integer p : h.values()) {
+            long cnt = h.get(p);
+            assert(cnt > expected / 2 && cnt < expected * 2) : h;
+        } // FOR
+    }
+    
+    /**
+     * testAddPartition
+     */
+    public void testAddPartition() throws Exception {
+        ConsistentHasher hasher = new ConsistentHasher(null, NUM_PARTITIONS);
+        assertTrue(hasher.removePartition(NUM_PARTITIONS - 1));
+        assertFalse(hasher.removePartition(NUM_PARTITIONS - 1));
+        
+        int before[] = new int[NUM_VALUES];
+        for (int i = 0; i < NUM_VALUES; i++) {
+            before[i] = hasher.hash("KEY" + i);
+            assert(before[i] != NUM_PARTITIONS - 1);
+        } // FOR
+        
+        // Only the values that go to the new partition should move
+        assertTrue(hasher.addPartition(NUM_PARTITIONS - 1));
+        int moved = 0;
+        for (int i = 0; i < NUM_VALUES; i++) {
+            int after = hasher.hash("KEY" + i);
+            if (after != before[i]) {
+                assertEquals(NUM_PARTITIONS - 1, after);
+                moved++;
+            }
+        } // FOR
+        assert(moved > 0);
+        assert(moved < (NUM_VALUES / NUM_PARTITIONS) * 2) : "Moved " + moved + " values";
+    }
+    
+    /**
+     * testHashNumPartitions
+     */
+    public void testHashNumPartitions() throws Exception {
+        for (long i = 0; i < 1000; i++) {
+            assertEquals(this.hasher.hash(i), this.hasher.hash(i, NUM_PARTITIONS));
+            int hash = this.hasher.hash(i, NUM_PARTITIONS + 1);
+            assert(hash >= 0 && hash <= NUM_PARTITIONS) : "Invalid hash " + hash;
+        } // FOR
+    }
+    
+    /**
+     * testSerialization
+     */
+    public void testSerialization() throws Exception {
+        this.hasher.setVirtualNodes(32);
+        this.hasher.removePartition(3);
+        String json = this.hasher.toJSONString();
+        assertFalse(json.isEmpty());
+        
+        ConsistentHasher clone = new ConsistentHasher(null, NUM_PARTITIONS);
+        clone.fromJSON(new JSONObject(json), null);
+        assertEquals(32, clone.getVirtualNodes());
+        assertEquals(new PartitionSet(0, 1, 2, 4, 5, 6, 7), clone.getPartitions());
+        for (long i = 0; i < 1000; i++) {
+            assertEquals(this.hasher.hash(i), clone.hash(i));
+        } // FOR
+    }
+}
@@ -0,0 +1,156 @@
+package edu.brown.hashing;
+
+import org.json.JSONObject;
+import org.voltdb.benchmark.tpcc.TPCCConstants;
+import org.voltdb.benchmark.tpcc.procedures.neworder;
+import org.voltdb.catalog.Column;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Table;
+import org.voltdb.messaging.FastDeserializer;
+import org.voltdb.messaging.FastSerializer;
+import org.voltdb.types.HasherType;
+
+import edu.brown.BaseTestCase;
+import edu.brown.utils.PartitionSet;
+import edu.brown.utils.ProjectType;
+
+public class TestRangeHasher extends BaseTestCase {
+
+    private static final int NUM_PARTITIONS = 4;
+    private static final long SPLITS[] = { 10, 20, 30 };
+    private static final int PARTITIONS[] = { 3, 2, 1, 0 };
+    
+    private RangeHasher hasher;
+    private Table catalog_tbl;
+    private Column catalog_col;
+    
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TPCC);
+        this.addPartitions(NUM_PARTITIONS);
+        this.hasher = new RangeHasher(catalogContext, NUM_PARTITIONS);
+        this.catalog_tbl = this.getTable(TPCCConstants.TABLENAME_WAREHOUSE);
+        this.catalog_col = this.getColumn(this.catalog_tbl, "W_ID");
+        this.hasher.setRanges(this.catalog_tbl, SPLITS, PARTITIONS);
+    }
+    
+    /**
+     * testHash
+     */
+    public void testHash() throws Exception {
+        assertEquals(3, this.hasher.hash(Long.MIN_VALUE, this.catalog_col));
+        assertEquals(3, this.hasher.hash(9, this.catalog_col));
+        assertEquals(2, this.hasher.hash(10, this.catalog_col));
+        assertEquals(2, this.hasher.hash(19l, this.catalog_col));
+        assertEquals(1, this.hasher.hash((short)20, this.catalog_col));
+        assertEquals(0, this.hasher.hash(30, this.catalog_col));
+        assertEquals(0, this.hasher.hash(Long.MAX_VALUE, this.catalog_col));
+        
+        // Procedures use their partitioning table's ranges
+        Procedure catalog_proc = this.getProcedure(neworder.class);
+        this.hasher.setProcedureTable(catalog_proc, this.catalog_tbl);
+        assertEquals(2, this.hasher.hash(15, catalog_proc));
+        assertEquals(2, this.hasher.hash(15, catalog_proc.getParameters().get(0)));
+    }
+    
+    /**
+     * testHashFallback
+     */
+    public void testHashFallback() throws Exception {
+        DefaultHasher expected = new DefaultHasher(catalogContext, NUM_PARTITIONS);
+        Table other_tbl = this.getTable(TPCCConstants.TABLENAME_CUSTOMER);
+        Column other_col = this.getColumn(other_tbl, "C_W_ID");
+        assertFalse(this.hasher.hasRanges(other_tbl));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(expected.hash(i), this.hasher.hash(i, other_col));
+            assertEquals(expected.hash(i), this.hasher.hash(i));
+        } // FOR
+        assertEquals(expected.hash("XYZ"), this.hasher.hash("XYZ", this.catalog_col));
+    }
+    
+    /**
+     * testGetPartitions
+     */
+    public void testGetPartitions() throws Exception {
+        PartitionSet partitions = new PartitionSet();
+        this.hasher.getPartitions(this.catalog_tbl, 11, 19, partitions);
+        assertEquals(PartitionSet.singleton(2), partitions);
+        
+        partitions.clear();
+        this.hasher.getPartitions(this.catalog_tbl, 5, 25, partitions);
+        assertEquals(new PartitionSet(1, 2, 3), partitions);
+        
+        partitions.clear();
+        this.hasher.getPartitions(this.getTable(TPCCConstants.TABLENAME_CUSTOMER), 1, 2, partitions);
+        assertEquals(catalogContext.getAllPartitionIds(), partitions);
+    }
+    
+    /**
+     * testExecutionEngineMapping
+     */
+    public void testExecutionEngineMapping() throws Exception {
+        // The EE gets a copy of our ranges, so it agrees with us on every table
+        for (Table tbl : catalogContext.getDataTables()) {
+            assertTrue(tbl.getName(), this.hasher.isExecutionEngineCompatible(tbl));
+        } // FOR
+        assertTrue(this.hasher.getIncompatibleStatements(catalogContext).isEmpty());
+        
+        FastSerializer fs = new FastSerializer();
+        this.hasher.serializeForExecutionEngine(fs);
+        FastDeserializer fd = new FastDeserializer(fs.getBytes());
+        assertEquals(HasherType.RANGE.getValue(), fd.readByte());
+        assertEquals(NUM_PARTITIONS, fd.readInt());
+        assertEquals(1, fd.readInt());
+        assertEquals(this.catalog_tbl.getName(), fd.readString());
+        assertEquals(SPLITS.length, fd.readInt());
+        for (int i = 0; i < SPLITS.length; i++) {
+            assertEquals(SPLITS[i], fd.readLong());
+        } // FOR
+        for (int i = 0; i < PARTITIONS.length; i++) {
+            assertEquals(PARTITIONS[i], fd.readInt());
+        } // FOR
+        
+        // Changing the ranges means that the EE needs a new copy
+        int version = this.hasher.getVersion();
+        this.hasher.split(this.catalog_tbl, 15, 0);
+        assertTrue(this.hasher.getVersion() != version);
+    }
+    
+    /**
+     * testSplit
+     */
+    public void testSplit() throws Exception {
+        int before[] = new int[40];
+        for (int i = 0; i < before.length; i++) {
+            before[i] = this.hasher.hash(i, this.catalog_col);
+        } // FOR
+        
+        // Only the values in [15, 20) should move to the new partition
+        this.hasher.split(this.catalog_tbl, 15, 0);
+        for (int i = 0; i < before.length; i++) {
+            int expected = (i >= 15 && i < 20 ? 0 : before[i]);
+            assertEquals(Integer.toString(i), expected, this.hasher.hash(i, this.catalog_col));
+        } // FOR
+        
+        // Splitting on an existing point just reassigns that range
+        this.hasher.split(this.catalog_tbl, 30, 3);
+        assertEquals(3, this.hasher.hash(35, this.catalog_col));
+        assertEquals(1, this.hasher.hash(25, this.catalog_col));
+    }
+    
+    /**
+     * testSerialization
+     */
+    public void testSerialization() throws Exception {
+        this.hasher.setProcedureTable(this.getProcedure(neworder.class), this.catalog_tbl);
+        String json = this.hasher.toJSONString();
+        RangeHasher clone = new RangeHasher(catalogContext, NUM_PARTITIONS);
+        clone.fromJSON(new JSONObject(json), catalogContext.database);
+        assertTrue(clone.hasRanges(this.catalog_tbl));
+        for (int i = 0; i < 40; i++) {
+            assertEquals(this.hasher.hash(i, this.catalog_col), clone.hash(i, this.catalog_col));
+            assertEquals(this.hasher.hash(i, this.catalog_col), clone.hash(i, this.getProcedure(neworder.class)));
+        } // FOR
+        assertEquals(json, clone.toJSONString());
+    }
+}
@@ -0,0 +1,195 @@
+package edu.brown.hstore;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.voltdb.ClientResponseImpl;
+import org.voltdb.ParameterSet;
+import org.voltdb.SQLStmt;
+import org.voltdb.StoredProcedureInvocation;
+import org.voltdb.VoltProcedure;
+import org.voltdb.VoltSystemProcedure;
+import org.voltdb.VoltTable;
+import org.voltdb.catalog.Column;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Site;
+import org.voltdb.catalog.Statement;
+import org.voltdb.catalog.Table;
+import org.voltdb.client.ClientResponse;
+import org.voltdb.messaging.FastSerializer;
+import org.voltdb.sysprocs.LoadMultipartitionTable;
+import org.voltdb.utils.VoltTableUtil;
+
+import com.google.protobuf.RpcCallback;
+
+import edu.brown.BaseTestCase;
+import edu.brown.benchmark.tm1.TM1Constants;
+import edu.brown.benchmark.tm1.procedures.GetSubscriberData;
+import edu.brown.benchmark.tm1.procedures.UpdateSubscriberData;
+import edu.brown.catalog.CatalogUtil;
+import edu.brown.hstore.Hstoreservice.Status;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.statistics.FastIntHistogram;
+import edu.brown.utils.CollectionUtil;
+import edu.brown.utils.ProjectType;
+
+/**
+ * PartitionExecutor Tests for batches that are executed with executeLocalPlan()
+ * where the Statements have more than one PlanFragment
+ */
+public class TestPartitionExecutorLocalPlan extends BaseTestCase {
+
+    private static final int NUM_PARTITIONS = 1;
+    private static final int BASE_PARTITION = 0;
+    private static final int NUM_SUBSCRIBERS = 10;
+    private static final long SF_TYPE = 1;
+
+    private HStoreSite hstore_site;
+    private HStoreConf hstore_conf;
+    private Procedure catalog_proc;
+    private Statement catalog_stmts[];
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TM1);
+        initializeCatalog(1, 1, NUM_PARTITIONS);
+
+        // Take away the single-partition plans for UpdateSubscriberData's
+        // Statements so that the BatchPlanner has to use their multi-partition
+        // plans. Since there is only one partition, those are still local.
+        this.catalog_proc = this.getProcedure(UpdateSubscriberData.class);
+        this.catalog_stmts = new Statement[]{
+            this.getStatement(this.catalog_proc, "update1"),
+            this.getStatement(this.catalog_proc, "update2"),
+        };
+        for (Statement catalog_stmt : this.catalog_stmts) {
+            assertTrue(catalog_stmt.fullName(), catalog_stmt.getHas_multisited());
+            assertTrue(catalog_stmt.fullName(), catalog_stmt.getMs_fragments().size() > 1);
+            catalog_stmt.setHas_singlesited(false);
+        } // FOR
+
+        this.hstore_conf = HStoreConf.singleton();
+        this.hstore_conf.site.status_enable = false;
+        this.hstore_conf.site.planner_caching = false;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (this.hstore_site != null) this.hstore_site.shutdown();
+        for (Statement catalog_stmt : this.catalog_stmts) {
+            catalog_stmt.setHas_singlesited(true);
+        } // FOR
+        this.hstore_conf.site.planner_caching = true;
+    }
+
+    /**
+     * Execute a txn at our HStoreSite and wait for its response 
+     */
+    private ClientResponse invoke(String procName, Object...params) throws Exception {
+        final BlockingQueue<ClientResponseImpl> responses = new LinkedBlockingQueue<ClientResponseImpl>();
+        RpcCallback<ClientResponseImpl> callback = new RpcCallback<ClientResponseImpl>() {
+            @Override
+            public void run(ClientResponseImpl parameter) {
+                responses.add(parameter);
+            }
+        };
+        StoredProcedureInvocation invocation = new StoredProcedureInvocation(1, procName, params);
+        ByteBuffer buffer = ByteBuffer.wrap(FastSerializer.serialize(invocation));
+        this.hstore_site.invocationProcess(buffer, callback);
+        ClientResponse cr = responses.poll(10, TimeUnit.SECONDS);
+        assertNotNull("Timed out waiting for " + procName, cr);
+        return (cr);
+    }
+    
+    private void loadData(Table catalog_tbl) throws Exception {
+        VoltTable vt = CatalogUtil.getVoltTable(catalog_tbl);
+        Column sub_nbr = catalog_tbl.getColumns().getIgnoreCase("SUB_NBR");
+        Column sf_type = catalog_tbl.getColumns().getIgnoreCase("SF_TYPE");
+        for (int i = 0; i < NUM_SUBSCRIBERS; i++) {
+            Object row[] = VoltTableUtil.getRandomRow(catalog_tbl);
+            row[0] = Integer.valueOf(i);
+            if (sub_nbr != null) row[sub_nbr.getIndex()] = row[0].toString();
+            if (sf_type != null) row[sf_type.getIndex()] = SF_TYPE;
+            vt.addRow(row);
+        } // FOR
+        String procName = VoltSystemProcedure.procCallName(LoadMultipartitionTable.class);
+        ClientResponse cr = this.invoke(procName, catalog_tbl.getName(), vt);
+        assertEquals(cr.toString(), Status.OK, cr.getStatus());
+    }
+
+    /**
+     * testPlan
+     */
+    @Test
+    public void testPlan() throws Exception {
+        SQLStmt batch[] = new SQLStmt[this.catalog_stmts.length];
+        ParameterSet params[] = new ParameterSet[batch.length];
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = new SQLStmt(this.catalog_stmts[i], this.catalog_stmts[i].getMs_fragments());
+        } // FOR
+        params[0] = VoltProcedure.getCleanParams(batch[0], new Object[]{ 1l, 1l });
+        params[1] = VoltProcedure.getCleanParams(batch[1], new Object[]{ 1l, 1l, SF_TYPE });
+
+        BatchPlanner planner = new BatchPlanner(batch, this.catalog_proc, p_estimator);
+        BatchPlanner.BatchPlan plan = planner.plan(1000l,
+                                                   BASE_PARTITION,
+                                                   catalogContext.getAllPartitionIds(),
+                                                   new FastIntHistogram(),
+                                                   params);
+        assertNotNull(plan);
+        assertFalse(plan.hasMisprediction());
+        assertTrue(plan.isLocal());
+        assertFalse(plan.isSingledPartitionedAndLocal());
+
+        // Every PlanFragment should know what Statement it came from
+        int fragmentCount = plan.getFragmentCount();
+        assertTrue(fragmentCount > batch.length);
+        int stmtIndexes[] = plan.getFragmentStmtIndexes();
+        int resultOffsets[] = plan.getResultOffsets();
+        assertEquals(fragmentCount, stmtIndexes.length);
+        assertEquals(batch.length, resultOffsets.length);
+        int expected[] = new int[fragmentCount];
+        for (int i = 0; i < fragmentCount; i++) {
+            expected[i] = (i < this.catalog_stmts[0].getMs_fragments().size() ? 0 : 1);
+        } // FOR
+        assertEquals(Arrays.toString(expected), Arrays.toString(stmtIndexes));
+        for (int i = 0; i < batch.length; i++) {
+            assertEquals(i, stmtIndexes[resultOffsets[i]]);
+        } // FOR
+    }
+
+    /**
+     * testExecuteMultiFragmentBatch
+     */
+    @Test
+    public void testExecuteMultiFragmentBatch() throws Exception {
+        Site catalog_site = CollectionUtil.first(catalogContext.sites);
+        this.hstore_site = this.createHStoreSite(catalog_site, hstore_conf);
+        this.loadData(this.getTable(TM1Constants.TABLENAME_SUBSCRIBER));
+        this.loadData(this.getTable(TM1Constants.TABLENAME_SPECIAL_FACILITY));
+
+        // Each txn executes one batch with two Statements that each have
+        // more than one PlanFragment. The Statements have different parameters.
+        // UpdateSubscriberData aborts if the second one didn't update anything
+        for (long s_id = 0; s_id < NUM_SUBSCRIBERS; s_id++) {
+            long bit_1 = s_id % 2;
+            ClientResponse cr = this.invoke(this.catalog_proc.getName(),
+                                            s_id, bit_1, s_id * 10, SF_TYPE);
+            assertEquals(cr.toString(), Status.OK, cr.getStatus());
+            assertEquals(cr.toString(), 1, cr.getResults()[0].asScalarLong());
+        } // FOR
+
+        Procedure getProc = this.getProcedure(GetSubscriberData.class);
+        for (long s_id = 0; s_id < NUM_SUBSCRIBERS; s_id++) {
+            ClientResponse cr = this.invoke(getProc.getName(), s_id);
+            assertEquals(cr.toString(), Status.OK, cr.getStatus());
+            VoltTable vt = cr.getResults()[0];
+            assertTrue(vt.advanceRow());
+            assertEquals("S_ID=" + s_id, s_id % 2, vt.getLong("BIT_1"));
+        } // FOR
+    }
+}
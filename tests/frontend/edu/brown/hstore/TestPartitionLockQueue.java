@@ -11,6 +11,7 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Test;
@@ -506,4 +507,58 @@ public class TestPartitionLockQueue extends BaseTestCase {
             }
         } // FOR
     }
+    
+    /**
+     * testConcurrentProducers
+     */
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        // Have a bunch of threads insert txns at the same time while we
+        // poll from the queue. Every txn that was accepted should come out
+        // of the queue and they should always be in increasing order.
+        final int num_threads = 4;
+        final int num_txns = 250;
+        this.queueDbg.setMaxWaitTime(5);
+        this.queue.setAllowDecrease(false);
+        this.queue.setAllowIncrease(false);
+        this.queue.setThrottleThreshold(num_threads * num_txns * 2);
+        
+        final AtomicInteger accepted = new AtomicInteger(0);
+        final CountDownLatch latch = new CountDownLatch(num_threads);
+        for (int t = 0; t < num_threads; t++) {
+            Thread thread = new Thread() {
+                public void run() {
+                    for (int i = 0; i < num_txns; i++) {
+                        LocalTransaction txn = new LocalTransaction(hstore_site);
+                        Long txnId = idManager.getNextUniqueTransactionId();
+                        txn.testInit(txnId, 0, new PartitionSet(1), catalog_proc);
+                        Long nextSafe = queue.noteTransactionRecievedAndReturnLastSafeTxnId(txnId);
+                        if (nextSafe.compareTo(txnId) > 0) continue;
+                        if (queue.offer(txn, false)) accepted.incrementAndGet();
+                    } // FOR
+                    latch.countDown();
+                }
+            };
+            thread.setDaemon(true);
+            thread.start();
+        } // FOR
+        
+        Long lastTxnId = -1l;
+        int polled = 0;
+        long stop = System.currentTimeMillis() + 30000;
+        while (System.currentTimeMillis() < stop) {
+            AbstractTransaction ts = this.queue.poll();
+            if (ts == null) {
+                if (latch.getCount() == 0 && polled == accepted.get()) break;
+                continue;
+            }
+            assertTrue(ts + " <= " + lastTxnId, ts.getTransactionId().compareTo(lastTxnId) > 0);
+            lastTxnId = ts.getTransactionId();
+            polled++;
+        } // WHILE
+        assertEquals(0, latch.getCount());
+        assertTrue(accepted.get() > 0);
+        assertEquals(accepted.get(), polled);
+        assertTrue(this.queue.isEmpty());
+    }
 }
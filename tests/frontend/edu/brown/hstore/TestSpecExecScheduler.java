@@ -18,6 +18,7 @@ import edu.brown.catalog.conflicts.ConflictSetUtil;
 import edu.brown.hstore.conf.HStoreConf;
 import edu.brown.hstore.estimators.EstimatorState;
 import edu.brown.hstore.estimators.MockEstimate;
+import edu.brown.hstore.specexec.SpecExecAdaptiveController;
 import edu.brown.hstore.specexec.checkers.AbstractConflictChecker;
 import edu.brown.hstore.specexec.checkers.TableConflictChecker;
 import edu.brown.hstore.txns.AbstractTransaction;
@@ -290,6 +291,149 @@ public class TestSpecExecScheduler extends BaseTestCase {
         ts.finish();
     }
     
+    /**
+     * testAdaptiveDisable
+     */
+    public void testAdaptiveDisable() throws Exception {
+        // Once the adaptive controller gives up on a stall point, the scheduler
+        // should not return anything for it, but other stall points are fine.
+        SpecExecAdaptiveController adaptive = new SpecExecAdaptiveController(BASE_PARTITION, 1, 1, 0.9, Long.MAX_VALUE / 2);
+        this.scheduler.setAdaptiveController(adaptive);
+        this.populateQueue(this.addedTxns, 2);
+        
+        LocalTransaction next = this.scheduler.next(this.dtxn, SpeculationType.SP2_REMOTE_BEFORE);
+        assertEquals(CollectionUtil.first(this.addedTxns), next);
+        next.setSpeculative(SpeculationType.SP2_REMOTE_BEFORE);
+        this.scheduler.markAborted(next);
+        
+        assertEquals(1, adaptive.getAbortCount(SpeculationType.SP2_REMOTE_BEFORE));
+        assertEquals(1, adaptive.getDisableCount(SpeculationType.SP2_REMOTE_BEFORE));
+        assertEquals(1, this.schedulerDebug.getProfiler(SpeculationType.SP2_REMOTE_BEFORE).aborted);
+        assertNull(this.scheduler.next(this.dtxn, SpeculationType.SP2_REMOTE_BEFORE));
+        assertEquals(this.addedTxns.get(1), this.scheduler.next(this.dtxn, SpeculationType.SP3_LOCAL));
+    }
+    
+    /**
+     * testWindowSizeWithConflicts
+     */
+    public void testWindowSizeWithConflicts() throws Exception {
+        // Once the adaptive controller shrinks the window to one, the scheduler
+        // should give up after examining the conflicting txn at the front of
+        // the queue instead of going on to the one behind it.
+        SpecExecAdaptiveController adaptive = new SpecExecAdaptiveController(BASE_PARTITION, 2, 1, 0.9, Long.MAX_VALUE / 2);
+        this.scheduler.setAdaptiveController(adaptive);
+        adaptive.recordAbort(SpeculationType.SP2_REMOTE_AFTER, 0);
+        assertEquals(1, adaptive.getWindowSize(SpeculationType.SP2_REMOTE_AFTER));
+        assertEquals(0, adaptive.getDisableCount(SpeculationType.SP2_REMOTE_AFTER));
+        
+        Procedure dtxnProc = dtxn.getProcedure();
+        Procedure conflictProc = null;
+        for (Procedure p : catalogContext.getRegularProcedures()) {
+            if (ConflictSetUtil.getWriteWriteConflicts(p).contains(dtxnProc)) {
+                conflictProc = p;
+                break;
+            }
+        } // FOR
+        assertNotNull(conflictProc);
+        ConflictSet cs = conflictProc.getConflicts().get(dtxnProc.getName());
+        Collection<Table> conflictTables = ConflictSetUtil.getAllTables(cs.getWritewriteconflicts());
+        dtxn.markTableWritten(BASE_PARTITION, CollectionUtil.first(conflictTables));
+        
+        LocalTransaction conflictTxn = new LocalTransaction(this.hstore_site);
+        conflictTxn.testInit(this.idManager.getNextUniqueTransactionId(), BASE_PARTITION, null, catalogContext.getPartitionSetSingleton(BASE_PARTITION), conflictProc);
+        this.addToQueue(conflictTxn);
+        this.populateQueue(this.addedTxns, 1);
+        LocalTransaction ts = CollectionUtil.first(this.addedTxns);
+        
+        // Check both the queue scan and the candidate index
+        SpecExecProfiler profiler = this.schedulerDebug.getProfiler(SpeculationType.SP2_REMOTE_AFTER);
+        for (SpecExecSchedulerPolicyType policy : new SpecExecSchedulerPolicyType[]{ SpecExecSchedulerPolicyType.LAST,
+                                                                                      SpecExecSchedulerPolicyType.FIRST }) {
+            this.scheduler.setPolicyType(policy);
+            LocalTransaction next = this.scheduler.next(this.dtxn, SpeculationType.SP2_REMOTE_AFTER);
+            assertNull(policy.toString(), next);
+            assertEquals(policy.toString(), 1, profiler.num_comparisons.getMaxValue().intValue());
+            assertTrue(this.work_queue.contains(conflictTxn));
+            assertTrue(this.work_queue.contains(ts));
+        } // FOR
+        
+        // But other stall points still have the full window
+        LocalTransaction next = this.scheduler.next(this.dtxn, SpeculationType.SP3_LOCAL);
+        assertEquals(conflictTxn, next);
+    }
+    
+    /**
+     * testCandidateIndex
+     */
+    public void testCandidateIndex() throws Exception {
+        // Put a txn that conflicts with the dtxn in front of a txn that doesn't.
+        // The scheduler should skip over the first one using the index and then
+        // leave it in the queue.
+        assertNotNull(this.schedulerDebug.getCandidateIndex());
+        Procedure dtxnProc = dtxn.getProcedure();
+        Procedure conflictProc = null;
+        for (Procedure p : catalogContext.getRegularProcedures()) {
+            if (ConflictSetUtil.getWriteWriteConflicts(p).contains(dtxnProc)) {
+                conflictProc = p;
+                break;
+            }
+        } // FOR
+        assertNotNull(conflictProc);
+        ConflictSet cs = conflictProc.getConflicts().get(dtxnProc.getName());
+        Collection<Table> conflictTables = ConflictSetUtil.getAllTables(cs.getWritewriteconflicts());
+        dtxn.markTableWritten(BASE_PARTITION, CollectionUtil.first(conflictTables));
+        
+        LocalTransaction conflictTxn = new LocalTransaction(this.hstore_site);
+        conflictTxn.testInit(this.idManager.getNextUniqueTransactionId(), BASE_PARTITION, null, catalogContext.getPartitionSetSingleton(BASE_PARTITION), conflictProc);
+        this.addToQueue(conflictTxn);
+        this.populateQueue(this.addedTxns, 1);
+        LocalTransaction ts = CollectionUtil.first(this.addedTxns);
+        assertEquals(2, this.schedulerDebug.getCandidateIndex().size());
+        
+        for (int i = 0; i < 2; i++) {
+            LocalTransaction next = this.scheduler.next(this.dtxn, SpeculationType.SP2_REMOTE_AFTER);
+            if (i == 0) {
+                assertEquals(ts, next);
+            } else {
+                assertNull(next);
+            }
+            assertTrue(this.work_queue.contains(conflictTxn));
+            assertFalse(this.work_queue.contains(ts));
+            assertEquals(1, this.schedulerDebug.getCandidateIndex().size());
+        } // FOR
+        
+        // Once the conflicting txn is gone, there shouldn't be anything left
+        assertTrue(this.work_queue.remove(conflictTxn));
+        assertEquals(0, this.schedulerDebug.getCandidateIndex().size());
+    }
+    
+    /**
+     * testCandidateIndexRejectedOffer
+     */
+    public void testCandidateIndexRejectedOffer() throws Exception {
+        // A txn that the queue rejects should not be left behind in the index,
+        // but rejecting a txn that is already in the queue should not remove it
+        assertNotNull(this.schedulerDebug.getCandidateIndex());
+        this.work_queue.setAllowDecrease(false);
+        this.work_queue.setThrottleThreshold(1);
+        this.populateQueue(this.addedTxns, 2);
+        assertEquals(2, this.addedTxns.size());
+        assertTrue(this.work_queue.isThrottled());
+        
+        LocalTransaction queued = this.addedTxns.get(0);
+        LocalTransaction rejected = this.addedTxns.get(1);
+        assertTrue(this.work_queue.contains(queued));
+        assertFalse(this.work_queue.contains(rejected));
+        assertEquals(1, this.schedulerDebug.getCandidateIndex().size());
+        
+        assertFalse(this.work_queue.offer(queued, false));
+        assertEquals(1, this.schedulerDebug.getCandidateIndex().size());
+        
+        LocalTransaction next = this.scheduler.next(this.dtxn, SpeculationType.SP2_REMOTE_AFTER);
+        assertEquals(queued, next);
+        assertEquals(0, this.schedulerDebug.getCandidateIndex().size());
+    }
+    
     /**
      * testReadWriteConflicting
      */
@@ -362,4 +362,85 @@ public class TestTransactionQueueManager extends BaseTestCase {
         }
         assertTrue(dbg.isLockQueuesEmpty());
     }
+    
+    /**
+     * testBatchedInsert
+     */
+    @Test
+    public void testBatchedInsert() throws InterruptedException {
+        final Long txn_id0 = this.idManager.getNextUniqueTransactionId();
+        final Long txn_id1 = this.idManager.getNextUniqueTransactionId();
+        final PartitionSet partitions = catalogContext.getAllPartitionIds();
+        final MockCallback inner_callback0 = new MockCallback();
+        final MockCallback inner_callback1 = new MockCallback();
+        final LocalTransaction txn0 = this.createTransaction(txn_id0, partitions, inner_callback0);
+        final LocalTransaction txn1 = this.createTransaction(txn_id1, partitions, inner_callback1);
+        
+        // The second txn should get added to all of the queues at once
+        assertEquals(Status.OK, this.queueManager.lockQueueInsert(txn1, partitions, inner_callback1));
+        assertEquals(partitions, this.findTxnInQueues(txn1));
+        
+        // Release it at one of the partitions
+        ThreadUtil.sleep(TXN_DELAY);
+        int partition = CollectionUtil.first(partitions);
+        assertTrue(this.checkQueues(new PartitionSet(partition)));
+        assertTrue(inner_callback1.getReceivedPartitions().contains(partition));
+        
+        // Now when we try to add the first txn, it should get rejected at the
+        // partition that already released the second txn. But it should not
+        // end up in the lock queues for any of the other partitions.
+        // We cancel the callback so that it doesn't try to restart the txn.
+        inner_callback0.cancel();
+        assertEquals(Status.ABORT_RESTART, this.queueManager.lockQueueInsert(txn0, partitions, inner_callback0));
+        assertTrue(this.findTxnInQueues(txn0).isEmpty());
+        assertEquals(partitions, inner_callback0.getReceivedPartitions());
+        assertFalse(inner_callback0.invoked);
+    }
+    
+    /**
+     * testRejectAtSecondPartition
+     */
+    @Test
+    public void testRejectAtSecondPartition() throws InterruptedException {
+        final Long txn_id0 = this.idManager.getNextUniqueTransactionId();
+        final Long txn_id1 = this.idManager.getNextUniqueTransactionId();
+        final Long txn_id2 = this.idManager.getNextUniqueTransactionId();
+        final PartitionSet partitions = new PartitionSet(0, 1);
+        final MockCallback inner_callback0 = new MockCallback();
+        final MockCallback inner_callback1 = new MockCallback();
+        final MockCallback inner_callback2 = new MockCallback();
+        final LocalTransaction txn0 = this.createTransaction(txn_id0, partitions, inner_callback0);
+        final LocalTransaction txn1 = this.createTransaction(txn_id1, new PartitionSet(1), inner_callback1);
+        final LocalTransaction txn2 = this.createTransaction(txn_id2, new PartitionSet(0), inner_callback2);
+        
+        // The second partition releases a txn with a greater id than the
+        // first txn while the first partition has a txn waiting in its queue 
+        assertEquals(Status.OK, this.queueManager.lockQueueInsert(txn1, 1, inner_callback1));
+        assertEquals(Status.OK, this.queueManager.lockQueueInsert(txn2, 0, inner_callback2));
+        ThreadUtil.sleep(TXN_DELAY);
+        assertTrue(this.checkQueues(new PartitionSet(1)));
+        assertTrue("callback1", inner_callback1.lock.tryAcquire());
+        
+        PartitionLockQueue queue = this.queueManager.getLockQueue(0);
+        assertEquals(txn_id2.longValue(), queue.getDebugContext().getLastSafeTxnId());
+        
+        // The first txn should get rejected by the second partition without
+        // changing the next safe txn at the first partition
+        inner_callback0.cancel();
+        assertEquals(Status.ABORT_RESTART, this.queueManager.lockQueueInsert(txn0, partitions, inner_callback0));
+        assertTrue(this.findTxnInQueues(txn0).isEmpty());
+        assertEquals(txn_id2.longValue(), queue.getDebugContext().getLastSafeTxnId());
+        
+        // And if the second partition only rejects it after the first one lowered 
+        // its next safe txn, then it has to go back to what it was before
+        assertEquals(txn_id0, queue.noteTransactionRecievedAndReturnLastSafeTxnId(txn_id0));
+        assertEquals(txn_id0.longValue(), queue.getDebugContext().getLastSafeTxnId());
+        queue.noteTransactionRejected(txn_id0);
+        assertEquals(txn_id2.longValue(), queue.getDebugContext().getLastSafeTxnId());
+        
+        // So now the first partition's txn doesn't have to wait for it
+        ThreadUtil.sleep(TXN_DELAY);
+        assertTrue(this.checkQueues(new PartitionSet(0)));
+        assertTrue("callback2", inner_callback2.lock.tryAcquire());
+    }
 }
@@ -0,0 +1,211 @@
+package edu.brown.hstore.cmdlog;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.voltdb.ClientResponseImpl;
+import org.voltdb.benchmark.Clock;
+import org.voltdb.benchmark.tpcc.RandomGenerator;
+import org.voltdb.benchmark.tpcc.ScaleParameters;
+import org.voltdb.benchmark.tpcc.TPCCClient;
+import org.voltdb.benchmark.tpcc.TPCCConfig;
+import org.voltdb.benchmark.tpcc.TPCCConstants;
+import org.voltdb.benchmark.tpcc.TPCCSimulation;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Site;
+import org.voltdb.types.TimestampType;
+
+import edu.brown.BaseTestCase;
+import edu.brown.hstore.HStoreConstants;
+import edu.brown.hstore.HStoreSite;
+import edu.brown.hstore.Hstoreservice.Status;
+import edu.brown.hstore.MockHStoreSite;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.hstore.txns.LocalTransaction;
+import edu.brown.utils.CollectionUtil;
+import edu.brown.utils.FileUtil;
+import edu.brown.utils.PartitionSet;
+import edu.brown.utils.ProjectType;
+
+/**
+ * Command log replay throughput benchmark.
+ * This generates a command log from the TPC-C transaction mix and
+ * then measures how long it takes to replay it at an HStoreSite.
+ * Note that the database is empty, so many of the txns will abort.
+ */
+public class TestCommandLogReplayPerformance extends BaseTestCase {
+
+    private static final int NUM_PARTITIONS = 2;
+    private static final int NUM_TXNS = 20000;
+    private static final AtomicLong TXN_ID = new AtomicLong(1000);
+    
+    private HStoreConf hstore_conf;
+    private HStoreSite hstore_site;
+    private Site catalog_site;
+    private File outputFile;
+    private boolean orig_procinfo;
+    private boolean orig_force_singlepartitioned;
+    
+    /**
+     * Records the txn requests generated by TPCCSimulation
+     * so that we can write them out to the command log
+     */
+    private class LogProcCaller implements TPCCSimulation.ProcCaller {
+        final List<Procedure> procs = new ArrayList<Procedure>();
+        final List<Object[]> params = new ArrayList<Object[]>();
+        
+        private void add(String procName, Object...paramlist) {
+            Procedure catalog_proc = catalogContext.procedures.getIgnoreCase(procName);
+            assertNotNull(procName, catalog_proc);
+            this.procs.add(catalog_proc);
+            this.params.add(paramlist);
+        }
+        @Override
+        public void callResetWarehouse(long w_id, long districtsPerWarehouse,
+                                       long customersPerDistrict, long newOrdersPerDistrict) throws IOException {
+            // Ignore
+        }
+        @Override
+        public void callStockLevel(short w_id, byte d_id, int threshold) throws IOException {
+            this.add(TPCCConstants.STOCK_LEVEL, w_id, d_id, threshold);
+        }
+        @Override
+        public void callOrderStatus(String proc, Object... paramlist) throws IOException {
+            this.add(proc, paramlist);
+        }
+        @Override
+        public void callDelivery(short w_id, int carrier, TimestampType date) throws IOException {
+            this.add(TPCCConstants.DELIVERY, w_id, carrier, date);
+        }
+        @Override
+        public void callPaymentByName(short w_id, byte d_id, double h_amount,
+                                      short c_w_id, byte c_d_id, String c_last, TimestampType now) throws IOException {
+            this.add(TPCCConstants.PAYMENT_BY_NAME, w_id, d_id, h_amount, c_w_id, c_d_id, c_last, now);
+        }
+        @Override
+        public void callPaymentById(short w_id, byte d_id, double h_amount,
+                                    short c_w_id, byte c_d_id, int c_id, TimestampType now) throws IOException {
+            this.add(TPCCConstants.PAYMENT_BY_ID, w_id, d_id, h_amount, c_w_id, c_d_id, c_id, now);
+        }
+        @Override
+        public void callNewOrder(boolean rollback, boolean noop, Object... paramlist) throws IOException {
+            this.add((noop ? TPCCConstants.NOOP : TPCCConstants.NEWORDER), paramlist);
+        }
+    }
+    
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TPCC);
+        initializeCatalog(1, 1, NUM_PARTITIONS);
+        
+        this.catalog_site = CollectionUtil.first(catalogContext.sites);
+        this.hstore_conf = HStoreConf.singleton();
+        this.hstore_conf.site.status_enable = false;
+        this.hstore_conf.site.anticache_enable = false;
+        this.hstore_conf.site.specexec_enable = false;
+        this.hstore_conf.site.commandlog_enable = false;
+        this.hstore_conf.site.commandlog_timeout = 1000;
+        
+        // Assume that all of the txns are single-partitioned like a regular
+        // TPC-C run does. The ones that turn out to be distributed will get
+        // restarted as multi-partition txns.
+        this.orig_procinfo = this.hstore_conf.site.exec_voltdb_procinfo;
+        this.orig_force_singlepartitioned = this.hstore_conf.site.exec_force_singlepartitioned;
+        this.hstore_conf.site.exec_voltdb_procinfo = false;
+        this.hstore_conf.site.exec_force_singlepartitioned = true;
+        
+        this.outputFile = FileUtil.getTempFile("log");
+    }
+    
+    @Override
+    protected void tearDown() throws Exception {
+        if (this.hstore_site != null) this.hstore_site.shutdown();
+        if (this.outputFile != null) {
+            for (File f : CommandLogWriter.getSegmentFiles(this.outputFile)) f.delete();
+            if (this.outputFile.exists()) this.outputFile.delete();
+        }
+        this.hstore_conf.site.exec_voltdb_procinfo = this.orig_procinfo;
+        this.hstore_conf.site.exec_force_singlepartitioned = this.orig_force_singlepartitioned;
+    }
+    
+    /**
+     * Generate the TPC-C txn mix and write it out to the command log
+     */
+    private void writeLog() throws Exception {
+        TPCCConfig tpccConfig = TPCCConfig.createConfig(catalogContext, new HashMap<String, String>());
+        ScaleParameters scaleParams = ScaleParameters.makeWithScaleFactor(tpccConfig, 1.0);
+        RandomGenerator rng = new RandomGenerator.Implementation(0);
+        rng.setC(RandomGenerator.NURandC.makeForRun(new RandomGenerator.Implementation(0),
+                                                    new RandomGenerator.NURandC(0, 0, 0)));
+        LogProcCaller caller = new LogProcCaller();
+        TPCCSimulation tpccSim = new TPCCSimulation(caller, rng, new Clock.RealTime(),
+                                                    scaleParams, tpccConfig, 1.0, catalogContext);
+        
+        // Pick txns using the standard TPC-C weights
+        TPCCClient.Transaction txns[] = TPCCClient.Transaction.values();
+        int total_weight = 0;
+        for (TPCCClient.Transaction t : txns) total_weight += t.weight;
+        Random rand = new Random(0);
+        while (caller.procs.size() < NUM_TXNS) {
+            int r = rand.nextInt(total_weight);
+            for (TPCCClient.Transaction t : txns) {
+                r -= t.weight;
+                if (r < 0) {
+                    tpccSim.doOne(t);
+                    break;
+                }
+            } // FOR
+        } // WHILE
+        
+        HStoreSite mock_site = new MockHStoreSite(catalog_site.getId(), catalogContext, hstore_conf);
+        CommandLogWriter logger = new CommandLogWriter(mock_site, this.outputFile);
+        Thread loggerThread = new Thread(logger);
+        loggerThread.setDaemon(true);
+        loggerThread.start();
+        for (int i = 0, cnt = caller.procs.size(); i < cnt; i++) {
+            int base_partition = i % NUM_PARTITIONS;
+            long txnId = TXN_ID.incrementAndGet();
+            LocalTransaction ts = new LocalTransaction(mock_site);
+            ts.testInit(txnId, base_partition, new PartitionSet(base_partition),
+                        caller.procs.get(i), caller.params.get(i));
+            ClientResponseImpl cresponse = new ClientResponseImpl(txnId, 0l, base_partition, Status.OK,
+                                                                  HStoreConstants.EMPTY_RESULT, "");
+            logger.appendToLog(ts, cresponse);
+        } // FOR
+        logger.flush();
+        logger.shutdown();
+    }
+    
+    /**
+     * testReplayThroughput
+     */
+    @Test
+    public void testReplayThroughput() throws Exception {
+        this.writeLog();
+        
+        this.hstore_site = createHStoreSite(catalog_site, hstore_conf);
+        CommandLogReader reader = new CommandLogReader(this.outputFile.getAbsolutePath());
+        CommandLogReplayer replayer = new CommandLogReplayer(this.hstore_site, reader);
+        
+        long start = System.nanoTime();
+        int replayed = replayer.replay();
+        long duration = System.nanoTime() - start;
+        
+        double seconds = duration / 1000000000d;
+        System.err.println(String.format("Replayed %d txns in %.2f sec [%.1f txn/s, singlePartition=%d, " +
+                                         "multiPartition=%d, failed=%d, logSize=%d bytes]",
+                                         replayed, seconds, replayed / seconds,
+                                         replayer.getSinglePartitionCount(),
+                                         replayer.getMultiPartitionCount(),
+                                         replayer.getFailedCount(),
+                                         this.outputFile.length()));
+        assertEquals(0, replayer.getSkippedCount());
+        assertEquals(NUM_TXNS, replayed);
+    }
+}
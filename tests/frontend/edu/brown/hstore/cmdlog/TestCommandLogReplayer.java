@@ -0,0 +1,326 @@
+package edu.brown.hstore.cmdlog;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.voltdb.ClientResponseImpl;
+import org.voltdb.StoredProcedureInvocation;
+import org.voltdb.VoltSystemProcedure;
+import org.voltdb.VoltTable;
+import org.voltdb.catalog.Column;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Site;
+import org.voltdb.catalog.Table;
+import org.voltdb.client.ClientResponse;
+import org.voltdb.messaging.FastSerializer;
+import org.voltdb.sysprocs.LoadMultipartitionTable;
+import org.voltdb.utils.VoltTableUtil;
+
+import com.google.protobuf.RpcCallback;
+
+import edu.brown.BaseTestCase;
+import edu.brown.benchmark.tm1.TM1Constants;
+import edu.brown.benchmark.tm1.procedures.GetSubscriberData;
+import edu.brown.benchmark.tm1.procedures.UpdateLocation;
+import edu.brown.benchmark.tm1.procedures.UpdateSubscriberData;
+import edu.brown.catalog.CatalogUtil;
+import edu.brown.hashing.AbstractHasher;
+import edu.brown.hstore.HStoreConstants;
+import edu.brown.hstore.HStoreSite;
+import edu.brown.hstore.Hstoreservice.Status;
+import edu.brown.hstore.MockHStoreSite;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.hstore.txns.LocalTransaction;
+import edu.brown.utils.CollectionUtil;
+import edu.brown.utils.FileUtil;
+import edu.brown.utils.PartitionSet;
+import edu.brown.utils.ProjectType;
+
+/**
+ * Command Log Replay Test Cases
+ */
+public class TestCommandLogReplayer extends BaseTestCase {
+
+    static final int NUM_PARTITIONS = 2;
+    static final int NUM_SUBSCRIBERS = 20;
+    static final int NUM_ROUNDS = 10;
+    static final int MULTIPARTITION_INTERVAL = 50;
+    
+    HStoreConf hstore_conf;
+    HStoreSite hstore_site;
+    Site catalog_site;
+    File outputFile;
+    
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TM1);
+        initializeCatalog(1, 1, NUM_PARTITIONS);
+        
+        this.catalog_site = CollectionUtil.first(catalogContext.sites);
+        this.hstore_conf = HStoreConf.singleton();
+        this.hstore_conf.site.status_enable = false;
+        this.hstore_conf.site.anticache_enable = false;
+        this.hstore_conf.site.specexec_enable = false;
+        this.hstore_conf.site.commandlog_enable = false;
+        this.hstore_conf.site.commandlog_replay = false;
+        this.hstore_conf.site.commandlog_timeout = 1000;
+        this.hstore_conf.site.exec_voltdb_procinfo = true;
+        
+        this.outputFile = FileUtil.getTempFile("log");
+    }
+    
+    @Override
+    protected void tearDown() throws Exception {
+        if (this.hstore_site != null) this.hstore_site.shutdown();
+        this.hstore_conf.site.commandlog_enable = false;
+        this.hstore_conf.site.commandlog_replay = false;
+        this.hstore_conf.site.commandlog_segment_size = -1;
+        if (this.outputFile != null) {
+            for (File f : CommandLogWriter.getSegmentFiles(this.outputFile)) {
+                f.delete();
+            } // FOR
+            if (this.outputFile.exists()) this.outputFile.delete();
+        }
+    }
+    
+    private void loadData(Table catalog_tbl) throws Exception {
+        VoltTable vt = CatalogUtil.getVoltTable(catalog_tbl);
+        Column sub_nbr = catalog_tbl.getColumns().getIgnoreCase("SUB_NBR");
+        Column sf_type = catalog_tbl.getColumns().getIgnoreCase("SF_TYPE");
+        for (int i = 0; i < NUM_SUBSCRIBERS; i++) {
+            Object row[] = VoltTableUtil.getRandomRow(catalog_tbl);
+            row[0] = Integer.valueOf(i);
+            if (sub_nbr != null) row[sub_nbr.getIndex()] = row[0].toString();
+            if (sf_type != null) row[sf_type.getIndex()] = 1l;
+            vt.addRow(row);
+        } // FOR
+        String procName = VoltSystemProcedure.procCallName(LoadMultipartitionTable.class);
+        ClientResponse cr = this.invoke(procName, catalog_tbl.getName(), vt);
+        assertEquals(cr.toString(), Status.OK, cr.getStatus());
+    }
+    
+    /**
+     * Execute a txn at our HStoreSite and wait for its response 
+     */
+    private ClientResponse invoke(String procName, Object...params) throws Exception {
+        final BlockingQueue<ClientResponseImpl> responses = new LinkedBlockingQueue<ClientResponseImpl>();
+        RpcCallback<ClientResponseImpl> callback = new RpcCallback<ClientResponseImpl>() {
+            @Override
+            public void run(ClientResponseImpl parameter) {
+                responses.add(parameter);
+            }
+        };
+        StoredProcedureInvocation invocation = new StoredProcedureInvocation(1, procName, params);
+        ByteBuffer buffer = ByteBuffer.wrap(FastSerializer.serialize(invocation));
+        this.hstore_site.invocationProcess(buffer, callback);
+        ClientResponse cr = responses.poll(10, TimeUnit.SECONDS);
+        assertNotNull("Timed out waiting for " + procName, cr);
+        return (cr);
+    }
+    
+    /**
+     * Write out a command log with the given txns. The txn ids are assigned in
+     * decreasing order so that the order of the txns in the log is not the
+     * same as their txn id order.
+     */
+    private void writeLog(File logFile, Procedure procs[], Object params[][]) throws Exception {
+        this.writeLog(logFile, procs, params, procs.length);
+    }
+    
+    /**
+     * Write out a command log with the given txns, with a group commit
+     * after every flushInterval txns. Returns the CommandLogWriter after
+     * it has been shut down.
+     */
+    private CommandLogWriter writeLog(File logFile, Procedure procs[], Object params[][], int flushInterval) throws Exception {
+        HStoreSite mock_site = new MockHStoreSite(catalog_site.getId(), catalogContext, hstore_conf);
+        CommandLogWriter logger = new CommandLogWriter(mock_site, logFile);
+        Thread loggerThread = new Thread(logger);
+        loggerThread.setDaemon(true);
+        loggerThread.start();
+        
+        AtomicLong txnIdGen = new AtomicLong(1000000);
+        AbstractHasher hasher = p_estimator.getHasher();
+        for (int i = 0; i < procs.length; i++) {
+            int base_partition = hasher.hash(params[i][0]);
+            long txnId = txnIdGen.decrementAndGet();
+            LocalTransaction ts = new LocalTransaction(mock_site);
+            PartitionSet partitions = (procs[i].getSinglepartition() ? new PartitionSet(base_partition) :
+                                                                      catalogContext.getAllPartitionIds());
+            ts.testInit(txnId, base_partition, partitions, procs[i], params[i]);
+            ClientResponseImpl cresponse = new ClientResponseImpl(txnId, 0l, base_partition, Status.OK,
+                                                                  HStoreConstants.EMPTY_RESULT, "");
+            assertFalse(logger.appendToLog(ts, cresponse));
+            if ((i + 1) % flushInterval == 0) logger.flush();
+        } // FOR
+        logger.flush();
+        logger.shutdown();
+        return (logger);
+    }
+    
+    /**
+     * testReplay
+     */
+    @Test
+    public void testReplay() throws Exception {
+        // Every subscriber gets updated once per round. Every so often
+        // there is a distributed txn in between the updates
+        int num_txns = NUM_SUBSCRIBERS * NUM_ROUNDS;
+        Procedure procs[] = new Procedure[num_txns];
+        Object params[][] = new Object[num_txns][];
+        Procedure spProc = this.getProcedure(UpdateSubscriberData.class);
+        Procedure mpProc = this.getProcedure(UpdateLocation.class);
+        long expectedBit[] = new long[NUM_SUBSCRIBERS];
+        long expectedLocation[] = new long[NUM_SUBSCRIBERS];
+        Arrays.fill(expectedLocation, -1);
+        int num_multip = 0;
+        for (int i = 0; i < num_txns; i++) {
+            int round = i / NUM_SUBSCRIBERS;
+            int s_id = i % NUM_SUBSCRIBERS;
+            if (i % MULTIPARTITION_INTERVAL == 0) {
+                procs[i] = mpProc;
+                params[i] = new Object[]{ (long)i, Integer.toString(s_id) };
+                expectedLocation[s_id] = i;
+                num_multip++;
+            } else {
+                procs[i] = spProc;
+                params[i] = new Object[]{ (long)s_id, (long)round, (long)round, 1l };
+                expectedBit[s_id] = round;
+            }
+        } // FOR
+        this.writeLog(this.outputFile, procs, params);
+        
+        this.hstore_site = createHStoreSite(catalog_site, hstore_conf);
+        this.loadData(this.getTable(TM1Constants.TABLENAME_SUBSCRIBER));
+        this.loadData(this.getTable(TM1Constants.TABLENAME_SPECIAL_FACILITY));
+        
+        CommandLogReader reader = new CommandLogReader(this.outputFile.getAbsolutePath());
+        assertTrue(reader.isGroupCommit());
+        
+        // The log has to tell us which txns were single-partitioned so that
+        // the replayer knows which ones it can dispatch at the same time
+        // The entries are grouped by partition in each batch, so we
+        // have to use their txn ids to figure out which txn they are
+        int ctr = 0;
+        for (LogEntry entry : reader) {
+            int offset = (int)(999999l - entry.getTransactionId().longValue());
+            assertEquals(entry.toString(), procs[offset].getSinglepartition(), entry.isSinglePartition());
+            ctr++;
+        } // FOR
+        assertEquals(num_txns, ctr);
+        
+        CommandLogReplayer replayer = new CommandLogReplayer(this.hstore_site, reader);
+        
+        // Every txn in the log should get replayed exactly once and
+        // all of them should have finished when replay() returns
+        int replayed = replayer.replay();
+        assertEquals(num_txns, replayed);
+        assertEquals(0, replayer.getSkippedCount());
+        assertEquals(0, replayer.getFailedCount());
+        assertEquals(num_multip, replayer.getMultiPartitionCount());
+        assertEquals(num_txns - num_multip, replayer.getSinglePartitionCount());
+        
+        // Each subscriber should have the values from the last updates in the
+        // log, not the ones from the txns with the largest txn ids
+        Procedure getProc = this.getProcedure(GetSubscriberData.class);
+        for (int s_id = 0; s_id < NUM_SUBSCRIBERS; s_id++) {
+            ClientResponse cr = this.invoke(getProc.getName(), (long)s_id);
+            assertEquals(Status.OK, cr.getStatus());
+            VoltTable vt = cr.getResults()[0];
+            assertTrue(vt.advanceRow());
+            assertEquals("S_ID=" + s_id, expectedBit[s_id], vt.getLong("BIT_1"));
+            if (expectedLocation[s_id] >= 0) {
+                assertEquals("S_ID=" + s_id, expectedLocation[s_id], vt.getLong("VLR_LOCATION"));
+            }
+        } // FOR
+    }
+    
+    /**
+     * testArchiveLog
+     */
+    @Test
+    public void testArchiveLog() throws Exception {
+        Procedure procs[] = new Procedure[NUM_SUBSCRIBERS];
+        Object params[][] = new Object[NUM_SUBSCRIBERS][];
+        for (int i = 0; i < procs.length; i++) {
+            procs[i] = this.getProcedure(UpdateLocation.class);
+            params[i] = new Object[]{ (long)i, Integer.toString(i) };
+        } // FOR
+        this.writeLog(this.outputFile, procs, params);
+        long size = this.outputFile.length();
+        
+        // The log should get moved out of the way so that a new
+        // CommandLogWriter won't write over it
+        File archive = CommandLogReplayer.archiveLog(this.outputFile);
+        assertNotNull(archive);
+        assertTrue(archive.getAbsolutePath(), archive.isFile());
+        assertEquals(size, archive.length());
+        assertFalse(this.outputFile.exists());
+        this.writeLog(this.outputFile, new Procedure[0], new Object[0][]);
+        
+        // If we crash before we finish replaying it, then we should
+        // keep using the archived log instead of the new one
+        assertEquals(archive, CommandLogReplayer.archiveLog(this.outputFile));
+        assertEquals(size, archive.length());
+        CommandLogReader reader = new CommandLogReader(archive.getAbsolutePath());
+        int ctr = 0;
+        for (LogEntry entry : reader) {
+            assertEquals(procs[ctr].getId(), entry.getProcedureId());
+            ctr++;
+        } // FOR
+        assertEquals(procs.length, ctr);
+        archive.delete();
+        
+        // Nothing to replay
+        this.outputFile.delete();
+        assertNull(CommandLogReplayer.archiveLog(this.outputFile));
+    }
+    
+    /**
+     * testReplayTruncatedLog
+     */
+    @Test
+    public void testReplayTruncatedLog() throws Exception {
+        Procedure procs[] = new Procedure[NUM_SUBSCRIBERS * NUM_ROUNDS];
+        Object params[][] = new Object[procs.length][];
+        for (int i = 0; i < procs.length; i++) {
+            procs[i] = this.getProcedure(UpdateLocation.class);
+            params[i] = new Object[]{ (long)i, Integer.toString(i % NUM_SUBSCRIBERS) };
+        } // FOR
+        this.hstore_conf.site.commandlog_segment_size = 1024;
+        this.hstore_conf.site.commandlog_truncate = true;
+        long snapshotTxnId = Long.MAX_VALUE;
+        
+        // The writer should not throw away any segments if we're going to replay the log
+        this.hstore_conf.site.commandlog_replay = true;
+        CommandLogWriter logger = this.writeLog(this.outputFile, procs, params, NUM_SUBSCRIBERS);
+        int num_segments = CommandLogWriter.getSegmentFiles(this.outputFile).size();
+        assertTrue(num_segments > 2);
+        assertEquals(0, logger.snapshotCompleted(snapshotTxnId));
+        assertEquals(num_segments, CommandLogWriter.getSegmentFiles(this.outputFile).size());
+        assertFalse(new CommandLogReader(this.outputFile.getAbsolutePath()).isTruncated());
+        
+        // Otherwise the log only has the txns after the snapshot, so the
+        // replayer should refuse to run them without the snapshot's state
+        this.hstore_conf.site.commandlog_replay = false;
+        logger = this.writeLog(this.outputFile, procs, params, NUM_SUBSCRIBERS);
+        assertTrue(logger.snapshotCompleted(snapshotTxnId) > 0);
+        CommandLogReader reader = new CommandLogReader(this.outputFile.getAbsolutePath());
+        assertTrue(reader.isTruncated());
+        HStoreSite mock_site = new MockHStoreSite(catalog_site.getId(), catalogContext, hstore_conf);
+        CommandLogReplayer replayer = new CommandLogReplayer(mock_site, reader);
+        try {
+            replayer.replay();
+            fail("Replayed a truncated command log");
+        } catch (RuntimeException ex) {
+            // Expected
+        }
+        assertEquals(0, replayer.getSinglePartitionCount() + replayer.getMultiPartitionCount());
+    }
+}
@@ -26,13 +26,23 @@
 package edu.brown.hstore.cmdlog;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import org.junit.Test;
 import org.voltdb.ClientResponseImpl;
 import org.voltdb.VoltProcedure;
 import org.voltdb.catalog.Procedure;
 import org.voltdb.catalog.Site;
+import org.voltdb.messaging.FastSerializer;
+import org.voltdb.types.CommandLogCompressionType;
+import org.voltdb.utils.CompressionService;
 
 import edu.brown.BaseTestCase;
 import edu.brown.benchmark.tm1.procedures.UpdateLocation;
@@ -57,6 +67,46 @@ import edu.brown.utils.ProjectType;
  */
 public class TestCommandLogger extends BaseTestCase {
     
+    /**
+     * A CommandLogCompressor that uses java.util.zip so that we can
+     * check that the reader uses the compressor named in the header 
+     */
+    public static class DeflateCommandLogCompressor implements CommandLogCompressor {
+        @Override
+        public int maxCompressedLength(int length) {
+            return (4 + length + (length / 100) + 64);
+        }
+        @Override
+        public int compress(ByteBuffer input, ByteBuffer output) throws IOException {
+            byte data[] = new byte[input.remaining()];
+            input.get(data);
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            deflater.setInput(data);
+            deflater.finish();
+            byte compressed[] = new byte[this.maxCompressedLength(data.length)];
+            int size = deflater.deflate(compressed);
+            deflater.end();
+            output.putInt(data.length);
+            output.put(compressed, 0, size);
+            return (4 + size);
+        }
+        @Override
+        public byte[] decompress(byte[] data) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            byte result[] = new byte[buffer.getInt()];
+            Inflater inflater = new Inflater();
+            inflater.setInput(data, 4, data.length - 4);
+            try {
+                inflater.inflate(result);
+            } catch (DataFormatException ex) {
+                throw new IOException(ex);
+            } finally {
+                inflater.end();
+            }
+            return (result);
+        }
+    }
+    
     static final AtomicLong TXN_ID = new AtomicLong(1000);
     static final int BASE_PARTITION = 0;
     
@@ -70,6 +120,7 @@ public class TestCommandLogger extends BaseTestCase {
         { 666l, 777l, 888l, 999l}
     };
     
+    HStoreConf hstore_conf;
     HStoreSite hstore_site; 
     CommandLogWriter logger;
     Thread loggerThread;
@@ -85,14 +136,21 @@ public class TestCommandLogger extends BaseTestCase {
             this.catalog_procs[i] = this.getProcedure(TARGET_PROCS[i]);
         } // FOR
 
-        HStoreConf hstore_conf = HStoreConf.singleton();
+        hstore_conf = HStoreConf.singleton();
         hstore_conf.site.commandlog_enable = false;
         hstore_conf.site.commandlog_timeout = 1000;
+        hstore_conf.site.commandlog_adaptive = false;
+        hstore_conf.site.commandlog_segment_size = -1;
+        hstore_conf.site.commandlog_compression = CommandLogCompressionType.SNAPPY.name();
 
         Site catalog_site = CollectionUtil.first(catalogContext.sites);
         hstore_site = new MockHStoreSite(catalog_site.getId(), catalogContext, hstore_conf);
         assert(hstore_site.isLocalPartition(0));
         
+        this.startLogger();
+    }
+    
+    private void startLogger() {
         outputFile = FileUtil.getTempFile("log");
         logger = new CommandLogWriter(hstore_site, outputFile);
         loggerThread = new Thread(this.logger);
@@ -102,14 +160,19 @@ public class TestCommandLogger extends BaseTestCase {
 
     @Override
     public void tearDown() throws Exception {
-        if (outputFile != null && outputFile.exists())
-            outputFile.delete();
+        hstore_conf.site.commandlog_adaptive = false;
+        hstore_conf.site.commandlog_segment_size = -1;
+        hstore_conf.site.commandlog_compression = CommandLogCompressionType.SNAPPY.name();
+        hstore_conf.site.commandlog_compressor_class = SnappyCommandLogCompressor.class.getName();
+        if (outputFile != null) {
+            for (File f : CommandLogWriter.getSegmentFiles(outputFile)) {
+                f.delete();
+            } // FOR
+            if (outputFile.exists()) outputFile.delete();
+        }
     }
     
-    @Test
-    public void testWithGroupCommit() throws Exception {
-        // Write out a new txn invocation to the log
-        int num_txns = 1000;
+    private long[] queueTxns(int num_txns) {
         long txnId[] = new long[num_txns];
         for (int i = 0; i < num_txns; i++) {
             LocalTransaction ts = new LocalTransaction(hstore_site);
@@ -129,11 +192,10 @@ public class TestCommandLogger extends BaseTestCase {
             boolean ret = logger.appendToLog(ts, cresponse);
             assertFalse(ret);
         }
-        logger.flush(); //This makes sure everything is written to the file
-        logger.shutdown(); // This closes the file
-        
-        // Now read in the file back in and check to see that we have two
-        // entries that have our expected information
+        return (txnId);
+    }
+    
+    private void checkLog(long txnId[]) {
         CommandLogReader reader = new CommandLogReader(outputFile.getAbsolutePath());
         int ctr = 0;
         for (LogEntry entry : reader) {
@@ -150,4 +212,187 @@ public class TestCommandLogger extends BaseTestCase {
         }
         assertEquals(txnId.length, ctr);
     }
+    
+    @Test
+    public void testWithGroupCommit() throws Exception {
+        // Write out a new txn invocation to the log
+        long txnId[] = this.queueTxns(1000);
+        logger.flush(); //This makes sure everything is written to the file
+        logger.shutdown(); // This closes the file
+        
+        // Now read in the file back in and check to see that we have two
+        // entries that have our expected information
+        this.checkLog(txnId);
+    }
+    
+    @Test
+    public void testCompression() throws Exception {
+        for (CommandLogCompressionType type : CommandLogCompressionType.values()) {
+            // Restart the logger using the direct buffer write path for
+            // this compression type and make sure that we can read it back
+            logger.shutdown();
+            loggerThread.join();
+            outputFile.delete();
+            hstore_conf.site.commandlog_compression = type.name();
+            this.startLogger();
+            
+            long txnId[] = new long[0];
+            for (int i = 0; i < 5; i++) {
+                long round[] = this.queueTxns(200);
+                long merged[] = new long[txnId.length + round.length];
+                System.arraycopy(txnId, 0, merged, 0, txnId.length);
+                System.arraycopy(round, 0, merged, txnId.length, round.length);
+                txnId = merged;
+                logger.flush();
+            } // FOR
+            logger.shutdown();
+            
+            CommandLogReader reader = new CommandLogReader(outputFile.getAbsolutePath());
+            assertEquals(type, reader.getCompression());
+            this.checkLog(txnId);
+        } // FOR
+    }
+    
+    @Test
+    public void testCompressorClass() throws Exception {
+        // Restart the logger with our own compressor and make sure
+        // that the reader picks it up from the header
+        logger.shutdown();
+        loggerThread.join();
+        outputFile.delete();
+        hstore_conf.site.commandlog_compression = CommandLogCompressionType.CHUNKED.name();
+        hstore_conf.site.commandlog_compressor_class = DeflateCommandLogCompressor.class.getName();
+        this.startLogger();
+        
+        long txnId[] = this.queueTxns(1000);
+        logger.flush();
+        logger.shutdown();
+        
+        hstore_conf.site.commandlog_compressor_class = SnappyCommandLogCompressor.class.getName();
+        CommandLogReader reader = new CommandLogReader(outputFile.getAbsolutePath());
+        assertEquals(CommandLogCompressionType.CHUNKED, reader.getCompression());
+        assertEquals(DeflateCommandLogCompressor.class, reader.getCompressor().getClass());
+        this.checkLog(txnId);
+    }
+    
+    @Test
+    public void testUnversionedHeader() throws Exception {
+        long txnId[] = this.queueTxns(1000);
+        logger.flush();
+        logger.shutdown();
+        
+        // Rewrite the log using the header from before it had a version
+        // and a compression type. Those logs also did not store whether each
+        // entry was single-partitioned, so we have to rewrite the entries too.
+        // The batches were compressed with SNAPPY.
+        FastSerializer fs = new FastSerializer();
+        fs.writeBoolean(true);
+        fs.writeInt(catalogContext.procedures.size());
+        for (Procedure catalog_proc : catalogContext.procedures.values()) {
+            fs.writeInt(catalog_proc.getId());
+            fs.writeString(catalog_proc.getName());
+        } // FOR
+        byte contents[] = FileUtil.readBytesFromFile(outputFile.getAbsolutePath());
+        assertEquals(CommandLogWriter.HEADER_VERSION, contents[0]);
+        FastSerializer batch = new FastSerializer();
+        for (LogEntry entry : new CommandLogReader(outputFile.getAbsolutePath())) {
+            batch.writeLong(entry.getTransactionId().longValue());
+            batch.writeLong(entry.getTimestamp());
+            batch.writeInt(entry.getProcedureId());
+            batch.writeObject(entry.getProcedureParams());
+        } // FOR
+        byte compressed[] = CompressionService.compressBytes(batch.getBytes());
+        fs.writeInt(compressed.length);
+        fs.write(compressed);
+        FileOutputStream out = new FileOutputStream(outputFile);
+        out.write(fs.getBytes());
+        out.close();
+        
+        CommandLogReader reader = new CommandLogReader(outputFile.getAbsolutePath());
+        assertTrue(reader.isGroupCommit());
+        assertEquals(CommandLogCompressionType.SNAPPY, reader.getCompression());
+        this.checkLog(txnId);
+        for (LogEntry entry : reader) {
+            assertFalse(entry.toString(), entry.isSinglePartition());
+        } // FOR
+    }
+    
+    @Test
+    public void testWithAdaptiveGroupCommit() throws Exception {
+        // Restart the logger with a really long timeout so that the only
+        // way that entries get written out is if we hit the threshold
+        logger.shutdown();
+        loggerThread.join();
+        outputFile.delete();
+        hstore_conf.site.commandlog_adaptive = true;
+        hstore_conf.site.commandlog_flush_txns = 100;
+        hstore_conf.site.commandlog_timeout = 60000;
+        this.startLogger();
+        
+        int num_txns = 1000;
+        long txnId[] = this.queueTxns(num_txns);
+        
+        // The WriterThread should have woken up on its own and started
+        // writing out entries well before our timeout
+        long stop = System.currentTimeMillis() + 10000;
+        while (logger.getTotalTxnCount() >= 100 && System.currentTimeMillis() < stop) {
+            Thread.sleep(10);
+        } // WHILE
+        assertTrue("Queued txns: " + logger.getTotalTxnCount(), logger.getTotalTxnCount() < 100);
+        
+        logger.flush();
+        logger.shutdown();
+        this.checkLog(txnId);
+    }
+    
+    @Test
+    public void testSegmentedLog() throws Exception {
+        // Restart the logger with a small segment size so that
+        // it has to roll over to new segments
+        logger.shutdown();
+        loggerThread.join();
+        outputFile.delete();
+        hstore_conf.site.commandlog_segment_size = 4096;
+        hstore_conf.site.commandlog_truncate = true;
+        this.startLogger();
+        
+        int num_rounds = 20;
+        int num_txns = 100;
+        long txnId[] = new long[num_rounds * num_txns];
+        for (int i = 0; i < num_rounds; i++) {
+            long round[] = this.queueTxns(num_txns);
+            System.arraycopy(round, 0, txnId, i * num_txns, num_txns);
+            logger.flush();
+        } // FOR
+        
+        // Make sure that we can read everything back from all of the segments
+        List<File> segments = CommandLogWriter.getSegmentFiles(outputFile);
+        assertTrue(segments.toString(), segments.size() > 2);
+        this.checkLog(txnId);
+        
+        // Pretend that a snapshot was taken in the middle of our txns.
+        // The writer should only delete the segments that are completely
+        // before the snapshot's txn and never the one that it is writing to
+        long snapshotTxnId = txnId[txnId.length / 2];
+        int deleted = logger.snapshotCompleted(snapshotTxnId);
+        assertTrue(deleted > 0);
+        List<File> remaining = CommandLogWriter.getSegmentFiles(outputFile);
+        assertEquals(segments.size() - deleted, remaining.size());
+        assertEquals(CollectionUtil.last(segments), CollectionUtil.last(remaining));
+        
+        logger.shutdown();
+        
+        // Everything up to the first txn in the remaining segments
+        // should be gone and everything after it should still be there
+        CommandLogReader reader = new CommandLogReader(outputFile.getAbsolutePath());
+        Long first = null;
+        int ctr = 0;
+        for (LogEntry entry : reader) {
+            if (first == null) first = entry.getTransactionId();
+            ctr++;
+        } // FOR
+        assertNotNull(first);
+        assertTrue(first.longValue() <= snapshotTxnId);
+        assertEquals(txnId[txnId.length-1] - first.longValue() + 1, ctr);
+    }
 }
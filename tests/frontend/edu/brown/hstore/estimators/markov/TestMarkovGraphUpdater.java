@@ -0,0 +1,220 @@
+package edu.brown.hstore.estimators.markov;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.voltdb.benchmark.tpcc.procedures.neworder;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+
+import edu.brown.BaseTestCase;
+import edu.brown.hstore.Hstoreservice.Status;
+import edu.brown.hstore.estimators.EstimatorUtil;
+import edu.brown.markov.CompiledMarkovGraph;
+import edu.brown.markov.MarkovEdge;
+import edu.brown.markov.MarkovGraph;
+import edu.brown.markov.MarkovVertex;
+import edu.brown.utils.PartitionSet;
+import edu.brown.utils.ProjectType;
+
+public class TestMarkovGraphUpdater extends BaseTestCase {
+    private static final int NUM_PARTITIONS = 4;
+    private static final int BASE_PARTITION = 1;
+
+    private Procedure catalog_proc;
+    private MarkovGraph markov;
+    private MarkovGraphUpdater updater;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TPCC);
+        this.addPartitions(NUM_PARTITIONS);
+        this.catalog_proc = this.getProcedure(neworder.class);
+        this.markov = new MarkovGraph(this.catalog_proc).initialize();
+        this.updater = new MarkovGraphUpdater(catalogContext.getAllPartitionIds(), 2);
+    }
+
+    /**
+     * Build a path through the given Statements on the base partition
+     * using vertices that are not in the graph.
+     */
+    private List<MarkovVertex> makePath(String...stmtNames) {
+        List<MarkovVertex> path = new ArrayList<MarkovVertex>();
+        path.add(this.markov.getStartVertex());
+        PartitionSet partitions = new PartitionSet(BASE_PARTITION);
+        PartitionSet past = new PartitionSet();
+        for (String stmtName : stmtNames) {
+            Statement catalog_stmt = this.getStatement(this.catalog_proc, stmtName);
+            path.add(new MarkovVertex(catalog_stmt, MarkovVertex.Type.QUERY, 0, partitions, past));
+            past.addAll(partitions);
+        } // FOR
+        path.add(this.markov.getCommitVertex());
+        return (path);
+    }
+
+    /**
+     * testBuffer
+     */
+    public void testBuffer() throws Exception {
+        MarkovGraphUpdater.Buffer buffer = this.updater.createBuffer(3);
+        assertEquals(4, buffer.getCapacity());
+
+        List<MarkovVertex> path = this.makePath("getWarehouseTaxRate");
+        for (int i = 0; i < buffer.getCapacity(); i++) {
+            assertTrue(buffer.offer(this.markov, path, Status.OK));
+        } // FOR
+        assertFalse(buffer.offer(this.markov, path, Status.OK));
+        assertEquals(buffer.getCapacity(), buffer.size());
+        assertEquals(1, buffer.getDroppedCount());
+
+        assertEquals(buffer.getCapacity(), this.updater.drain());
+        assertEquals(0, buffer.size());
+        assertEquals(0, this.updater.drain());
+        assertTrue(buffer.offer(this.markov, path, Status.OK));
+    }
+
+    /**
+     * testApplyPaths
+     */
+    public void testApplyPaths() throws Exception {
+        MarkovGraphUpdater.Buffer buffer = this.updater.createBuffer(16);
+        int num_vertices = this.markov.getVertexCount();
+
+        // Nothing happens to the graph until the updater drains the buffer
+        List<MarkovVertex> path0 = this.makePath("getWarehouseTaxRate", "getDistrict");
+        assertTrue(buffer.offer(this.markov, path0, Status.OK));
+        assertEquals(num_vertices, this.markov.getVertexCount());
+        assertEquals(1, this.updater.drain());
+        assertEquals(num_vertices + 2, this.markov.getVertexCount());
+        assertTrue(this.markov.isBackgroundUpdates());
+
+        MarkovVertex v0 = path0.get(1);
+        MarkovVertex v1 = path0.get(2);
+        assertTrue(this.markov.containsVertex(v0));
+        assertTrue(this.markov.containsVertex(v1));
+        MarkovEdge e = this.markov.findEdge(this.markov.getStartVertex(), v0);
+        assertNotNull(e);
+        assertEquals(1, e.getInstanceHits());
+        assertNotNull(this.markov.findEdge(v1, this.markov.getCommitVertex()));
+
+        // The estimators should see the new version of the graph
+        CompiledMarkovGraph compiled = this.markov.getCompiledGraph();
+        assertNotNull(compiled);
+        assertTrue(compiled.isValid());
+        assertTrue(compiled.getVertexId(v1) >= 0);
+
+        // A second path through the same Statements should reuse the vertices
+        // And then we should have recomputed the probabilities
+        List<MarkovVertex> path1 = this.makePath("getWarehouseTaxRate", "getDistrict");
+        assertTrue(buffer.offer(this.markov, path1, Status.OK));
+        assertEquals(1, this.updater.drain());
+        assertEquals(num_vertices + 2, this.markov.getVertexCount());
+        assertEquals(2, e.getTotalHits());
+        assertEquals(1, this.markov.getRecomputeCount());
+        assertEquals(1.0f, e.getProbability(), MarkovGraph.PROBABILITY_EPSILON);
+
+        compiled = this.markov.getCompiledGraph();
+        assertTrue(compiled.isValid());
+        assertEquals(2, this.updater.getProcessedCount());
+    }
+
+    /**
+     * testAbortPath
+     */
+    public void testAbortPath() throws Exception {
+        MarkovGraphUpdater.Buffer buffer = this.updater.createBuffer(16);
+        List<MarkovVertex> path = this.makePath("getWarehouseTaxRate");
+        path.set(path.size()-1, this.markov.getAbortVertex());
+        assertTrue(buffer.offer(this.markov, path, Status.ABORT_USER));
+        assertEquals(1, this.updater.drain());
+
+        MarkovVertex v = path.get(1);
+        assertNotNull(this.markov.findEdge(v, this.markov.getAbortVertex()));
+        assertNull(this.markov.findEdge(v, this.markov.getCommitVertex()));
+    }
+
+    /**
+     * testSnapshotProbabilities
+     */
+    public void testSnapshotProbabilities() throws Exception {
+        MarkovGraphUpdater.Buffer buffer = this.updater.createBuffer(16);
+        List<MarkovVertex> path0 = this.makePath("getWarehouseTaxRate", "getDistrict");
+        assertTrue(buffer.offer(this.markov, path0, Status.OK));
+        assertTrue(buffer.offer(this.markov, this.makePath("getWarehouseTaxRate", "getDistrict"), Status.OK));
+        assertEquals(2, this.updater.drain());
+        assertEquals(1, this.markov.getRecomputeCount());
+
+        // The compiled graph should have its own copy of the probability tables
+        MarkovVertex v = path0.get(1);
+        CompiledMarkovGraph compiled = this.markov.getCompiledGraph();
+        int id = compiled.getVertexId(v);
+        assertTrue(id >= 0);
+        int num_partitions = catalogContext.numberOfPartitions;
+        float done[] = new float[num_partitions];
+        float write[] = new float[num_partitions];
+        for (int p = 0; p < num_partitions; p++) {
+            done[p] = v.getDoneProbability(p);
+            write[p] = v.getWriteProbability(p);
+            assertEquals(done[p], compiled.getDoneProbability(id, p));
+            assertEquals(write[p], compiled.getWriteProbability(id, p));
+        } // FOR
+        assertEquals(v.getAbortProbability(), compiled.getAbortProbability(id));
+        assertEquals(v.getTotalHits(), compiled.getTotalHits(id));
+
+        // Now have the updater recompute the probabilities with paths that
+        // commit right after the first query. The snapshot should not change.
+        for (int i = 0; i < 2; i++) {
+            assertTrue(buffer.offer(this.markov, this.makePath("getWarehouseTaxRate"), Status.OK));
+        } // FOR
+        assertEquals(2, this.updater.drain());
+        assertEquals(2, this.markov.getRecomputeCount());
+        assertNotSame(compiled, this.markov.getCompiledGraph());
+        assertFalse(done[BASE_PARTITION] == v.getDoneProbability(BASE_PARTITION));
+        for (int p = 0; p < num_partitions; p++) {
+            assertEquals(done[p], compiled.getDoneProbability(id, p));
+            assertEquals(write[p], compiled.getWriteProbability(id, p));
+        } // FOR
+
+        // And the estimates should use the snapshot instead of the vertex
+        // that the updater is changing
+        v.resetAllProbabilities();
+        MarkovEstimate est = new MarkovEstimate(catalogContext);
+        est.init(v, EstimatorUtil.INITIAL_ESTIMATE_BATCH);
+        MarkovPathEstimator.fastEstimation(est, path0, v, compiled);
+        for (int p = 0; p < num_partitions; p++) {
+            assertEquals(done[p], est.getDoneProbability(p));
+            assertEquals(write[p], est.getWriteProbability(p));
+        } // FOR
+    }
+
+    /**
+     * testTraverseBackgroundGraph
+     */
+    public void testTraverseBackgroundGraph() throws Exception {
+        // Switching on background updates should publish a compiled graph
+        // before the updater gets a chance to change anything
+        this.markov.setBackgroundUpdates(true);
+        CompiledMarkovGraph compiled = this.markov.getCompiledGraph();
+        assertNotNull(compiled);
+        assertTrue(compiled.getVertexId(this.markov.getStartVertex()) >= 0);
+
+        // Add a vertex to the graph without publishing it. The estimator
+        // should not follow the graph's edges from it to the COMMIT vertex
+        MarkovVertex v = this.makePath("getWarehouseTaxRate").get(1);
+        this.markov.addVertex(v);
+        this.markov.addToEdge(v, this.markov.getCommitVertex());
+        assertSame(compiled, this.markov.getCompiledGraph());
+        assertEquals(-1, compiled.getVertexId(v));
+
+        MarkovEstimate est = new MarkovEstimate(catalogContext);
+        est.init(v, EstimatorUtil.INITIAL_ESTIMATE_BATCH);
+        MarkovPathEstimator estimator = new MarkovPathEstimator(catalogContext, p_estimator);
+        estimator.init(this.markov, est, new Object[0], BASE_PARTITION);
+        estimator.traversePath(v);
+        assertEquals(1, est.getMarkovPath().size());
+        assertSame(v, est.getMarkovPath().get(0));
+        for (int p = 0; p < catalogContext.numberOfPartitions; p++) {
+            assertEquals(compiled.getDoneProbability(-1, p), est.getDoneProbability(p));
+        } // FOR
+    }
+}
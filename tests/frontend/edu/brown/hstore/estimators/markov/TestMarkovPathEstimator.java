@@ -17,6 +17,7 @@ import edu.brown.BaseTestCase;
 import edu.brown.catalog.CatalogUtil;
 import edu.brown.hstore.estimators.EstimatorUtil;
 import edu.brown.mappings.ParameterMappingsSet;
+import edu.brown.markov.CompiledMarkovGraph;
 import edu.brown.markov.MarkovGraph;
 import edu.brown.markov.MarkovVertex;
 import edu.brown.markov.containers.MarkovGraphsContainerUtil;
@@ -352,4 +353,55 @@ public class TestMarkovPathEstimator extends BaseTestCase {
 //        this.writeGraphviz(path);
         assertEquals(multip_partitions, touched_partitions);
     }
+    
+    /**
+     * testCompiledGraph
+     */
+    public void testCompiledGraph() throws Exception {
+        CompiledMarkovGraph compiled = this.graph.compile();
+        assertNotNull(compiled);
+        assertTrue(compiled.isValid());
+        assertSame(compiled, this.graph.getCompiledGraph());
+        
+        // The compiled graph should give us the same estimates as the tree walker
+        for (boolean force : new boolean[]{ true, false }) {
+            for (TransactionTrace txn_trace : workload.getTransactions()) {
+                MarkovEstimate expected = new MarkovEstimate(catalogContext);
+                expected.init(this.graph.getStartVertex(), 0);
+                MarkovPathEstimator walker = new MarkovPathEstimator(catalogContext, p_estimator);
+                walker.init(this.graph, expected, txn_trace.getParams(), BASE_PARTITION);
+                walker.setForceTraversal(force);
+                walker.traverse(this.graph.getStartVertex());
+                
+                MarkovEstimate actual = new MarkovEstimate(catalogContext);
+                actual.init(this.graph.getStartVertex(), 0);
+                pathEstimator.init(this.graph, actual, txn_trace.getParams(), BASE_PARTITION);
+                pathEstimator.setForceTraversal(force);
+                pathEstimator.setCompiledEnabled(true);
+                pathEstimator.traversePath(this.graph.getStartVertex());
+                assertTrue(pathEstimator.getVisitPath().isEmpty());
+                
+                String debug = txn_trace + " [force=" + force + "]";
+                assertEquals(debug, expected.getMarkovPath(), actual.getMarkovPath());
+                assertEquals(debug, expected.getConfidenceCoefficient(), actual.getConfidenceCoefficient());
+                assertEquals(debug, expected.touched_partitions, actual.touched_partitions);
+                assertEquals(debug, expected.read_partitions, actual.read_partitions);
+                assertEquals(debug, expected.write_partitions, actual.write_partitions);
+                for (int p : catalogContext.getAllPartitionIdArray()) {
+                    assertEquals(debug, expected.getDoneProbability(p), actual.getDoneProbability(p));
+                    assertEquals(debug, expected.getWriteProbability(p), actual.getWriteProbability(p));
+                } // FOR
+                pathEstimator.finish();
+            } // FOR
+        } // FOR
+        
+        // Changing the graph should make us stop using the compiled version
+        MarkovGraph markov = new MarkovGraph(this.catalog_proc).initialize();
+        markov.compile();
+        assertNotNull(markov.getCompiledGraph());
+        Statement catalog_stmt = CollectionUtil.first(this.catalog_proc.getStatements());
+        markov.addVertex(new MarkovVertex(catalog_stmt, MarkovVertex.Type.QUERY, 0,
+                                          new PartitionSet(BASE_PARTITION), new PartitionSet()));
+        assertNull(markov.getCompiledGraph());
+    }
 }
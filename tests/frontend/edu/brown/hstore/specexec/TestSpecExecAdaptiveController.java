@@ -0,0 +1,102 @@
+package edu.brown.hstore.specexec;
+
+import junit.framework.TestCase;
+
+import org.voltdb.types.SpeculationType;
+
+public class TestSpecExecAdaptiveController extends TestCase {
+
+    private static final int MAX_WINDOW = 8;
+    private static final int INTERVAL = 10;
+    private static final double MIN_SUCCESS = 0.5;
+    private static final SpeculationType SPEC_TYPE = SpeculationType.SP2_REMOTE_AFTER;
+
+    private SpecExecAdaptiveController controller;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.controller = new SpecExecAdaptiveController(0, MAX_WINDOW, INTERVAL, MIN_SUCCESS, Long.MAX_VALUE / 2);
+    }
+
+    private void abortInterval() {
+        for (int i = 0; i < INTERVAL; i++) {
+            this.controller.recordAbort(SPEC_TYPE, 100);
+        } // FOR
+    }
+
+    private void commitInterval() {
+        for (int i = 0; i < INTERVAL; i++) {
+            this.controller.recordCommit(SPEC_TYPE);
+        } // FOR
+    }
+
+    /**
+     * testAccounting
+     */
+    public void testAccounting() throws Exception {
+        this.controller.recordCommit(SPEC_TYPE);
+        this.controller.recordAbort(SPEC_TYPE, 100);
+        this.controller.recordAbort(SPEC_TYPE, 50);
+        assertEquals(1, this.controller.getCommitCount(SPEC_TYPE));
+        assertEquals(2, this.controller.getAbortCount(SPEC_TYPE));
+        assertEquals(150, this.controller.getRollbackTime(SPEC_TYPE));
+
+        // Nothing changes until we have a full interval
+        assertEquals(MAX_WINDOW, this.controller.getWindowSize(SPEC_TYPE));
+        assertEquals(1.0, this.controller.getSuccessRatio(SPEC_TYPE));
+
+        // Other stall points are separate
+        assertEquals(0, this.controller.getAbortCount(SpeculationType.SP1_LOCAL));
+    }
+
+    /**
+     * testNarrowAndDisable
+     */
+    public void testNarrowAndDisable() throws Exception {
+        int window = MAX_WINDOW;
+        while (this.controller.getDisableCount(SPEC_TYPE) == 0) {
+            assertTrue(this.controller.isEnabled(SPEC_TYPE));
+            this.abortInterval();
+            int newWindow = this.controller.getWindowSize(SPEC_TYPE);
+            assertTrue(newWindow <= window);
+            assertTrue(newWindow >= 1);
+            window = newWindow;
+        } // WHILE
+        assertEquals(1, window);
+        assertFalse(this.controller.isEnabled(SPEC_TYPE));
+        assertTrue(this.controller.isEnabled(SpeculationType.SP1_LOCAL));
+    }
+
+    /**
+     * testWiden
+     */
+    public void testWiden() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            this.abortInterval();
+        } // FOR
+        int window = this.controller.getWindowSize(SPEC_TYPE);
+        assertTrue(window < MAX_WINDOW);
+
+        for (int i = 0; i < 10; i++) {
+            this.commitInterval();
+        } // FOR
+        assertEquals(MAX_WINDOW, this.controller.getWindowSize(SPEC_TYPE));
+        assertTrue(this.controller.getSuccessRatio(SPEC_TYPE) > MIN_SUCCESS);
+    }
+
+    /**
+     * testCooldown
+     */
+    public void testCooldown() throws Exception {
+        this.controller = new SpecExecAdaptiveController(0, 1, INTERVAL, MIN_SUCCESS, 0);
+        while (this.controller.getDisableCount(SPEC_TYPE) == 0) {
+            this.abortInterval();
+        } // WHILE
+
+        // With no cooldown, we should get to try again right away
+        assertTrue(this.controller.isEnabled(SPEC_TYPE));
+        assertEquals(1, this.controller.getWindowSize(SPEC_TYPE));
+        assertTrue(this.controller.getSuccessRatio(SPEC_TYPE) >= MIN_SUCCESS);
+    }
+}
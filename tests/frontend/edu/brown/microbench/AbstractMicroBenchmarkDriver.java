@@ -0,0 +1,193 @@
+package edu.brown.microbench;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+import org.voltdb.CatalogContext;
+import org.voltdb.HsqlBackend;
+import org.voltdb.VoltType;
+import org.voltdb.catalog.Catalog;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+import org.voltdb.catalog.StmtParameter;
+import org.voltdb.utils.VoltTypeUtil;
+
+import com.sun.japex.JapexDriverBase;
+import com.sun.japex.TestCase;
+
+import edu.brown.BaseTestCase;
+import edu.brown.catalog.FixCatalog;
+import edu.brown.hstore.MockHStoreSite;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.utils.PartitionEstimator;
+import edu.brown.utils.ProjectType;
+
+/**
+ * Base class for all of the Japex microbenchmark drivers.
+ * Every test case in the config file needs to define the {@link #PARAM_PROJECT}
+ * parameter so that we know which benchmark's catalog to load. The catalogs
+ * are cached so that we only need to compile them once per JVM.
+ * <B>Note:</B> Japex calls run() in a tight loop, so drivers should do all of their
+ * setup work in prepareDriver() and keep run() as small as possible.
+ */
+public abstract class AbstractMicroBenchmarkDriver extends JapexDriverBase {
+    private static final Logger LOG = Logger.getLogger(AbstractMicroBenchmarkDriver.class);
+    
+    /**
+     * The name of the ProjectType whose catalog we should use (e.g., "tpcc")
+     */
+    public static final String PARAM_PROJECT = "hstore.project";
+    
+    /**
+     * The number of partitions in the catalog.
+     */
+    public static final String PARAM_PARTITIONS = "hstore.partitions";
+    
+    public static final int DEFAULT_NUM_PARTITIONS = 4;
+    
+    private static final Map<String, CatalogContext> CATALOG_CACHE = new HashMap<String, CatalogContext>();
+    
+    protected final Random rand = new Random(0);
+    protected ProjectType projectType;
+    protected CatalogContext catalogContext;
+    protected PartitionEstimator p_estimator;
+    private MockHStoreSite hstore_site;
+    
+    // ----------------------------------------------------------------------------
+    // JAPEX METHODS
+    // ----------------------------------------------------------------------------
+    
+    @Override
+    public final void prepare(TestCase testCase) {
+        this.projectType = ProjectType.get(testCase.getParam(PARAM_PROJECT));
+        assert(this.projectType != null) :
+            "Invalid " + PARAM_PROJECT + " for " + testCase.getName();
+        int num_partitions = (testCase.hasParam(PARAM_PARTITIONS) ?
+                                testCase.getIntParam(PARAM_PARTITIONS) : DEFAULT_NUM_PARTITIONS);
+        try {
+            this.catalogContext = getCatalogContext(this.projectType, num_partitions);
+            this.p_estimator = new PartitionEstimator(this.catalogContext);
+            this.prepareDriver(testCase);
+        } catch (Exception ex) {
+            throw new RuntimeException("Failed to prepare " + this.getClass().getSimpleName() +
+                                       " for " + testCase.getName(), ex);
+        }
+    }
+    
+    @Override
+    public final void run(TestCase testCase) {
+        try {
+            this.runDriver();
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+    
+    @Override
+    public void finish(TestCase testCase) {
+        this.finishDriver();
+        
+        // The MockPartitionExecutors all share the same in-memory HSQLDB databases,
+        // so we have to shut them down before we can load another catalog
+        if (this.hstore_site != null) {
+            for (int partition : this.hstore_site.getLocalPartitionIds().values()) {
+                HsqlBackend hsql = this.hstore_site.getPartitionExecutor(partition).getHsqlBackend();
+                if (hsql != null) hsql.shutdown();
+            } // FOR
+            this.hstore_site = null;
+        }
+    }
+    
+    // ----------------------------------------------------------------------------
+    // DRIVER METHODS
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * Initialize all of the data structures that the driver needs for
+     * the given TestCase. The catalog will already be loaded.
+     * @param testCase
+     * @throws Exception
+     */
+    protected abstract void prepareDriver(TestCase testCase) throws Exception;
+    
+    /**
+     * Execute one iteration of the microbenchmark
+     * @throws Exception
+     */
+    protected abstract void runDriver() throws Exception;
+    
+    /**
+     * Optional cleanup after each TestCase
+     */
+    protected void finishDriver() {
+        // Nothing by default
+    }
+    
+    // ----------------------------------------------------------------------------
+    // UTILITY METHODS
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * Return a MockHStoreSite for the current catalog. 
+     * It will be cleaned up automatically at the end of the TestCase. 
+     * @return
+     */
+    protected MockHStoreSite getHStoreSite() {
+        if (this.hstore_site == null) {
+            this.hstore_site = new MockHStoreSite(0, this.catalogContext, HStoreConf.singleton());
+        }
+        return (this.hstore_site);
+    }
+    
+    /**
+     * Load the catalog for the given ProjectType with the given number of
+     * partitions all on a single site.
+     * @param type
+     * @param num_partitions
+     * @return
+     * @throws Exception
+     */
+    protected static synchronized CatalogContext getCatalogContext(ProjectType type, int num_partitions) throws Exception {
+        String key = type.name() + "-" + num_partitions;
+        CatalogContext cc = CATALOG_CACHE.get(key);
+        if (cc == null) {
+            // BaseTestCase's static initializer will setup log4j and HStoreConf for us
+            LOG.info(String.format("Creating %s catalog with %d partitions", type, num_partitions));
+            Catalog catalog = BaseTestCase.getProjectBuilder(type).getFullCatalog(false);
+            catalog = FixCatalog.cloneCatalog(catalog, "localhost", 1, 1, num_partitions);
+            cc = new CatalogContext(catalog, BaseTestCase.getCatalogJarPath(type));
+            CATALOG_CACHE.put(key, cc);
+        }
+        return (cc);
+    }
+    
+    /**
+     * Return all of the Statements from the regular Procedures in the catalog
+     * @return
+     */
+    protected List<Statement> getStatements() {
+        List<Statement> stmts = new ArrayList<Statement>();
+        for (Procedure catalog_proc : this.catalogContext.getRegularProcedures()) {
+            stmts.addAll(catalog_proc.getStatements());
+        } // FOR
+        return (stmts);
+    }
+    
+    /**
+     * Generate an array of random input parameters for a given Statement
+     * @param catalog_stmt
+     * @return
+     */
+    protected Object[] randomStatementParameters(Statement catalog_stmt) {
+        Object params[] = new Object[catalog_stmt.getParameters().size()];
+        for (StmtParameter catalog_param : catalog_stmt.getParameters()) {
+            VoltType vtype = VoltType.get(catalog_param.getJavatype());
+            params[catalog_param.getIndex()] = VoltTypeUtil.getRandomValue(vtype, this.rand);
+        } // FOR
+        return (params);
+    }
+}
@@ -0,0 +1,82 @@
+package edu.brown.microbench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.voltdb.ParameterSet;
+import org.voltdb.SQLStmt;
+import org.voltdb.VoltProcedure;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Statement;
+
+import com.sun.japex.TestCase;
+
+import edu.brown.hstore.BatchPlanner;
+import edu.brown.statistics.FastIntHistogram;
+import edu.brown.utils.PartitionSet;
+
+/**
+ * Microbenchmark for BatchPlanner.plan()
+ * We create one batch per Procedure that contains all of its Statements
+ * with random input parameters. Each invocation of run() plans the next batch.
+ */
+public class BatchPlannerDriver extends AbstractMicroBenchmarkDriver {
+
+    private final List<BatchPlanner> planners = new ArrayList<BatchPlanner>();
+    private final List<ParameterSet[]> batchArgs = new ArrayList<ParameterSet[]>();
+    private final List<Integer> basePartitions = new ArrayList<Integer>();
+    private PartitionSet allPartitions;
+    private FastIntHistogram touched_partitions;
+    private long txnId = 1000;
+    private int next = 0;
+    
+    @Override
+    protected void prepareDriver(TestCase testCase) throws Exception {
+        this.planners.clear();
+        this.batchArgs.clear();
+        this.basePartitions.clear();
+        this.allPartitions = this.catalogContext.getAllPartitionIds();
+        this.touched_partitions = new FastIntHistogram(this.catalogContext.numberOfPartitions);
+        
+        for (Procedure catalog_proc : this.catalogContext.getRegularProcedures()) {
+            int num_stmts = catalog_proc.getStatements().size();
+            if (num_stmts == 0) continue;
+            
+            SQLStmt batch[] = new SQLStmt[num_stmts];
+            ParameterSet args[] = new ParameterSet[num_stmts];
+            int i = 0;
+            for (Statement catalog_stmt : catalog_proc.getStatements()) {
+                batch[i] = new SQLStmt(catalog_stmt);
+                args[i] = VoltProcedure.getCleanParams(batch[i], this.randomStatementParameters(catalog_stmt));
+                i++;
+            } // FOR
+            BatchPlanner planner = new BatchPlanner(batch, catalog_proc, this.p_estimator);
+            int base_partition = this.rand.nextInt(this.catalogContext.numberOfPartitions);
+            
+            // Skip any batches that we can't plan with random parameters
+            try {
+                planner.plan(this.txnId++, base_partition, this.allPartitions, this.touched_partitions, args);
+            } catch (Throwable ex) {
+                continue;
+            } finally {
+                this.touched_partitions.clear();
+            }
+            this.planners.add(planner);
+            this.batchArgs.add(args);
+            this.basePartitions.add(base_partition);
+        } // FOR
+        assert(this.planners.isEmpty() == false) :
+            "Failed to create any BatchPlanners for " + this.projectType;
+    }
+    
+    @Override
+    protected void runDriver() throws Exception {
+        int idx = this.next++ % this.planners.size();
+        this.planners.get(idx).plan(this.txnId++,
+                                    this.basePartitions.get(idx).intValue(),
+                                    this.allPartitions,
+                                    this.touched_partitions,
+                                    this.batchArgs.get(idx));
+        this.touched_partitions.clear();
+    }
+}
@@ -0,0 +1,55 @@
+package edu.brown.microbench;
+
+import java.nio.ByteBuffer;
+
+import org.voltdb.messaging.FastDeserializer;
+import org.voltdb.messaging.FastSerializer;
+
+import com.sun.japex.TestCase;
+
+/**
+ * Microbenchmark for FastSerializer/FastDeserializer
+ * Each invocation of run() writes out a mix of primitive values and strings
+ * and then reads them all back. The number of values is controlled by
+ * the {@link #PARAM_NUM_VALUES} parameter.
+ */
+public class FastSerializerDriver extends AbstractMicroBenchmarkDriver {
+
+    public static final String PARAM_NUM_VALUES = "hstore.fastserializer.values";
+    
+    private final FastSerializer out = new FastSerializer();
+    private final FastDeserializer in = new FastDeserializer();
+    private String strings[];
+    private int num_values = 16;
+    
+    @Override
+    protected void prepareDriver(TestCase testCase) throws Exception {
+        if (testCase.hasParam(PARAM_NUM_VALUES)) {
+            this.num_values = testCase.getIntParam(PARAM_NUM_VALUES);
+        }
+        this.strings = new String[this.num_values];
+        for (int i = 0; i < this.num_values; i++) {
+            this.strings[i] = "H-Store-" + this.rand.nextInt();
+        } // FOR
+    }
+    
+    @Override
+    protected void runDriver() throws Exception {
+        this.out.clear();
+        for (int i = 0; i < this.num_values; i++) {
+            this.out.writeInt(i);
+            this.out.writeLong(i);
+            this.out.writeDouble(i);
+            this.out.writeString(this.strings[i]);
+        } // FOR
+        
+        ByteBuffer buffer = this.out.getBuffer();
+        this.in.setBuffer(buffer);
+        for (int i = 0; i < this.num_values; i++) {
+            this.in.readInt();
+            this.in.readLong();
+            this.in.readDouble();
+            this.in.readString();
+        } // FOR
+    }
+}
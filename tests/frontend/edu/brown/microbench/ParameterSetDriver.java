@@ -0,0 +1,45 @@
+package edu.brown.microbench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.voltdb.ParameterSet;
+import org.voltdb.catalog.Statement;
+import org.voltdb.messaging.FastDeserializer;
+import org.voltdb.messaging.FastSerializer;
+
+import com.sun.japex.TestCase;
+
+/**
+ * Microbenchmark for ParameterSet serialization
+ * Each invocation of run() serializes the next ParameterSet and then
+ * deserializes it back into a reusable ParameterSet.
+ */
+public class ParameterSetDriver extends AbstractMicroBenchmarkDriver {
+
+    private final List<ParameterSet> paramSets = new ArrayList<ParameterSet>();
+    private final FastSerializer out = new FastSerializer();
+    private final FastDeserializer in = new FastDeserializer();
+    private final ParameterSet clone = new ParameterSet();
+    private int next = 0;
+    
+    @Override
+    protected void prepareDriver(TestCase testCase) throws Exception {
+        this.paramSets.clear();
+        for (Statement catalog_stmt : this.getStatements()) {
+            if (catalog_stmt.getParameters().isEmpty()) continue;
+            this.paramSets.add(new ParameterSet(this.randomStatementParameters(catalog_stmt)));
+        } // FOR
+        assert(this.paramSets.isEmpty() == false) :
+            "Failed to create any ParameterSets for " + this.projectType;
+    }
+    
+    @Override
+    protected void runDriver() throws Exception {
+        ParameterSet params = this.paramSets.get(this.next++ % this.paramSets.size());
+        this.out.clear();
+        params.writeExternal(this.out);
+        this.in.setBuffer(this.out.getBuffer());
+        this.clone.readExternal(this.in);
+    }
+}
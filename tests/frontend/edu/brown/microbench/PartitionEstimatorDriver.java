@@ -0,0 +1,51 @@
+package edu.brown.microbench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.voltdb.catalog.Statement;
+
+import com.sun.japex.TestCase;
+
+import edu.brown.utils.PartitionSet;
+
+/**
+ * Microbenchmark for PartitionEstimator.getAllPartitions()
+ * Each invocation of run() estimates the partitions for the next
+ * Statement in the catalog using a fixed set of random parameters. 
+ */
+public class PartitionEstimatorDriver extends AbstractMicroBenchmarkDriver {
+
+    private final List<Statement> stmts = new ArrayList<Statement>();
+    private final List<Object[]> params = new ArrayList<Object[]>();
+    private final PartitionSet partitions = new PartitionSet();
+    private int next = 0;
+    
+    @Override
+    protected void prepareDriver(TestCase testCase) throws Exception {
+        this.stmts.clear();
+        this.params.clear();
+        for (Statement catalog_stmt : this.getStatements()) {
+            Object stmt_params[] = this.randomStatementParameters(catalog_stmt);
+            try {
+                this.p_estimator.getAllPartitions(this.partitions, catalog_stmt, stmt_params, 0);
+            } catch (Throwable ex) {
+                continue;
+            }
+            this.stmts.add(catalog_stmt);
+            this.params.add(stmt_params);
+        } // FOR
+        assert(this.stmts.isEmpty() == false) :
+            "Failed to find any Statements for " + this.projectType;
+    }
+    
+    @Override
+    protected void runDriver() throws Exception {
+        int idx = this.next++ % this.stmts.size();
+        this.partitions.clear();
+        this.p_estimator.getAllPartitions(this.partitions,
+                                          this.stmts.get(idx),
+                                          this.params.get(idx),
+                                          idx % this.catalogContext.numberOfPartitions);
+    }
+}
@@ -0,0 +1,82 @@
+package edu.brown.microbench;
+
+import org.voltdb.TransactionIdManager;
+import org.voltdb.catalog.Procedure;
+
+import com.sun.japex.TestCase;
+
+import edu.brown.hstore.MockHStoreSite;
+import edu.brown.hstore.PartitionLockQueue;
+import edu.brown.hstore.txns.AbstractTransaction;
+import edu.brown.hstore.txns.LocalTransaction;
+import edu.brown.utils.CollectionUtil;
+import edu.brown.utils.PartitionSet;
+
+/**
+ * Microbenchmark for PartitionLockQueue offer/poll
+ * Each invocation of run() offers a batch of txns into the queue and then
+ * polls them all back out. The txns are re-initialized with new txn ids every
+ * time because the queue will not take a txn that is older than the last one
+ * that it released. The queue's wait time is set to zero so that the txns
+ * are released as soon as they are in the queue.
+ */
+public class PartitionLockQueueDriver extends AbstractMicroBenchmarkDriver {
+
+    public static final String PARAM_BATCH_SIZE = "hstore.lockqueue.batch";
+    
+    private static final int PARTITION_ID = 0;
+    
+    /**
+     * How long we will keep polling the queue for a txn before we give up
+     */
+    private static final long MAX_POLL_TIME = 5000; // ms
+    
+    private TransactionIdManager idManager;
+    private PartitionLockQueue queue;
+    private Procedure catalog_proc;
+    private PartitionSet partitions;
+    private LocalTransaction txns[];
+    
+    @Override
+    protected void prepareDriver(TestCase testCase) throws Exception {
+        int batch_size = (testCase.hasParam(PARAM_BATCH_SIZE) ? testCase.getIntParam(PARAM_BATCH_SIZE) : 16);
+        
+        MockHStoreSite hstore_site = this.getHStoreSite();
+        this.idManager = hstore_site.getTransactionIdManager(PARTITION_ID);
+        this.queue = new PartitionLockQueue(PARTITION_ID, 0, Integer.MAX_VALUE, 1.0);
+        
+        this.catalog_proc = CollectionUtil.first(this.catalogContext.getRegularProcedures());
+        this.partitions = new PartitionSet(PARTITION_ID);
+        this.txns = new LocalTransaction[batch_size];
+        for (int i = 0; i < this.txns.length; i++) {
+            this.txns[i] = new LocalTransaction(hstore_site);
+        } // FOR
+    }
+    
+    @Override
+    protected void runDriver() throws Exception {
+        for (LocalTransaction ts : this.txns) {
+            if (ts.isInitialized()) ts.finish();
+            ts.testInit(this.idManager.getNextUniqueTransactionId(), PARTITION_ID,
+                        null, this.partitions, this.catalog_proc);
+            Long txnId = ts.getTransactionId();
+            Long lastSafeTxnId = this.queue.noteTransactionRecievedAndReturnLastSafeTxnId(txnId);
+            if (lastSafeTxnId.compareTo(txnId) > 0 || this.queue.offer(ts, false) == false) {
+                throw new RuntimeException(String.format("Failed to add %s to the lock queue " +
+                                           "[lastSafeTxnId=%d]", ts, lastSafeTxnId));
+            }
+        } // FOR
+        for (int i = 0; i < this.txns.length; i++) {
+            AbstractTransaction ts = this.queue.poll();
+            if (ts == null) {
+                long stop = System.currentTimeMillis() + MAX_POLL_TIME;
+                while ((ts = this.queue.poll()) == null) {
+                    if (System.currentTimeMillis() > stop) {
+                        throw new RuntimeException(String.format("Timed out waiting for txn #%d " +
+                                                   "from the lock queue\n%s", i, this.queue.debug()));
+                    }
+                } // WHILE
+            }
+        } // FOR
+    }
+}
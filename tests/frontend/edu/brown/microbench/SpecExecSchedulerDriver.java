@@ -0,0 +1,118 @@
+package edu.brown.microbench;
+
+import java.util.Collection;
+
+import org.voltdb.TransactionIdManager;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.types.SpecExecSchedulerPolicyType;
+import org.voltdb.types.SpeculationType;
+
+import com.sun.japex.TestCase;
+
+import edu.brown.catalog.conflicts.ConflictSetUtil;
+import edu.brown.hstore.MockHStoreSite;
+import edu.brown.hstore.PartitionLockQueue;
+import edu.brown.hstore.SpecExecScheduler;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.hstore.specexec.checkers.TableConflictChecker;
+import edu.brown.hstore.txns.LocalTransaction;
+
+/**
+ * Microbenchmark for SpecExecScheduler.next()
+ * We create a distributed txn for every Procedure in the catalog and fill the
+ * lock queue with single-partition txns. Each invocation of run() asks the
+ * scheduler for a txn to speculatively execute and then puts it back in the queue
+ * with a new txn id so that it looks like a new txn arrived.
+ */
+public class SpecExecSchedulerDriver extends AbstractMicroBenchmarkDriver {
+
+    public static final String PARAM_QUEUE_SIZE = "hstore.specexec.queue";
+    public static final String PARAM_POLICY = "hstore.specexec.policy";
+    
+    private static final int BASE_PARTITION = 0;
+    
+    private TransactionIdManager idManager;
+    private PartitionLockQueue queue;
+    private SpecExecScheduler scheduler;
+    private LocalTransaction dtxn;
+    
+    @Override
+    protected void prepareDriver(TestCase testCase) throws Exception {
+        int queue_size = (testCase.hasParam(PARAM_QUEUE_SIZE) ? testCase.getIntParam(PARAM_QUEUE_SIZE) : 50);
+        SpecExecSchedulerPolicyType policy = SpecExecSchedulerPolicyType.FIRST;
+        if (testCase.hasParam(PARAM_POLICY)) {
+            policy = SpecExecSchedulerPolicyType.get(testCase.getParam(PARAM_POLICY));
+        }
+        
+        MockHStoreSite hstore_site = this.getHStoreSite();
+        HStoreConf hstore_conf = hstore_site.getHStoreConf();
+        // All of the partitions are on the same site, so we need to make sure
+        // that the scheduler doesn't just skip our dtxn
+        hstore_conf.site.specexec_ignore_all_local = false;
+        this.idManager = hstore_site.getTransactionIdManager(BASE_PARTITION);
+        this.queue = hstore_site.getTransactionQueueManager().getLockQueue(BASE_PARTITION);
+        this.scheduler = new SpecExecScheduler(new TableConflictChecker(this.catalogContext),
+                                               BASE_PARTITION,
+                                               this.queue,
+                                               policy,
+                                               hstore_conf.site.specexec_scheduler_window);
+        
+        // Pick the distributed txn that has the fewest conflicts so that
+        // the scheduler will actually find something to execute. Procedures 
+        // without any conflicts are ignored by the scheduler.
+        Procedure dtxn_proc = null;
+        Collection<Procedure> dtxn_conflicts = null;
+        for (Procedure catalog_proc : this.catalogContext.getRegularProcedures()) {
+            Collection<Procedure> conflicts = ConflictSetUtil.getAllConflicts(catalog_proc);
+            if (conflicts.isEmpty()) continue;
+            if (dtxn_proc == null || conflicts.size() < dtxn_conflicts.size()) {
+                dtxn_proc = catalog_proc;
+                dtxn_conflicts = conflicts;
+            }
+        } // FOR
+        assert(dtxn_proc != null);
+        this.dtxn = new LocalTransaction(hstore_site);
+        this.dtxn.testInit(this.idManager.getNextUniqueTransactionId(), BASE_PARTITION, null,
+                           this.catalogContext.getAllPartitionIds(), dtxn_proc);
+        
+        Procedure procs[] = this.catalogContext.getRegularProcedures().toArray(new Procedure[0]);
+        for (int i = 0; i < queue_size; i++) {
+            Procedure catalog_proc = procs[i % procs.length];
+            LocalTransaction ts = new LocalTransaction(hstore_site);
+            ts.testInit(this.idManager.getNextUniqueTransactionId(), BASE_PARTITION, null,
+                        this.catalogContext.getPartitionSetSingleton(BASE_PARTITION), catalog_proc);
+            this.offer(ts);
+        } // FOR
+        
+        LocalTransaction next = this.scheduler.next(this.dtxn, SpeculationType.SP2_REMOTE_BEFORE);
+        assert(next != null) : "Failed to find a txn to speculatively execute for " + this.dtxn;
+        this.requeue(next);
+    }
+    
+    /**
+     * Give the txn a new txn id and add it back into the lock queue
+     * @param ts
+     */
+    private void requeue(LocalTransaction ts) {
+        Procedure catalog_proc = ts.getProcedure();
+        ts.finish();
+        ts.testInit(this.idManager.getNextUniqueTransactionId(), BASE_PARTITION, null,
+                    this.catalogContext.getPartitionSetSingleton(BASE_PARTITION), catalog_proc);
+        this.offer(ts);
+    }
+    
+    private void offer(LocalTransaction ts) {
+        Long txnId = ts.getTransactionId();
+        Long lastSafeTxnId = this.queue.noteTransactionRecievedAndReturnLastSafeTxnId(txnId);
+        if (lastSafeTxnId.compareTo(txnId) > 0 || this.queue.offer(ts, false) == false) {
+            throw new RuntimeException(String.format("Failed to add %s to the lock queue " +
+                                       "[lastSafeTxnId=%d]", ts, lastSafeTxnId));
+        }
+    }
+    
+    @Override
+    protected void runDriver() throws Exception {
+        LocalTransaction next = this.scheduler.next(this.dtxn, SpeculationType.SP2_REMOTE_BEFORE);
+        if (next != null) this.requeue(next);
+    }
+}
@@ -0,0 +1,66 @@
+package edu.brown.microbench;
+
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+import org.voltdb.catalog.Column;
+import org.voltdb.catalog.Table;
+import org.voltdb.utils.CatalogUtil;
+import org.voltdb.utils.VoltTypeUtil;
+
+import com.sun.japex.TestCase;
+
+/**
+ * Microbenchmark for VoltTable row iteration
+ * We populate a VoltTable with random tuples using the schema of the
+ * widest table in the catalog. Each invocation of run() iterates over
+ * all of the rows and retrieves every column. 
+ */
+public class VoltTableDriver extends AbstractMicroBenchmarkDriver {
+
+    public static final String PARAM_NUM_ROWS = "hstore.volttable.rows";
+    
+    private VoltTable vt;
+    private VoltType types[];
+    
+    @Override
+    protected void prepareDriver(TestCase testCase) throws Exception {
+        int num_rows = (testCase.hasParam(PARAM_NUM_ROWS) ? testCase.getIntParam(PARAM_NUM_ROWS) : 1000);
+        
+        Table catalog_tbl = null;
+        for (Table t : this.catalogContext.getDataTables()) {
+            if (catalog_tbl == null || t.getColumns().size() > catalog_tbl.getColumns().size()) {
+                catalog_tbl = t;
+            }
+        } // FOR
+        assert(catalog_tbl != null);
+        
+        this.vt = CatalogUtil.getVoltTable(catalog_tbl);
+        this.types = new VoltType[catalog_tbl.getColumns().size()];
+        for (Column catalog_col : catalog_tbl.getColumns()) {
+            this.types[catalog_col.getIndex()] = VoltType.get(catalog_col.getType());
+        } // FOR
+        
+        Object row[] = new Object[this.types.length];
+        for (int i = 0; i < num_rows; i++) {
+            for (int col = 0; col < row.length; col++) {
+                row[col] = VoltTypeUtil.getRandomValue(this.types[col], this.rand);
+                if (this.types[col] == VoltType.STRING) {
+                    int size = catalog_tbl.getColumns().get(col).getSize();
+                    String s = (String)row[col];
+                    if (s.length() > size) row[col] = s.substring(0, size);
+                }
+            } // FOR
+            this.vt.addRow(row);
+        } // FOR
+    }
+    
+    @Override
+    protected void runDriver() throws Exception {
+        this.vt.resetRowPosition();
+        while (this.vt.advanceRow()) {
+            for (int col = 0; col < this.types.length; col++) {
+                this.vt.get(col, this.types[col]);
+            } // FOR
+        } // WHILE
+    }
+}
@@ -52,6 +52,12 @@ public class TestPartitionEstimator extends BaseTestCase {
             addStmtProcedure("ConstantRange",
                              "SELECT * FROM " + TPCCConstants.TABLENAME_DISTRICT +
                              " WHERE D_W_ID > " + BASE_PARTITION);
+            addStmtProcedure("ParamRange",
+                             "SELECT * FROM " + TPCCConstants.TABLENAME_WAREHOUSE +
+                             " WHERE W_ID >= ? AND W_ID < ?");
+            addStmtProcedure("ReversedParamRange",
+                             "SELECT * FROM " + TPCCConstants.TABLENAME_DISTRICT +
+                             " WHERE ? < D_W_ID AND D_W_ID <= ?");
         }
     };
     
@@ -142,6 +148,44 @@ public class TestPartitionEstimator extends BaseTestCase {
         assertEquals(catalogContext.getAllPartitionIds(), partitions);
     }
     
+    /**
+     * testParamRange
+     */
+    public void testParamRange() throws Exception {
+        // Check that a range look-up on a partitioning column only goes to the
+        // partitions that store that range when we're using a RangeHasher.
+        RangeHasher rangeHasher = new RangeHasher(catalogContext, NUM_PARTITIONS);
+        long splits[] = { 10, 20, 30 };
+        int range_partitions[] = { 3, 2, 1, 0 };
+        rangeHasher.setRanges(this.getTable(TPCCConstants.TABLENAME_WAREHOUSE), splits, range_partitions);
+        rangeHasher.setRanges(this.getTable(TPCCConstants.TABLENAME_DISTRICT), splits, range_partitions);
+        PartitionEstimator estimator = new PartitionEstimator(catalogContext, rangeHasher);
+        
+        // W_ID >= ? AND W_ID < ?
+        Statement catalog_stmt = CollectionUtil.first(this.getProcedure("ParamRange").getStatements());
+        estimator.getAllPartitions(partitions, catalog_stmt, new Object[] { 10, 20 }, BASE_PARTITION);
+        assertEquals(PartitionSet.singleton(2), partitions);
+        
+        partitions.clear();
+        estimator.getAllPartitions(partitions, catalog_stmt, new Object[] { 5, 21 }, BASE_PARTITION);
+        assertEquals(new PartitionSet(1, 2, 3), partitions);
+        
+        // ? < D_W_ID AND D_W_ID <= ?
+        catalog_stmt = CollectionUtil.first(this.getProcedure("ReversedParamRange").getStatements());
+        partitions.clear();
+        estimator.getAllPartitions(partitions, catalog_stmt, new Object[] { 9, 19 }, BASE_PARTITION);
+        assertEquals(PartitionSet.singleton(2), partitions);
+        
+        partitions.clear();
+        estimator.getAllPartitions(partitions, catalog_stmt, new Object[] { 19, 30 }, BASE_PARTITION);
+        assertEquals(new PartitionSet(0, 1), partitions);
+        
+        // Without ranges we have to go everywhere
+        partitions.clear();
+        p_estimator.getAllPartitions(partitions, catalog_stmt, new Object[] { 9, 19 }, BASE_PARTITION);
+        assertEquals(catalogContext.getAllPartitionIds(), partitions);
+    }
+    
     /**
      * testMultiAttributePartitioning
      */
@@ -9,6 +9,10 @@ import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
 
+import org.json.JSONObject;
+import org.voltdb.messaging.FastDeserializer;
+import org.voltdb.messaging.FastSerializer;
+
 import edu.brown.hstore.HStoreConstants;
 
 import junit.framework.TestCase;
@@ -325,6 +329,78 @@ public class TestPartitionSet extends TestCase {
         this._removeAll(new PartitionSet());
     }
     
+    /**
+     * testNext
+     */
+    public void testNext() {
+        this.initialize(rand.nextInt(NUM_PARTITIONS*3));
+        pset.add(HStoreConstants.NULL_PARTITION_ID);
+        
+        Set<Integer> seen = new TreeSet<Integer>();
+        int last = -1;
+        for (int p = pset.next(0); p != HStoreConstants.NULL_PARTITION_ID; p = pset.next(p+1)) {
+            assertTrue(Integer.toString(p), p > last);
+            assertTrue(Integer.toString(p), set.contains(p));
+            seen.add(p);
+            last = p;
+        } // FOR
+        assertEquals(set, seen);
+        assertEquals(HStoreConstants.NULL_PARTITION_ID, pset.next(NUM_PARTITIONS * 100));
+    }
+    
+    /**
+     * testSetOperations
+     */
+    public void testSetOperations() {
+        // Make sure that we span multiple words
+        PartitionSet pset0 = new PartitionSet(new int[]{ 1, 63, 64, 130 });
+        PartitionSet pset1 = new PartitionSet(new int[]{ 63, 130 });
+        PartitionSet pset2 = new PartitionSet(new int[]{ 2, 200 });
+        
+        assertTrue(pset0.containsAll(pset1));
+        assertFalse(pset1.containsAll(pset0));
+        assertTrue(pset0.containsAll(new PartitionSet()));
+        assertFalse(pset0.containsAll(pset2));
+        assertTrue(pset0.intersects(pset1));
+        assertFalse(pset0.intersects(pset2));
+        
+        PartitionSet union = new PartitionSet(pset1);
+        union.addAll(pset2);
+        assertEquals(4, union.size());
+        assertTrue(union.contains(200));
+        assertEquals(new PartitionSet(new int[]{ 2, 63, 130, 200 }), union);
+        
+        PartitionSet intersect = new PartitionSet(pset0);
+        intersect.retainAll(union);
+        assertEquals(pset1, intersect);
+        assertEquals(pset1.hashCode(), intersect.hashCode());
+        assertEquals(2, intersect.values().length);
+        
+        PartitionSet nullSet = new PartitionSet(pset1);
+        nullSet.add(HStoreConstants.NULL_PARTITION_ID);
+        assertFalse(pset1.equals(nullSet));
+        assertFalse(pset0.containsAll(nullSet));
+        assertTrue(nullSet.containsAll(pset1));
+    }
+    
+    /**
+     * testSerialization
+     */
+    public void testSerialization() throws Exception {
+        this.initialize(rand.nextInt(NUM_PARTITIONS*3));
+        pset.add(HStoreConstants.NULL_PARTITION_ID);
+        
+        FastSerializer out = new FastSerializer();
+        pset.writeExternal(out);
+        PartitionSet clone = new PartitionSet();
+        clone.readExternal(new FastDeserializer(out.getBytes()));
+        assertEquals(pset, clone);
+        
+        clone = new PartitionSet();
+        clone.fromJSON(new JSONObject(pset.toJSONString()), null);
+        assertEquals(pset, clone);
+    }
+    
     /**
      * testParse
      */
@@ -24,6 +24,7 @@
 package org.voltdb;
 
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import junit.framework.TestCase;
@@ -513,6 +514,50 @@ public class TestVoltTable extends TestCase {
         item_data.addRow("asdfsdgfsdg", 123L, "a", 45.0d, 656.2d);
     }
 
+    public void testViewAndCopy() {
+        VoltTable orig = new VoltTable(
+                new ColumnInfo("id", VoltType.BIGINT),
+                new ColumnInfo("name", VoltType.STRING)
+        );
+        for (long i = 0; i < 10; i++) {
+            orig.addRow(i, "name" + i);
+        }
+        assertFalse(orig.isView());
+
+        // Put the table in the middle of a larger direct buffer, just like
+        // the EE does with its result buffer
+        ByteBuffer data = orig.getTableDataReference();
+        data.limit(orig.getUnderlyingBufferSize());
+        ByteBuffer shared = ByteBuffer.allocateDirect(data.remaining() + 128);
+        shared.position(64);
+        ByteBuffer slice = shared.slice();
+        slice.put(data);
+        slice.flip();
+
+        VoltTable view = PrivateVoltTableFactory.createVoltTableViewOfBuffer(slice);
+        assertTrue(view.isView());
+        assertEquals(orig.getRowCount(), view.getRowCount());
+        assertEquals(7L, view.fetchRow(7).getLong(0));
+        assertEquals("name7", view.fetchRow(7).getString(1));
+        try {
+            view.addRow(11L, "name11");
+            fail("Able to add a row to a view");
+        } catch (IllegalStateException ex) {
+            // Expected
+        }
+
+        VoltTable copy = view.copy();
+        assertFalse(copy.isView());
+        assertTrue(copy.hasSameContents(orig));
+
+        // The copy should not change when the shared buffer is reused
+        for (int i = 0; i < shared.capacity(); i++) {
+            shared.put(i, (byte)0);
+        }
+        assertTrue(copy.hasSameContents(orig));
+        assertEquals("name7", copy.fetchRow(7).getString(1));
+    }
+
     public void testRowIterator() {
 
         // Test iteration of empty table
@@ -0,0 +1,91 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2010 VoltDB L.L.C.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.planner;
+
+import junit.framework.TestCase;
+
+import org.voltdb.catalog.CatalogMap;
+import org.voltdb.catalog.Cluster;
+import org.voltdb.catalog.Table;
+import org.voltdb.plannodes.AbstractPlanNode;
+import org.voltdb.types.PlanNodeType;
+
+public class TestPlansHashJoin extends TestCase {
+
+    private PlannerTestAideDeCamp aide;
+
+    private AbstractPlanNode compile(String sql, int paramCount) {
+        AbstractPlanNode pn = null;
+        try {
+            pn =  aide.compile(sql, paramCount);
+        }
+        catch (Exception ex) {
+            ex.printStackTrace();
+            fail();
+        }
+        assertTrue(pn != null);
+        return pn;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        aide = new PlannerTestAideDeCamp(TestPlansHashJoin.class.getResource("testplans-hashjoin-ddl.sql"), "testplanshashjoin");
+
+        // Set all tables to replicated.
+        Cluster cluster = aide.getCatalog().getClusters().get("cluster");
+        CatalogMap<Table> tmap = cluster.getDatabases().get("database").getTables();
+        for (Table t : tmap) {
+            t.setIsreplicated(true);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        aide.tearDown();
+    }
+
+    public void testEquiJoinWithoutIndex() {
+        AbstractPlanNode pn = compile("SELECT * FROM A, B WHERE A.A_VAL = B.B_VAL", 0);
+        assertFalse(pn.findAllNodesOfType(PlanNodeType.HASHJOIN).isEmpty());
+        assertTrue(pn.findAllNodesOfType(PlanNodeType.NESTLOOP).isEmpty());
+    }
+
+    public void testEquiJoinWithFilter() {
+        AbstractPlanNode pn = compile("SELECT * FROM A, B WHERE A.A_VAL = B.B_VAL AND B.B_NAME = ?", 1);
+        assertFalse(pn.findAllNodesOfType(PlanNodeType.HASHJOIN).isEmpty());
+    }
+
+    public void testEquiJoinWithIndex() {
+        AbstractPlanNode pn = compile("SELECT * FROM A, B WHERE A.A_ID = B.B_ID", 0);
+        assertFalse(pn.findAllNodesOfType(PlanNodeType.NESTLOOPINDEX).isEmpty());
+        assertTrue(pn.findAllNodesOfType(PlanNodeType.HASHJOIN).isEmpty());
+    }
+
+    public void testNonEquiJoin() {
+        AbstractPlanNode pn = compile("SELECT * FROM A, B WHERE A.A_VAL < B.B_VAL", 0);
+        assertFalse(pn.findAllNodesOfType(PlanNodeType.NESTLOOP).isEmpty());
+        assertTrue(pn.findAllNodesOfType(PlanNodeType.HASHJOIN).isEmpty());
+    }
+}
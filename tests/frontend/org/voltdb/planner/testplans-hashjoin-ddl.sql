@@ -0,0 +1,12 @@
+CREATE TABLE A (
+        A_ID   INTEGER NOT NULL,
+        A_VAL  INTEGER NOT NULL,
+        CONSTRAINT A_PK PRIMARY KEY (A_ID)
+);
+
+CREATE TABLE B (
+        B_ID   INTEGER NOT NULL,
+        B_VAL  BIGINT NOT NULL,
+        B_NAME VARCHAR(16),
+        CONSTRAINT B_PK PRIMARY KEY (B_ID)
+);